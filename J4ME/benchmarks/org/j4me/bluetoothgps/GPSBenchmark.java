@@ -0,0 +1,947 @@
+package org.j4me.bluetoothgps;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+/**
+ * Measures the speed and memory use of the GPS parsing pipeline.  It runs
+ * on a standard JVM, not a phone, so it needs Java 5 or later.
+ * <p>
+ * The code it measures uses the MIDP, JSR 82 (Bluetooth), and JSR 179
+ * (location) APIs.  Their jars must be on the classpath to compile and
+ * run it, although none of them is called.  The Sun Java Wireless Toolkit
+ * has them in its <code>lib</code> directory.  Set <code>WTK</code> to the
+ * toolkit and, from the <code>J4ME</code> directory, build and run it with:
+ * <pre>
+ *  API=$WTK/lib/cldcapi11.jar:$WTK/lib/midpapi20.jar:$WTK/lib/jsr082.jar:$WTK/lib/jsr179.jar
+ *  mkdir -p benchmarks/classes
+ *  javac -encoding ISO-8859-1 -cp $API -d benchmarks/classes \
+ *    `find src/org/j4me/bluetoothgps src/org/j4me/util src/org/j4me/logging src/org/j4me/collections benchmarks -name "*.java"`
+ *  java -cp benchmarks/classes:$API org.j4me.bluetoothgps.GPSBenchmark [-millis n] [-baseline file] [-save file]
+ * </pre>
+ * <p>
+ * On Windows use ';' rather than ':' between the jars.
+ * <p>
+ * Each benchmark is warmed up and then run repeatedly for a fixed time.
+ * The results are:
+ * <ul>
+ *  <li><i>ops/sec</i> - sentences parsed a second or, for the conversion
+ *      benchmarks, calls a second.
+ *  <li><i>ns/op</i> - nanoseconds for each sentence or call.
+ *  <li><i>bytes/fix</i> - bytes allocated for each RMC fix or, for the
+ *      conversion benchmarks, for each call.
+ * </ul>
+ * <p>
+ * The track simplification benchmarks count each point of an hour long
+ * drive as an operation and also show how many points were kept.
+ * <p>
+ * The distance benchmarks count each point measured as an operation.  The
+ * haversine one is how distances were measured before nearby points were
+ * treated as flat; the others show their largest difference from it.
+ * <p>
+ * The results are compared to a stored baseline, <code>benchmarks/baseline.txt</code>
+ * by default, so the effect of a change to the parser can be seen.  Use
+ * <code>-save</code> to record a new baseline.  The numbers depend on the
+ * machine so only compare runs made on the same one.
+ */
+public class GPSBenchmark
+{
+	/**
+	 * The default file with the baseline results.
+	 */
+	private static final String BASELINE = "benchmarks/baseline.txt";
+
+	/**
+	 * How long to run each benchmark before measuring it.
+	 */
+	private static final int WARMUP_MILLIS = 1000;
+
+	/**
+	 * How long to measure each benchmark by default.
+	 */
+	private static final int MEASURE_MILLIS = 3000;
+
+	/**
+	 * The number of fixes in each corpus.
+	 */
+	private static final int CORPUS_FIXES = 500;
+
+	/**
+	 * The number of points in the track simplified.  An hour at 1 Hz.
+	 */
+	private static final int TRACK_POINTS = 3600;
+
+	/**
+	 * The tolerance, in meters, the track is simplified to.
+	 */
+	private static final float TRACK_TOLERANCE = 10;
+
+	/**
+	 * The number of points measured to, such as the corners of geofences.
+	 */
+	private static final int DISTANCE_POINTS = 1000;
+
+	/**
+	 * How far away, in meters, the nearby points are.
+	 */
+	private static final double NEARBY_METERS = 5000;
+
+	/**
+	 * The point distances are measured from.
+	 */
+	private static final double ORIGIN_LATITUDE = 37.7;
+	private static final double ORIGIN_LONGITUDE = -122.4;
+
+	/**
+	 * The sizes of the benchmark names and result columns.
+	 */
+	private static final int NAME_WIDTH = 28;
+	private static final int COLUMN_WIDTH = 14;
+
+	/**
+	 * Results are written here so the JIT cannot remove the work.
+	 */
+	static long sink;
+
+	/**
+	 * One thing to measure.
+	 */
+	private static abstract class Benchmark
+	{
+		/**
+		 * The name of the benchmark.  It is the key in the baseline file.
+		 */
+		final String name;
+
+		/**
+		 * The number of operations in each pass.
+		 */
+		final int operations;
+
+		/**
+		 * The number of fixes in each pass.
+		 */
+		final int fixes;
+
+		Benchmark (String name, int operations, int fixes)
+		{
+			this.name = name;
+			this.operations = operations;
+			this.fixes = fixes;
+		}
+
+		/**
+		 * Does the work once.
+		 */
+		abstract void pass ();
+
+		/**
+		 * @return Anything to show after the results or <code>null</code>.
+		 */
+		String note ()
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * The measurements of a benchmark.
+	 */
+	private static final class Result
+	{
+		final String name;
+		final double operationsPerSecond;
+		final double nanosPerOperation;
+		final double bytesPerFix;
+
+		Result (String name, double operationsPerSecond, double nanosPerOperation, double bytesPerFix)
+		{
+			this.name = name;
+			this.operationsPerSecond = operationsPerSecond;
+			this.nanosPerOperation = nanosPerOperation;
+			this.bytesPerFix = bytesPerFix;
+		}
+	}
+
+	/**
+	 * Runs the benchmarks.
+	 *
+	 * @param args are the command line options.
+	 * @throws IOException if the baseline cannot be read or saved.
+	 */
+	public static void main (String[] args)
+		throws IOException
+	{
+		int millis = MEASURE_MILLIS;
+		String baselineFile = BASELINE;
+		String saveFile = null;
+
+		for ( int i = 0; i < args.length; i++ )
+		{
+			if ( args[i].equals("-millis") && (i + 1 < args.length) )
+			{
+				millis = Integer.parseInt( args[++i] );
+			}
+			else if ( args[i].equals("-baseline") && (i + 1 < args.length) )
+			{
+				baselineFile = args[++i];
+			}
+			else if ( args[i].equals("-save") && (i + 1 < args.length) )
+			{
+				saveFile = args[++i];
+			}
+			else
+			{
+				System.err.println("Usage:  GPSBenchmark [-millis n] [-baseline file] [-save file]");
+				System.exit( 1 );
+			}
+		}
+
+		Hashtable baseline = readBaseline( baselineFile );
+		Benchmark[] benchmarks = createBenchmarks();
+		Vector results = new Vector();
+
+		System.out.println( pad("benchmark", NAME_WIDTH) + pad("ops/sec", COLUMN_WIDTH) +
+				pad("ns/op", COLUMN_WIDTH) + pad("bytes/fix", COLUMN_WIDTH) + "vs. baseline" );
+
+		for ( int i = 0; i < benchmarks.length; i++ )
+		{
+			Result result = measure( benchmarks[i], millis );
+			results.addElement( result );
+
+			String line = pad( result.name, NAME_WIDTH ) +
+				pad( format(result.operationsPerSecond, 0), COLUMN_WIDTH ) +
+				pad( format(result.nanosPerOperation, 1), COLUMN_WIDTH ) +
+				pad( format(result.bytesPerFix, 1), COLUMN_WIDTH );
+
+			Result previous = (Result)baseline.get( result.name );
+
+			if ( previous != null )
+			{
+				line += "time " + change( previous.nanosPerOperation, result.nanosPerOperation ) +
+					"  memory " + change( previous.bytesPerFix, result.bytesPerFix );
+			}
+
+			String note = benchmarks[i].note();
+
+			if ( note != null )
+			{
+				line += "  (" + note + ")";
+			}
+
+			System.out.println( line );
+		}
+
+		if ( saveFile != null )
+		{
+			saveBaseline( saveFile, results );
+			System.out.println( "Saved baseline to " + saveFile );
+		}
+	}
+
+	/**
+	 * @return All the benchmarks.
+	 */
+	private static Benchmark[] createBenchmarks ()
+	{
+		NMEACorpus realistic = NMEACorpus.createRealistic( CORPUS_FIXES );
+		NMEACorpus multi = NMEACorpus.createMultiConstellation( CORPUS_FIXES );
+		NMEACorpus binary = NMEACorpus.createSiRFBinary( CORPUS_FIXES );
+
+		return new Benchmark[] {
+				parse( realistic ),
+				parse( multi ),
+				pipeline( realistic ),
+				pipeline( multi ),
+				parseBinary( binary ),
+				pipelineBinary( binary ),
+				convertToDegrees(),
+				convertUTCTime(),
+				simplifyStream( TRACK_TOLERANCE ),
+				simplifyStream( 0 ),
+				simplifyBatch(),
+				distanceHaversine(),
+				distanceCoordinates(),
+				distanceBatch( "distance.batch", NEARBY_METERS ),
+				distanceBatch( "distance.batch-far", 0 ),
+			};
+	}
+
+	/**
+	 * Creates a benchmark of <code>NMEAParser.parse</code> alone.
+	 *
+	 * @param corpus is the data to parse.
+	 * @return The benchmark.
+	 */
+	private static Benchmark parse (final NMEACorpus corpus)
+	{
+		final NMEAParser parser = new NMEAParser();
+
+		return new Benchmark( "parse." + corpus.getName(), corpus.getSentenceCount(), corpus.getFixCount() )
+			{
+				void pass ()
+				{
+					sink += parseCorpus( parser, corpus );
+				}
+			};
+	}
+
+	/**
+	 * Creates a benchmark of the parser feeding <code>BluetoothGPS.processRecord</code>
+	 * which makes the <code>Location</code> objects.
+	 *
+	 * @param corpus is the data to parse.
+	 * @return The benchmark.
+	 */
+	private static Benchmark pipeline (final NMEACorpus corpus)
+	{
+		final NMEAParser parser = new NMEAParser();
+		final BluetoothGPS gps = new BluetoothGPS( new BluetoothLocationProvider(), "benchmark", null );
+		parser.setRecordListener( gps );
+
+		return new Benchmark( "pipeline." + corpus.getName(), corpus.getSentenceCount(), corpus.getFixCount() )
+			{
+				void pass ()
+				{
+					sink += parseCorpus( parser, corpus );
+					sink += gps.getLastKnownLocation().getTimestamp();
+				}
+			};
+	}
+
+	/**
+	 * Creates a benchmark of <code>SiRFBinaryParser.parse</code> alone.
+	 *
+	 * @param corpus is the binary data to parse.
+	 * @return The benchmark.
+	 */
+	private static Benchmark parseBinary (final NMEACorpus corpus)
+	{
+		final SiRFBinaryParser parser = new SiRFBinaryParser( new NMEAParser() );
+
+		return new Benchmark( "parse." + corpus.getName(), corpus.getSentenceCount(), corpus.getFixCount() )
+			{
+				void pass ()
+				{
+					sink += parseCorpus( parser, corpus );
+				}
+			};
+	}
+
+	/**
+	 * Creates a benchmark of the SiRF binary parser feeding
+	 * <code>BluetoothGPS.processRecord</code>.
+	 *
+	 * @param corpus is the binary data to parse.
+	 * @return The benchmark.
+	 */
+	private static Benchmark pipelineBinary (final NMEACorpus corpus)
+	{
+		final SiRFBinaryParser parser = new SiRFBinaryParser( new NMEAParser() );
+		final BluetoothGPS gps = new BluetoothGPS( new BluetoothLocationProvider(), "benchmark", null );
+		parser.setRecordListener( gps );
+
+		return new Benchmark( "pipeline." + corpus.getName(), corpus.getSentenceCount(), corpus.getFixCount() )
+			{
+				void pass ()
+				{
+					sink += parseCorpus( parser, corpus );
+					sink += gps.getLastKnownLocation().getTimestamp();
+				}
+			};
+	}
+
+	/**
+	 * Parses a binary corpus in pieces the size <code>BluetoothGPS</code> reads.
+	 *
+	 * @param parser is the parser to use.
+	 * @param corpus is the data to parse.
+	 * @return The types of messages parsed.
+	 */
+	private static int parseCorpus (SiRFBinaryParser parser, NMEACorpus corpus)
+	{
+		byte[] data = corpus.getData();
+		int types = 0;
+
+		for ( int offset = 0; offset < data.length; offset += NMEAParser.OUTPUT_BUFFER_MAX_SIZE )
+		{
+			int size = Math.min( NMEAParser.OUTPUT_BUFFER_MAX_SIZE, data.length - offset );
+			types |= parser.parse( data, offset, size );
+		}
+
+		return types;
+	}
+
+	/**
+	 * Parses a corpus in pieces the size <code>BluetoothGPS</code> reads.
+	 *
+	 * @param parser is the parser to use.
+	 * @param corpus is the data to parse.
+	 * @return The types of sentences parsed.
+	 */
+	private static int parseCorpus (NMEAParser parser, NMEACorpus corpus)
+	{
+		byte[] data = corpus.getData();
+		int types = 0;
+
+		for ( int offset = 0; offset < data.length; offset += NMEAParser.OUTPUT_BUFFER_MAX_SIZE )
+		{
+			int size = Math.min( NMEAParser.OUTPUT_BUFFER_MAX_SIZE, data.length - offset );
+			types |= parser.parse( data, offset, size );
+		}
+
+		return types;
+	}
+
+	/**
+	 * @return A benchmark of <code>BluetoothGPS.convertToDegress</code>.
+	 */
+	private static Benchmark convertToDegrees ()
+	{
+		final String[] values = { "3746.0171", "12226.1278", "0002.5000", "17959.9999" };
+		final char[] directions = { 'N', 'W', 'S', 'E' };
+
+		return new Benchmark( "convertToDegress", values.length, values.length )
+			{
+				void pass ()
+				{
+					for ( int i = 0; i < values.length; i++ )
+					{
+						sink += (long)BluetoothGPS.convertToDegress( values[i], directions[i] );
+					}
+				}
+			};
+	}
+
+	/**
+	 * @return A benchmark of <code>BluetoothGPS.convertUTCTime</code>.
+	 */
+	private static Benchmark convertUTCTime ()
+	{
+		final String[] dates = { "140207", "010100", "311299", "290208" };
+		final String[] times = { "063559.998", "000000", "235959.5", "120000.25" };
+
+		return new Benchmark( "convertUTCTime", dates.length, dates.length )
+			{
+				void pass ()
+				{
+					for ( int i = 0; i < dates.length; i++ )
+					{
+						sink += BluetoothGPS.convertUTCTime( dates[i], times[i] );
+					}
+				}
+			};
+	}
+
+	/**
+	 * Makes an hour's drive at 1 Hz.  It goes along straight roads with
+	 * bends, turns and stops, and each fix has a few meters of noise.
+	 *
+	 * @param lats gets the latitudes.
+	 * @param lons gets the longitudes.
+	 */
+	private static void createTrack (double[] lats, double[] lons)
+	{
+		final double degreesPerMeter = 1.0 / 111195;
+		Random random = new Random( 42 );
+		double lat = 37.7;
+		double lon = -122.4;
+		double heading = 0;
+		double speed = 15;
+
+		for ( int i = 0; i < lats.length; i++ )
+		{
+			int minute = i / 60;
+
+			if ( minute % 10 == 9 )
+			{
+				// Stopped at lights.
+				speed = 0;
+			}
+			else if ( i % 120 == 0 )
+			{
+				// Turn onto another road.
+				heading += (random.nextBoolean() ? 90 : -90);
+				speed = 10 + random.nextInt( 20 );
+			}
+			else
+			{
+				// Gentle bends.
+				heading += Math.sin( i / 15.0 ) * 2;
+				speed = Math.max( speed, 10 );
+			}
+
+			double radians = Math.toRadians( heading );
+			lat += speed * Math.cos( radians ) * degreesPerMeter;
+			lon += speed * Math.sin( radians ) * degreesPerMeter / Math.cos( Math.toRadians(lat) );
+
+			lats[i] = lat + random.nextGaussian() * 3 * degreesPerMeter;
+			lons[i] = lon + random.nextGaussian() * 3 * degreesPerMeter;
+		}
+	}
+
+	/**
+	 * @param kept is the number of points kept.
+	 * @return The points kept as a note.
+	 */
+	private static String kept (int kept)
+	{
+		return "kept " + kept + " of " + TRACK_POINTS + " points, " +
+			format( kept * 100.0 / TRACK_POINTS, 1 ) + "%";
+	}
+
+	/**
+	 * Creates a benchmark of <code>TrackSimplifier</code> simplifying a
+	 * track as it arrives.
+	 *
+	 * @param radialTolerance is the radial filter's tolerance.  0 measures
+	 *  Douglas-Peucker alone.
+	 * @return The benchmark.
+	 */
+	private static Benchmark simplifyStream (float radialTolerance)
+	{
+		final double[] lats = new double[TRACK_POINTS];
+		final double[] lons = new double[TRACK_POINTS];
+		createTrack( lats, lons );
+
+		final int[] count = new int[1];
+		TrackPointListener counter = new TrackPointListener()
+			{
+				public void pointKept (double latitude, double longitude, long timestamp, float accuracy)
+				{
+					count[0]++;
+				}
+			};
+
+		final TrackSimplifier simplifier = new TrackSimplifier(
+				counter, TRACK_TOLERANCE, radialTolerance, TrackSimplifier.WINDOW );
+		String name = (radialTolerance > 0) ? "simplify.stream" : "simplify.stream-dp";
+
+		return new Benchmark( name, TRACK_POINTS, TRACK_POINTS )
+			{
+				void pass ()
+				{
+					count[0] = 0;
+
+					for ( int i = 0; i < TRACK_POINTS; i++ )
+					{
+						simplifier.add( lats[i], lons[i], i, Float.NaN );
+					}
+
+					simplifier.flush();
+					sink += count[0];
+				}
+
+				String note ()
+				{
+					return kept( count[0] );
+				}
+			};
+	}
+
+	/**
+	 * @return A benchmark of <code>TrackSimplifier.simplify</code> on a
+	 *  recorded track.
+	 */
+	private static Benchmark simplifyBatch ()
+	{
+		final double[] lats = new double[TRACK_POINTS];
+		final double[] lons = new double[TRACK_POINTS];
+		final boolean[] keep = new boolean[TRACK_POINTS];
+		final int[] count = new int[1];
+		createTrack( lats, lons );
+
+		return new Benchmark( "simplify.batch", TRACK_POINTS, TRACK_POINTS )
+			{
+				void pass ()
+				{
+					count[0] = TrackSimplifier.simplify( lats, lons, TRACK_POINTS, TRACK_TOLERANCE, keep );
+					sink += count[0];
+				}
+
+				String note ()
+				{
+					return kept( count[0] );
+				}
+			};
+	}
+
+	/**
+	 * Makes points scattered around an origin in San Francisco.
+	 *
+	 * @param lats gets the latitudes.
+	 * @param lons gets the longitudes.
+	 * @param meters is how far away the points can be.  0 scatters them
+	 *  across the world.
+	 */
+	private static void createPoints (double[] lats, double[] lons, double meters)
+	{
+		final double degreesPerMeter = 1.0 / 111195;
+		Random random = new Random( 7 );
+
+		for ( int i = 0; i < lats.length; i++ )
+		{
+			if ( meters > 0 )
+			{
+				lats[i] = ORIGIN_LATITUDE + (random.nextDouble() * 2 - 1) * meters * degreesPerMeter;
+				lons[i] = ORIGIN_LONGITUDE + (random.nextDouble() * 2 - 1) * meters * degreesPerMeter /
+					Math.cos( Math.toRadians(ORIGIN_LATITUDE) );
+			}
+			else
+			{
+				lats[i] = random.nextDouble() * 170 - 85;
+				lons[i] = random.nextDouble() * 360 - 180;
+			}
+		}
+	}
+
+	/**
+	 * @param lats are the latitudes of the points.
+	 * @param lons are the longitudes of the points.
+	 * @param distances are the distances measured to them.
+	 * @return The largest difference from the haversine formula as a note.
+	 */
+	private static String error (double[] lats, double[] lons, float[] distances)
+	{
+		double worst = 0;
+		double worstRelative = 0;
+
+		for ( int i = 0; i < lats.length; i++ )
+		{
+			double haversine = Coordinates.haversine( ORIGIN_LATITUDE, ORIGIN_LONGITUDE, lats[i], lons[i] );
+			double error = Math.abs( distances[i] - haversine );
+			worst = Math.max( worst, error );
+			worstRelative = Math.max( worstRelative, error / haversine );
+		}
+
+		return "error up to " + format( worst, 3 ) + " m, " + format( worstRelative * 100, 5 ) + "%";
+	}
+
+	/**
+	 * @return A benchmark of the haversine formula that
+	 *  <code>Coordinates.distance</code> used for every pair of points.
+	 */
+	private static Benchmark distanceHaversine ()
+	{
+		final double[] lats = new double[DISTANCE_POINTS];
+		final double[] lons = new double[DISTANCE_POINTS];
+		createPoints( lats, lons, NEARBY_METERS );
+
+		return new Benchmark( "distance.haversine", DISTANCE_POINTS, DISTANCE_POINTS )
+			{
+				void pass ()
+				{
+					double total = 0;
+
+					for ( int i = 0; i < DISTANCE_POINTS; i++ )
+					{
+						total += Coordinates.haversine( ORIGIN_LATITUDE, ORIGIN_LONGITUDE, lats[i], lons[i] );
+					}
+
+					sink += (long)total;
+				}
+			};
+	}
+
+	/**
+	 * @return A benchmark of <code>Coordinates.distance</code> between
+	 *  nearby <code>Coordinates</code> objects.
+	 */
+	private static Benchmark distanceCoordinates ()
+	{
+		final double[] lats = new double[DISTANCE_POINTS];
+		final double[] lons = new double[DISTANCE_POINTS];
+		final Coordinates[] points = new Coordinates[DISTANCE_POINTS];
+		final float[] distances = new float[DISTANCE_POINTS];
+		final Coordinates origin = new Coordinates( ORIGIN_LATITUDE, ORIGIN_LONGITUDE, Float.NaN );
+		createPoints( lats, lons, NEARBY_METERS );
+
+		for ( int i = 0; i < DISTANCE_POINTS; i++ )
+		{
+			points[i] = new Coordinates( lats[i], lons[i], Float.NaN );
+		}
+
+		return new Benchmark( "distance.coordinates", DISTANCE_POINTS, DISTANCE_POINTS )
+			{
+				void pass ()
+				{
+					double total = 0;
+
+					for ( int i = 0; i < DISTANCE_POINTS; i++ )
+					{
+						distances[i] = origin.distance( points[i] );
+						total += distances[i];
+					}
+
+					sink += (long)total;
+				}
+
+				String note ()
+				{
+					return error( lats, lons, distances );
+				}
+			};
+	}
+
+	/**
+	 * Creates a benchmark of <code>Coordinates.distances</code>.
+	 *
+	 * @param name is the name of the benchmark.
+	 * @param meters is how far away the points are.  0 scatters them across
+	 *  the world so none are near enough to treat the earth as flat.
+	 * @return The benchmark.
+	 */
+	private static Benchmark distanceBatch (String name, double meters)
+	{
+		final double[] lats = new double[DISTANCE_POINTS];
+		final double[] lons = new double[DISTANCE_POINTS];
+		final float[] distances = new float[DISTANCE_POINTS];
+		final Coordinates origin = new Coordinates( ORIGIN_LATITUDE, ORIGIN_LONGITUDE, Float.NaN );
+		createPoints( lats, lons, meters );
+
+		return new Benchmark( name, DISTANCE_POINTS, DISTANCE_POINTS )
+			{
+				void pass ()
+				{
+					origin.distances( DISTANCE_POINTS, lats, lons, distances );
+					sink += (long)distances[DISTANCE_POINTS - 1];
+				}
+
+				String note ()
+				{
+					return error( lats, lons, distances );
+				}
+			};
+	}
+
+	/**
+	 * Warms up and then measures a benchmark.
+	 *
+	 * @param benchmark is what to measure.
+	 * @param millis is how long to measure it.
+	 * @return The measurements.
+	 */
+	private static Result measure (Benchmark benchmark, int millis)
+	{
+		// Let the JIT compile the code.
+		long end = System.currentTimeMillis() + WARMUP_MILLIS;
+
+		while ( System.currentTimeMillis() < end )
+		{
+			benchmark.pass();
+		}
+
+		System.gc();
+
+		long startBytes = allocatedBytes();
+		long start = System.nanoTime();
+		long stop = start + millis * 1000000L;
+		long passes = 0;
+		long now;
+
+		do
+		{
+			benchmark.pass();
+			passes++;
+			now = System.nanoTime();
+		} while ( now < stop );
+
+		long bytes = allocatedBytes() - startBytes;
+		double nanos = now - start;
+		double operations = (double)passes * benchmark.operations;
+
+		return new Result(
+				benchmark.name,
+				operations * 1e9 / nanos,
+				nanos / operations,
+				Math.max( 0, bytes ) / ((double)passes * benchmark.fixes) );
+	}
+
+	/**
+	 * The JVM's count of bytes allocated by the current thread.  It is
+	 * <code>null</code> if the JVM does not have one.
+	 */
+	private static Method threadAllocatedBytes;
+	private static Object threadBean;
+
+	static
+	{
+		try
+		{
+			Class management = Class.forName( "java.lang.management.ManagementFactory" );
+			threadBean = management.getMethod( "getThreadMXBean", new Class[0] ).invoke( null, new Object[0] );
+			threadAllocatedBytes = Class.forName( "com.sun.management.ThreadMXBean" )
+				.getMethod( "getThreadAllocatedBytes", new Class[] { long.class } );
+			allocatedBytes();
+		}
+		catch (Throwable t)
+		{
+			threadAllocatedBytes = null;
+		}
+	}
+
+	/**
+	 * Returns the number of bytes allocated by this thread so far.  If the
+	 * JVM cannot count them the heap in use is returned.  It is only
+	 * accurate if there is no garbage collection while measuring.
+	 *
+	 * @return A count of bytes that increases as objects are created.
+	 */
+	private static long allocatedBytes ()
+	{
+		if ( threadAllocatedBytes != null )
+		{
+			try
+			{
+				Object[] id = new Object[] { new Long(Thread.currentThread().getId()) };
+				return ((Long)threadAllocatedBytes.invoke( threadBean, id )).longValue();
+			}
+			catch (Exception e)
+			{
+				threadAllocatedBytes = null;
+			}
+		}
+
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Reads the stored baseline results.
+	 *
+	 * @param file is the baseline file.
+	 * @return The results keyed by benchmark name.  It is empty if the file
+	 *  does not exist.
+	 * @throws IOException if the file cannot be read.
+	 */
+	private static Hashtable readBaseline (String file)
+		throws IOException
+	{
+		Hashtable baseline = new Hashtable();
+
+		if ( new File(file).exists() == false )
+		{
+			return baseline;
+		}
+
+		BufferedReader reader = new BufferedReader( new FileReader(file) );
+
+		try
+		{
+			String line;
+
+			while ( (line = reader.readLine()) != null )
+			{
+				line = line.trim();
+
+				if ( (line.length() == 0) || line.startsWith("#") )
+				{
+					continue;
+				}
+
+				StringTokenizer tokens = new StringTokenizer( line );
+				String name = tokens.nextToken();
+				double operationsPerSecond = Double.parseDouble( tokens.nextToken() );
+				double nanosPerOperation = Double.parseDouble( tokens.nextToken() );
+				double bytesPerFix = Double.parseDouble( tokens.nextToken() );
+
+				baseline.put( name, new Result(name, operationsPerSecond, nanosPerOperation, bytesPerFix) );
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+
+		return baseline;
+	}
+
+	/**
+	 * Writes the results as the new baseline.
+	 *
+	 * @param file is the baseline file.
+	 * @param results are the <code>Result</code> objects to save.
+	 * @throws IOException if the file cannot be written.
+	 */
+	private static void saveBaseline (String file, Vector results)
+		throws IOException
+	{
+		PrintWriter writer = new PrintWriter( new FileWriter(file) );
+
+		try
+		{
+			writer.println( "# GPSBenchmark baseline:  name ops/sec ns/op bytes/fix" );
+
+			for ( int i = 0; i < results.size(); i++ )
+			{
+				Result result = (Result)results.elementAt( i );
+				writer.println( result.name + " " + format(result.operationsPerSecond, 0) + " " +
+						format(result.nanosPerOperation, 1) + " " + format(result.bytesPerFix, 1) );
+			}
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	/**
+	 * @param before is the baseline measurement.
+	 * @param after is the new measurement.
+	 * @return The percent change such as "+5.2%".
+	 */
+	private static String change (double before, double after)
+	{
+		if ( before == 0 )
+		{
+			return (after == 0) ? "same" : "+" + format( after, 1 ) + " bytes";
+		}
+
+		double percent = (after - before) * 100 / before;
+		return ((percent >= 0) ? "+" : "") + format( percent, 1 ) + "%";
+	}
+
+	/**
+	 * @param value is a number.
+	 * @param decimals is the number of digits after the decimal point.
+	 * @return <code>value</code> rounded to <code>decimals</code> places.
+	 */
+	private static String format (double value, int decimals)
+	{
+		long scale = 1;
+
+		for ( int i = 0; i < decimals; i++ )
+		{
+			scale *= 10;
+		}
+
+		long fixed = Math.round( Math.abs(value) * scale );
+		String sign = (value < 0) && (fixed != 0) ? "-" : "";
+
+		if ( decimals == 0 )
+		{
+			return sign + fixed;
+		}
+
+		String fraction = Long.toString( scale + fixed % scale ).substring( 1 );
+		return sign + (fixed / scale) + "." + fraction;
+	}
+
+	/**
+	 * @param text is a column value.
+	 * @param width is the column width.
+	 * @return <code>text</code> followed by spaces to fill the column.
+	 */
+	private static String pad (String text, int width)
+	{
+		StringBuffer padded = new StringBuffer( text );
+
+		do
+		{
+			padded.append( ' ' );
+		} while ( padded.length() < width );
+
+		return padded.toString();
+	}
+}
@@ -0,0 +1,318 @@
+package org.j4me.bluetoothgps;
+
+/**
+ * Creates NMEA data, and its SiRF binary equivalent, for the benchmarks.  The sentences follow what real
+ * receivers send so the parser does the same work it does on a phone.  The
+ * position, time, and signal strengths change every fix so nothing is
+ * repeated exactly.
+ */
+public class NMEACorpus
+{
+	/**
+	 * The talkers in the multi-constellation corpus and how many satellites
+	 * each has in view.
+	 */
+	private static final String[] MULTI_TALKERS = { "GP", "GL", "GA", "BD" };
+	private static final int[] MULTI_SATELLITES = { 11, 7, 6, 6 };
+
+	/**
+	 * The name of the corpus.
+	 */
+	private final String name;
+
+	/**
+	 * The NMEA data.
+	 */
+	private final byte[] data;
+
+	/**
+	 * The number of sentences in <code>data</code>.
+	 */
+	private final int sentences;
+
+	/**
+	 * The number of fixes in <code>data</code>.
+	 */
+	private final int fixes;
+
+	/**
+	 * Constructs a corpus.
+	 *
+	 * @param name describes the corpus.
+	 * @param data is the NMEA data.
+	 * @param sentences is the number of sentences in <code>data</code>.
+	 * @param fixes is the number of fixes in <code>data</code>.
+	 */
+	private NMEACorpus (String name, byte[] data, int sentences, int fixes)
+	{
+		this.name = name;
+		this.data = data;
+		this.sentences = sentences;
+		this.fixes = fixes;
+	}
+
+	/**
+	 * @return The name of the corpus.
+	 */
+	public String getName ()
+	{
+		return name;
+	}
+
+	/**
+	 * @return The NMEA data.
+	 */
+	public byte[] getData ()
+	{
+		return data;
+	}
+
+	/**
+	 * @return The number of sentences in the corpus.
+	 */
+	public int getSentenceCount ()
+	{
+		return sentences;
+	}
+
+	/**
+	 * @return The number of fixes in the corpus.  Each fix has one RMC
+	 *  sentence.
+	 */
+	public int getFixCount ()
+	{
+		return fixes;
+	}
+
+	/**
+	 * Creates the output of a typical consumer Bluetooth GPS.  It sends GGA,
+	 * GSA, three GSV, RMC, and VTG sentences from the GPS talker once a second.
+	 *
+	 * @param fixes is the number of fixes to create.
+	 * @return The corpus.
+	 */
+	public static NMEACorpus createRealistic (int fixes)
+	{
+		StringBuffer data = new StringBuffer();
+		int sentences = 0;
+
+		for ( int i = 0; i < fixes; i++ )
+		{
+			int millis = 22560000 + i * 1000;  // Starting at 06:16:00
+			String time = time( millis, 3 );
+			String latitude = angle( 3746.0171 + i * 0.0013, 4 );
+			String longitude = angle( 12226.1278 - i * 0.0021, 5 );
+
+			data.append( sentence("GPGGA," + time + "," + latitude + ",N," + longitude + ",W,1,08,1.1,59.7,M,-25.3,M,,0000") );
+			data.append( sentence("GPGSA,A,3,23,16,13,27,04,08,10,20,,,,,2.0,1.1,1.7") );
+			sentences += 2;
+
+			sentences += appendSatellites( data, "GP", 12, i );
+
+			data.append( sentence("GPRMC," + time + ",A," + latitude + ",N," + longitude + ",W,0.47,305.20,140207,,,A") );
+			data.append( sentence("GPVTG,305.20,T,,M,0.47,N,0.87,K,A") );
+			sentences += 2;
+		}
+
+		return new NMEACorpus( "realistic", data.toString().getBytes(), sentences, fixes );
+	}
+
+	/**
+	 * Creates the output of a 10 Hz multi-constellation receiver.  Each fix
+	 * has GNGGA, a GNGSA per system, GSV sentences from GPS, GLONASS, Galileo,
+	 * and BeiDou, GNRMC, GNVTG, and GNGLL.
+	 *
+	 * @param fixes is the number of fixes to create.  There are ten a second.
+	 * @return The corpus.
+	 */
+	public static NMEACorpus createMultiConstellation (int fixes)
+	{
+		StringBuffer data = new StringBuffer();
+		int sentences = 0;
+
+		for ( int i = 0; i < fixes; i++ )
+		{
+			int millis = 22560000 + i * 100;
+			String time = time( millis, 2 );
+			String latitude = angle( 3746.0171 + i * 0.00013, 5 );
+			String longitude = angle( 12226.1278 - i * 0.00021, 5 );
+
+			data.append( sentence("GNGGA," + time + "," + latitude + ",N," + longitude + ",W,2,24,0.6,59.7,M,-25.3,M,,0000") );
+			data.append( sentence("GNGSA,A,3,23,16,13,27,04,08,10,20,,,,,1.1,0.6,0.9,1") );
+			data.append( sentence("GNGSA,A,3,65,71,72,81,,,,,,,,,1.1,0.6,0.9,2") );
+			data.append( sentence("GNGSA,A,3,02,11,25,36,,,,,,,,,1.1,0.6,0.9,3") );
+			sentences += 4;
+
+			for ( int t = 0; t < MULTI_TALKERS.length; t++ )
+			{
+				sentences += appendSatellites( data, MULTI_TALKERS[t], MULTI_SATELLITES[t], i );
+			}
+
+			data.append( sentence("GNRMC," + time + ",A," + latitude + ",N," + longitude + ",W,12.31,47.20,140207,,,D") );
+			data.append( sentence("GNVTG,47.20,T,,M,12.31,N,22.80,K,D") );
+			data.append( sentence("GNGLL," + latitude + ",N," + longitude + ",W," + time + ",A,D") );
+			sentences += 3;
+		}
+
+		return new NMEACorpus( "multi-gnss-10hz", data.toString().getBytes(), sentences, fixes );
+	}
+
+	/**
+	 * Creates the output of a SiRF receiver switched to its binary protocol.
+	 * Each fix is one Geodetic Navigation Data message with the same
+	 * position as <code>createRealistic</code>.
+	 *
+	 * @param fixes is the number of fixes to create.
+	 * @return The corpus.
+	 */
+	public static NMEACorpus createSiRFBinary (int fixes)
+	{
+		byte[] data = null;
+		int length = 0;
+
+		for ( int i = 0; i < fixes; i++ )
+		{
+			int millis = 22560000 + i * 1000;  // Starting at 06:16:00
+
+			byte[] message = new byte[SiRFBinaryParser.GEODETIC_LENGTH];
+			message[0] = (byte)SiRFBinaryParser.MESSAGE_GEODETIC;
+			put( message, 11, 2, 2007 );
+			message[13] = 2;
+			message[14] = 14;
+			message[15] = (byte)(millis / 3600000);
+			message[16] = (byte)((millis / 60000) % 60);
+			put( message, 17, 2, millis % 60000 );
+			put( message, 23, 4, Math.round((37 + (46.0171 + i * 0.0013) / 60) * 10000000) );
+			put( message, 27, 4, -Math.round((122 + (26.1278 - i * 0.0021) / 60) * 10000000) );
+			put( message, 35, 4, 5970 );
+			put( message, 40, 2, 24 );
+			put( message, 42, 2, 30520 );
+			put( message, 50, 4, 550 );
+			put( message, 54, 4, 850 );
+			message[88] = 8;
+			message[89] = 5;
+
+			byte[] frame = SiRFBinaryParser.createFrame( message );
+
+			if ( data == null )
+			{
+				data = new byte[frame.length * fixes];
+			}
+
+			System.arraycopy( frame, 0, data, length, frame.length );
+			length += frame.length;
+		}
+
+		return new NMEACorpus( "sirf-binary", data, fixes, fixes );
+	}
+
+	/**
+	 * Writes a big-endian number.
+	 *
+	 * @param data is where to write it.
+	 * @param index is where the number starts.
+	 * @param length is the number of bytes.
+	 * @param value is the number.
+	 */
+	private static void put (byte[] data, int index, int length, long value)
+	{
+		for ( int i = length - 1; i >= 0; i-- )
+		{
+			data[index + i] = (byte)value;
+			value >>= 8;
+		}
+	}
+
+	/**
+	 * Adds the GSV sentences for one talker.
+	 *
+	 * @param data is where the sentences are added.
+	 * @param talker is the talker ID such as "GP".
+	 * @param satellites is the number of satellites in view.
+	 * @param fix is the fix number.  It varies the signal strengths.
+	 * @return The number of sentences added.
+	 */
+	private static int appendSatellites (StringBuffer data, String talker, int satellites, int fix)
+	{
+		int messages = (satellites + 3) / 4;
+
+		for ( int m = 0; m < messages; m++ )
+		{
+			StringBuffer gsv = new StringBuffer();
+			gsv.append( talker ).append( "GSV," ).append( messages ).append( ',' ).append( m + 1 ).append( ',' );
+			gsv.append( twoDigits(satellites) );
+
+			for ( int s = m * 4; (s < satellites) && (s < m * 4 + 4); s++ )
+			{
+				gsv.append( ',' ).append( twoDigits(s * 3 + 1) );  // PRN
+				gsv.append( ',' ).append( twoDigits((s * 17) % 90) );  // Elevation
+				gsv.append( ',' ).append( (s * 47) % 360 );  // Azimuth
+				gsv.append( ',' ).append( twoDigits(20 + (s * 7 + fix) % 30) );  // SNR
+			}
+
+			data.append( sentence(gsv.toString()) );
+		}
+
+		return messages;
+	}
+
+	/**
+	 * @param millis is the milliseconds since midnight.
+	 * @param decimals is the number of digits after the decimal point.
+	 * @return The time as NMEA's <i>hhmmss.ss</i>.
+	 */
+	private static String time (int millis, int decimals)
+	{
+		int seconds = millis / 1000;
+		String fraction = Integer.toString( 1000 + millis % 1000 ).substring( 1, 1 + decimals );
+
+		return twoDigits( (seconds / 3600) % 24 ) + twoDigits( (seconds / 60) % 60 ) +
+			twoDigits( seconds % 60 ) + "." + fraction;
+	}
+
+	/**
+	 * @param value is an angle in NMEA's <i>dddmm.mmmm</i> format.
+	 * @param decimals is the number of digits after the decimal point.
+	 * @return <code>value</code> with exactly <code>decimals</code> digits
+	 *  after the decimal point.
+	 */
+	private static String angle (double value, int decimals)
+	{
+		long scale = 1;
+
+		for ( int i = 0; i < decimals; i++ )
+		{
+			scale *= 10;
+		}
+
+		long fixed = (long)(value * scale + 0.5);
+		String fraction = Long.toString( scale + fixed % scale ).substring( 1 );
+		return (fixed / scale) + "." + fraction;
+	}
+
+	/**
+	 * @param value is a number from 0 to 99.
+	 * @return <code>value</code> with a leading zero if necessary.
+	 */
+	private static String twoDigits (int value)
+	{
+		return (value < 10) ? "0" + value : Integer.toString( value );
+	}
+
+	/**
+	 * @param body is a sentence without the leading '$' or checksum.
+	 * @return The complete sentence.
+	 */
+	private static String sentence (String body)
+	{
+		int checksum = 0;
+
+		for ( int i = 0; i < body.length(); i++ )
+		{
+			checksum ^= body.charAt( i );
+		}
+
+		String hex = Integer.toHexString( checksum ).toUpperCase();
+		return "$" + body + "*" + ((hex.length() < 2) ? "0" : "") + hex + "\r\n";
+	}
+}
@@ -12,6 +12,7 @@ package org.j4me.bluetoothgps;
 import java.io.IOException;
 
 import java.util.Enumeration;
+import java.util.Hashtable;
 import java.util.Vector;
 
 import javax.bluetooth.BluetoothStateException;
@@ -28,6 +29,11 @@ import org.j4me.logging.*;
 /**
  * Looks for Bluetooth devices (within 10 meters) and returns their
  * names and addresses.
+ * <p>
+ * Devices are handed to a <code>DeviceDiscoveryListener</code> as soon as
+ * the inquiry finds them.  Their names are looked up on a couple of worker
+ * threads and their serial port channels with as many service searches
+ * as the stack runs at once.  Both start while the inquiry is still going.
  */
 class BluetoothDeviceDiscovery
 	implements DiscoveryListener {
@@ -86,6 +92,97 @@ class BluetoothDeviceDiscovery
      */
     private int serviceSearchResult = -1;
 
+    /**
+     * The most name lookups run at once.  Each one holds a thread while the
+     * remote device is paged.
+     */
+    private static final int NAME_LOOKUPS = 2;
+
+    /**
+     * The RFCOMM protocol.  Serial port services, which GPS devices use,
+     * run over it.
+     */
+    private static final UUID RFCOMM = new UUID(0x0003);
+
+    /**
+     * Receives devices as they are found.  It is <code>null</code> when the
+     * caller only wants the final list.
+     */
+    private DeviceDiscoveryListener listener;
+
+    /**
+     * When <code>true</code> found devices are searched for their serial
+     * port channel.
+     */
+    private boolean findChannels;
+
+    /**
+     * Set once the listener asked to stop looking for more devices.
+     */
+    private boolean inquiryStopped;
+
+    /**
+     * Set once every device found has been named and searched.
+     */
+    private boolean completed;
+
+    /**
+     * The names of the discovered devices keyed by address.
+     */
+    private final Hashtable names = new Hashtable();
+
+    /**
+     * The {@link RemoteDevice}s waiting for their names to be looked up.
+     */
+    private final Vector nameQueue = new Vector();
+
+    /**
+     * The {@link RemoteDevice}s whose names could not be looked up during
+     * the inquiry.  Some stacks cannot page a device while inquiring so
+     * they are tried again once it is over.
+     */
+    private final Vector nameRetries = new Vector();
+
+    /**
+     * The number of threads looking up names.
+     */
+    private int nameLookups;
+
+    /**
+     * The {@link RemoteDevice}s waiting for a service search.
+     */
+    private final Vector searchQueue = new Vector();
+
+    /**
+     * The running service searches.  The keys are <code>Integer</code>
+     * transaction IDs and the values are the {@link RemoteDevice}s searched.
+     */
+    private final Hashtable searches = new Hashtable();
+
+    /**
+     * The channels found by the running service searches keyed by
+     * <code>Integer</code> transaction ID.
+     */
+    private final Hashtable channels = new Hashtable();
+
+    /**
+     * The number of service searches being started.  The stack is asked to
+     * start them without holding the lock so this reserves their places.
+     */
+    private int starting;
+
+    /**
+     * The <code>Integer</code> transaction IDs of searches that completed
+     * before <code>searchServices</code> returned their IDs.  Some stacks
+     * report the results of a search before starting it returns.
+     */
+    private final Hashtable finished = new Hashtable();
+
+    /**
+     * The most service searches the stack runs at once.
+     */
+    private int maxSearches = 1;
+
 	/**
 	 * Uses Bluetooth device discovery to get a list of the nearby devices
 	 * that are turned on and accepting connections (within 10 meters).
@@ -110,19 +207,23 @@ class BluetoothDeviceDiscovery
     public String[][] discoverNearbyDeviceNamesAndAddresses ()
     	throws IOException, SecurityException
     {
-		// Start discovering devices.
-		doDiscoverDevices();
+		// Start discovering devices.  Their names are looked up while the
+		//  inquiry carries on.
+		discover( null, false );
 		
-		while ( getDeviceDiscoveryResult() == BluetoothDeviceDiscovery.INQUIRY_IN_PROGRESS )
+		synchronized ( this )
 		{
-			try
+			while ( completed == false )
 			{
-				Thread.sleep( 20 );
-			}
-			catch (InterruptedException e)
-			{
-				// This thread is being killed, just exit.
-				return null;
+				try
+				{
+					wait();
+				}
+				catch (InterruptedException e)
+				{
+					// This thread is being killed, just exit.
+					return null;
+				}
 			}
 		}
 		
@@ -144,17 +245,8 @@ class BluetoothDeviceDiscovery
 			// Discover the Bluetooth URL.
 			String address = device.getBluetoothAddress();
 
-			// Discover the name as will be shown to the user.
-			String name = null;
-			
-			try
-			{
-				name = device.getFriendlyName( false );
-			}
-			catch (IOException e)
-			{
-				Log.debug("Could not get friendly name for device " + address, e);
-			}
+			// The name as will be shown to the user.
+			String name = (String)names.get( address );
 
 			if ( name == null )
 			{
@@ -169,6 +261,150 @@ class BluetoothDeviceDiscovery
 		return ret;
     }
     
+    /**
+     * Starts discovering devices and returns at once.  The devices, their
+     * names and, if asked for, their channels are passed to <code>listener</code>
+     * as they are found.
+     *
+     * @param listener receives the devices.  It may be <code>null</code>.
+     * @param findChannels when <code>true</code> each device is searched for
+     *  a serial port and <code>listener</code> is told its channel.
+     * @throws BluetoothStateException if the inquiry cannot start.
+     */
+    public void discover(DeviceDiscoveryListener listener, boolean findChannels)
+        throws BluetoothStateException {
+        this.listener = listener;
+        this.findChannels = findChannels;
+
+        // Run as many service searches at once as the stack allows.
+        try {
+            String max = getLocalProperty("bluetooth.sd.trans.max");
+
+            if (max != null) {
+                maxSearches = Math.max(1, Integer.parseInt(max.trim()));
+            }
+        } catch (RuntimeException e) {
+            // Use the default.
+        }
+
+        doDiscoverDevices();
+    }
+
+    /**
+     * Cancels the inquiry.  Devices already found are still named and
+     * searched.
+     */
+    private void stopInquiry() {
+        synchronized (this) {
+            if (inquiryStopped) {
+                return;
+            }
+
+            inquiryStopped = true;
+        }
+
+        Log.debug("Stopping Bluetooth device discovery");
+        cancelInquiry();
+    }
+
+    /**
+     * Starts threads to look up the names of queued devices.
+     */
+    private synchronized void lookUpNames() {
+        while ((nameLookups < NAME_LOOKUPS) && (nameLookups < nameQueue.size())) {
+            nameLookups++;
+            new Thread(new NameLookup()).start();
+        }
+    }
+
+    /**
+     * Starts service searches for queued devices until the stack's limit
+     * is reached.
+     */
+    private void startSearches() {
+        while (true) {
+            RemoteDevice device;
+            String channel = null;
+
+            synchronized (this) {
+                if (searchQueue.isEmpty() ||
+                        ((searches.size() + starting) >= maxSearches)) {
+                    return;
+                }
+
+                device = (RemoteDevice) searchQueue.elementAt(0);
+                searchQueue.removeElementAt(0);
+                starting++;
+            }
+
+            // The lock is not held because the stack may call back from
+            // another thread before searchServices() returns.
+            try {
+                Integer id = new Integer(searchServices(device));
+
+                synchronized (this) {
+                    starting--;
+
+                    if (finished.remove(id) == null) {
+                        searches.put(id, device);
+                        continue;
+                    }
+
+                    // It completed before its ID was known.
+                    channel = (String) channels.remove(id);
+                }
+            } catch (BluetoothStateException e) {
+                synchronized (this) {
+                    starting--;
+
+                    if ((searches.size() + starting) > 0) {
+                        // The stack runs fewer searches at once than it said.
+                        maxSearches = searches.size() + starting;
+                        searchQueue.insertElementAt(device, 0);
+                        return;
+                    }
+                }
+
+                Log.debug("Could not search services of " +
+                    device.getBluetoothAddress(), e);
+            }
+
+            // The device was searched already or could not be searched.
+            if (listener != null) {
+                listener.channelFound(device.getBluetoothAddress(), channel);
+            }
+        }
+    }
+
+    /**
+     * Tells the listener discovery is over once the inquiry has finished
+     * and every device found has been named and searched.
+     */
+    private void checkCompleted() {
+        boolean success;
+
+        synchronized (this) {
+            if (completed ||
+                    (deviceDiscoveryResult == INQUIRY_IN_PROGRESS) ||
+                    (nameLookups > 0) || !nameQueue.isEmpty() ||
+                    !searchQueue.isEmpty() || !searches.isEmpty() ||
+                    (starting > 0)) {
+                return;
+            }
+
+            completed = true;
+            success = (deviceDiscoveryResult == DiscoveryListener.INQUIRY_COMPLETED) ||
+                ((deviceDiscoveryResult == DiscoveryListener.INQUIRY_TERMINATED) && inquiryStopped);
+            notifyAll();
+        }
+
+        Log.debug("Bluetooth device discovery completed");
+
+        if (listener != null) {
+            listener.discoveryCompleted(success);
+        }
+    }
+
     /**
      * Start the device discovery
      * @throws BluetoothStateException
@@ -184,6 +420,38 @@ class BluetoothDeviceDiscovery
         discoveryAgent.startInquiry(DiscoveryAgent.GIAC, this);
     }
 
+    /**
+     * Starts a search for the serial port service of a device.  Only the
+     * default attributes are retrieved.  They include the
+     * ProtocolDescriptorList (0x0004) which has the channel.
+     *
+     * @param device is the device to search.
+     * @return The transaction ID of the search.
+     * @throws BluetoothStateException if the stack cannot start another search.
+     */
+    int searchServices(RemoteDevice device) throws BluetoothStateException {
+        return discoveryAgent.searchServices(null, new UUID[] { RFCOMM },
+            device, this);
+    }
+
+    /**
+     * Cancels the inquiry started by {@link #doDiscoverDevices()}.
+     */
+    void cancelInquiry() {
+        discoveryAgent.cancelInquiry(this);
+    }
+
+    /**
+     * Gets a property of the local Bluetooth stack.
+     *
+     * @param property is the name of the property.
+     * @return The value of the property or <code>null</code> if it is not set.
+     * @see LocalDevice#getProperty(String)
+     */
+    String getLocalProperty(String property) {
+        return LocalDevice.getProperty(property);
+    }
+
     /**
      * Perform service discovery on a remote device.
      *
@@ -193,30 +461,14 @@ class BluetoothDeviceDiscovery
     public void doDiscoverService(RemoteDevice remote)
         throws BluetoothStateException {
         //
-        // this large array of integer values will tell JABWT to query
-        // for all known attributes
+        // null retrieves just the default attributes (0x0000 to 0x0004).
         // see https://www.bluetooth.org/foundry/assignnumb/document/service_discovery
         // section 4.5 for meaning of these IDs
         //
-        // note: you don't have to retrieve all attribute everytime. in fact, you
-        // can put null for attr and retrieve just the default values. that probably
-        // good enough for most cases. we list all attributes for demo purpose
-        //
-        // note: For Nokia 6230, there is a limit (13) of number of attribute to retrieve
-        // and this large array will cause error. If you are using Nokia 6230, you should
-        // reduce this array to 13 elements. Just pick any 13 of them and make sure you pick
-        // 0x0001 (ServiceClassID) so we can display the profiel name
-
-        /* int[] attr = new int[]{0x0000, 0x0001, 0x0002, 0x0003, 0x0004,
-             0x0005, 0x0006, 0x0007, 0x0008, 0x0009, 0x000A, 0x000B, 0x000C, 0x000D,
-             0x0100, 0x0101, 0x0102, 0x0200, 0x0201,
-             0x0301, 0x0302, 0x0303, 0x0304, 0x0305, 0x0306, 0x0307, 0x0308, 0x0309,
-             0x030A, 0x030B, 0x030C, 0x030D, 0x030E, 0x0310, 0x0311, 0x0312, 0x0313 };
-        */
-        int[] attr = new int[] {
-                0x0000, 0x0001, 0x0002, 0x0003, 0x0004, 0x0005, 0x0006, 0x0007,
-                0x0008, 0x0009, 0x000A, 0x000B, 0x000C
-            };
+        // they include the ProtocolDescriptorList (0x0004) which is all
+        // findChannelId() needs.  asking for more makes each search slower
+        // and some phones, like the Nokia 6230, fail on more than 13.
+        int[] attr = null;
 
         //
         // search for L2CAP services, most services based on L2CAP
@@ -233,8 +485,35 @@ class BluetoothDeviceDiscovery
      */
     public void deviceDiscovered(RemoteDevice remoteDevice,
         DeviceClass deviceClass) {
-        Log.debug("Discovered device " + remoteDevice.getBluetoothAddress());
-        discoveredDevices.addElement(remoteDevice);
+        String address = remoteDevice.getBluetoothAddress();
+        Log.debug("Discovered device " + address);
+
+        synchronized (this) {
+            if (inquiryStopped) {
+                // Some stacks report a few more devices after being cancelled.
+                return;
+            }
+
+            discoveredDevices.addElement(remoteDevice);
+            nameQueue.addElement(remoteDevice);
+
+            if (findChannels) {
+                searchQueue.addElement(remoteDevice);
+            }
+        }
+
+        // Report it right away.  Its name and channel come later.
+        if (listener != null) {
+            int major = (deviceClass == null) ? 0 : deviceClass.getMajorDeviceClass();
+
+            if (listener.deviceDiscovered(address, major)) {
+                stopInquiry();
+            }
+        }
+
+        lookUpNames();
+        startSearches();
+        checkCompleted();
     }
 
     /**
@@ -245,7 +524,28 @@ class BluetoothDeviceDiscovery
             Log.info("Found services " + records.length);
         }
 
-        // note: we do not use transId because we only have one search at a time
+        Integer id = new Integer(arg0);
+
+        synchronized (this) {
+            if (searches.containsKey(id) || (starting > 0)) {
+                // Searching for the channels of discovered devices.
+                for (int i = 0; (i < records.length) && !channels.containsKey(id); i++) {
+                    try {
+                        String channel = findChannelId(records[i]);
+
+                        if (channel != null) {
+                            channels.put(id, channel);
+                        }
+                    } catch (RuntimeException e) {
+                        Log.debug("Malformed service record", e);
+                    }
+                }
+
+                return;
+            }
+        }
+
+        // note: doDiscoverService() runs one search at a time
         for (int i = 0; i < records.length; i++) {
             ServiceRecord record = records[i];
 
@@ -257,14 +557,53 @@ class BluetoothDeviceDiscovery
      * @see javax.bluetooth.DiscoveryListener#serviceSearchCompleted(int, int)
      */
     public void serviceSearchCompleted(int transID, int respCode) {
-        serviceSearchResult = respCode;
+        Integer id = new Integer(transID);
+        RemoteDevice device;
+        String channel;
+
+        synchronized (this) {
+            device = (RemoteDevice) searches.remove(id);
+
+            if ((device == null) && (starting > 0)) {
+                // startSearches() reports it once searchServices() returns.
+                finished.put(id, id);
+                return;
+            }
+
+            channel = (String) channels.remove(id);
+
+            if (device == null) {
+                // The search started by doDiscoverService().
+                serviceSearchResult = respCode;
+                return;
+            }
+        }
+
+        if (listener != null) {
+            listener.channelFound(device.getBluetoothAddress(), channel);
+        }
+
+        startSearches();
+        checkCompleted();
     }
 
     /**
      * @see javax.bluetooth.DiscoveryListener#inquiryCompleted(int)
      */
     public void inquiryCompleted(int inquiryResult) {
-        deviceDiscoveryResult = inquiryResult;
+        synchronized (this) {
+            deviceDiscoveryResult = inquiryResult;
+
+            // Try the names that could not be looked up during the inquiry.
+            for (int i = 0; i < nameRetries.size(); i++) {
+                nameQueue.addElement(nameRetries.elementAt(i));
+            }
+
+            nameRetries.removeAllElements();
+        }
+
+        lookUpNames();
+        checkCompleted();
     }
 
     /**
@@ -412,6 +751,58 @@ class BluetoothDeviceDiscovery
 
         return null;
     }
+
+    /**
+     * Looks up the names of queued devices until there are none left.
+     */
+    private final class NameLookup implements Runnable {
+        public void run() {
+            while (true) {
+                RemoteDevice device;
+
+                synchronized (BluetoothDeviceDiscovery.this) {
+                    if (nameQueue.isEmpty()) {
+                        nameLookups--;
+                        break;
+                    }
+
+                    device = (RemoteDevice) nameQueue.elementAt(0);
+                    nameQueue.removeElementAt(0);
+                }
+
+                String address = device.getBluetoothAddress();
+                String name = null;
+
+                try {
+                    name = device.getFriendlyName(false);
+                } catch (IOException e) {
+                    synchronized (BluetoothDeviceDiscovery.this) {
+                        if (deviceDiscoveryResult == INQUIRY_IN_PROGRESS) {
+                            // Try again once the inquiry is over.
+                            nameRetries.addElement(device);
+                            continue;
+                        }
+                    }
+
+                    Log.debug("Could not get friendly name for device " + address, e);
+                }
+
+                if (name == null) {
+                    name = address;
+                }
+
+                synchronized (BluetoothDeviceDiscovery.this) {
+                    names.put(address, name);
+                }
+
+                if ((listener != null) && listener.deviceNamed(address, name)) {
+                    stopInquiry();
+                }
+            }
+
+            checkCompleted();
+        }
+    }
 }
 
 //#endif // Android
@@ -2,6 +2,7 @@ package org.j4me.bluetoothgps;
 
 import java.io.*;
 import javax.microedition.io.*;
+import org.j4me.collections.*;
 import org.j4me.logging.*;
 import org.j4me.util.*;
 
@@ -9,7 +10,7 @@ import org.j4me.util.*;
  * Main class for communication with GPS receiver. Use this class to access GPS
  * receiver from other classes.
  */
-class BluetoothGPS implements Runnable {
+class BluetoothGPS implements Runnable, GPSRecordListener {
 
     /**
      * The timeout value for Bluetooth connections in milliseconds.
@@ -20,32 +21,20 @@ class BluetoothGPS implements Runnable {
      */
     private static final short BLUETOOTH_TIMEOUT = 3000;
 
-    /**
-     * Time in ms to wait until resume to receive.
-     */
-    private static final short BREAK = 500;
-
     /**
      * Wait after calling disconnect
      */
     private static final short DISCONNECT_WAIT = 1000;
 
     /**
-     * Time in ms to sleep before each read. This seems to solve the problem or
-     * read hangs.
-     */
-    public static final short SLEEP_BEFORE_READ = 100;
-
-    /**
-     * How long to wait before we just kill the read. We add the sleep value
-     * since this sleep is performed before every read and we start the timer
-     * before the pre-read sleep.
+     * How long to wait before we just kill the read.  The timer starts after
+     * the <code>ReadScheduler</code> says data is ready or due.
      * <p>
      * After experimenting with combinations of Bluetooth GPS devices and
      * phones 3 seconds seems to work.  Motorola phones seem to be the only
      * ones with Bluetooth implementations that need this.
      */
-    public static final short READ_TIMEOUT = SLEEP_BEFORE_READ + 3000;
+    public static final short READ_TIMEOUT = 3000;
 
     /**
      * How long to wait to initialize the bluetooth connection
@@ -55,22 +44,20 @@ class BluetoothGPS implements Runnable {
     /**
      * Conversion constant to convert between knots and meters per second (m/s).
      */
-    private static final float MS_PER_KNOT = 0.514444444444444f;
+    static final float MS_PER_KNOT = 0.514444444444444f;
     
-	/**
-	 * The number of days since January 1 for the start of a month.  This does not
-	 * include leap year days.
-	 * 
-	 * @see #convertUTCTime(String, String)
-	 */
-	private static final int MONTH_OFFSET[] =
-			{ 0, 31, 59, 90, 120, 151, 181, 212, 243, 273, 304, 334 };
-	
     /**
      * Connection to bluetooth device.
      */
     private StreamConnection connection;
 
+    /**
+     * A connection made before the receiver started, for example by a
+     * <code>ConnectionRace</code>.  The first connect uses it instead of
+     * opening a new one.
+     */
+    private StreamConnection opened;
+
     /**
      * The input stream from the GPS device.  Location data is received through it.
      */
@@ -97,31 +84,28 @@ class BluetoothGPS implements Runnable {
     private String url;
 
     /**
-     * Listener to notify of location events.  If this is <code>null</code> then
-     * don't notify anything of location events.
+     * Hands each new <code>location</code> to threads blocked in
+     * <code>getLocation</code>.  Listeners with a maximum age are also
+     * sent locations from it.
      */
-    private LocationListener locationListener;
+    private final LocationCache fixes = new LocationCache();
 
     /**
-     * The source of location information.
+     * The recent fixes.  It is kept as numbers so a long session does not
+     * use more memory.
      */
-    private final BluetoothLocationProvider locationProvider;
+    private final LocationHistory history = new LocationHistory(LocationHistory.DEFAULT_CAPACITY);
 
     /**
-     * The interval, in milliseconds, between calls made to the registered
-     * <code>LocationListener.locationUpdated</code>.
-     * 
-     * @see #setLocationListener(LocationListener, BluetoothLocationProvider)
+     * Listeners to notify of location events.  Each has its own interval
+     * and distance filter.
      */
-    private long locationUpdateInterval;
-    
+    private final LocationListenerSet listeners = new LocationListenerSet(1000, fixes);
+
     /**
-     * The system time for when <code>LocationListener.locationUpdated</code>
-     * was last raised.
-     * 
-     * @see #locationUpdateInterval
+     * The source of location information.
      */
-    private long lastLocationUpdateTime;
+    private final BluetoothLocationProvider locationProvider;
 
     /**
      * The last <code>Location</code> obtained from the GPS.  This is the provider's
@@ -129,15 +113,123 @@ class BluetoothGPS implements Runnable {
      */
     private Location location;
     
+    /**
+     * Set once the device has sent a $GPRMC.  Its $GPGLL sentences are then
+     * ignored because they repeat the same fix with less in it.
+     */
+    private boolean rmcSeen;
+    
+    /**
+     * The device's time of day of the last fix used or -1 if there is none.
+     * A fix with the same time is one already used.
+     */
+    private int lastFixTime = -1;
+    
+    /**
+     * Decides when to read from the GPS device.  It replaces sleeping a fixed
+     * amount before each read so fixes are delivered as soon as they arrive.
+     */
+    private final ReadScheduler scheduler;
+    
+    /**
+     * Calls the <code>listeners</code> on its own thread so a slow
+     * listener never holds up reading the GPS device.
+     */
+    private final LocationDispatcher dispatcher;
+    
+    /**
+     * Recognizes the GPS chipset and sets its sentences and fix rate.
+     */
+    private final ReceiverConfigurator configurator;
+    
+    /**
+     * Counts what happens between the device and the location listeners.
+     */
+    private final GPSStatistics statistics = new GPSStatistics();
+    
+    /**
+     * Smooths the fixes before they are delivered or <code>null</code> if
+     * the <code>Criteria</code> did not ask for smoothing.
+     */
+    private final KalmanFilter filter;
+    
+    /**
+     * When the data being parsed was read.  Locations made from it are
+     * timed from here.
+     */
+    private long readTime;
+    
+    /**
+     * Sends the location listener cached locations and timeouts.  It is run
+     * on the dispatcher's thread, along with the other location events, when
+     * <code>expiry</code> fires.
+     */
+    private final Runnable expireTask = new Runnable() {
+        public void run() {
+            long now = System.currentTimeMillis();
+            long next = listeners.expire(locationProvider, now);
+
+            if (next != Long.MAX_VALUE) {
+                DeadlineScheduler.getInstance().schedule(expiry, Math.max(next - now, 0));
+            }
+        }
+    };
+    
+    /**
+     * Fires when the location listener is next due a cached location or
+     * has timed out.
+     */
+    private final Deadline expiry = new Deadline(new Runnable() {
+        public void run() {
+            dispatcher.post(expireTask);
+        }
+    });
+    
     /**
      * Creates new receiver. Does not start automatically, use start() instead.
      *
+     * @param provider - the location provider that owns this receiver.
      * @param url -
      *            URL of bluetooth device to connect to.
+     * @param criteria - the application's requirements.  Its response time
+     *            and power usage set how often the device is read and the
+     *            fix rate it is configured for.  It also says if fixes are
+     *            smoothed and if a SiRF device may be switched to binary.
+     *            If <code>null</code> the defaults are used.
      */
-    public BluetoothGPS(BluetoothLocationProvider provider, String url) {
+    public BluetoothGPS(BluetoothLocationProvider provider, String url, Criteria criteria) {
     	this.locationProvider = provider;
         this.url = url;
+        this.scheduler = new ReadScheduler(criteria);
+        this.dispatcher = new LocationDispatcher(provider);
+        this.dispatcher.setListener(listeners);
+        this.dispatcher.setStatistics(statistics);
+        this.configurator = new ReceiverConfigurator(criteria);
+        
+        if (criteria != null) {
+            configurator.setBinaryAllowed(criteria.isSiRFBinaryAllowed());
+        }
+        
+        if ((criteria != null) && criteria.isSmoothing()) {
+            this.filter = new KalmanFilter(criteria.getMotionThreshold());
+        } else {
+            this.filter = null;
+        }
+    }
+    
+    /**
+     * @return The recent fixes.
+     */
+    LocationHistory getHistory() {
+        return history;
+    }
+    
+    /**
+     * @return The counts of what happened between the device and the
+     *  location listeners since this receiver was created.
+     */
+    GPSStatistics getStatistics() {
+        return statistics;
     }
     
     /**
@@ -148,6 +240,58 @@ class BluetoothGPS implements Runnable {
     {
     	return location;
     }
+    
+    /**
+     * Blocks until there is a location no older than <code>maxAge</code>.
+     * The thread is woken as soon as a location is parsed.
+     *
+     * @param maxAge is the oldest, in milliseconds, the location can be.  0
+     *  waits for a new location and -1 accepts any location.
+     * @param timeout is the most milliseconds to wait.
+     * @return The location or <code>null</code> if the timeout expired or
+     *  the receiver was stopped.
+     * @throws InterruptedException if the thread is interrupted.
+     */
+    Location waitForLocation (long maxAge, long timeout) throws InterruptedException
+    {
+    	return fixes.waitFor(maxAge, timeout);
+    }
+    
+    /**
+     * @return The object that paces reads from the GPS device.  It reports
+     *  the fix latency.
+     */
+    ReadScheduler getReadScheduler ()
+    {
+    	return scheduler;
+    }
+    
+    /**
+     * @return The object that delivers events to the location listener.
+     *  It counts the locations that were coalesced or dropped.
+     */
+    LocationDispatcher getDispatcher ()
+    {
+    	return dispatcher;
+    }
+    
+    /**
+     * @return The location listeners.  They count the locations sent from
+     *  the cache and new ones.
+     */
+    LocationListenerSet getListeners ()
+    {
+    	return listeners;
+    }
+    
+    /**
+     * @return The object that configures the GPS device.  It knows the
+     *  chipset and the fix rate.
+     */
+    ReceiverConfigurator getConfigurator ()
+    {
+    	return configurator;
+    }
 
     /**
      * Establishes a bluetooth serial connection (specified in GPS_BT_URL) and
@@ -167,155 +311,47 @@ class BluetoothGPS implements Runnable {
         	// Connect to the GPS device.
             Log.info("Connecting to Bluetooth device at " + url);
 
-            connection = (StreamConnection) ConnectorHelper.open(
-            		url, Connector.READ_WRITE, BLUETOOTH_TIMEOUT );
+            if (opened != null) {
+                connection = opened;
+                opened = null;
+            } else {
+                connection = openConnection();
+            }
 
             Log.debug("Bluetooth connection established");
 
-            // Record the connection.
-            configureBluetoothGPSSettings(connection);
-
             inputStream = connection.openInputStream();
             outputStream = connection.openOutputStream();
+
+            // Configure the GPS device now that we can write to it.
+            configurator.connected(outputStream);
         }
     }
 
     /**
-     * Configure the GPS device.
-     * <p>
-     * This sends NMEA input sentences to the Bluetooth GPS device.  The type and
-     * frequency of output sentences sent back from the device should be altered
-     * such that we do not receive messages we do not care about (to avoid the
-     * overhead of processing them) and we receive the messages we do care about
-     * once a second (maximum rate so that if any are corrupt we get our data as
-     * fast as possible).
-     * <p>
-     * On a few devices it is possible to adjust the baud rate.  However, this is
-     * not a good option.  It isn't the speed data is transmitted (actually faster
-     * is better), it is the amount of quality data that comes through.
-     * <p>
-     * A good list of the proprietary input sentences is here:
-     * http://www.gpsinformation.org/dale/nmea.htm
-     * 
-     * @param connection
-     *            is the connection object to the Bluetooth GPS unit. The
-     *            connection must be {@link Connector#READ} or
-     *            {@link Connector#READ_WRITE}.
+     * Hands over a connection that is already open.  It is used when the
+     * receiver starts instead of connecting again.  Reconnects after it
+     * drops use <code>openConnection</code>.
+     *
+     * @param connection - the open connection to the GPS device.
      */
-    private void configureBluetoothGPSSettings(StreamConnection connection)
-    {
-        if (outputStream != null) {
-        	try {
-
-        		// Send SiRF configuration.
-            	//  These are specific to the SiRF chipset and are ignored by others.
-            	//  They are also ignored if the GPS device is in SiRF mode which it
-            	//  should not be.
-	        	//
-	        	//  The sentences are discussed here:
-	        	//     http://www.gpsinformation.org/dale/nmea.htm#sirf
-	        	//     http://www.elgps.com/public_ftp/Documentos/SIRF_Protocol.pdf
-	        	//  They can be tested using the SiRFDemo application:
-	        	//     http://www.gpspassion.com/forumsen/topic.asp?TOPIC_ID=25575
-        		//
-            	// The Bluetooth modems in SiRF devices do not allow the baud rate
-            	// to be changed.  It is usually 38400 or higher.
-            	// The SiRF input sentence that controls output sentences is:
-            	//     $PSRF103,05,00,01,01*20
-				//	where
-				//	   $PSRF103
-				//	   05         00=GGA
-				//	              01=GLL
-				//	              02=GSA
-				//	              03=GSV
-				//	              04=RMC
-				//	              05=VTG
-            	//                ... through 10
-				//	   00         mode, 0=set rate, 1=query
-				//	   01         rate in seconds, 0-255
-				//	   01         checksum 0=no, 1=yes
-				//	   *20        checksum
-            	
-            	// Send the NMEA sentences we care about every second.
-        		outputStream.write( createSentence("PSRF103,00,00,01,01") );  // GPGGA
-        		outputStream.write( createSentence("PSRF103,02,00,01,01") );  // GPGSA
-        		outputStream.write( createSentence("PSRF103,04,00,01,01") );  // GPRMC
-
-            	// Disable the remaining sentences.
-            	//     This avoids the overhead of receiving them, processing them, and
-            	//   throwing them away.  They can be very frequent and cause problems
-            	//   for slow processors such as on the Motorola SLVR.
-            	//     Not all of these are NMEA sentences.  Some are SiRF specific
-            	//   PSRFTXT sentences which are the most frequent and therefore most
-            	//   problematic.
-        		outputStream.write( createSentence("PSRF103,01,00,00,01") );  // GPGLL
-        		outputStream.write( createSentence("PSRF103,03,00,00,01") );  // GPGSV
-        		outputStream.write( createSentence("PSRF103,05,00,00,01") );  // GPVTG
-        		outputStream.write( createSentence("PSRF103,06,00,00,01") );  // GPMSS
-        		outputStream.write( createSentence("PSRF103,07,00,00,01") );  // ? (Untested but might be the PSRFTXT we turn off)
-        		outputStream.write( createSentence("PSRF103,08,00,00,01") );  // ? (Untested but might be the PSRFTXT we turn off)
-        		outputStream.write( createSentence("PSRF103,09,00,00,01") );  // GPZDA
-        		outputStream.write( createSentence("PSRF103,10,00,00,01") );  // ? (Untested but might be the PSRFTXT we turn off)
-                
-	            
-	            // Send Garmin configuration. 
-				//	Garmin device programming (see section 3.1.5)
-				//	http://www.garmin.com/manuals/GPS10_TechnicalSpecifications.pdf
-            	//
-            	//  Output sentence enable/disable (PGRMO).  The format is:
-            	//     $PGRMO,<1>,<2>*hh\r\n
-				//	where
-            	//     <1> Target sentence description (e.g. GPGSV)
-            	//     <2> Mode where:
-            	//          0 = disable specific sentence
-            	//          1 = enable specific sentence
-            	//          2 = disable all output sentences
-            	//          3 = enable all output sentences (except GPALM)
-            	//          4 = restore factory default output sentences
-        		outputStream.write( createSentence("PGRMO,,2") );  // Turn off all sentences
-        		outputStream.write( createSentence("PGRMO,GPGGA,1") );  // Turn on GPGGA
-            	outputStream.write( createSentence("PGRMO,GPGSA,1") );  // Turn on GPGSA
-            	outputStream.write( createSentence("PGRMO,GPRMC,1") );  // Turn on GPRMC
-
-            	
-            	// Note the following doesn't work.  The iBlue is apparently locked
-            	// at the factory presets according to a note on a discussion board.
-            	//
-            	// Send Martech (MTK) configuration.  It is the chipset used in the i-Blue 747.
-            	//  MTK is produced by Transystem, a company in Taiwan.  It is a chipset
-            	//  comparable to the SiRF III.  See the programming guide:
-            	//  http://www.transystem.com.tw/driver_manual/EB-230-Data-Sheet-V1.2.pdf
-            	//
-            	//  Output sentence to enable frequency of input sentences is:
-            	//     $PMTK314,<0>,...,<18>*hh\r\n
-            	//  where each field
-            	//     0=off, 1=every second, 2=every two seconds, etc.
-            	//  and the field numbers are
-				//	   0 NMEA_SEN_GLL, // GPGLL interval - Geographic Position - Latitude longitude
-				//	   1 NMEA_SEN_RMC, // GPRMC interval - Recommended Min. specific GNSS sentence
-				//	   2 NMEA_SEN_VTG, // GPVTG interval - Course Over Ground and Ground Speed
-				//	   3 NMEA_SEN_GGA, // GPGGA interval - GPS Fix Data
-				//	   4 NMEA_SEN_GSA, // GPGSA interval - GNSS DOPS and Active Satellites
-				//	   5 NMEA_SEN_GSV, // GPGSV interval - GNSS Satellites in View
-				//	   6 NMEA_SEN_GRS, // GPGRS interval - GNSS Range Residuals
-				//	   7 NMEA_SEN_GST, // GPGST interval - GNSS Pseudorange Error Statistics
-				//	   13 NMEA_SEN_MALM, // PMTKALM interval - GPS almanac information
-				//	   14 NMEA_SEN_MEPH, // PMTKEPH interval - GPS ephemeris information
-				//	   15 NMEA_SEN_MDGP, // PMTKDGP interval - GPS differential correction information
-				//	   16 NMEA_SEN_MDBG, // PMTKDBG interval  MTK debug information
-				//	   17 NMEA_SEN_ZDA, // GPZDA interval  Time & Date
-				//	   18 NMEA_SEN_MCHN, // PMTKCHN interval  GPS channel status
-            	//outputStream.write( createSentence("PMTK314,0,1,0,1,1,0,0,0,0,0,0,0,0,0,0,0,0,0,0") );
-            	
-            	
-            	outputStream.flush();
-                Log.debug("Configured GPS device settings");
-            } catch (IOException e) {
-                Log.warn("Could not send configuration sentences to Bluetooth GPS", e);
-            }
-        }
+    void setConnection(StreamConnection connection) {
+        this.opened = connection;
     }
-    
+
+    /**
+     * Opens the connection to the GPS device.  Override it to read from
+     * something other than Bluetooth, such as a recorded NMEA log.
+     *
+     * @return The connection to the GPS device.
+     * @throws IOException - If error occurs while establishing the connection.
+     * @see ReplayLocationProvider
+     */
+    protected StreamConnection openConnection() throws IOException {
+        return (StreamConnection) ConnectorHelper.open(
+                url, Connector.READ_WRITE, BLUETOOTH_TIMEOUT );
+    }
+
     /**
      * Sends a sentence through the output steam.  The sentence is first packaged
      * with a leading '$' and trailing checksum.  For example, to send the sentence
@@ -379,6 +415,7 @@ class BluetoothGPS implements Runnable {
         inputStream = null;
         outputStream = null;
         connection = null;
+        configurator.disconnected();
     }
 
     /**
@@ -450,26 +487,31 @@ class BluetoothGPS implements Runnable {
     }
 
     /**
-     * Reads in records sent by the GPS receiver. When a supported record has
-     * been received pauses for specified amount of time. Continues on I/O
+     * Reads in records sent by the GPS receiver.  Reads happen when the
+     * <code>ReadScheduler</code> says data is ready or due.  Continues on I/O
      * errors.
      */
     public void run() {
     	boolean process = true;
     	
-        // Set to true when a GPRMC sentence is processed
-        boolean processedGPRMC = false;
-
-        // The ASCII chars read from the buffer
-        byte[] outputBytes = null;
-
-        // Keep track of how many times we skip a buffer because it is full.
-        short skipCnt = 0;
+        // The ASCII chars read from the GPS device.  The stream reads
+        // straight into it and the parser consumes the bytes in place so
+        // no arrays are created or copied per read.
+        ByteRingBuffer buffer = new ByteRingBuffer(NMEAParser.OUTPUT_BUFFER_MAX_SIZE);
 
         // The number of bytes read from the buffer
         int result = 0;
 
         NMEAParser parser = new NMEAParser();
+        parser.setRecordListener(this);
+        parser.setProprietaryListener(configurator);
+        parser.setStatistics(statistics);
+
+        // SiRF binary frames are decoded and everything between them goes
+        // to the NMEA parser.  So the device is understood whichever
+        // protocol it sends.
+        SiRFBinaryParser binaryParser = new SiRFBinaryParser(parser);
+        binaryParser.setRecordListener(this);
 
         // Failures often occur if we try to read from the stream right
         // away. Instead, just wait.
@@ -478,11 +520,10 @@ class BluetoothGPS implements Runnable {
         } catch (InterruptedException e) {
         }
 
-        // Create the thread to interrupt reads that we believe are hung
-        BluetoothReadTimeoutThread btrtt = new BluetoothReadTimeoutThread(this.runner,
-                READ_TIMEOUT);
-
-        boolean firstItr = true;
+        // Interrupts reads that we believe are hung.  It is armed with the
+        // library's shared scheduler so no watchdog thread is needed here.
+        DeadlineScheduler watchdog = DeadlineScheduler.getInstance();
+        Deadline readDeadline = new Deadline(Thread.currentThread());
 
         while (process) {
             try {
@@ -509,116 +550,74 @@ class BluetoothGPS implements Runnable {
                     }
                 }
 
-                // reader.read has issues overwriting the characters of an array
-                outputBytes = new byte[NMEAParser.OUTPUT_BUFFER_MAX_SIZE];
+                // Wait until there is data to read or the next fix is due.
+                //  This replaces sleeping before every read which seems to
+                //  solve the problem of read hangs at the cost of latency.
+                scheduler.waitForData(inputStream);
 
-                // Start a thread that monitors that the read does not hand
-                if (firstItr) {
-                    // First iteration so just start the thread
-                    btrtt.start();
-                    firstItr = false;
-                } else {
-                    // Thread has already been started so just wake it up
-                    btrtt.restart();
-                }
+                // Make sure the read does not hang.
+                watchdog.schedule(readDeadline, READ_TIMEOUT);
 
-                // For whatever reason we need to sleep (not wait) before
-                // every read.
+                // Read into the free space of the buffer.  If there is no GPS
+                // data result will be -1 and we'll loop.
                 try {
-                    Thread.sleep(SLEEP_BEFORE_READ);
-                } catch (InterruptedException e) {
+                    result = buffer.read(inputStream);
+                } finally {
+                    watchdog.cancel(readDeadline);
                 }
 
-                // If there is no GPS data result will be -1 and we'll loop.
-                result = inputStream.read(outputBytes, 0, NMEAParser.OUTPUT_BUFFER_MAX_SIZE);
-
                 if (result < 0) {
                 	// The Bluetooth GPS device closed the connection.
                 	throw new IOException("Bluetooth device closed connection");
                 }
                 
-                // Notify the bluetooth read timeout thread that we have
-                // completed
-                // as successful read
-                btrtt.setReadSuccess(true);
+                long now = System.currentTimeMillis();
+                scheduler.readCompleted(now);
+                statistics.read(result);
+                readTime = now;
 
                 //if (Log.isDebugEnabled()) {
                 //    Log.debug("Bytes read: " + result);
                 //}
 
-                if ((processedGPRMC) &&
-                        (result >= NMEAParser.OUTPUT_BUFFER_MAX_SIZE) &&
-                        (skipCnt < 4)) {
-                    // If we read the max then just throw out what we have
-                    // and read again since there is probably more to read.
-                    // Only do this if we just processed at least a GPRMC
-                    // sentence
-                    // on the last iteration and we have not skipped more than 3
-                    // times in a row.
-                    // We need to flush the buffer because it contain a sentence
-                    // start that should be thrown out also.
-                    parser.flush();
-                    skipCnt++;
-                } else {
-                    // We only need to reset the processed flag if we are not
-                    // skipping again.
-                    // Once we have reached the max skips or do not have a full
-                    // buffer then we
-                    // will fall into this code we we will not skip again until
-                    // we process
-                    // a GPRMC sentence
-                    processedGPRMC = false;
-                    skipCnt = 0;
-
-                    try {
+                // Parse everything read.  Nothing is thrown away when a
+                // burst fills the buffer; the parser consumes all of it and
+                // the next read continues where this one stopped.  The data
+                // may wrap around the end of the buffer so take it in pieces.
+                try {
+                    while (buffer.size() > 0) {
+                        int length = buffer.getContiguousSize();
+                        
                     	// Uncommenting the next line will log all incoming Bluetooth GPS data.
-                    	//if (Log.isDebugEnabled()) Log.debug("Raw NMEA:  " + new String(outputBytes, 0, result));
-
-                        int parseResult = parser.parse(outputBytes, result);
-                   	
-                        // Append and parse
-                        if ((parseResult & NMEAParser.TYPE_GPRMC) != 0) {
-                            // We processed a GPRMC sentence (lat/lon
-                            // update) so note it so that we can maybe skip
-                            processedGPRMC = true;
-                            
-                            // Process the sentences and update the location listener.
-                            //  We only need to do this if we get a lat/lon update.
-                            //  For all the other sentences (altitude, accuracy)
-                            //  we'll just loop until we get a lat/lon.  That way we
-                            //  don't notify the location listener too often.
-                            processRecord(parser.getRecordBuffer());
-
-                            // Wait to receive more data over Bluetooth.
-                            synchronized (this) {
-                                try {
-                                    wait(BREAK);
-                                } catch (InterruptedException e) {
-                                }
-                            }
-                        } else if (parseResult == NMEAParser.TYPE_NOTHING_TO_PROCESS) {
-                            // There was not enough to process so yield the CPU
-                            synchronized (this) {
-                                try {
-                                    wait(BREAK);
-                                } catch (InterruptedException e) {
-                                }
-                            }
-                        }
-                    }
-                    // Error while parsing (supported) record.
-                    catch (Throwable t) {
-                        Log.warn("Problem parsing GPS data", t);
+                    	//if (Log.isDebugEnabled()) Log.debug("Raw NMEA:  " + new String(buffer.getArray(), buffer.getReadIndex(), length));
+
+                        // Each GPRMC sentence and SiRF binary fix is passed
+                        // to recordParsed() as it is decoded.
+                        binaryParser.parse(buffer.getArray(), buffer.getReadIndex(), length);
+                        buffer.skip(length);
                     }
                 }
+                // Error while parsing (supported) record.
+                catch (Throwable t) {
+                    Log.warn("Problem parsing GPS data", t);
+                    statistics.bufferDropped(buffer.size());
+                    buffer.clear();
+                }
             } catch (Throwable t) {
                 if (t instanceof InterruptedIOException) {
                     // The read was taking too long so we interrupted it
                     Log.info(
                         "Bluetooth GPS stalled.  Disconnecting and reconnecting.");
+                    statistics.reconnecting(GPSStatistics.REASON_STALLED);
                 } else if ( t instanceof IOException ) {
                 	// Also captures BluetoothConnectionException.
                 	Log.info("Bluetooth device dropped connection.  Reconnecting.");
+                	statistics.reconnecting(GPSStatistics.REASON_DROPPED);
+                } else if ((t instanceof InterruptedException) && readDeadline.hasFired() && !stop) {
+                	// The read deadline fired just after the read returned
+                	// and the interrupt landed on a later wait.
+                	Log.info("Bluetooth GPS read timed out.  Reconnecting.");
+                	statistics.reconnecting(GPSStatistics.REASON_STALLED);
                 } else if (t instanceof InterruptedException) {
                 	// Closing the application down.
                 	process = false;
@@ -629,6 +628,7 @@ class BluetoothGPS implements Runnable {
                     // thrown while connecting or while reading.
                     // Wait some time before continuing.
                     Log.warn("Unexpected GPS read error", t);
+                    statistics.reconnecting(GPSStatistics.REASON_ERROR);
                 }
 
                 // Notify that the location provider is unavailable
@@ -645,13 +645,65 @@ class BluetoothGPS implements Runnable {
                     }
                 }
 
-                parser.flush();
+                binaryParser.flush();
+                rmcSeen = false;
+                lastFixTime = -1;
+                
+                if (buffer.size() > 0) {
+                    statistics.bufferDropped(buffer.size());
+                    buffer.clear();
+                }
             }
         }
     }
 
     /**
-     * Process the record. Convert the string values to floats and notify the
+     * Called by the parser for each sentence in the order they arrive.
+     * <p>
+     * We only need to update the location when we get a lat/lon update
+     * from a $GPRMC or $GPGLL sentence or a SiRF binary fix.  For all the other sentences
+     * (altitude, accuracy, speed) we just keep the data until the next
+     * lat/lon.  That way we don't notify the location listener too often.
+     * Many receivers send both $GPRMC and $GPGLL for each fix so $GPGLL is
+     * only used until the first $GPRMC, and only the first sentence with a
+     * fix's time is used.
+     * <p>
+     * Every sentence is also shown to the <code>configurator</code> so it
+     * can confirm the device is sending what it was configured for.
+     * 
+     * @see org.j4me.bluetoothgps.GPSRecordListener#recordParsed(org.j4me.bluetoothgps.GPSRecord, int)
+     */
+    public void recordParsed(GPSRecord record, int type) {
+        statistics.sentenceParsed(type);
+        configurator.sentenceParsed(record, type);
+        
+        if (type == NMEAParser.TYPE_GPRMC) {
+            rmcSeen = true;
+        } else if ((type == NMEAParser.TYPE_GPGLL) && rmcSeen) {
+            return;
+        }
+        
+        if ((type == NMEAParser.TYPE_GPRMC) || (type == NMEAParser.TYPE_GPGLL) ||
+            (type == SiRFBinaryParser.TYPE_GEODETIC)) {
+            // Do not use the same fix twice.
+            int time = record.millisSinceMidnight;
+            
+            if ((time >= 0) && (time == lastFixTime)) {
+                return;
+            }
+            
+            Location previous = location;
+            processRecord(record);
+            
+            if (location != previous) {
+                lastFixTime = time;
+            	scheduler.fixDelivered(System.currentTimeMillis());
+            }
+        }
+    }
+
+    /**
+     * Process the record. Convert the NMEA values to JSR 179 units and notify the
      * location listener.
      *
      * @param record - the record to process.  If <code>null</code> this method is
@@ -660,7 +712,7 @@ class BluetoothGPS implements Runnable {
     private void processRecord(GPSRecord record) {
     	
     	// Make sure there is something to parse.
-    	if ( (record == null) || (record.quality == null) ) {
+    	if ( (record == null) || (record.quality < 0) ) {
     		return;
     	}
     	
@@ -669,73 +721,88 @@ class BluetoothGPS implements Runnable {
         // may have the following values: 0 = no fix, 1 = GPS or standard
         // positioning service (SPS) fix,
         // 2 = DGPS fix, 3 = Precise positioning service (PPS) fix
-        if ((record.quality.equals("1")) ||
-                (record.quality.equals("2")) ||
-                (record.quality.equals("3"))) {
-        	try {
-                float altitude = (record.altitude == null ? Float.NaN : Float.parseFloat(record.altitude));
-
-                // Convert the vertical and horizontal accuracy to float
-                float horizontalAccuracy = Float.parseFloat(record.hdop);
-                float verticalAccuracy = Float.parseFloat(record.vdop);
-
-                // Convert the speed to float
-                float speed = Float.parseFloat(record.speed);
-                speed *= MS_PER_KNOT;  // Convert knots to meters/second
-                
-                // Convert the course to a float.
-                float course = (record.course == null ? Float.NaN : Float.parseFloat(record.course));	                	
-
-                // The parsed value is in the format ddmmmmmm so we need to
-                // convert this to degrees.
-                float lattitudeDegrees = convertToDegress(record.lattitude,
-                        record.lattitudeDirection);
-                float longitudeDegrees = convertToDegress(record.longitude,
-                        record.longitudeDirection);
-
-                // If we have a valid lattitude and longitude, notify
-                // the location listener
-                QualifiedCoordinates qualifiedCoordinates = new QualifiedCoordinates(lattitudeDegrees,
-                        longitudeDegrees, altitude, horizontalAccuracy, verticalAccuracy);
-
-                // Convert the timestamp from NMEA's definition to Java's.
-                long timestamp = convertUTCTime(record.date, record.secondsSinceMidnight);
-                
-                // Record the latest location.
-                location = new LocationImpl(qualifiedCoordinates, speed, course, timestamp); 
-                
-                // If we got this far the location provider is available so
-                // notify if it was previously unavailable
-                setProviderState( LocationProvider.AVAILABLE );
-
-                // Notify the location provider of the new location.
-                if (locationListener != null) {
-	                long now = System.currentTimeMillis();
-	                
-	                if ( now - lastLocationUpdateTime >= locationUpdateInterval )
-	                {
-	                	// The update interval has expired.  Time to raise a new event.
-	                	lastLocationUpdateTime = now;
-	                	
-		                // Raise the location event.
-	                	try
-	                	{
-	                		locationListener.locationUpdated(this.locationProvider, location);
-	                	}
-	                	catch (Throwable userT)
-	                	{
-	        				// This is a programming error in the user's application.
-	        				Log.warn("Unhandled exception in LocationProvider.locationUpdated\n" + location, userT);
-	                	}
-	                }
-                }
-        	} catch (NumberFormatException e) {
-        		// Bad float string received from GPS.
-        		// Ignore it, the sentence was corrupt.
-        	} catch (NullPointerException e) {
-        		// Ignore it, we don't have enough data yet.  This occationally
-        		// happens immediately when record hasn't been filled out.
-        	}
+        if ((record.quality >= 1) && (record.quality <= 3)) {
+            // Ignore it if we don't have enough data yet.  This occationally
+            // happens immediately when record hasn't been filled out or when
+            // a number in the sentence was corrupt.
+            if ( Double.isNaN(record.lattitude) || Double.isNaN(record.longitude) ||
+                 Float.isNaN(record.hdop) || Float.isNaN(record.vdop) ||
+                 Float.isNaN(record.speed) ) {
+                return;
+            }
+            
+            float altitude = record.altitude;
+
+            // The vertical and horizontal accuracy
+            float horizontalAccuracy = record.hdop;
+            float verticalAccuracy = record.vdop;
+
+            // Convert the speed to meters/second
+            float speed = record.speed * MS_PER_KNOT;
+            
+            // The course, which is NaN if not known.
+            float course = record.course;
+
+            // The parser converted the timestamp from NMEA's definition to
+            // Java's.  If the device hasn't sent the date yet use ours.
+            long timestamp = record.timestamp;
+            
+            if (timestamp < 0) {
+            	timestamp = System.currentTimeMillis();
+            }
+            
+            // The parser already converted the position to decimal degrees.
+            double lattitude = record.lattitude;
+            double longitude = record.longitude;
+            
+            // Out of range values mean the sentence was corrupt.  Check
+            // before they reach the filter.
+            if ((lattitude < -90) || (lattitude > 90) ||
+                (longitude < -180) || (longitude >= 180)) {
+                return;
+            }
+            
+            // Smooth the fix.  The listeners are not told about it when
+            // the receiver has not moved far enough.
+            boolean moved = true;
+            
+            if (filter != null) {
+                moved = filter.update(lattitude, longitude, horizontalAccuracy, speed, course, timestamp);
+                lattitude = filter.getLatitude();
+                longitude = filter.getLongitude();
+                speed = filter.getSpeed();
+                course = filter.getCourse();
+            }
+
+            // If we have a valid lattitude and longitude, notify
+            // the location listener.
+            QualifiedCoordinates qualifiedCoordinates;
+            
+            try {
+                qualifiedCoordinates = new QualifiedCoordinates(lattitude,
+                        longitude, altitude, horizontalAccuracy, verticalAccuracy);
+            } catch (IllegalArgumentException e) {
+            	// Out of range values received from GPS.
+            	// Ignore them, the sentence was corrupt.
+            	return;
+            }
+            
+            // Record the latest location.
+            location = new LocationImpl(qualifiedCoordinates, speed, course, timestamp); 
+            fixes.set(location);
+            history.add(location);
+            statistics.fixed(System.currentTimeMillis());
+            
+            // If we got this far the location provider is available so
+            // notify if it was previously unavailable
+            setProviderState( LocationProvider.AVAILABLE );
+
+            // Notify the location listeners of the new location.  It is
+            // delivered on the dispatcher's thread to the listeners whose
+            // interval and distance filters pass it.
+            if (moved && !listeners.isEmpty()) {
+                dispatcher.locationUpdated(location, readTime);
+            }
         } else {
             // The fix is 0. Set the state to unavailable and notify
             setProviderState( LocationProvider.TEMPORARILY_UNAVAILABLE );
@@ -744,7 +811,7 @@ class BluetoothGPS implements Runnable {
     
     /**
      * Sets the <code>locationProvider</code> state and notifies any registered
-     * <code>locationListener</code>.  This should be called from the reader thread.
+     * location listeners.  This should be called from the reader thread.
      * 
      * @param newState is the new state of the location provider.
      */
@@ -756,31 +823,11 @@ class BluetoothGPS implements Runnable {
         	// Set the new state.
             locationProvider.setState( newState );
             
-            // Inform the registered location listener.
-            if ( locationListener != null )
+            // Inform the registered location listeners.  They are called on
+            //  the dispatcher's thread in the same order as the locations.
+            if ( !listeners.isEmpty() )
             {
-            	try
-            	{
-                    locationListener.providerStateChanged( locationProvider, newState );
-            	}
-            	catch (Throwable t)
-            	{
-    				// This is a programming error in the user's application.
-    				Log.warn("Unhandled exception in LocationProvider.providerStateChanged to " + newState, t);
-            	}
-            }
-            
-            // Give up the CPU so the UI can be repainted.
-            synchronized ( this )
-            {
-            	try
-            	{
-            		Thread.sleep( 0 );
-            	}
-            	catch (InterruptedException e) 
-            	{
-            		// Ignore and continue.
-            	}
+                dispatcher.providerStateChanged( newState );
             }
         }
     }
@@ -796,17 +843,12 @@ class BluetoothGPS implements Runnable {
      * @return the value converted to degrees. If the value direction is "S" or
      *         "W" then the return value will be negative.
      */
-    public static float convertToDegress(String value, char direction) {
+    public static double convertToDegress(String value, char direction) {
         if (value != null) {
-            int idx = value.indexOf('.');
-
-            if (idx > 0) {
-                int mmstart = idx - 2;
-                float dd = Float.parseFloat(value.substring(0, mmstart));
-                float mmmmmm = Float.parseFloat(value.substring(mmstart));
-                float val = mmmmmm / 60;
-                float result = dd + val;
+            byte[] bytes = value.getBytes();
+            double result = NMEAParser.parseDegrees(bytes, 0, bytes.length);
 
+            if (!Double.isNaN(result)) {
                 if ((direction == 'S') || (direction == 's')) {
                     return result * -1;
                 } else if ((direction == 'W') || (direction == 'w')) {
@@ -841,29 +883,18 @@ class BluetoothGPS implements Runnable {
     		return System.currentTimeMillis();
     	}
     	
-    	// Convert time to milliseconds seconds since midnight.
-    	double d = Double.parseDouble( time );
-    	d *= 1000;  // From seconds to milliseconds
-    	int today = (int)d;
-    	
-    	// Parse the date.
-    	int day = Integer.parseInt( date.substring(0, 2) );
-    	int month = Integer.parseInt( date.substring(2, 4) );
-    	int year = Integer.parseInt( date.substring(4, 6) );
+    	byte[] d = date.getBytes();
+    	byte[] t = time.getBytes();
     	
-    	// How many days since 1970?
-    	long days = 10957;  // Days from 1970 to 2000 including leap years (30 * 365 + 7)
-    	days += year * 365;  // Since 2000
-    	days += ((year - 1) / 4) + 1; // Include leap years
+    	long milliseconds = NMEAParser.toEpochMillis(
+    			NMEAParser.parseInteger( d, 0, d.length ),
+    			NMEAParser.parseTime( t, 0, t.length ),
+    			NMEAParser.currentYear() );
     	
-    	days += MONTH_OFFSET[month - 1];  // Days to the current month
-    	if ( (year % 4 == 0) && (month >= 3) ) days += 1;  // Leap day
-    	
-    	days += day;  // Days so far in the current month
-    	
-    	// Put it all together.
-    	long milliseconds = days * 86400000;  // Number of milliseconds in a day
-    	milliseconds += today;
+    	if ( milliseconds < 0 )
+    	{
+    		return System.currentTimeMillis();
+    	}
     	
     	return milliseconds;
 	}
@@ -877,6 +908,9 @@ class BluetoothGPS implements Runnable {
     	
         if (runner == null) {
             stop = false;
+            statistics.started(System.currentTimeMillis());
+            fixes.open();
+            dispatcher.start();
             runner = new Thread(this);
             runner.start();
         }
@@ -892,6 +926,7 @@ class BluetoothGPS implements Runnable {
             if (Thread.currentThread() == runner) {
                 // runner.notify();
                 runner = null;
+                configurator.closing();
                 disconnect();
                 
     			// Go into an unavailable state until we get new locations.
@@ -908,6 +943,13 @@ class BluetoothGPS implements Runnable {
             // No runner thread so already in a temporarily unavailable state.
         }
         
+        // Stop calling the listener once it has the events already raised.
+        DeadlineScheduler.getInstance().cancel(expiry);
+        dispatcher.stop();
+        
+        // Wake any threads waiting for a location.
+        fixes.close();
+        
         // Give the worker threads a chance to die.
 		synchronized ( this )
 		{
@@ -929,9 +971,11 @@ class BluetoothGPS implements Runnable {
      * @param locationListener - the location listener defined by the user
      * @param interval is the time in seconds between delivering new locations
      *  to <code>locationListener.locationUpdated</code>.
-     * @param timeout is how long it can take to get coordinates.
+     * @param timeout is how many seconds late a location can be before the
+     *  listener is sent an invalid location instead.
      * @param maxAge is the oldest a location can be, in seconds, that is delivered
-     *  to <code>locationListener.locationUpdated</code>.
+     *  to <code>locationListener.locationUpdated</code>.  When the listener is
+     *  due and the last location is this recent it is sent straight away.
      * 
      * @see LocationProvider#setLocationListener(LocationListener, int, int, int)
      */
@@ -939,98 +983,36 @@ class BluetoothGPS implements Runnable {
     		LocationListener locationListener,
     		int interval, int timeout, int maxAge)
     {
-        this.locationListener = locationListener;
+        // The default interval is every second.
+        listeners.setLocationListener(locationListener, interval, timeout, maxAge);
         
-        if ( interval < 1 )
-        {
-        	this.locationUpdateInterval = 1000;  // Deliver every second
-        }
-        else
-        {
-        	this.locationUpdateInterval = interval * 1000;  // Convert from seconds to milliseconds
-        }
+        // Start the timeout and send a cached location if there is one.
+        dispatcher.post(expireTask);
     }
-}
-
-/**
- * Waits while reading from the input stream so that if we get wedged reading
- * from the input stream, this will interrupt the read.
- */
-final class BluetoothReadTimeoutThread extends Thread {
-    /**
-     * Timeout in milliseconds. This how long a read from the input stream
-     * should take.
-     */
-    private short timeout;
-
-    /**
-     * The thread that is doing the read
-     */
-    private Thread runner;
 
     /**
-     * Set to true when the read completed successfully
-     */
-    private boolean readSuccess = false;
-
-    /**
-     * Create the read time out thread.
+     * Adds a location listener with its own filters.
      *
-     * @param runner
-     *            the thread that does the reading
-     * @param timeout
-     *            the timeout for reads
-     */
-    BluetoothReadTimeoutThread(Thread runner, short timeout) {
-        this.timeout = timeout;
-        this.runner = runner;
-    }
-
-    /**
-     * Used to restart the thread. Wakes it up.
-     */
-    public synchronized void restart() {
-        this.interrupt();
-    }
-
-    /**
-     * Wait the specified timeout to kill the read thread
+     * @param listener - the location listener defined by the user
+     * @param interval is the least milliseconds between locations.
+     * @param minDistance is the least meters moved between locations.
+     * 
+     * @see LocationProvider#addLocationListener(LocationListener, int, float)
      */
-    public synchronized void run() {
-        while (true) {
-            this.readSuccess = false;
-
-            try {
-                // Wait the specified time until for the read
-                wait(timeout);
-            } catch (InterruptedException e) {
-                // If this wait is interrupted it means that the read
-                // finished successfully.
-                readSuccess = true;
-            }
-
-            if (!readSuccess) {
-                // The read timed out. Interrupt the read thread so
-                // that it will disconnect
-                runner.interrupt();
-            }
-
-            try {
-                // Wait until restart is called
-                wait();
-            } catch (InterruptedException e) {
-            }
-        }
+    public void addLocationListener (LocationListener listener, int interval, float minDistance)
+    {
+        listeners.add(listener, interval, minDistance);
     }
 
     /**
-     * Let the read timeout thread know that the read finished.
+     * Removes a location listener.
      *
-     * @param readSuccess
-     *            <code>true</code> if the read completed successfully
+     * @param listener - the location listener to stop notifying
+     * 
+     * @see LocationProvider#removeLocationListener(LocationListener)
      */
-    public synchronized void setReadSuccess(boolean readSuccess) {
-        this.readSuccess = readSuccess;
-        this.interrupt();
+    public void removeLocationListener (LocationListener listener)
+    {
+        listeners.remove(listener);
     }
 }
@@ -26,6 +26,12 @@ class BluetoothLocationProvider extends LocationProvider {
 	 */
 	private static final String BLUETOOTH_GPS_OPTIONS = ";master=false;encrypt=false;authenticate=false";
 	
+	/**
+	 * How long, in seconds, <code>getLocation</code> waits when it is given
+	 * the default timeout of -1.  A cold start takes up to 40 seconds.
+	 */
+	private static final int DEFAULT_TIMEOUT = 60;
+	
     /**
      * The instance of this class
      */
@@ -65,7 +71,7 @@ class BluetoothLocationProvider extends LocationProvider {
 		if ( matchesCriteria(criteria) )
 		{
 			String url = criteria.getRemoteDeviceAddress();
-			return getInstance( url );
+			return getInstance( url, criteria );
 		}
 		else
 		{
@@ -81,12 +87,13 @@ class BluetoothLocationProvider extends LocationProvider {
      * @param remoteDeviceBTAddress - The remote GPS device bluetooth address
      * @param channelId - The channel id for the remote device.  This may be <code>null</code>.  If this
      *  is the case we will simply guess at the channel ID for the device.
+     * @param criteria - The application's requirements.  This may be <code>null</code>.
      * @throws ConnectionNotFoundException - If the target of the name cannot be found, or if the requested protocol type is not supported. 
      * @throws IOException - If error occurs while establishing bluetooth connection or opening input stream. 
      * @throws SecurityException - May be thrown if access to the protocol handler is prohibited.
      */
     private BluetoothLocationProvider(String remoteDeviceBTAddress,
-        String channelId) throws ConnectionNotFoundException, IOException, SecurityException {
+        String channelId, Criteria criteria) throws ConnectionNotFoundException, IOException, SecurityException {
         
     	// The number of channels to try connecting on.
     	//  Bluetooth address have channels 1-9 typically.  However, GPS
@@ -102,7 +109,7 @@ class BluetoothLocationProvider extends LocationProvider {
                 try {
                     bluetoothURL = constructBTURL(remoteDeviceBTAddress,
                             Integer.toString(i));
-                    gps = connect(bluetoothURL);
+                    gps = connect(bluetoothURL, criteria);
                     break;
                 } catch (IOException e) {
                     if (Log.isDebugEnabled()) {
@@ -118,10 +125,29 @@ class BluetoothLocationProvider extends LocationProvider {
         } else {
             // Connect to the remote GPS device
             bluetoothURL = constructBTURL(remoteDeviceBTAddress, channelId);
-            gps = connect(bluetoothURL);
+            gps = connect(bluetoothURL, criteria);
         }
     }
     
+    /**
+     * Construct a provider whose connection is made elsewhere, such as by a
+     * subclass or a <code>ConnectionRace</code>.  It does not connect to
+     * anything; the creator calls <code>start</code>.
+     */
+    BluetoothLocationProvider() {
+    }
+
+    /**
+     * Starts reading locations from a GPS receiver.
+     *
+     * @param gps - The receiver created for this provider.
+     * @throws IOException - If error occurs while establishing the connection.
+     */
+    void start(BluetoothGPS gps) throws IOException {
+        this.gps = gps;
+        gps.start();
+    }
+
     /**
      * Returns if the Bluetooth GPS implementation matches the required
      * criteria for the application.
@@ -200,9 +226,63 @@ class BluetoothLocationProvider extends LocationProvider {
      * @throws SecurityException - May be thrown if access to the protocol handler is prohibited.
      */
     public static BluetoothLocationProvider getInstance(String bturl)
+        throws ConnectionNotFoundException, IOException, SecurityException {
+        return getInstance(bturl, null);
+    }
+
+    /**
+     * Get the instance of this class when the Bluetooth URL is known
+     *
+     * @param bturl - The url to the bluetooth device
+     * @param criteria - The application's requirements.  Its response time and
+     *  power usage control how often the device is read.  This may be <code>null</code>.
+     * @throws ConnectionNotFoundException - If the target of the name cannot be found, or if the requested protocol type is not supported. 
+     * @throws IOException - If error occurs while establishing bluetooth connection or opening input stream. 
+     * @throws SecurityException - May be thrown if access to the protocol handler is prohibited.
+     */
+    public static BluetoothLocationProvider getInstance(String bturl, Criteria criteria)
+        throws ConnectionNotFoundException, IOException, SecurityException {
+        if (instance == null) {
+            instance = new BluetoothLocationProvider(bturl, null, criteria);
+        }
+
+        return instance;
+    }
+
+    /**
+     * Get the instance of this class connected to whichever of several GPS
+     * devices answers first.  They are tried at the same time, each a little
+     * after the one ranked above it, and the first to send a valid NMEA
+     * sentence is kept.  The others are disconnected.
+     *
+     * @param bturls - The urls or addresses of the bluetooth devices, best first.
+     *  Addresses without a channel are tried on channel 1.
+     * @param criteria - The application's requirements.  This may be <code>null</code>.
+     * @throws ConnectionNotFoundException - If none of the devices sent a valid sentence.
+     * @throws IOException - If error occurs while establishing bluetooth connection or opening input stream. 
+     * @throws SecurityException - May be thrown if access to the protocol handler is prohibited.
+     * @see #getBluetoothURL()
+     */
+    public static BluetoothLocationProvider getInstance(String[] bturls, Criteria criteria)
         throws ConnectionNotFoundException, IOException, SecurityException {
         if (instance == null) {
-            instance = new BluetoothLocationProvider(bturl, null);
+            String[] urls = new String[bturls.length];
+
+            for (int i = 0; i < urls.length; i++) {
+                urls[i] = constructBTURL(bturls[i], "1");
+            }
+
+            ConnectionRace race = new ConnectionRace(urls);
+            StreamConnection connection = race.connect();
+
+            BluetoothLocationProvider provider = new BluetoothLocationProvider();
+            provider.bluetoothURL = race.getWinner();
+
+            BluetoothGPS gps = new BluetoothGPS(provider, provider.bluetoothURL, criteria);
+            gps.setConnection(connection);
+            provider.start(gps);
+
+            instance = provider;
         }
 
         return instance;
@@ -212,15 +292,16 @@ class BluetoothLocationProvider extends LocationProvider {
      * Connect to the GPs device.
      *
      * @param bturl - The url to the bluetooth GPS device
+     * @param criteria - The application's requirements.  This may be <code>null</code>.
      * @throws ConnectionNotFoundException - If the target of the name cannot be found, or if the requested protocol type is not supported. 
      * @throws IOException - If error occurs while establishing bluetooth connection or opening input stream. 
      * @throws SecurityException - May be thrown if access to the protocol handler is prohibited.
      */
-    private BluetoothGPS connect(String bturl)
+    private BluetoothGPS connect(String bturl, Criteria criteria)
  		throws ConnectionNotFoundException, IOException, SecurityException {
 
     	// Connect to the Bluetooth GPS device.
-        BluetoothGPS gps = new BluetoothGPS(this, bturl);
+        BluetoothGPS gps = new BluetoothGPS(this, bturl, criteria);
         gps.start();
 
         return gps;
@@ -285,42 +366,56 @@ class BluetoothLocationProvider extends LocationProvider {
     }
     
 	/**
+	 * Returns the last location parsed from the GPS device.  If there is
+	 * none yet it waits for the first.
+	 * 
 	 * @see org.j4me.bluetoothgps.LocationProvider#getLocation(int)
 	 */
 	public Location getLocation (int timeout)
 		throws LocationException, InterruptedException
 	{
-		if ( (timeout == 0) || (timeout < -1) )
+		return getLocation( timeout, -1 );
+	}
+
+	/**
+	 * Returns the last location parsed from the GPS device if it is recent
+	 * enough.  Otherwise it blocks until the next one is parsed and returns
+	 * it straight away.
+	 * 
+	 * @see org.j4me.bluetoothgps.LocationProvider#getLocation(int, int)
+	 */
+	public Location getLocation (int timeout, int maxAge)
+		throws LocationException, InterruptedException
+	{
+		if ( (timeout == 0) || (timeout < -1) || (maxAge < -1) )
 		{
 			throw new IllegalArgumentException();
 		}
 		
-		long start = System.currentTimeMillis();
-		timeout *= 1000;  // Convert seconds to milliseconds.
+		if ( (state == OUT_OF_SERVICE) || (gps == null) )
+		{
+			throw new LocationException("Bluetooth location provider is out of service");
+		}
+		
+		if ( timeout == -1 )
+		{
+			timeout = DEFAULT_TIMEOUT;
+		}
 		
-		// Poll for the timeout period trying to get a location.
-		Location loc;
+		// Wait for a location.  The reader thread wakes us as soon as it
+		// parses one.
+		long age = (maxAge == -1) ? -1 : maxAge * 1000L;
+		Location loc = gps.waitForLocation( age, timeout * 1000L );
 		
-		do
+		if ( loc == null )
 		{
-			if ( (state == OUT_OF_SERVICE) || (gps == null) )
+			if ( state == OUT_OF_SERVICE )
 			{
 				throw new LocationException("Bluetooth location provider is out of service");
 			}
 			
-			// Get the last known location.
-			loc = gps.getLastKnownLocation();
-			
-			if ( loc == null )
-			{
-				Thread.sleep( 250 );
-				
-				if ( System.currentTimeMillis() - start > timeout)
-				{
-					throw new LocationException("Timed out getting location from Bluetooth location provider");
-				}
-			}
-		} while ( loc == null );
+			throw new LocationException("Timed out getting location from Bluetooth location provider");
+		}
 		
 		return loc;
 	}
@@ -348,6 +443,41 @@ class BluetoothLocationProvider extends LocationProvider {
         gps.setLocationListener(locationlistener, interval, timeout, maxAge);
     }
 
+    /**
+     * @see org.j4me.bluetoothgps.LocationProvider#addLocationListener(org.j4me.bluetoothgps.LocationListener, int, float)
+     */
+    public void addLocationListener(LocationListener listener, int interval, float minDistance) {
+        gps.addLocationListener(listener, interval, minDistance);
+    }
+
+    /**
+     * @see org.j4me.bluetoothgps.LocationProvider#removeLocationListener(org.j4me.bluetoothgps.LocationListener)
+     */
+    public void removeLocationListener(LocationListener listener) {
+        gps.removeLocationListener(listener);
+    }
+
+    /**
+     * @see org.j4me.bluetoothgps.LocationProvider#getHistory()
+     */
+    public LocationHistory getHistory() {
+        return (gps == null) ? null : gps.getHistory();
+    }
+
+    /**
+     * Returns counts of what happened between the GPS device and the
+     * location listeners: bytes and sentences read, checksum failures,
+     * reconnects and their causes, time to first fix, and how long
+     * locations took to reach the listeners.
+     *
+     * @return The statistics or <code>null</code> if the provider has not
+     *  been started.
+     * @see org.j4me.bluetoothgps.LocationProvider#getStatistics()
+     */
+    public GPSStatistics getStatistics() {
+        return (gps == null) ? null : gps.getStatistics();
+    }
+
     /**
      * @return The address of the Bluetooth GPS device.
      */
@@ -381,11 +511,12 @@ class BluetoothLocationProvider extends LocationProvider {
      */
     public void close() {
         if (gps != null) {
-    		gps.stop();
-            
-			// Record we are no longer connected.
+			// Record we are no longer connected.  Threads waiting in
+            // getLocation are woken by stop() and see this.
             state = OUT_OF_SERVICE;
             
+    		gps.stop();
+            
             // Stop sending notifications.
             gps.setLocationListener( null, -1, -1, -1 );
         }
@@ -0,0 +1,670 @@
+package org.j4me.bluetoothgps;
+
+import java.io.*;
+import org.j4me.logging.*;
+import org.j4me.util.*;
+
+/**
+ * A <code>LocationProvider</code> that uses several other providers at once.
+ * For example a phone's own GPS (JSR 179) and a Bluetooth GPS device.  Every
+ * source starts getting a fix as soon as it is added so the first fix comes
+ * from whichever is quickest, not after each has been tried in turn.
+ * <p>
+ * After the first fix each new location is only passed on if no other
+ * source has a better one.  A source's location is better if it is fresh,
+ * less than <code>FRESH_TIME</code> old, and has a smaller horizontal
+ * accuracy.  A Bluetooth GPS reports its accuracy as the HDOP, not meters,
+ * so it is multiplied by the typical error of a fix with an HDOP of 1
+ * before being compared.  A source that says it is <code>TEMPORARILY_UNAVAILABLE</code>
+ * is demoted.  Its locations are only used when no other source has a fresh
+ * one.  It is promoted again when it becomes <code>AVAILABLE</code> or sends
+ * a valid location.
+ * <p>
+ * The composite is <code>AVAILABLE</code> when any source is,
+ * <code>OUT_OF_SERVICE</code> when every source is, and otherwise
+ * <code>TEMPORARILY_UNAVAILABLE</code>.
+ * <p>
+ * The listeners are called on the composite's own thread, never a source's,
+ * so a listener is only ever called by one thread at a time.  The timeout
+ * and maximum age given to <code>setLocationListener</code> are applied
+ * the same way <code>BluetoothLocationProvider</code> applies them.
+ *
+ * @see LocationProvider#getInstance(Criteria)
+ */
+public class CompositeLocationProvider
+	extends LocationProvider
+{
+	/**
+	 * How long, in milliseconds, a source's last location stays good enough
+	 * to keep worse locations from other sources from being used.
+	 */
+	public static final int FRESH_TIME = 3000;
+
+	/**
+	 * How long, in seconds, <code>getLocation</code> waits when it is given
+	 * the default timeout of -1.
+	 */
+	private static final int DEFAULT_TIMEOUT = 60;
+
+	/**
+	 * One of the providers being combined and what is known about it.
+	 */
+	private final class Source
+		implements LocationListener
+	{
+		/**
+		 * The provider.
+		 */
+		final LocationProvider provider;
+
+		/**
+		 * The provider's last reported state.
+		 */
+		int state;
+
+		/**
+		 * The provider's last valid location or <code>null</code> if it has
+		 * not sent one.
+		 */
+		Location location;
+
+		/**
+		 * When <code>location</code> was received according to
+		 * <code>System.currentTimeMillis</code>.
+		 */
+		long arrival;
+
+		/**
+		 * Turns the provider's horizontal accuracy into meters.  Bluetooth
+		 * GPS devices report the HDOP instead.
+		 */
+		final float accuracyScale;
+
+		Source (LocationProvider provider)
+		{
+			this.provider = provider;
+			this.state = provider.getState();
+			this.accuracyScale = (provider instanceof BluetoothLocationProvider) ? KalmanFilter.UERE : 1;
+		}
+
+		/**
+		 * @param l is a valid location from this source.
+		 * @return Its horizontal accuracy in meters.  An unknown accuracy is
+		 *  treated as the worst possible.
+		 */
+		float accuracy (Location l)
+		{
+			float accuracy = horizontalAccuracy( l );
+			return (accuracy == Float.MAX_VALUE) ? accuracy : accuracy * accuracyScale;
+		}
+
+		/**
+		 * @param now is the current time in milliseconds.
+		 * @return <code>true</code> if the source has a location less than
+		 *  <code>FRESH_TIME</code> old.
+		 */
+		boolean isFresh (long now)
+		{
+			return (location != null) && (now - arrival < FRESH_TIME);
+		}
+
+		/**
+		 * @return <code>true</code> if the source said it is unavailable
+		 *  and has not recovered.
+		 */
+		boolean isDemoted ()
+		{
+			return (state != AVAILABLE);
+		}
+
+		public void locationUpdated (LocationProvider provider, Location location)
+		{
+			sourceLocationUpdated( this, location );
+		}
+
+		public void providerStateChanged (LocationProvider provider, int newState)
+		{
+			sourceStateChanged( this, newState );
+		}
+	}
+
+	/**
+	 * The providers being combined.
+	 */
+	private Source[] sources = new Source[0];
+
+	/**
+	 * The combined state.
+	 */
+	private int state = TEMPORARILY_UNAVAILABLE;
+
+	/**
+	 * The last location passed on.  Threads waiting in <code>getLocation</code>
+	 * are woken when it is set.
+	 */
+	private final LocationCache location = new LocationCache();
+
+	/**
+	 * The recent locations passed on, whichever source they came from.
+	 */
+	private final LocationHistory history = new LocationHistory( LocationHistory.DEFAULT_CAPACITY );
+
+	/**
+	 * The application's listeners.  The listener set with
+	 * <code>setLocationListener</code> gets every location passed on unless
+	 * it has an interval.
+	 */
+	private final LocationListenerSet listeners = new LocationListenerSet( 0, location );
+
+	/**
+	 * Calls the <code>listeners</code> on its own thread.  Sources call back
+	 * on their own threads so without it a listener could be called by two
+	 * at once.
+	 */
+	private final LocationDispatcher dispatcher = new LocationDispatcher( this );
+
+	/**
+	 * Sends the location listener cached locations and timeouts.  It is run
+	 * on the dispatcher's thread, along with the other location events, when
+	 * <code>expiry</code> fires.
+	 */
+	private final Runnable expireTask = new Runnable()
+		{
+			public void run ()
+			{
+				long now = System.currentTimeMillis();
+				long next = listeners.expire( CompositeLocationProvider.this, now );
+
+				if ( next != Long.MAX_VALUE )
+				{
+					DeadlineScheduler.getInstance().schedule( expiry, Math.max(next - now, 0) );
+				}
+				else
+				{
+					DeadlineScheduler.getInstance().cancel( expiry );
+				}
+			}
+		};
+
+	/**
+	 * Fires when the location listener is next due a cached location or
+	 * has timed out.
+	 */
+	private final Deadline expiry = new Deadline( new Runnable()
+		{
+			public void run ()
+			{
+				dispatcher.post( expireTask );
+			}
+		} );
+
+	/**
+	 * Statistics.
+	 */
+	private int usedCount;
+	private int skippedCount;
+
+	/**
+	 * Constructs a composite provider with no sources.  Add them with
+	 * <code>addSource</code>.
+	 */
+	public CompositeLocationProvider ()
+	{
+		dispatcher.setListener( listeners );
+		dispatcher.start();
+	}
+
+	/**
+	 * Constructs a composite provider and starts all of its sources.
+	 *
+	 * @param sources are the providers to combine.
+	 */
+	public CompositeLocationProvider (LocationProvider[] sources)
+	{
+		this();
+
+		for ( int i = 0; i < sources.length; i++ )
+		{
+			addSource( sources[i] );
+		}
+	}
+
+	/**
+	 * Adds a provider.  It starts getting locations right away.
+	 *
+	 * @param provider is the provider to add.
+	 */
+	public void addSource (LocationProvider provider)
+	{
+		if ( provider == null )
+		{
+			throw new IllegalArgumentException("provider cannot be null");
+		}
+
+		Source source = new Source( provider );
+
+		synchronized ( this )
+		{
+			Source[] bigger = new Source[sources.length + 1];
+			System.arraycopy( sources, 0, bigger, 0, sources.length );
+			bigger[sources.length] = source;
+			sources = bigger;
+		}
+
+		// Get every location it makes.
+		provider.addLocationListener( source, 0, 0 );
+		updateState();
+	}
+
+	/**
+	 * Stops using a provider.  It is not closed.
+	 *
+	 * @param provider is the provider to remove.
+	 * @return <code>true</code> if it was a source.
+	 */
+	public boolean removeSource (LocationProvider provider)
+	{
+		Source removed = null;
+
+		synchronized ( this )
+		{
+			for ( int i = 0; i < sources.length; i++ )
+			{
+				if ( sources[i].provider == provider )
+				{
+					removed = sources[i];
+
+					Source[] smaller = new Source[sources.length - 1];
+					System.arraycopy( sources, 0, smaller, 0, i );
+					System.arraycopy( sources, i + 1, smaller, i, smaller.length - i );
+					sources = smaller;
+					break;
+				}
+			}
+		}
+
+		if ( removed == null )
+		{
+			return false;
+		}
+
+		provider.removeLocationListener( removed );
+		updateState();
+		return true;
+	}
+
+	/**
+	 * @return The providers being combined.
+	 */
+	public synchronized LocationProvider[] getSources ()
+	{
+		LocationProvider[] providers = new LocationProvider[sources.length];
+
+		for ( int i = 0; i < sources.length; i++ )
+		{
+			providers[i] = sources[i].provider;
+		}
+
+		return providers;
+	}
+
+	/**
+	 * @return The number of source locations passed on.
+	 */
+	public synchronized int getUsedCount ()
+	{
+		return usedCount;
+	}
+
+	/**
+	 * @return The number of source locations not passed on because another
+	 *  source had a better one.
+	 */
+	public synchronized int getSkippedCount ()
+	{
+		return skippedCount;
+	}
+
+	/**
+	 * Called when a source has a new location.  It is passed on unless
+	 * another source has a better one.
+	 *
+	 * @param source is where the location came from.
+	 * @param l is the new location.
+	 */
+	private void sourceLocationUpdated (Source source, Location l)
+	{
+		if ( (l == null) || (l.isValid() == false) )
+		{
+			// Invalid locations only tell us the source has nothing.
+			return;
+		}
+
+		boolean use = true;
+
+		synchronized ( this )
+		{
+			long now = System.currentTimeMillis();
+			float accuracy = source.accuracy( l );
+
+			// Is there a source with a fresher, more accurate location?
+			for ( int i = 0; i < sources.length; i++ )
+			{
+				Source other = sources[i];
+
+				if ( (other != source) && other.isFresh(now) && !other.isDemoted() &&
+					 (source.isDemoted() || (other.accuracy(other.location) < accuracy)) )
+				{
+					use = false;
+					break;
+				}
+			}
+
+			source.location = l;
+			source.arrival = now;
+
+			if ( use )
+			{
+				usedCount++;
+			}
+			else
+			{
+				skippedCount++;
+			}
+		}
+
+		// A valid location means the source is working again.
+		if ( source.isDemoted() )
+		{
+			sourceStateChanged( source, AVAILABLE );
+		}
+
+		if ( use )
+		{
+			location.set( l );
+			history.add( l );
+			dispatcher.locationUpdated( l );
+		}
+	}
+
+	/**
+	 * Called when a source changes state.  A source that is not available
+	 * is demoted.
+	 *
+	 * @param source is the provider that changed.
+	 * @param newState is its new state.
+	 */
+	private void sourceStateChanged (Source source, int newState)
+	{
+		synchronized ( this )
+		{
+			source.state = newState;
+		}
+
+		if ( Log.isDebugEnabled() && (newState != AVAILABLE) )
+		{
+			Log.debug("Location source demoted:  " + source.provider);
+		}
+
+		updateState();
+	}
+
+	/**
+	 * Works out the combined state from the sources' and tells the listeners
+	 * if it changed.
+	 */
+	private void updateState ()
+	{
+		int newState;
+
+		synchronized ( this )
+		{
+			newState = OUT_OF_SERVICE;
+
+			for ( int i = 0; i < sources.length; i++ )
+			{
+				int s = sources[i].state;
+
+				if ( s == AVAILABLE )
+				{
+					newState = AVAILABLE;
+					break;
+				}
+				else if ( s == TEMPORARILY_UNAVAILABLE )
+				{
+					newState = TEMPORARILY_UNAVAILABLE;
+				}
+			}
+
+			if ( newState == state )
+			{
+				return;
+			}
+
+			state = newState;
+		}
+
+		dispatcher.providerStateChanged( newState );
+	}
+
+	/**
+	 * @param l is a valid location.
+	 * @return Its horizontal accuracy in the units of the provider it came
+	 *  from.  An unknown accuracy is treated as the worst possible.
+	 */
+	private static float horizontalAccuracy (Location l)
+	{
+		QualifiedCoordinates c = l.getQualifiedCoordinates();
+
+		if ( c == null )
+		{
+			return Float.MAX_VALUE;
+		}
+
+		float accuracy = c.getHorizontalAccuracy();
+
+		if ( Float.isNaN(accuracy) )
+		{
+			return Float.MAX_VALUE;
+		}
+
+		return accuracy;
+	}
+
+	/**
+	 * @see org.j4me.bluetoothgps.LocationProvider#getState()
+	 */
+	public synchronized int getState ()
+	{
+		return state;
+	}
+
+	/**
+	 * Returns the last location passed on from any source.  If there is none
+	 * yet it waits for the first from whichever source is quickest.
+	 *
+	 * @see org.j4me.bluetoothgps.LocationProvider#getLocation(int)
+	 */
+	public Location getLocation (int timeout)
+		throws LocationException, InterruptedException
+	{
+		return getLocation( timeout, -1 );
+	}
+
+	/**
+	 * Returns the last location passed on from any source if it is recent
+	 * enough.  Otherwise it waits for the next one.
+	 *
+	 * @see org.j4me.bluetoothgps.LocationProvider#getLocation(int, int)
+	 */
+	public Location getLocation (int timeout, int maxAge)
+		throws LocationException, InterruptedException
+	{
+		if ( (timeout == 0) || (timeout < -1) || (maxAge < -1) )
+		{
+			throw new IllegalArgumentException();
+		}
+
+		if ( getState() == OUT_OF_SERVICE )
+		{
+			throw new LocationException("All location sources are out of service");
+		}
+
+		if ( timeout == -1 )
+		{
+			timeout = DEFAULT_TIMEOUT;
+		}
+
+		long age = (maxAge == -1) ? -1 : maxAge * 1000L;
+		Location l = location.waitFor( age, timeout * 1000L );
+
+		if ( l == null )
+		{
+			if ( getState() == OUT_OF_SERVICE )
+			{
+				throw new LocationException("All location sources are out of service");
+			}
+
+			throw new LocationException("Timed out getting location from the location sources");
+		}
+
+		return l;
+	}
+
+	/**
+	 * @see LocationProvider#getLastKnownLocationToProvider()
+	 */
+	protected Location getLastKnownLocationToProvider ()
+	{
+		return location.get();
+	}
+
+	/**
+	 * @see LocationProvider#getHistory()
+	 */
+	public LocationHistory getHistory ()
+	{
+		return history;
+	}
+
+	/**
+	 * Returns the statistics of the first source that keeps them, which
+	 * is the Bluetooth GPS when there is one.
+	 * 
+	 * @see LocationProvider#getStatistics()
+	 */
+	public synchronized GPSStatistics getStatistics ()
+	{
+		for ( int i = 0; i < sources.length; i++ )
+		{
+			GPSStatistics statistics = sources[i].provider.getStatistics();
+
+			if ( statistics != null )
+			{
+				return statistics;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * @see org.j4me.bluetoothgps.LocationProvider#setLocationListener(org.j4me.bluetoothgps.LocationListener, int, int, int)
+	 */
+	public void setLocationListener (LocationListener locationListener, int interval, int timeout, int maxAge)
+	{
+		listeners.setLocationListener( locationListener, interval, timeout, maxAge );
+
+		// Start the timeout and send a cached location if there is one.
+		dispatcher.post( expireTask );
+	}
+
+	/**
+	 * @see org.j4me.bluetoothgps.LocationProvider#addLocationListener(org.j4me.bluetoothgps.LocationListener, int, float)
+	 */
+	public void addLocationListener (LocationListener listener, int interval, float minDistance)
+	{
+		listeners.add( listener, interval, minDistance );
+	}
+
+	/**
+	 * @see org.j4me.bluetoothgps.LocationProvider#removeLocationListener(org.j4me.bluetoothgps.LocationListener)
+	 */
+	public void removeLocationListener (LocationListener listener)
+	{
+		listeners.remove( listener );
+	}
+
+	/**
+	 * Resets every source.
+	 *
+	 * @see org.j4me.bluetoothgps.LocationProvider#reset()
+	 */
+	public void reset ()
+		throws IOException
+	{
+		Source[] all;
+
+		synchronized ( this )
+		{
+			all = sources;
+		}
+
+		IOException error = null;
+
+		for ( int i = 0; i < all.length; i++ )
+		{
+			try
+			{
+				all[i].provider.reset();
+			}
+			catch (IOException e)
+			{
+				// Reset the rest before throwing it.
+				error = e;
+			}
+		}
+
+		if ( error != null )
+		{
+			throw error;
+		}
+	}
+
+	/**
+	 * Closes every source.
+	 *
+	 * @see org.j4me.bluetoothgps.LocationProvider#close()
+	 */
+	public void close ()
+	{
+		Source[] all;
+
+		synchronized ( this )
+		{
+			all = sources;
+		}
+
+		for ( int i = 0; i < all.length; i++ )
+		{
+			all[i].provider.removeLocationListener( all[i] );
+			all[i].provider.close();
+			all[i].state = OUT_OF_SERVICE;
+		}
+
+		updateState();
+		location.close();
+
+		// Stop calling the listeners once they have the events already raised.
+		DeadlineScheduler.getInstance().cancel( expiry );
+		dispatcher.stop();
+	}
+
+	/**
+	 * @return The object that calls the listeners.
+	 */
+	LocationDispatcher getDispatcher ()
+	{
+		return dispatcher;
+	}
+}
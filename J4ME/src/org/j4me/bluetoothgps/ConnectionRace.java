@@ -0,0 +1,522 @@
+package org.j4me.bluetoothgps;
+
+import java.io.*;
+import javax.microedition.io.*;
+import org.j4me.logging.*;
+import org.j4me.util.*;
+
+/**
+ * Connects to whichever of several GPS devices answers first.  People
+ * often have two or three paired GPS devices and some are switched off.
+ * Trying them one at a time waits out the connection timeout on each dead
+ * one before getting to the one that works.
+ * <p>
+ * The URLs are tried at the same time, each starting <code>stagger</code>
+ * milliseconds after the one before so the best ranked device gets a head
+ * start.  A device wins when a valid NMEA sentence, or a SiRF binary frame
+ * from a device left in binary mode, is read from it; just connecting is
+ * not enough because some stacks accept connections for devices that are
+ * out of range.  The other connections are closed as soon
+ * as there is a winner.
+ * <p>
+ * The race does not remember the winner.  <code>DeviceCache</code> does, so
+ * the winner is ranked first next time.
+ *
+ * @see DeviceCache
+ */
+class ConnectionRace
+{
+	/**
+	 * The default milliseconds between starting each connection attempt.
+	 */
+	public static final int STAGGER = 300;
+
+	/**
+	 * How long, in milliseconds, a connection attempt can take.
+	 */
+	public static final int CONNECT_TIMEOUT = 3000;
+
+	/**
+	 * How long, in milliseconds, a connected device has to send a valid
+	 * NMEA sentence or SiRF frame.  Devices send at least one each second.
+	 */
+	public static final int SENTENCE_TIMEOUT = BluetoothGPS.READ_TIMEOUT;
+
+	/**
+	 * The most bytes read from a device looking for a valid sentence.
+	 */
+	private static final int MAX_BYTES = 1024;
+
+	/**
+	 * The longest NMEA sentence, without the '$', that is checked.
+	 */
+	private static final int MAX_SENTENCE = 128;
+
+	/**
+	 * The URLs to try, best first.
+	 */
+	private final String[] urls;
+
+	/**
+	 * The milliseconds between starting each attempt.
+	 */
+	private final int stagger;
+
+	/**
+	 * The connection of each attempt while it is open.  They are closed
+	 * when another attempt wins.
+	 */
+	private final StreamConnection[] connections;
+
+	/**
+	 * The index into <code>urls</code> of the winner or -1 if there is none yet.
+	 */
+	private int winner = -1;
+
+	/**
+	 * The winning connection.  It is set once the losers are disconnected.
+	 */
+	private StreamConnection winning;
+
+	/**
+	 * The number of attempts that failed.
+	 */
+	private int failures;
+
+	/**
+	 * Set when the caller gave up so the attempts stop.
+	 */
+	private boolean cancelled;
+
+	/**
+	 * The last error from a failed attempt.
+	 */
+	private IOException error;
+
+	/**
+	 * Set when the user did not allow an attempt to connect.
+	 */
+	private SecurityException denied;
+
+	/**
+	 * Constructs a race with the default stagger.
+	 *
+	 * @param urls are the Bluetooth URLs to try, best first.
+	 */
+	public ConnectionRace (String[] urls)
+	{
+		this( urls, STAGGER );
+	}
+
+	/**
+	 * Constructs a race.
+	 *
+	 * @param urls are the Bluetooth URLs to try, best first.
+	 * @param stagger is the milliseconds between starting each attempt.
+	 *  0 starts them all at once.
+	 */
+	public ConnectionRace (String[] urls, int stagger)
+	{
+		if ( (urls == null) || (urls.length == 0) )
+		{
+			throw new IllegalArgumentException("urls cannot be empty");
+		}
+
+		this.urls = urls;
+		this.stagger = stagger;
+		this.connections = new StreamConnection[urls.length];
+	}
+
+	/**
+	 * Runs the race.  It blocks until a device sends a valid sentence, every
+	 * attempt has failed, or the user does not allow a connection.
+	 *
+	 * @return The winner's connection.  Its input stream continues after
+	 *  the sentence that won.
+	 * @throws IOException if no device sent a valid sentence.
+	 * @throws SecurityException if the user does not allow Bluetooth
+	 *  connections.
+	 */
+	public StreamConnection connect ()
+		throws IOException, SecurityException
+	{
+		for ( int i = 0; i < urls.length; i++ )
+		{
+			new Thread( new Attempt(i) ).start();
+		}
+
+		synchronized ( this )
+		{
+			while ( (winning == null) && (failures < urls.length) && (denied == null) )
+			{
+				try
+				{
+					wait();
+				}
+				catch (InterruptedException e)
+				{
+					cancel();
+					throw new InterruptedIOException("Connection race interrupted");
+				}
+			}
+
+			if ( (winning == null) && (denied != null) )
+			{
+				// Not being allowed one connection means not being allowed any.
+				cancel();
+				throw denied;
+			}
+
+			if ( winning == null )
+			{
+				// Timeouts are reported as the devices not being found.
+				if ( (error != null) && !(error instanceof InterruptedIOException) )
+				{
+					throw error;
+				}
+
+				throw new ConnectionNotFoundException("No GPS device answered");
+			}
+
+			return winning;
+		}
+	}
+
+	/**
+	 * Stops the race and closes every open connection.
+	 */
+	private void cancel ()
+	{
+		synchronized ( this )
+		{
+			cancelled = true;
+		}
+
+		closeOthers( -1 );
+	}
+
+	/**
+	 * @return The winning URL or <code>null</code> if there is none.
+	 */
+	public synchronized String getWinner ()
+	{
+		return (winner < 0) ? null : urls[winner];
+	}
+
+	/**
+	 * @return The index of the winning URL or -1 if there is none.
+	 */
+	public synchronized int getWinnerIndex ()
+	{
+		return winner;
+	}
+
+	/**
+	 * Opens a connection to a device.  Override it to race something other
+	 * than Bluetooth connections.
+	 *
+	 * @param url is the device's URL.
+	 * @return The connection.
+	 * @throws IOException if the device cannot be connected to.
+	 */
+	protected StreamConnection open (String url)
+		throws IOException
+	{
+		return (StreamConnection)ConnectorHelper.open( url, Connector.READ_WRITE, CONNECT_TIMEOUT );
+	}
+
+	/**
+	 * @return <code>true</code> if the race is over.
+	 */
+	private synchronized boolean isOver ()
+	{
+		return (winner >= 0) || cancelled;
+	}
+
+	/**
+	 * Closes the connections of all attempts but one.
+	 *
+	 * @param keep is the index of the attempt to leave open or -1 to close all.
+	 */
+	private void closeOthers (int keep)
+	{
+		for ( int i = 0; i < connections.length; i++ )
+		{
+			StreamConnection connection;
+
+			synchronized ( this )
+			{
+				connection = connections[i];
+				connections[i] = null;
+			}
+
+			if ( (i != keep) && (connection != null) )
+			{
+				close( connection );
+			}
+		}
+	}
+
+	/**
+	 * Closes a connection, ignoring errors.
+	 *
+	 * @param connection is the connection to close.
+	 */
+	private static void close (Connection connection)
+	{
+		try
+		{
+			connection.close();
+		}
+		catch (IOException e)
+		{
+			// Ignore.  It is being thrown away.
+		}
+	}
+
+	/**
+	 * Reads from a device until a valid NMEA sentence or SiRF binary frame
+	 * arrives.
+	 *
+	 * @param in is the device's input stream.
+	 * @return <code>true</code> if a sentence or frame with a good checksum
+	 *  was read; <code>false</code> if the stream ended or sent only garbage.
+	 * @throws IOException if the stream cannot be read.
+	 */
+	static boolean readSentence (InputStream in)
+		throws IOException
+	{
+		byte[] sentence = new byte[MAX_SENTENCE];
+		int length = -1;  // -1 until a '$' is read
+
+		// NMEA never has the 0xA0 that starts a frame so both are looked for.
+		SiRFBinaryParser sirf = new SiRFBinaryParser( null );
+		byte[] one = new byte[1];
+
+		for ( int i = 0; i < MAX_BYTES; i++ )
+		{
+			int b = in.read();
+
+			if ( b < 0 )
+			{
+				return false;
+			}
+
+			one[0] = (byte)b;
+			sirf.parse( one, 0, 1 );
+
+			if ( sirf.getFrameCount() > 0 )
+			{
+				return true;
+			}
+			else if ( b == '$' )
+			{
+				length = 0;
+			}
+			else if ( length < 0 )
+			{
+				// Skip to the start of a sentence.
+			}
+			else if ( (b == '\r') || (b == '\n') )
+			{
+				if ( NMEAParser.checksumStart(sentence, length) >= 0 )
+				{
+					return true;
+				}
+
+				length = -1;
+			}
+			else if ( length < sentence.length )
+			{
+				sentence[length++] = (byte)b;
+			}
+			else
+			{
+				// Too long to be a sentence.
+				length = -1;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Tries one URL.
+	 */
+	private final class Attempt
+		implements Runnable
+	{
+		/**
+		 * The index into <code>urls</code> of the URL to try.
+		 */
+		private final int index;
+
+		Attempt (int index)
+		{
+			this.index = index;
+		}
+
+		public void run ()
+		{
+			String url = urls[index];
+			IOException failure = null;
+
+			try
+			{
+				// Give the better ranked devices a head start.
+				if ( (index > 0) && (stagger > 0) )
+				{
+					Thread.sleep( index * stagger );
+				}
+
+				if ( isOver() )
+				{
+					return;
+				}
+
+				StreamConnection connection = open( url );
+
+				synchronized ( ConnectionRace.this )
+				{
+					if ( isOver() )
+					{
+						close( connection );
+						return;
+					}
+
+					connections[index] = connection;
+				}
+
+				// Wait for a sentence but not forever.
+				DeadlineScheduler scheduler = DeadlineScheduler.getInstance();
+				Deadline deadline = new Deadline( Thread.currentThread() );
+				scheduler.schedule( deadline, SENTENCE_TIMEOUT );
+				InputStream in = connection.openInputStream();
+				boolean valid;
+
+				try
+				{
+					valid = readSentence( in );
+				}
+				finally
+				{
+					scheduler.cancel( deadline );
+				}
+
+				if ( valid && won(connection, in) )
+				{
+					return;
+				}
+
+				in.close();
+				failure = new IOException("No GPS data from " + url);
+			}
+			catch (InterruptedException e)
+			{
+				failure = new InterruptedIOException();
+			}
+			catch (IOException e)
+			{
+				failure = e;
+			}
+			catch (SecurityException e)
+			{
+				// connect() throws it on.
+				Log.warn("Not allowed to connect to " + url, e);
+
+				synchronized ( ConnectionRace.this )
+				{
+					denied = e;
+				}
+
+				failure = new IOException( e.toString() );
+			}
+
+			if ( Log.isDebugEnabled() )
+			{
+				Log.debug("Connection race lost by " + url + ":  " + failure);
+			}
+
+			synchronized ( ConnectionRace.this )
+			{
+				StreamConnection connection = connections[index];
+				connections[index] = null;
+
+				if ( connection != null )
+				{
+					close( connection );
+				}
+
+				error = failure;
+				failures++;
+				ConnectionRace.this.notifyAll();
+			}
+		}
+
+		/**
+		 * Makes this attempt the winner unless another got there first.
+		 *
+		 * @param connection is this attempt's connection.
+		 * @param in is its input stream, which is already open.
+		 * @return <code>true</code> if this attempt won.
+		 */
+		private boolean won (final StreamConnection connection, final InputStream in)
+		{
+			synchronized ( ConnectionRace.this )
+			{
+				if ( isOver() )
+				{
+					return false;
+				}
+
+				winner = index;
+			}
+
+			// The input stream can only be opened once so hand it back
+			//  instead of opening it again.
+			StreamConnection opened = new StreamConnection()
+				{
+					public InputStream openInputStream ()
+					{
+						return in;
+					}
+
+					public DataInputStream openDataInputStream ()
+					{
+						return new DataInputStream( in );
+					}
+
+					public OutputStream openOutputStream ()
+						throws IOException
+					{
+						return connection.openOutputStream();
+					}
+
+					public DataOutputStream openDataOutputStream ()
+						throws IOException
+					{
+						return connection.openDataOutputStream();
+					}
+
+					public void close ()
+						throws IOException
+					{
+						in.close();
+						connection.close();
+					}
+				};
+
+			// Disconnect the losers before the caller carries on.
+			Log.info("Connection race won by " + urls[index]);
+			closeOthers( index );
+
+			synchronized ( ConnectionRace.this )
+			{
+				winning = opened;
+				ConnectionRace.this.notifyAll();
+			}
+
+			return true;
+		}
+	}
+}
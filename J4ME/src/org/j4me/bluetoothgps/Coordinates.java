@@ -25,6 +25,26 @@ public class Coordinates
 	 */
 	private static final double METERS_PER_RADIAN = 6371000;
 
+	/**
+	 * The distance in meters, north-south and east-west, within which
+	 * <code>distance</code> and <code>azimuthTo</code> treat the earth as
+	 * flat.  Closer than this and nearer the equator than 80 degrees the
+	 * distance is within 0.001% of the haversine formula's and the azimuth
+	 * within 0.01 degrees of the great circle's.
+	 */
+	static final double SHORT_DISTANCE = 10000;
+
+	/**
+	 * <code>SHORT_DISTANCE</code> as an angle in radians.
+	 */
+	private static final double SHORT_ANGLE = SHORT_DISTANCE / METERS_PER_RADIAN;
+
+	/**
+	 * The furthest latitude, in radians, at which the earth is treated as
+	 * flat.  Nearer the poles the meridians converge too quickly.
+	 */
+	private static final double SHORT_MAX_LATITUDE = Math.toRadians( 80 );
+
 	/**
 	 * Identifier for string coordinate representation Degrees, Minutes, Seconds
 	 * and decimal fractions of a second.
@@ -56,6 +76,20 @@ public class Coordinates
 	 */
 	private double longitude;
 
+	/**
+	 * The latitude in radians and its cosine and sine.  They are worked
+	 * out when the latitude is set so measuring from these coordinates
+	 * many times does not repeat them.
+	 */
+	private double latitudeRadians;
+	private double cosLatitude;
+	private double sinLatitude;
+
+	/**
+	 * The longitude in radians.
+	 */
+	private double longitudeRadians;
+
 	/**
 	 * Constructs a new <code>Coordinates</code> object with the values specified.
 	 * The latitude and longitude parameters are expressed in degrees using
@@ -162,6 +196,9 @@ public class Coordinates
 		else
 		{
 			this.latitude = latitude;
+			this.latitudeRadians = Math.toRadians( latitude );
+			this.cosLatitude = Math.cos( latitudeRadians );
+			this.sinLatitude = Math.sin( latitudeRadians );
 		}
 	}
 
@@ -184,6 +221,7 @@ public class Coordinates
 		else
 		{
 			this.longitude = longitude;
+			this.longitudeRadians = Math.toRadians( longitude );
 		}
 	}
 
@@ -212,12 +250,80 @@ public class Coordinates
 			throw new IllegalArgumentException( "azimuthTo does not accept a null parameter." );
 		}
 		
+		return (float)azimuth( latitudeRadians, longitudeRadians, cosLatitude, sinLatitude,
+			to.latitudeRadians, to.longitudeRadians );
+	}
+	
+	/**
+	 * Calculates the azimuth between two points.  It is the same as the
+	 * <code>azimuthTo</code> method without needing <code>Coordinates</code>
+	 * objects.
+	 * 
+	 * @param fromLatitude is the latitude of the start in degrees.
+	 * @param fromLongitude is the longitude of the start in degrees.
+	 * @param toLatitude is the latitude of the destination in degrees.
+	 * @param toLongitude is the longitude of the destination in degrees.
+	 * @return the azimuth to the destination in degrees in the range [0.0 ,360.0).
+	 */
+	static double azimuth (double fromLatitude, double fromLongitude, double toLatitude, double toLongitude)
+	{
 		// Convert from degrees to radians.
-		double lat1 = Math.toRadians( latitude );
-		double lon1 = Math.toRadians( longitude );
-		double lat2 = Math.toRadians( to.latitude );
-		double lon2 = Math.toRadians( to.longitude );
+		double lat1 = Math.toRadians( fromLatitude );
+		double lon1 = Math.toRadians( fromLongitude );
+		double lat2 = Math.toRadians( toLatitude );
+		double lon2 = Math.toRadians( toLongitude );
+		
+		return azimuth( lat1, lon1, Math.cos(lat1), Math.sin(lat1), lat2, lon2 );
+	}
+	
+	/**
+	 * Calculates the azimuth between two points given in radians.
+	 * 
+	 * @param lat1 is the latitude of the start.
+	 * @param lon1 is the longitude of the start.
+	 * @param cosLat1 is the cosine of <code>lat1</code>.
+	 * @param sinLat1 is the sine of <code>lat1</code>.
+	 * @param lat2 is the latitude of the destination.
+	 * @param lon2 is the longitude of the destination.
+	 * @return the azimuth to the destination in degrees in the range [0.0 ,360.0).
+	 */
+	private static double azimuth (double lat1, double lon1, double cosLat1, double sinLat1, double lat2, double lon2)
+	{
+		double deltaLat = lat2 - lat1;
+		double deltaLon = wrap( lon2 - lon1 );
+		double courseInRadians;
 		
+		if ( isShort(lat1, cosLat1, deltaLat, deltaLon) )
+		{
+			// Nearby the earth is flat.  The direction on the flat map is
+			// the great circle's half way along.  The meridians converge
+			// by deltaLon * sin(lat) so the start is turned back by half.
+			double east = deltaLon * cosMidLatitude( cosLat1, sinLat1, deltaLat );
+			double sinMid = sinLat1 + cosLat1 * deltaLat / 2;
+			courseInRadians = MathFunc.atan2( east, deltaLat ) - deltaLon * sinMid / 2;
+		}
+		else
+		{
+			courseInRadians = greatCircleAzimuth( lat1, cosLat1, sinLat1, lat2, deltaLon );
+		}
+		
+		double course = Math.toDegrees( courseInRadians );
+		course = (360.0 + course) % 360.0;  // Normalize to [0,360)
+		return course;
+	}
+	
+	/**
+	 * Calculates the initial course of the great circle between two points.
+	 * 
+	 * @param lat1 is the latitude of the start in radians.
+	 * @param cosLat1 is the cosine of <code>lat1</code>.
+	 * @param sinLat1 is the sine of <code>lat1</code>.
+	 * @param lat2 is the latitude of the destination in radians.
+	 * @param deltaLon is the destination's longitude less the start's in radians.
+	 * @return the course in radians from -PI to PI.
+	 */
+	private static double greatCircleAzimuth (double lat1, double cosLat1, double sinLat1, double lat2, double deltaLon)
+	{
 		// Formula for computing the course between two points.
 		// It is explained in detail here:
 		//   http://williams.best.vwh.net/avform.htm
@@ -226,15 +332,10 @@ public class Coordinates
 		//            sin(lon2-lon1)*cos(lat2),                                 // c1
 		//            cos(lat1)*sin(lat2)-sin(lat1)*cos(lat2)*cos(lon2-lon1))   // c2
 		
-		double deltaLon = lon2 - lon1;
 		double cosLat2 = Math.cos( lat2 );
 		double c1 = Math.sin(deltaLon) * cosLat2;
-		double c2 = Math.cos(lat1) * Math.sin(lat2) - Math.sin(lat1) * cosLat2 * Math.cos(deltaLon);
-		double courseInRadians = MathFunc.atan2( c1, c2 );
-		
-		double course = Math.toDegrees( courseInRadians );
-		course = (360.0 + course) % 360.0;  // Normalize to [0,360)
-		return (float)course;
+		double c2 = cosLat1 * Math.sin(lat2) - sinLat1 * cosLat2 * Math.cos(deltaLon);
+		return MathFunc.atan2( c1, c2 );
 	}
 	
 	/**
@@ -255,12 +356,118 @@ public class Coordinates
 			throw new IllegalArgumentException( "distance does not accept a null parameter." );
 		}
 		
+		return (float)distance( latitudeRadians, longitudeRadians, cosLatitude, sinLatitude,
+			to.latitudeRadians, to.longitudeRadians );
+	}
+	
+	/**
+	 * Calculates the distances from these coordinates to many points.  It
+	 * is the same as calling <code>distance</code> for each one but does not
+	 * need a <code>Coordinates</code> object for each.  Route and geofence
+	 * code that stores its points as numbers uses it to measure them all
+	 * on every fix.
+	 * <p>
+	 * The points within <code>SHORT_DISTANCE</code> take no trigonometry
+	 * at all.
+	 * 
+	 * @param count is the number of points.
+	 * @param latitudes are the points' latitudes in degrees.
+	 * @param longitudes are the points' longitudes in degrees.
+	 * @param distances gets the distance to each point in meters.
+	 * @throws ArrayIndexOutOfBoundsException if an array is shorter than
+	 *         <code>count</code>.
+	 */
+	public void distances (int count, double[] latitudes, double[] longitudes, float[] distances)
+	{
+		for ( int i = 0; i < count; i++ )
+		{
+			distances[i] = (float)distance( latitudeRadians, longitudeRadians, cosLatitude, sinLatitude,
+				Math.toRadians(latitudes[i]), Math.toRadians(longitudes[i]) );
+		}
+	}
+	
+	/**
+	 * Calculates the distance between two points.  It is the same as the
+	 * <code>distance</code> method without needing <code>Coordinates</code>
+	 * objects, so code that stores locations as numbers does not have to
+	 * create any.
+	 * 
+	 * @param fromLatitude is the latitude of the start in degrees.
+	 * @param fromLongitude is the longitude of the start in degrees.
+	 * @param toLatitude is the latitude of the destination in degrees.
+	 * @param toLongitude is the longitude of the destination in degrees.
+	 * @return the distance to the destination in meters
+	 */
+	static double distance (double fromLatitude, double fromLongitude, double toLatitude, double toLongitude)
+	{
 		// Convert from degrees to radians.
-		double lat1 = Math.toRadians( latitude );
-		double lon1 = Math.toRadians( longitude );
-		double lat2 = Math.toRadians( to.latitude );
-		double lon2 = Math.toRadians( to.longitude );
+		double lat1 = Math.toRadians( fromLatitude );
+		double lon1 = Math.toRadians( fromLongitude );
+		double lat2 = Math.toRadians( toLatitude );
+		double lon2 = Math.toRadians( toLongitude );
 
+		return distance( lat1, lon1, Math.cos(lat1), Math.sin(lat1), lat2, lon2 );
+	}
+	
+	/**
+	 * Calculates the distance between two points given in radians.
+	 * 
+	 * @param lat1 is the latitude of the start.
+	 * @param lon1 is the longitude of the start.
+	 * @param cosLat1 is the cosine of <code>lat1</code>.
+	 * @param sinLat1 is the sine of <code>lat1</code>.
+	 * @param lat2 is the latitude of the destination.
+	 * @param lon2 is the longitude of the destination.
+	 * @return the distance to the destination in meters
+	 */
+	private static double distance (double lat1, double lon1, double cosLat1, double sinLat1, double lat2, double lon2)
+	{
+		double deltaLat = lat2 - lat1;
+		double deltaLon = wrap( lon2 - lon1 );
+		
+		if ( isShort(lat1, cosLat1, deltaLat, deltaLon) )
+		{
+			// Nearby the earth is flat.  This is the equirectangular
+			// projection using the latitude half way between the points.
+			double east = deltaLon * cosMidLatitude( cosLat1, sinLat1, deltaLat );
+			return METERS_PER_RADIAN * Math.sqrt( east * east + deltaLat * deltaLat );
+		}
+		
+		return haversine( lat1, cosLat1, lat2, Math.cos(lat2), deltaLon );
+	}
+	
+	/**
+	 * Calculates the distance between two points with the haversine formula.
+	 * It is used for points too far apart to treat the earth as flat.
+	 * <code>distance</code> is the same but faster for nearby points.
+	 * 
+	 * @param fromLatitude is the latitude of the start in degrees.
+	 * @param fromLongitude is the longitude of the start in degrees.
+	 * @param toLatitude is the latitude of the destination in degrees.
+	 * @param toLongitude is the longitude of the destination in degrees.
+	 * @return the distance to the destination in meters
+	 */
+	static double haversine (double fromLatitude, double fromLongitude, double toLatitude, double toLongitude)
+	{
+		double lat1 = Math.toRadians( fromLatitude );
+		double lat2 = Math.toRadians( toLatitude );
+		double deltaLon = Math.toRadians( toLongitude ) - Math.toRadians( fromLongitude );
+		
+		return haversine( lat1, Math.cos(lat1), lat2, Math.cos(lat2), deltaLon );
+	}
+	
+	/**
+	 * Calculates the distance between two points with the haversine formula.
+	 * 
+	 * @param lat1 is the latitude of the start in radians.
+	 * @param cosLat1 is the cosine of <code>lat1</code>.
+	 * @param lat2 is the latitude of the destination in radians.
+	 * @param cosLat2 is the cosine of <code>lat2</code>.
+	 * @param deltaLon is the difference in longitude in radians.
+	 * @return the distance to the destination in meters
+	 */
+	private static double haversine (double lat1, double cosLat1, double lat2, double cosLat2, double deltaLon)
+	{
 		// Use the Haversine formula for greater accuracy when measuring
 		// short distances.  It is explained in detail here:
 		//   http://williams.best.vwh.net/avform.htm
@@ -272,14 +479,71 @@ public class Coordinates
 		
 		double d1 = Math.sin( (lat1 - lat2) / 2.0 );
 		double d2 = d1 * d1;
-		double d3 = Math.cos( lat1 ) * Math.cos( lat2 );
-		double d4 = Math.sin( (lon1 - lon2) / 2.0 );
+		double d3 = cosLat1 * cosLat2;
+		double d4 = Math.sin( deltaLon / 2.0 );
 		double d5 = d4 * d4;
 		double d6 = d2 + d3 * d5;
 		double distanceInRadians = 2.0 * MathFunc.asin( Math.sqrt(d6) );
 		
-		double distance = METERS_PER_RADIAN * distanceInRadians; 
-		return (float)distance;
+		return METERS_PER_RADIAN * distanceInRadians;
+	}
+	
+	/**
+	 * Decides if two points are close enough to treat the earth as flat.
+	 * 
+	 * @param lat1 is the latitude of the start in radians.
+	 * @param cosLat1 is the cosine of <code>lat1</code>.
+	 * @param deltaLat is the difference in latitude in radians.
+	 * @param deltaLon is the difference in longitude in radians.
+	 * @return <code>true</code> if they are within <code>SHORT_DISTANCE</code>
+	 *  and not near a pole.
+	 */
+	private static boolean isShort (double lat1, double cosLat1, double deltaLat, double deltaLon)
+	{
+		return (lat1 <= SHORT_MAX_LATITUDE) && (lat1 >= -SHORT_MAX_LATITUDE) &&
+			(deltaLat <= SHORT_ANGLE) && (deltaLat >= -SHORT_ANGLE) &&
+			(Math.abs(deltaLon) * cosLat1 <= SHORT_ANGLE);
+	}
+	
+	/**
+	 * Returns the cosine of the latitude half way between two nearby points.
+	 * It is worked out from the start's cosine and sine, without any
+	 * trigonometry, so is only accurate for short distances.
+	 * 
+	 * @param cosLat1 is the cosine of the start's latitude.
+	 * @param sinLat1 is the sine of the start's latitude.
+	 * @param deltaLat is the difference in latitude in radians.
+	 * @return The cosine of <code>lat1 + deltaLat / 2</code>.
+	 */
+	private static double cosMidLatitude (double cosLat1, double sinLat1, double deltaLat)
+	{
+		// cos(a + b) = cos(a)cos(b) - sin(a)sin(b) where b is small so
+		// cos(b) = 1 - b^2/2 and sin(b) = b.
+		double half = deltaLat / 2;
+		return cosLat1 * (1 - half * half / 2) - sinLat1 * half;
+	}
+	
+	/**
+	 * Wraps a difference in longitude into -PI to PI so points either side
+	 * of the 180th meridian are near each other.
+	 * 
+	 * @param deltaLon is the difference in radians.
+	 * @return The same difference between -PI and PI.
+	 */
+	private static double wrap (double deltaLon)
+	{
+		if ( deltaLon > Math.PI )
+		{
+			return deltaLon - 2 * Math.PI;
+		}
+		else if ( deltaLon < -Math.PI )
+		{
+			return deltaLon + 2 * Math.PI;
+		}
+		else
+		{
+			return deltaLon;
+		}
 	}
 	
 	/**
@@ -81,6 +81,18 @@ package org.j4me.bluetoothgps;
  *   <td>Remote LBS address</td>
  *   <td>null (only use the local LBS on the device running this MIDlet)</td>
  *  </tr>
+ *  <tr>
+ *   <td>Smoothing</td>
+ *   <td>false (locations are the receiver's own)</td>
+ *  </tr>
+ *  <tr>
+ *   <td>Motion threshold</td>
+ *   <td>NO_REQUIREMENT (every smoothed location is delivered)</td>
+ *  </tr>
+ *  <tr>
+ *   <td>SiRF binary allowed</td>
+ *   <td>false (a Bluetooth GPS is always read as NMEA)</td>
+ *  </tr>
  * </table>
  * <p>
  * The implementation of this class only retains the values that are passed in
@@ -179,6 +191,24 @@ public class Criteria
 	 */
 	private String remoteDeviceAddress = null;
 
+	/**
+	 * When <code>true</code> a Bluetooth GPS's fixes are smoothed before
+	 * they are given to the location listener.
+	 */
+	private boolean smoothing = false;
+
+	/**
+	 * The distance in meters a smoothed location must move before the
+	 * location listener is told about it.
+	 */
+	private int motionThreshold = NO_REQUIREMENT;
+
+	/**
+	 * When <code>true</code> a Bluetooth GPS with a SiRF chipset may be
+	 * switched to the SiRF binary protocol.
+	 */
+	private boolean sirfBinaryAllowed = false;
+
 	/**
 	 * Constructs a <code>Criteria</code> object. All the fields are set to the
 	 * default values that are specified below in the specification of the
@@ -319,6 +349,45 @@ public class Criteria
 		return remoteDeviceAddress;
 	}
 
+	/**
+	 * Returns if a Bluetooth GPS's fixes are smoothed before they are given
+	 * to the location listener.
+	 * 
+	 * @return <code>true</code> if locations are smoothed; <code>false</code>
+	 *  if they are the receiver's own.
+	 * @see #setSmoothing(boolean)
+	 */
+	public boolean isSmoothing ()
+	{
+		return smoothing;
+	}
+
+	/**
+	 * Returns how far a smoothed location must move before the location
+	 * listener is told about it.
+	 * 
+	 * @return the distance in meters or <code>NO_REQUIREMENT</code> if every
+	 *  smoothed location is delivered.
+	 * @see #setMotionThreshold(int)
+	 */
+	public int getMotionThreshold ()
+	{
+		return motionThreshold;
+	}
+
+	/**
+	 * Returns if a Bluetooth GPS with a SiRF chipset may be switched to the
+	 * SiRF binary protocol.
+	 * 
+	 * @return <code>true</code> if SiRF binary is used when the device
+	 *  supports it; <code>false</code> if NMEA is always used.
+	 * @see #setSiRFBinaryAllowed(boolean)
+	 */
+	public boolean isSiRFBinaryAllowed ()
+	{
+		return sirfBinaryAllowed;
+	}
+
 	/**
 	 * Sets the desired horizontal accuracy preference. Accuracy is measured in
 	 * meters. The preference indicates maximum allowed typical 1-sigma standard
@@ -491,4 +560,62 @@ public class Criteria
 	{
 		this.remoteDeviceAddress = address;
 	}
+
+	/**
+	 * Sets if a Bluetooth GPS's fixes are smoothed before they are given to
+	 * the location listener.  A GPS standing still reports positions that
+	 * wander by several meters; smoothing holds them steady and evens out
+	 * the speed and course while moving.  The cost is the smoothed location
+	 * lags a sudden turn or stop by a second or two.
+	 * <p>
+	 * Default is <code>false</code>.
+	 * 
+	 * @param smoothing - if set to <code>true</code> locations are smoothed;
+	 *        if <code>false</code> they are the receiver's own.
+	 * @see #isSmoothing()
+	 * @see #setMotionThreshold(int)
+	 */
+	public void setSmoothing (boolean smoothing)
+	{
+		this.smoothing = smoothing;
+	}
+
+	/**
+	 * Sets how far a smoothed location must move from the last one delivered
+	 * before the location listener is told about it.  Applications that
+	 * redraw or add up distance on every location set it so standing still
+	 * does not cause either.  It only applies when smoothing is on.
+	 * <p>
+	 * Default is <code>NO_REQUIREMENT</code>, meaning every smoothed location
+	 * is delivered.
+	 * 
+	 * @param meters - the distance in meters a location must move.
+	 * @see #getMotionThreshold()
+	 * @see #setSmoothing(boolean)
+	 */
+	public void setMotionThreshold (int meters)
+	{
+		this.motionThreshold = meters;
+	}
+
+	/**
+	 * Sets if a Bluetooth GPS with a SiRF chipset may be switched from NMEA
+	 * to the SiRF binary protocol.  It sends a fraction of the data and
+	 * takes much less work to parse.  If the device does not switch NMEA
+	 * keeps being used.
+	 * <p>
+	 * Switching protocols is remembered by some devices after they are
+	 * turned off.  Other applications that only understand NMEA may not
+	 * work with them until they are switched back.
+	 * <p>
+	 * Default is <code>false</code>.
+	 * 
+	 * @param allowed - if set to <code>true</code> SiRF binary is used when
+	 *        the device supports it; if <code>false</code> NMEA is always used.
+	 * @see #isSiRFBinaryAllowed()
+	 */
+	public void setSiRFBinaryAllowed (boolean allowed)
+	{
+		this.sirfBinaryAllowed = allowed;
+	}
 }
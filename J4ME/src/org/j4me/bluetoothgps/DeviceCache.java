@@ -0,0 +1,894 @@
+package org.j4me.bluetoothgps;
+
+import java.io.*;
+import java.util.*;
+import org.j4me.logging.*;
+
+/**
+ * Remembers Bluetooth GPS devices between runs so the application does not
+ * have to discover them every time it starts.  Discovering devices and
+ * finding the channel to connect on takes 10 to 20 seconds.  Connecting to
+ * a URL that worked last time usually takes less than one.
+ * <p>
+ * Use <code>getInstance</code> in place of <code>LocationProvider.getInstance</code>.
+ * It tries the URL that last connected first and only falls back to
+ * discovery when that fails:
+ * <pre>
+ * DeviceCache cache = DeviceCache.open();
+ * LocationProvider provider = cache.getInstance( criteria );
+ *
+ * if ( provider == null )
+ * {
+ *     // Let the user choose from cache.getKnownDevices().
+ * }
+ * </pre>
+ * <p>
+ * Everything the cache knows expires after <code>getTimeToLive</code>
+ * without being used.  The cache also counts how long connections take so
+ * the time saved can be measured.
+ *
+ * @see DeviceStore
+ */
+public class DeviceCache
+{
+	/**
+	 * How long, in milliseconds, a device or URL is remembered without being
+	 * used.  It is one week.
+	 */
+	public static final long DEFAULT_TIME_TO_LIVE = 7L * 24 * 60 * 60 * 1000;
+
+	/**
+	 * The version of the saved data.  Data of any other version is ignored.
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * The prefix of Bluetooth serial port URLs.
+	 */
+	private static final String PROTOCOL = "btspp://";
+
+	/**
+	 * Where the cache is saved.
+	 */
+	private final DeviceStore store;
+
+	/**
+	 * The known devices as <code>Device</code> objects.  The most recently
+	 * seen is first.
+	 */
+	private final Vector devices = new Vector();
+
+	/**
+	 * The URL of the last successful connection or <code>null</code> if there
+	 * has not been one.
+	 */
+	private String lastURL;
+
+	/**
+	 * When <code>lastURL</code> last connected according to
+	 * <code>System.currentTimeMillis</code>.
+	 */
+	private long lastConnected;
+
+	/**
+	 * How long, in milliseconds, entries are remembered.
+	 */
+	private long timeToLive = DEFAULT_TIME_TO_LIVE;
+
+	/**
+	 * The number of connections made with a remembered URL.
+	 */
+	private int cacheHits;
+
+	/**
+	 * The total milliseconds of connections made with a remembered URL.
+	 */
+	private long cacheHitTime;
+
+	/**
+	 * The number of connections that needed discovery.
+	 */
+	private int discoveries;
+
+	/**
+	 * The total milliseconds of connections that needed discovery, including
+	 * the discovery itself.
+	 */
+	private long discoveryTime;
+
+	/**
+	 * How long, in milliseconds, the last connection took.
+	 */
+	private long lastConnectTime = -1;
+
+	/**
+	 * Returns a cache kept in the MIDlet's record store.
+	 *
+	 * @return A cache loaded with what was saved by earlier runs.
+	 */
+	public static DeviceCache open ()
+	{
+		return new DeviceCache( new RecordStoreDeviceStore(RecordStoreDeviceStore.DEFAULT_NAME) );
+	}
+
+	/**
+	 * Constructs a cache and loads what was saved in <code>store</code>.  If
+	 * it cannot be read the cache starts empty.
+	 *
+	 * @param store is where the cache is saved.
+	 */
+	public DeviceCache (DeviceStore store)
+	{
+		if ( store == null )
+		{
+			throw new IllegalArgumentException("store cannot be null");
+		}
+
+		this.store = store;
+
+		try
+		{
+			byte[] data = store.load();
+
+			if ( data != null )
+			{
+				read( data );
+			}
+		}
+		catch (IOException e)
+		{
+			Log.warn("Could not load the Bluetooth device cache", e);
+			devices.removeAllElements();
+			lastURL = null;
+		}
+	}
+
+	/**
+	 * Gets a location provider the way <code>LocationProvider.getInstance</code>
+	 * does, using the cache to find the Bluetooth GPS.
+	 * <p>
+	 * If <code>criteria</code> has no remote device address this:
+	 * <ol>
+	 *  <li>Connects to the URL that worked last time.  If several GPS
+	 *      devices are known they are raced and the first to send a valid
+	 *      sentence is used.  The winner is ranked first next time.  A raced
+	 *      device is not combined with the phone's own location provider.</li>
+	 *  <li>If that fails, discovers nearby devices and connects to any that
+	 *      were GPS devices before.</li>
+	 *  <li>If none of them connect, returns <code>null</code>.  The application
+	 *      should then let the user choose from <code>getKnownDevices</code>
+	 *      and set the address on <code>criteria</code>.</li>
+	 * </ol>
+	 * If <code>criteria</code> has an address it is connected to and
+	 * remembered when it works.
+	 * <p>
+	 * Like <code>LocationProvider.getInstance</code> this blocks and should
+	 * not be called from the UI thread.
+	 *
+	 * @param criteria is the application's requirements.
+	 * @return A location provider or <code>null</code> if no remembered or
+	 *  chosen GPS device could be connected to.
+	 * @throws IOException if Bluetooth discovery fails.
+	 * @throws SecurityException if the user does not allow Bluetooth access.
+	 * @see LocationProvider#getInstance(Criteria)
+	 */
+	public LocationProvider getInstance (Criteria criteria)
+		throws IOException, SecurityException
+	{
+		long start = System.currentTimeMillis();
+
+		// Has the application already chosen a device?
+		String chosen = criteria.getRemoteDeviceAddress();
+
+		if ( chosen != null )
+		{
+			return connect( criteria, chosen, start, false );
+		}
+
+		// Try the URL that worked last time or, if there are several GPS
+		//  devices, whichever of them answers first.
+		String[] tried = getRankedURLs();
+
+		if ( tried.length > 1 )
+		{
+			LocationProvider provider = race( criteria, tried, start );
+
+			if ( provider != null )
+			{
+				return provider;
+			}
+		}
+		else
+		{
+			String url = getLastURL();
+			tried = new String[] { url };
+
+			if ( url != null )
+			{
+				LocationProvider provider = connect( criteria, url, start, true );
+
+				if ( provider != null )
+				{
+					return provider;
+				}
+			}
+		}
+
+		// Find out what is nearby.
+		String[][] found = LocationProvider.discoverBluetoothDevices();
+
+		if ( found == null )
+		{
+			return null;
+		}
+
+		// Try the devices that have been GPS devices before.
+		//  Skip the URLs that just failed.
+		for ( int i = 0; i < found.length; i++ )
+		{
+			Device device = find( found[i][1] );
+
+			if ( (device != null) && (device.channel != null) )
+			{
+				String known = BluetoothLocationProvider.constructBTURL( device.address, device.channel );
+
+				if ( contains(tried, known) == false )
+				{
+					LocationProvider provider = connect( criteria, known, start, false );
+
+					if ( provider != null )
+					{
+						return provider;
+					}
+				}
+			}
+		}
+
+		// Remember what was found so the user can choose from it.
+		for ( int i = 0; i < found.length; i++ )
+		{
+			deviceFound( found[i][0], found[i][1] );
+		}
+
+		save();
+		return null;
+	}
+
+	/**
+	 * Tries to get a provider connected to <code>url</code>.
+	 *
+	 * @param criteria is the application's requirements.
+	 * @param url is the Bluetooth address or URL of the GPS device.
+	 * @param start is when <code>getInstance</code> was called.
+	 * @param cached is <code>true</code> if <code>url</code> came from the cache.
+	 * @return The provider or <code>null</code> if it could not be connected to.
+	 */
+	private LocationProvider connect (Criteria criteria, String url, long start, boolean cached)
+	{
+		String address = criteria.getRemoteDeviceAddress();
+		criteria.setRemoteDeviceAddress( url );
+
+		try
+		{
+			LocationProvider provider = LocationProvider.getInstance( criteria );
+			String connected = getBluetoothURL( provider );
+
+			if ( connected != null )
+			{
+				connected( connected, System.currentTimeMillis() - start, cached );
+			}
+			else
+			{
+				// The on-device provider is being used without the GPS.
+				failed( url );
+				criteria.setRemoteDeviceAddress( address );
+			}
+
+			return provider;
+		}
+		catch (LocationException e)
+		{
+			Log.info("Could not connect to " + url + ":  " + e.toString());
+		}
+		catch (IOException e)
+		{
+			Log.info("Could not connect to " + url + ":  " + e.toString());
+		}
+
+		failed( url );
+		criteria.setRemoteDeviceAddress( address );
+		return null;
+	}
+
+	/**
+	 * Races the known GPS devices and connects to the first that answers.
+	 *
+	 * @param criteria is the application's requirements.
+	 * @param urls are the URLs of the known GPS devices, best first.
+	 * @param start is when <code>getInstance</code> was called.
+	 * @return The provider or <code>null</code> if none of them answered.
+	 */
+	private LocationProvider race (Criteria criteria, String[] urls, long start)
+	{
+		try
+		{
+			BluetoothLocationProvider provider = BluetoothLocationProvider.getInstance( urls, criteria );
+			connected( provider.getBluetoothURL(), System.currentTimeMillis() - start, true );
+			return provider;
+		}
+		catch (IOException e)
+		{
+			Log.info("None of the known GPS devices answered:  " + e.toString());
+		}
+
+		for ( int i = 0; i < urls.length; i++ )
+		{
+			failed( urls[i] );
+		}
+
+		return null;
+	}
+
+	/**
+	 * @param array is the array to search.
+	 * @param s is the string to look for.
+	 * @return <code>true</code> if <code>array</code> contains <code>s</code>.
+	 */
+	private static boolean contains (String[] array, String s)
+	{
+		for ( int i = 0; i < array.length; i++ )
+		{
+			if ( s.equals(array[i]) )
+			{
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns the URL a provider is connected to.
+	 *
+	 * @param provider is a provider returned by <code>LocationProvider.getInstance</code>.
+	 * @return The Bluetooth URL or <code>null</code> if <code>provider</code> is
+	 *  not connected to a Bluetooth GPS.
+	 */
+	private static String getBluetoothURL (LocationProvider provider)
+	{
+		if ( provider instanceof BluetoothLocationProvider )
+		{
+			return ((BluetoothLocationProvider)provider).getBluetoothURL();
+		}
+		else if ( provider instanceof CompositeLocationProvider )
+		{
+			LocationProvider[] sources = ((CompositeLocationProvider)provider).getSources();
+
+			for ( int i = 0; i < sources.length; i++ )
+			{
+				String url = getBluetoothURL( sources[i] );
+
+				if ( url != null )
+				{
+					return url;
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the URL that connected last time if it has not expired.
+	 *
+	 * @return The URL or <code>null</code> if there is none.
+	 */
+	public synchronized String getLastURL ()
+	{
+		if ( (lastURL != null) && (System.currentTimeMillis() - lastConnected <= timeToLive) )
+		{
+			return lastURL;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the channel a device was connected to on.
+	 *
+	 * @param address is the Bluetooth address of the device.
+	 * @return The channel or <code>null</code> if the device has not been
+	 *  connected to or has expired.
+	 */
+	public synchronized String getChannel (String address)
+	{
+		Device device = find( address );
+		return (device == null) ? null : device.channel;
+	}
+
+	/**
+	 * Returns the URLs of the GPS devices that have been connected to.  The
+	 * most recently connected is first so the device that won the last
+	 * race gets a head start in the next.
+	 *
+	 * @return The URLs of the known GPS devices, best first.
+	 */
+	public synchronized String[] getRankedURLs ()
+	{
+		expire();
+
+		Vector urls = new Vector();
+
+		for ( int i = 0; i < devices.size(); i++ )
+		{
+			Device device = (Device)devices.elementAt( i );
+
+			if ( device.channel != null )
+			{
+				urls.addElement( BluetoothLocationProvider.constructBTURL(device.address, device.channel) );
+			}
+		}
+
+		String[] ranked = new String[urls.size()];
+		urls.copyInto( ranked );
+		return ranked;
+	}
+
+	/**
+	 * Returns if a device has been connected to as a GPS before.  A
+	 * <code>DeviceDiscoveryListener</code> can use it to stop discovery as
+	 * soon as the device shows up.
+	 *
+	 * @param address is the Bluetooth address of the device.
+	 * @return <code>true</code> if the device has connected and has not
+	 *  expired; <code>false</code> otherwise.
+	 */
+	public synchronized boolean isKnownGPS (String address)
+	{
+		return getChannel( address ) != null;
+	}
+
+	/**
+	 * Returns the devices the cache knows about, most recently seen first.
+	 * It is in the same form as <code>LocationProvider.discoverBluetoothDevices</code>.
+	 *
+	 * @return An array of <code>String[2]</code> where the first element is
+	 *  the device's name and the second is its address.
+	 */
+	public synchronized String[][] getKnownDevices ()
+	{
+		expire();
+
+		String[][] known = new String[devices.size()][];
+
+		for ( int i = 0; i < known.length; i++ )
+		{
+			Device device = (Device)devices.elementAt( i );
+			known[i] = new String[] { device.name, device.address };
+		}
+
+		return known;
+	}
+
+	/**
+	 * Records a device found by discovery.  It is not saved until
+	 * <code>save</code> is called.
+	 *
+	 * @param name is the device's human readable name.
+	 * @param address is the device's Bluetooth address.
+	 */
+	public synchronized void deviceFound (String name, String address)
+	{
+		Device device = touch( address );
+
+		if ( name != null )
+		{
+			device.name = name;
+		}
+	}
+
+	/**
+	 * Records a successful connection and saves the cache.
+	 *
+	 * @param url is the URL that connected.
+	 * @param connectTime is how many milliseconds it took to connect.
+	 * @param cached is <code>true</code> if <code>url</code> came from the
+	 *  cache; <code>false</code> if it took discovery or the user to find it.
+	 */
+	public void connected (String url, long connectTime, boolean cached)
+	{
+		synchronized ( this )
+		{
+			Device device = touch( getAddress(url) );
+			device.channel = getChannel( url, device.channel );
+
+			lastURL = url;
+			lastConnected = device.lastSeen;
+			lastConnectTime = connectTime;
+
+			if ( cached )
+			{
+				cacheHits++;
+				cacheHitTime += connectTime;
+			}
+			else
+			{
+				discoveries++;
+				discoveryTime += connectTime;
+			}
+		}
+
+		save();
+	}
+
+	/**
+	 * Records that a URL could not be connected to.  If it is the one that
+	 * worked last time it is forgotten so the next start discovers devices.
+	 * The device and its channel are still remembered because it may just
+	 * have been turned off.
+	 *
+	 * @param url is the URL that did not connect.
+	 */
+	public void failed (String url)
+	{
+		synchronized ( this )
+		{
+			if ( (lastURL == null) || (lastURL.equals(url) == false) )
+			{
+				return;
+			}
+
+			lastURL = null;
+		}
+
+		save();
+	}
+
+	/**
+	 * @return How long, in milliseconds, entries are remembered without
+	 *  being used.
+	 */
+	public synchronized long getTimeToLive ()
+	{
+		return timeToLive;
+	}
+
+	/**
+	 * @param timeToLive is how long, in milliseconds, entries are remembered
+	 *  without being used.
+	 */
+	public synchronized void setTimeToLive (long timeToLive)
+	{
+		this.timeToLive = timeToLive;
+	}
+
+	/**
+	 * @return The number of connections made with a remembered URL.
+	 */
+	public synchronized int getCacheHitCount ()
+	{
+		return cacheHits;
+	}
+
+	/**
+	 * @return The number of connections that needed discovery or the user
+	 *  to choose a device.
+	 */
+	public synchronized int getDiscoveryCount ()
+	{
+		return discoveries;
+	}
+
+	/**
+	 * @return The average milliseconds to connect with a remembered URL or
+	 *  -1 if there have not been any.
+	 */
+	public synchronized long getAverageCachedConnectTime ()
+	{
+		return (cacheHits == 0) ? -1 : cacheHitTime / cacheHits;
+	}
+
+	/**
+	 * @return The average milliseconds to connect when discovery was needed
+	 *  or -1 if it never was.
+	 */
+	public synchronized long getAverageDiscoveryConnectTime ()
+	{
+		return (discoveries == 0) ? -1 : discoveryTime / discoveries;
+	}
+
+	/**
+	 * @return How many milliseconds the last connection took or -1 if there
+	 *  has not been one.
+	 */
+	public synchronized long getLastConnectTime ()
+	{
+		return lastConnectTime;
+	}
+
+	/**
+	 * Writes the cache to its store.  Entries that have expired are dropped.
+	 * Errors are logged and otherwise ignored; the worst that can happen is
+	 * the next start runs discovery.
+	 */
+	public void save ()
+	{
+		byte[] data;
+
+		synchronized ( this )
+		{
+			expire();
+
+			try
+			{
+				data = write();
+			}
+			catch (IOException e)
+			{
+				// Writing to memory does not fail.
+				Log.error("Could not write the Bluetooth device cache", e);
+				return;
+			}
+		}
+
+		try
+		{
+			store.save( data );
+		}
+		catch (IOException e)
+		{
+			Log.warn("Could not save the Bluetooth device cache", e);
+		}
+	}
+
+	/**
+	 * Serializes the cache.
+	 *
+	 * @return The cache's data.
+	 * @throws IOException if the data cannot be written.
+	 */
+	private byte[] write ()
+		throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream( bytes );
+
+		out.writeByte( VERSION );
+		out.writeUTF( (lastURL == null) ? "" : lastURL );
+		out.writeLong( lastConnected );
+
+		out.writeShort( devices.size() );
+
+		for ( int i = 0; i < devices.size(); i++ )
+		{
+			Device device = (Device)devices.elementAt( i );
+			out.writeUTF( device.address );
+			out.writeUTF( device.name );
+			out.writeUTF( (device.channel == null) ? "" : device.channel );
+			out.writeLong( device.lastSeen );
+		}
+
+		out.writeInt( cacheHits );
+		out.writeLong( cacheHitTime );
+		out.writeInt( discoveries );
+		out.writeLong( discoveryTime );
+
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Restores the cache from data made by <code>write</code>.
+	 *
+	 * @param data is the saved data.
+	 * @throws IOException if the data is not complete.
+	 */
+	private void read (byte[] data)
+		throws IOException
+	{
+		DataInputStream in = new DataInputStream( new ByteArrayInputStream(data) );
+
+		if ( in.readByte() != VERSION )
+		{
+			// Saved by a different version of the library.
+			return;
+		}
+
+		lastURL = in.readUTF();
+		lastConnected = in.readLong();
+
+		if ( lastURL.length() == 0 )
+		{
+			lastURL = null;
+		}
+
+		int count = in.readShort();
+
+		for ( int i = 0; i < count; i++ )
+		{
+			Device device = new Device( in.readUTF() );
+			device.name = in.readUTF();
+			device.channel = in.readUTF();
+			device.lastSeen = in.readLong();
+
+			if ( device.channel.length() == 0 )
+			{
+				device.channel = null;
+			}
+
+			devices.addElement( device );
+		}
+
+		cacheHits = in.readInt();
+		cacheHitTime = in.readLong();
+		discoveries = in.readInt();
+		discoveryTime = in.readLong();
+	}
+
+	/**
+	 * Drops devices that have not been seen within the time to live.
+	 */
+	private void expire ()
+	{
+		long oldest = System.currentTimeMillis() - timeToLive;
+
+		for ( int i = devices.size() - 1; i >= 0; i-- )
+		{
+			Device device = (Device)devices.elementAt( i );
+
+			if ( device.lastSeen < oldest )
+			{
+				devices.removeElementAt( i );
+			}
+		}
+
+		if ( lastConnected < oldest )
+		{
+			lastURL = null;
+		}
+	}
+
+	/**
+	 * Returns a known device.
+	 *
+	 * @param address is the device's Bluetooth address.
+	 * @return The device or <code>null</code> if it is not known or has expired.
+	 */
+	private Device find (String address)
+	{
+		long oldest = System.currentTimeMillis() - timeToLive;
+
+		for ( int i = 0; i < devices.size(); i++ )
+		{
+			Device device = (Device)devices.elementAt( i );
+
+			if ( device.address.equalsIgnoreCase(address) )
+			{
+				return (device.lastSeen < oldest) ? null : device;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Marks a device as just seen and moves it to the front of the list.
+	 * It is added if it is not known.
+	 *
+	 * @param address is the device's Bluetooth address.
+	 * @return The device.
+	 */
+	private Device touch (String address)
+	{
+		Device device = null;
+
+		for ( int i = 0; i < devices.size(); i++ )
+		{
+			Device d = (Device)devices.elementAt( i );
+
+			if ( d.address.equalsIgnoreCase(address) )
+			{
+				device = d;
+				devices.removeElementAt( i );
+				break;
+			}
+		}
+
+		if ( device == null )
+		{
+			device = new Device( address );
+		}
+
+		device.lastSeen = System.currentTimeMillis();
+		devices.insertElementAt( device, 0 );
+		return device;
+	}
+
+	/**
+	 * Returns the Bluetooth address part of a URL.  For example
+	 * "btspp://00123456789A:1;master=false" returns "00123456789A".
+	 *
+	 * @param url is a Bluetooth URL or address.
+	 * @return The address.
+	 */
+	static String getAddress (String url)
+	{
+		int start = url.toLowerCase().startsWith( PROTOCOL ) ? PROTOCOL.length() : 0;
+		int end = url.length();
+		int colon = url.indexOf( ':', start );
+		int semicolon = url.indexOf( ';', start );
+
+		if ( (semicolon >= 0) && (semicolon < end) )
+		{
+			end = semicolon;
+		}
+
+		if ( (colon >= 0) && (colon < end) )
+		{
+			end = colon;
+		}
+
+		return url.substring( start, end );
+	}
+
+	/**
+	 * Returns the channel part of a URL.  For example
+	 * "btspp://00123456789A:1;master=false" returns "1".
+	 *
+	 * @param url is a Bluetooth URL or address.
+	 * @param channel is returned if <code>url</code> has no channel.
+	 * @return The channel.
+	 */
+	static String getChannel (String url, String channel)
+	{
+		int start = url.toLowerCase().startsWith( PROTOCOL ) ? PROTOCOL.length() : 0;
+		int colon = url.indexOf( ':', start );
+
+		if ( colon < 0 )
+		{
+			return channel;
+		}
+
+		int end = url.indexOf( ';', colon );
+
+		if ( end < 0 )
+		{
+			end = url.length();
+		}
+
+		return url.substring( colon + 1, end );
+	}
+
+	/**
+	 * A device the cache knows about.
+	 */
+	private static final class Device
+	{
+		/**
+		 * The Bluetooth address.
+		 */
+		final String address;
+
+		/**
+		 * The human readable name.  It is the address if the name is not known.
+		 */
+		String name;
+
+		/**
+		 * The channel its serial port was connected on or <code>null</code>
+		 * if it has not been connected to.
+		 */
+		String channel;
+
+		/**
+		 * When it was last found or connected to.
+		 */
+		long lastSeen;
+
+		Device (String address)
+		{
+			this.address = address;
+			this.name = address;
+		}
+	}
+}
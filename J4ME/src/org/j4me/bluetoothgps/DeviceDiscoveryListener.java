@@ -0,0 +1,69 @@
+package org.j4me.bluetoothgps;
+
+/**
+ * Receives nearby Bluetooth devices as they are found.  Register it with
+ * <code>LocationProvider.discoverBluetoothDevices(DeviceDiscoveryListener, boolean)</code>.
+ * <p>
+ * Unlike <code>LocationProvider.discoverBluetoothDevices()</code>, which
+ * blocks until the whole inquiry is over, each device is reported the
+ * moment the Bluetooth stack sees it.  Its name and serial port channel
+ * are looked up in the background while the inquiry carries on, so they
+ * arrive later in separate calls.
+ * <p>
+ * A GPS device usually shows up within a few seconds while a full inquiry
+ * takes more than ten.  Return <code>true</code> from <code>deviceDiscovered</code>
+ * or <code>deviceNamed</code> once the device you want has been seen to
+ * stop looking for others.  For example when the name matches the GPS the
+ * user chose last time or the address is known to <code>DeviceCache</code>.
+ * Names and channels already being looked up are still reported.
+ * <p>
+ * The methods are called from Bluetooth stack and worker threads.  Like
+ * <code>LocationListener</code> they must return quickly and the application
+ * is responsible for any synchronization needed.
+ *
+ * @see LocationProvider#discoverBluetoothDevices(DeviceDiscoveryListener, boolean)
+ */
+public interface DeviceDiscoveryListener
+{
+	/**
+	 * Called as soon as a device is found.
+	 *
+	 * @param address is the device's Bluetooth address.
+	 * @param majorDeviceClass is the major device class from the Bluetooth
+	 *  specification.  For example <code>0x1F00</code> is uncategorized,
+	 *  which many GPS devices report.
+	 * @return <code>true</code> to stop looking for more devices;
+	 *  <code>false</code> to continue.
+	 */
+	public boolean deviceDiscovered (String address, int majorDeviceClass);
+
+	/**
+	 * Called when a device's human readable name has been looked up.
+	 *
+	 * @param address is the device's Bluetooth address.
+	 * @param name is the device's name.  It is the address if the device
+	 *  did not give its name.
+	 * @return <code>true</code> to stop looking for more devices;
+	 *  <code>false</code> to continue.
+	 */
+	public boolean deviceNamed (String address, String name);
+
+	/**
+	 * Called when a device's services have been searched for a serial port.
+	 * It is only called if channels were asked for.
+	 *
+	 * @param address is the device's Bluetooth address.
+	 * @param channel is the RFCOMM channel of the serial port or <code>null</code>
+	 *  if the device does not have one.  Pass it to
+	 *  <code>Criteria.setRemoteDeviceAddress</code> as "address:channel".
+	 */
+	public void channelFound (String address, String channel);
+
+	/**
+	 * Called once when discovery is over.  Every device found has been named
+	 * and, if asked for, searched for a channel.
+	 *
+	 * @param success is <code>false</code> if the inquiry failed.
+	 */
+	public void discoveryCompleted (boolean success);
+}
@@ -0,0 +1,34 @@
+package org.j4me.bluetoothgps;
+
+import java.io.*;
+
+/**
+ * Where a <code>DeviceCache</code> keeps what it knows about GPS devices
+ * between runs of the application.  <code>RecordStoreDeviceStore</code>
+ * keeps it in the MIDlet's record store.  Applications can supply their
+ * own, for example to share it with other data they already store.
+ *
+ * @see DeviceCache
+ * @see RecordStoreDeviceStore
+ */
+public interface DeviceStore
+{
+	/**
+	 * Reads the data last saved.
+	 *
+	 * @return The data passed to the last call to <code>save</code> or
+	 *  <code>null</code> if nothing has been saved.
+	 * @throws IOException if the data cannot be read.
+	 */
+	public byte[] load ()
+		throws IOException;
+
+	/**
+	 * Replaces the saved data.
+	 *
+	 * @param data is the data to keep.
+	 * @throws IOException if the data cannot be written.
+	 */
+	public void save (byte[] data)
+		throws IOException;
+}
@@ -3,28 +3,117 @@ package org.j4me.bluetoothgps;
 
 /**
  * Storage data type for parsed GPS data.
+ * <p>
+ * All the fields are primitives decoded straight from the NMEA sentences.
+ * This lets <code>NMEAParser</code> reuse the same records for every
+ * sentence without creating any garbage.  Fields that have not been
+ * received yet hold an "unknown" value:  <code>Float.NaN</code> or
+ * <code>Double.NaN</code> for decimal values and <code>-1</code> for
+ * integer values.
  */
 final class GPSRecord {
     /**
-     * Character that indicates a warning.
+     * The most satellites in view that are tracked.  Receivers that use
+     * several constellations (GPS, GLONASS, Galileo, BeiDou) can see
+     * more than 32 at once.
      */
-    public String altitude;
-    public String date;
-    public String secondsSinceMidnight;
-    public String hdop;
-    public String lattitude;
+    public static final int MAX_SATELLITES = 64;
+
+    /**
+     * The altitude above mean sea level in meters.
+     */
+    public float altitude = Float.NaN;
+
+    /**
+     * The UTC date in the NMEA format <i>ddmmyy</i>.  For example 140207 is
+     * February 14, 2007.
+     */
+    public int date = -1;
+
+    /**
+     * The UTC time of the fix as the number of milliseconds since midnight.
+     */
+    public int millisSinceMidnight = -1;
+
+    /**
+     * The UTC date and time of the fix in Java's time (milliseconds since
+     * 1 January 1970) or -1 if the date is not known.
+     */
+    public long timestamp = -1;
+
+    /**
+     * The horizontal dilution of precision.
+     */
+    public float hdop = Float.NaN;
+
+    /**
+     * The latitude in decimal degrees.  It is negative south of the equator.
+     */
+    public double lattitude = Double.NaN;
     public char lattitudeDirection;
-    public String longitude;
+
+    /**
+     * The longitude in decimal degrees.  It is negative west of Greenwich.
+     */
+    public double longitude = Double.NaN;
     public char longitudeDirection;
-    public String quality;
-    public String satelliteCount;
-    public String vdop;
-    
+
+    /**
+     * The fix quality.  0 is no fix, 1 is a GPS fix, 2 is a DGPS fix, and
+     * 3 is a PPS fix.
+     */
+    public int quality = -1;
+    public int satelliteCount = -1;
+
+    /**
+     * The vertical dilution of precision.
+     */
+    public float vdop = Float.NaN;
+
     /**
      * The ground speed in knots.
      */
-    public String speed;
-    public String course;
+    public float speed = Float.NaN;
+
+    /**
+     * The course made good in degrees relative to true north.
+     */
+    public float course = Float.NaN;
+
+    /**
+     * The number of satellites in view.  The first this many entries of
+     * the <code>satellite</code> arrays are used.
+     */
+    public int satellitesInView = 0;
+
+    /**
+     * The satellite system each satellite in view belongs to.  It is the
+     * NMEA talker ID, such as "GP" for GPS or "GL" for GLONASS, packed by
+     * <code>NMEAParser.pack</code>.
+     */
+    public final int[] satelliteSystem = new int[MAX_SATELLITES];
+
+    /**
+     * The PRN number that identifies each satellite in view.
+     */
+    public final int[] satellitePrn = new int[MAX_SATELLITES];
+
+    /**
+     * The elevation of each satellite in view in degrees or -1 if unknown.
+     */
+    public final int[] satelliteElevation = new int[MAX_SATELLITES];
+
+    /**
+     * The azimuth of each satellite in view in degrees from true north or -1
+     * if unknown.
+     */
+    public final int[] satelliteAzimuth = new int[MAX_SATELLITES];
+
+    /**
+     * The signal to noise ratio of each satellite in view in dB or -1 if it
+     * is not being tracked.
+     */
+    public final int[] satelliteSnr = new int[MAX_SATELLITES];
 
     /**
      * Constructs a record object for the current position
@@ -39,9 +128,20 @@ final class GPSRecord {
      * @param record is GPS record to make a deep copy of.
      */
     public GPSRecord(GPSRecord record) {
+        set(record);
+    }
+
+    /**
+     * Copies the values of another record into this one.  Unlike the copy
+     * constructor this does not create any new objects.
+     *
+     * @param record is GPS record to copy.
+     */
+    public void set(GPSRecord record) {
         this.altitude = record.altitude;
         this.date = record.date;
-        this.secondsSinceMidnight = record.secondsSinceMidnight;
+        this.millisSinceMidnight = record.millisSinceMidnight;
+        this.timestamp = record.timestamp;
         this.hdop = record.hdop;
         this.lattitude = record.lattitude;
         this.lattitudeDirection = record.lattitudeDirection;
@@ -52,5 +152,52 @@ final class GPSRecord {
         this.vdop = record.vdop;
         this.speed = record.speed;
         this.course = record.course;
+
+        this.satellitesInView = record.satellitesInView;
+        System.arraycopy(record.satelliteSystem, 0, this.satelliteSystem, 0, satellitesInView);
+        System.arraycopy(record.satellitePrn, 0, this.satellitePrn, 0, satellitesInView);
+        System.arraycopy(record.satelliteElevation, 0, this.satelliteElevation, 0, satellitesInView);
+        System.arraycopy(record.satelliteAzimuth, 0, this.satelliteAzimuth, 0, satellitesInView);
+        System.arraycopy(record.satelliteSnr, 0, this.satelliteSnr, 0, satellitesInView);
+    }
+
+    /**
+     * Replaces the satellites in view for one satellite system.  Satellites
+     * from other systems are kept so a multi-constellation receiver's
+     * GPGSV and GLGSV groups add up to everything it sees.
+     *
+     * @param system is the packed talker ID of the satellite system.
+     * @param prn are the satellites' PRN numbers.
+     * @param elevation are the satellites' elevations.
+     * @param azimuth are the satellites' azimuths.
+     * @param snr are the satellites' signal to noise ratios.
+     * @param count is the number of satellites in the arrays.
+     */
+    public void setSatellites(int system, int[] prn, int[] elevation, int[] azimuth, int[] snr, int count) {
+        // Remove the system's old satellites.
+        int kept = 0;
+
+        for (int i = 0; i < satellitesInView; i++) {
+            if (satelliteSystem[i] != system) {
+                satelliteSystem[kept] = satelliteSystem[i];
+                satellitePrn[kept] = satellitePrn[i];
+                satelliteElevation[kept] = satelliteElevation[i];
+                satelliteAzimuth[kept] = satelliteAzimuth[i];
+                satelliteSnr[kept] = satelliteSnr[i];
+                kept++;
+            }
+        }
+
+        // Add the new ones.
+        for (int i = 0; (i < count) && (kept < MAX_SATELLITES); i++) {
+            satelliteSystem[kept] = system;
+            satellitePrn[kept] = prn[i];
+            satelliteElevation[kept] = elevation[i];
+            satelliteAzimuth[kept] = azimuth[i];
+            satelliteSnr[kept] = snr[i];
+            kept++;
+        }
+
+        satellitesInView = kept;
     }
 }
@@ -0,0 +1,23 @@
+package org.j4me.bluetoothgps;
+
+/**
+ * Receives each NMEA sentence decoded by <code>NMEAParser</code>.  Sentences
+ * are delivered one at a time in the order they arrived from the GPS device.
+ *
+ * @see NMEAParser#setRecordListener(GPSRecordListener)
+ */
+interface GPSRecordListener
+{
+	/**
+	 * Called by the <code>NMEAParser</code> after a sentence passed its checksum
+	 * and its data was applied to the record.
+	 * <p>
+	 * The <code>record</code> object is reused for every sentence.  It must be
+	 * copied if it is needed after this method returns.
+	 *
+	 * @param record is the GPS data accumulated from every sentence so far.
+	 * @param type is the type of sentence just decoded such as
+	 *  <code>NMEAParser.TYPE_GPRMC</code>.
+	 */
+	public void recordParsed (GPSRecord record, int type);
+}
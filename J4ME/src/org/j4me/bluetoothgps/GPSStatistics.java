@@ -0,0 +1,389 @@
+package org.j4me.bluetoothgps;
+
+import org.j4me.util.*;
+
+/**
+ * Counts what happens between the Bluetooth GPS device and the location
+ * listener.  When fixes are slow it tells whether the cause is the
+ * connection stalling, corrupt data, reconnects or a slow listener.
+ * <p>
+ * Updating it is a few increments per read and per sentence so it is
+ * always on.  Get it from <code>LocationProvider.getStatistics</code>
+ * and show <code>toString</code> on a diagnostics screen.
+ * <p>
+ * Each counter is written by one thread: the reader thread counts data and
+ * the dispatcher thread times the listener.  They are not synchronized so a
+ * value read from another thread can be a moment out of date.
+ *
+ * @see org.j4me.util.Histogram
+ */
+public final class GPSStatistics
+{
+	/**
+	 * The reconnect reason when a read took longer than
+	 * <code>BluetoothGPS.READ_TIMEOUT</code>.
+	 */
+	public static final int REASON_STALLED = 0;
+
+	/**
+	 * The reconnect reason when the device closed the connection or it
+	 * failed with an I/O error.
+	 */
+	public static final int REASON_DROPPED = 1;
+
+	/**
+	 * The reconnect reason for any other error.
+	 */
+	public static final int REASON_ERROR = 2;
+
+	/**
+	 * The sentence types for <code>getParsedCount</code>.
+	 */
+	public static final int TYPE_GPRMC = NMEAParser.TYPE_GPRMC;
+	public static final int TYPE_GPGGA = NMEAParser.TYPE_GPGGA;
+	public static final int TYPE_GPGSA = NMEAParser.TYPE_GPGSA;
+	public static final int TYPE_GPGSV = NMEAParser.TYPE_GPGSV;
+	public static final int TYPE_GPVTG = NMEAParser.TYPE_GPVTG;
+	public static final int TYPE_GPGLL = NMEAParser.TYPE_GPGLL;
+	public static final int TYPE_SIRF_GEODETIC = SiRFBinaryParser.TYPE_GEODETIC;
+
+	/**
+	 * The names of the reconnect reasons indexed by reason.
+	 */
+	private static final String[] REASONS = { "stalled", "dropped", "error" };
+
+	/**
+	 * The names of the sentence types.  The type with bit <code>i</code> set
+	 * is at index <code>i</code>.
+	 */
+	private static final String[] TYPES = { "RMC", "GGA", "GSA", "GSV", "VTG", "GLL", "SiRF" };
+
+	/**
+	 * The number of bytes read from the device.
+	 */
+	private long bytesRead;
+
+	/**
+	 * The number of reads that returned data.
+	 */
+	private int reads;
+
+	/**
+	 * The number of complete sentences received, whether they were used
+	 * or not.
+	 */
+	private int sentences;
+
+	/**
+	 * The number of sentences thrown away because their checksum did
+	 * not match.
+	 */
+	private int checksumFailures;
+
+	/**
+	 * The number of sentences parsed of each type.
+	 */
+	private final int[] parsed = new int[TYPES.length];
+
+	/**
+	 * The number of times buffered data was thrown away.
+	 */
+	private int buffersDropped;
+
+	/**
+	 * The number of bytes thrown away with them.
+	 */
+	private long bytesDropped;
+
+	/**
+	 * The number of reconnects for each reason.
+	 */
+	private final int[] reconnects = new int[REASONS.length];
+
+	/**
+	 * When the receiver started according to <code>System.currentTimeMillis</code>.
+	 */
+	private long startTime = -1;
+
+	/**
+	 * The milliseconds from starting until the first fix or -1 if there has
+	 * not been one.
+	 */
+	private long timeToFirstFix = -1;
+
+	/**
+	 * The milliseconds from reading the data for a fix until the listener
+	 * is called with it.
+	 */
+	private final Histogram latency = new Histogram();
+
+	/**
+	 * The milliseconds the listener takes to return.
+	 */
+	private final Histogram listenerTime = new Histogram();
+
+	/**
+	 * Records data read from the device.
+	 *
+	 * @param bytes is the number of bytes read.
+	 */
+	void read (int bytes)
+	{
+		reads++;
+		bytesRead += bytes;
+	}
+
+	/**
+	 * Records a complete sentence was received.
+	 */
+	void sentenceReceived ()
+	{
+		sentences++;
+	}
+
+	/**
+	 * Records a sentence was thrown away because of its checksum.
+	 */
+	void checksumFailed ()
+	{
+		checksumFailures++;
+	}
+
+	/**
+	 * Records a sentence was parsed.
+	 *
+	 * @param type is the sentence's type such as <code>TYPE_GPRMC</code>.
+	 */
+	void sentenceParsed (int type)
+	{
+		int index = getTypeIndex( type );
+
+		if ( index >= 0 )
+		{
+			parsed[index]++;
+		}
+	}
+
+	/**
+	 * Records buffered data was thrown away.
+	 *
+	 * @param bytes is the number of bytes lost.
+	 */
+	void bufferDropped (int bytes)
+	{
+		buffersDropped++;
+		bytesDropped += bytes;
+	}
+
+	/**
+	 * Records the connection was dropped and is being made again.
+	 *
+	 * @param reason is why, such as <code>REASON_STALLED</code>.
+	 */
+	void reconnecting (int reason)
+	{
+		reconnects[reason]++;
+	}
+
+	/**
+	 * Records the receiver started.  Time to first fix is measured from here.
+	 *
+	 * @param now is the current time.
+	 */
+	void started (long now)
+	{
+		startTime = now;
+		timeToFirstFix = -1;
+	}
+
+	/**
+	 * Records a fix.  Only the first after starting matters.
+	 *
+	 * @param now is the current time.
+	 */
+	void fixed (long now)
+	{
+		if ( (timeToFirstFix < 0) && (startTime >= 0) )
+		{
+			timeToFirstFix = now - startTime;
+		}
+	}
+
+	/**
+	 * Records a location being given to the listener.
+	 *
+	 * @param latency is the milliseconds since its data was read.
+	 * @param duration is the milliseconds the listener took.
+	 */
+	void delivered (long latency, long duration)
+	{
+		this.latency.record( latency );
+		this.listenerTime.record( duration );
+	}
+
+	/**
+	 * Returns the index into <code>TYPES</code> of a sentence type.
+	 *
+	 * @param type is a single sentence type bit.
+	 * @return The index or -1 if it is not a known type.
+	 */
+	private static int getTypeIndex (int type)
+	{
+		for ( int i = 0; i < TYPES.length; i++ )
+		{
+			if ( type == (1 << i) )
+			{
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * @return The number of bytes read from the device.
+	 */
+	public long getBytesRead ()
+	{
+		return bytesRead;
+	}
+
+	/**
+	 * @return The number of reads that returned data.
+	 */
+	public int getReadCount ()
+	{
+		return reads;
+	}
+
+	/**
+	 * @return The number of complete NMEA sentences received, including
+	 *  ones that are not used or are corrupt.
+	 */
+	public int getSentenceCount ()
+	{
+		return sentences;
+	}
+
+	/**
+	 * @param type is a sentence type such as <code>TYPE_GPGGA</code>.
+	 * @return The number of sentences of that type parsed.
+	 */
+	public int getParsedCount (int type)
+	{
+		int index = getTypeIndex( type );
+		return (index < 0) ? 0 : parsed[index];
+	}
+
+	/**
+	 * @return The number of sentences thrown away because their checksum
+	 *  did not match.
+	 */
+	public int getChecksumFailureCount ()
+	{
+		return checksumFailures;
+	}
+
+	/**
+	 * @return The number of times buffered data was thrown away after an
+	 *  error.
+	 */
+	public int getDroppedBufferCount ()
+	{
+		return buffersDropped;
+	}
+
+	/**
+	 * @return The number of bytes read but thrown away after an error.
+	 */
+	public long getDroppedByteCount ()
+	{
+		return bytesDropped;
+	}
+
+	/**
+	 * @return The total number of reconnects.
+	 */
+	public int getReconnectCount ()
+	{
+		int total = 0;
+
+		for ( int i = 0; i < reconnects.length; i++ )
+		{
+			total += reconnects[i];
+		}
+
+		return total;
+	}
+
+	/**
+	 * @param reason is the reason such as <code>REASON_STALLED</code>.
+	 * @return The number of reconnects for that reason.
+	 */
+	public int getReconnectCount (int reason)
+	{
+		return reconnects[reason];
+	}
+
+	/**
+	 * @return The milliseconds from starting until the first fix or -1 if
+	 *  there has not been one.
+	 */
+	public long getTimeToFirstFix ()
+	{
+		return timeToFirstFix;
+	}
+
+	/**
+	 * @return The milliseconds from reading the data for each fix until
+	 *  the listener was called with it.
+	 */
+	public Histogram getLatency ()
+	{
+		return latency;
+	}
+
+	/**
+	 * @return The milliseconds the listener took to return.
+	 */
+	public Histogram getListenerTime ()
+	{
+		return listenerTime;
+	}
+
+	/**
+	 * Summarizes the statistics for logs and diagnostics screens.  Each
+	 * group is on its own line.
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString ()
+	{
+		StringBuffer s = new StringBuffer();
+
+		s.append( "read " ).append( bytesRead ).append( " bytes in " ).append( reads ).append( " reads\n" );
+		s.append( "sentences " ).append( sentences ).append( " bad " ).append( checksumFailures );
+
+		for ( int i = 0; i < TYPES.length; i++ )
+		{
+			if ( parsed[i] > 0 )
+			{
+				s.append( ' ' ).append( TYPES[i] ).append( '=' ).append( parsed[i] );
+			}
+		}
+
+		s.append( "\ndropped " ).append( buffersDropped ).append( " buffers " ).append( bytesDropped ).append( " bytes\n" );
+		s.append( "reconnects" );
+
+		for ( int i = 0; i < REASONS.length; i++ )
+		{
+			s.append( ' ' ).append( REASONS[i] ).append( '=' ).append( reconnects[i] );
+		}
+
+		s.append( "\nfirst fix " ).append( timeToFirstFix ).append( " ms\n" );
+		s.append( "latency " ).append( latency ).append( '\n' );
+		s.append( "listener " ).append( listenerTime );
+
+		return s.toString();
+	}
+}
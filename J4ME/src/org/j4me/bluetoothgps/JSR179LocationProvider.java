@@ -2,6 +2,7 @@ package org.j4me.bluetoothgps;
 
 import org.j4me.collections.*;
 import org.j4me.logging.*;
+import org.j4me.util.*;
 
 /**
  * Wraps all <code>LocationProvider</code>s returned by the JSR 179 implementation.
@@ -25,7 +26,7 @@ class JSR179LocationProvider
 	/**
 	 * Stores the latest location provider update.  It is put there by the JSR 179
 	 * implementation.  This class's background thread takes it and passes it off
-	 * to <code>locationListener</code>.
+	 * to <code>listeners</code>.
 	 * <p>
 	 * The object stored in the cubby hole will either be an <code>Integer</code>
 	 * or a <code>javax.microedition.location.Location</code>.  When the JSR 179
@@ -44,18 +45,24 @@ class JSR179LocationProvider
 	private final CubbyHole update = new CubbyHole();
 	
 	/**
-	 * The application's object registered to listen to location updates.
-	 * This can be <code>null</code> meaning the application isn't receiving
-	 * events. 
+	 * The application's objects registered to listen to location updates.
+	 * The JSR 179 implementation already spaces out locations for the
+	 * listener set by <code>setLocationListener</code> so it is given every
+	 * one, unless other listeners have been added.
+	 */
+	private final LocationListenerSet listeners = new LocationListenerSet( 0 );
+	
+	/**
+	 * The application's object registered with <code>setLocationListener</code>.
+	 * This can be <code>null</code>.
 	 */
 	private org.j4me.bluetoothgps.LocationListener locationListener;
 	
 	/**
-	 * The worker thread used to raise location events to <code>locationListener</code>.
-	 * This thread will only exist so long as <code>locationListener</code> is not
-	 * <code>null</code>.
+	 * The worker thread used to raise location events to <code>listeners</code>.
+	 * This thread will only exist so long as there are listeners.
 	 */
-	private final Thread worker = new Thread( this );
+	private Thread worker;
 	
 	/**
 	 * A flag indicating if this provider has ever been in the <code>AVAILABLE</code>
@@ -72,17 +79,44 @@ class JSR179LocationProvider
 	/**
 	 * Records the location update interval set by the user.
 	 */
-	private int interval;
+	private int interval = -1;
 
 	/**
 	 * Records the location update timeout set by the user.
 	 */
-	private int timeout;
+	private int timeout = -1;
 
 	/**
 	 * Records the location update maximum age set by the user.
 	 */
-	private int maxAge;
+	private int maxAge = -1;
+
+	/**
+	 * The interval given to the JSR 179 implementation.  It is the user's
+	 * <code>interval</code> unless other listeners were added in which case
+	 * it is the provider's default.
+	 */
+	private int originalInterval = -1;
+	
+	/**
+	 * Resets the provider if it is still unavailable some time after it
+	 * said it was.  It runs on the library's <code>DeadlineScheduler</code>
+	 * so the worker thread does not sleep and keeps delivering events.
+	 */
+	private final Deadline resetDeadline = new Deadline( new Runnable()
+		{
+			public void run ()
+			{
+				// Make sure the provider is still unavailable.
+				if ( original.getState() == javax.microedition.location.LocationProvider.TEMPORARILY_UNAVAILABLE )
+				{
+					Log.info("Resetting the location provider to get another fix");
+					
+					// Reset the location provider so it tries to get another fix.
+					reset();
+				}
+			}
+		} );
 	
 	/**
 	 * Returns a JSR 179 <code>LocationProvider</code> wrapped by an object of this
@@ -177,40 +211,93 @@ class JSR179LocationProvider
 		this.timeout = timeout;
 		this.maxAge = maxAge;
 		
-		// Is the provider working yet?
-		if ( original.getState() == javax.microedition.location.LocationProvider.AVAILABLE )
+		listen();
+	}
+
+	/**
+	 * @see org.j4me.bluetoothgps.LocationProvider#addLocationListener(org.j4me.bluetoothgps.LocationListener, int, float)
+	 */
+	public void addLocationListener (org.j4me.bluetoothgps.LocationListener listener, int interval, float minDistance)
+	{
+		listeners.add( listener, interval, minDistance );
+		listen();
+	}
+
+	/**
+	 * @see org.j4me.bluetoothgps.LocationProvider#removeLocationListener(org.j4me.bluetoothgps.LocationListener)
+	 */
+	public void removeLocationListener (org.j4me.bluetoothgps.LocationListener listener)
+	{
+		if ( (listener != null) && (listener == locationListener) )
 		{
-			hasBeenAvailable = true;
+			setLocationListener( null, -1, -1, -1 );
 		}
-		
-		// Kill our worker thread to start fresh.
-		try
+		else if ( listeners.remove(listener) )
 		{
-			if ( worker.isAlive() )
-			{
-				worker.interrupt();
-				worker.join();
-			}
+			listen();
 		}
-		catch (Exception e)
+	}
+
+	/**
+	 * Registers with the JSR 179 implementation for the current listeners.
+	 * The worker thread is started when there are listeners and stopped
+	 * when there are none.
+	 */
+	private synchronized void listen ()
+	{
+		// Is the provider working yet?
+		if ( original.getState() == javax.microedition.location.LocationProvider.AVAILABLE )
 		{
-			// Ignore.  The worker is dead now.
+			hasBeenAvailable = true;
 		}
 		
+		// When only the user's listener is registered the JSR 179 implementation
+		// spaces out the locations.  When there are others it sends them at its
+		// default rate and the user's listener is throttled with the rest.
+		listeners.setLocationListener( null, -1 );
+		boolean shared = (listeners.isEmpty() == false);
+		listeners.setLocationListener( locationListener, shared ? interval : -1 );
+		originalInterval = shared ? -1 : interval;
+		
 		// Set the new location listner for the JSR 179 implementation
-		if ( locationListener == null )
+		if ( listeners.isEmpty() )
 		{
 			// Nothing listening for events.
 			original.setLocationListener( null, interval, timeout, maxAge );
+			
+			// Kill our worker thread.  A listener removing itself is called on
+			// the worker so it cannot wait for itself; it ends on its next event.
+			try
+			{
+				if ( (worker != null) && worker.isAlive() )
+				{
+					worker.interrupt();
+					
+					if ( worker != Thread.currentThread() )
+					{
+						worker.join();
+					}
+				}
+			}
+			catch (Exception e)
+			{
+				// Ignore.  The worker is dead now.
+			}
+			
+			worker = null;
 		}
 		else
 		{
 			// Start listening for events.
 			lastState = TEMPORARILY_UNAVAILABLE;
-			original.setLocationListener( new JSR179Listener(), interval, timeout, maxAge );
+			original.setLocationListener( new JSR179Listener(), originalInterval, timeout, maxAge );
 
-			// Start notifying the user's location listener with a new worker thread.
-			worker.start();
+			// Start notifying the user's location listeners.
+			if ( (worker == null) || (worker.isAlive() == false) )
+			{
+				worker = new Thread( this );
+				worker.start();
+			}
 		}
 	}
 
@@ -224,9 +311,9 @@ class JSR179LocationProvider
 		// Register a new location listener.
 		//  Some implementation, like the BlackBerry, will not actually reset until
 		//  the location listener is changed.
-		if ( locationListener != null )
+		if ( listeners.isEmpty() == false )
 		{
-			original.setLocationListener( new JSR179Listener(), interval, timeout, maxAge );
+			original.setLocationListener( new JSR179Listener(), originalInterval, timeout, maxAge );
 		}
 	}
 
@@ -235,21 +322,13 @@ class JSR179LocationProvider
 	 */
 	public void close ()
 	{
+		DeadlineScheduler.getInstance().cancel( resetDeadline );
 		reset();
-		setLocationListener( null, -1, -1, -1 );
 		
-		try
-		{
-			if ( worker.isAlive() )
-			{
-				worker.interrupt();
-				worker.join();
-			}
-		}
-		catch (Exception e)
-		{
-			// Ignore.  The worker is dead now.
-		}
+		// Stop every listener.  Removing the last one kills the worker thread.
+		locationListener = null;
+		listeners.clear();
+		listen();
 	}
 	
 	/**
@@ -336,21 +415,9 @@ class JSR179LocationProvider
 					if ( hasBeenAvailable && (newState == javax.microedition.location.LocationProvider.TEMPORARILY_UNAVAILABLE) )
 					{
 						// Pause for a bit so we don't immediately try to get a location.
-						//  Since this is happening on our one and only worker thread any events
-						//  that may occur by the JSR 179 implementation, such as going back in
-						//  service, will still happen.  They will not block either.  This just
-						//  means the user's location implementation will not get updated for
-						//  at least this long.
-						Thread.sleep( interval * 1000 );
-						
-						// Make sure the provider is still unavailable after the sleep.
-						if ( original.getState() == javax.microedition.location.LocationProvider.TEMPORARILY_UNAVAILABLE )
-						{
-							Log.info("Resetting the location provider to get another fix");
-							
-							// Reset the location provider so it tries to get another fix.
-							reset();
-						}
+						//  The deadline fires on the shared scheduler's thread so
+						//  this worker keeps forwarding events in the meantime.
+						DeadlineScheduler.getInstance().schedule( resetDeadline, Math.max(interval, 1) * 1000 );
 					}
 				}
 				else // ( o instanceof javax.microedition.location.Location )
@@ -362,6 +429,7 @@ class JSR179LocationProvider
 					if ( (lastState != javax.microedition.location.LocationProvider.AVAILABLE) && l.isValid() )
 					{
 						// Now the provider is available again.
+						DeadlineScheduler.getInstance().cancel( resetDeadline );
 						raiseStateChangeEvent( javax.microedition.location.LocationProvider.AVAILABLE );
 					}
 					
@@ -387,21 +455,9 @@ class JSR179LocationProvider
 		// Record the unavailable state.
 		lastState = newState;
 		
-		// Forward to the application's listener.
-		if ( locationListener != null )
-		{
-			int state = convertAvailabilityStatusCode( newState );
-			
-			try
-			{
-				locationListener.providerStateChanged( this, state );
-			}
-			catch (Throwable t)
-			{
-				// This is a programming error in the user's application.
-				Log.warn("Unhandled exception in LocationProvider.providerStateChanged to " + state, t);
-			}
-		}
+		// Forward to the application's listeners.
+		int state = convertAvailabilityStatusCode( newState );
+		listeners.providerStateChanged( this, state );
 	}
 	
 	/**
@@ -411,20 +467,11 @@ class JSR179LocationProvider
 	 */
 	private void raiseLocationEvent (javax.microedition.location.Location location)
 	{
-		// Forward to the application's listener.
-		if ( locationListener != null )
+		// Forward to the application's listeners that are due a location.
+		if ( listeners.isEmpty() == false )
 		{
 			org.j4me.bluetoothgps.Location l = convertLocation( location );
-			
-			try
-			{
-				locationListener.locationUpdated( this, l );
-			}
-			catch (Throwable t)
-			{
-				// This is a programming error in the user's application.
-				Log.warn("Unhandled exception in LocationProvider.locationUpdated\n" + l, t);
-			}
+			listeners.locationUpdated( this, l );
 		}
 	}
 	
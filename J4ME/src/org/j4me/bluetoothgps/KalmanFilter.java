@@ -0,0 +1,346 @@
+package org.j4me.bluetoothgps;
+
+import org.j4me.util.*;
+
+/**
+ * Smooths the fixes from a GPS receiver.  A receiver standing still reports
+ * positions that wander by several meters.  That adds distance that was never
+ * traveled and makes displays redraw for nothing.
+ * <p>
+ * This is a Kalman filter that assumes the receiver moves at a constant
+ * velocity, changed now and then by random accelerations.  Each fix moves the
+ * estimate by how far it is from the prediction, weighted by how much each
+ * is trusted.  A fix is trusted less as its HDOP grows.  The speed and course
+ * measure the velocity directly so the estimate keeps up when moving.
+ * <p>
+ * East and north are independent and have the same noise so they share one
+ * covariance matrix.  The position is kept in degrees and each fix is compared
+ * to it in meters so no origin is needed.  Every update does the same few
+ * operations on primitive fields and never creates objects.
+ * <p>
+ * It also decides which fixes the listener needs.  Once the estimate is
+ * within the motion threshold of the last one delivered, <code>update</code>
+ * returns <code>false</code> until it moves away.
+ *
+ * @see Criteria#setSmoothing(boolean)
+ */
+final class KalmanFilter
+{
+	/**
+	 * The typical error in meters of a fix with an HDOP of 1.  Bluetooth
+	 * receivers report HDOP rather than meters so it is scaled by this.
+	 */
+	static final float UERE = 5;
+
+	/**
+	 * The error in meters assumed for a fix without an HDOP.
+	 */
+	static final float DEFAULT_ERROR = 15;
+
+	/**
+	 * The error in meters per second of the speed and course.
+	 */
+	static final float VELOCITY_ERROR = 1;
+
+	/**
+	 * The variance of the velocity when starting without a speed and
+	 * course.  It is large so the first few fixes set it.
+	 */
+	static final float UNKNOWN_VELOCITY_VARIANCE = 100;
+
+	/**
+	 * How much the velocity is expected to change.  It is the spectral
+	 * density of the acceleration in square meters per second cubed.  Bigger
+	 * values follow turns and stops more quickly but smooth less.
+	 */
+	static final float ACCELERATION_NOISE = 1;
+
+	/**
+	 * The most milliseconds between fixes before the filter starts over.
+	 * After a longer gap the old estimate says nothing about the new fix.
+	 */
+	static final long MAX_GAP = 10000;
+
+	/**
+	 * The slowest speed in meters per second at which a course is reported.
+	 * Below it the direction is mostly noise.
+	 */
+	static final float MIN_COURSE_SPEED = 0.5f;
+
+	/**
+	 * Meters in a degree of latitude.
+	 */
+	private static final double METERS_PER_DEGREE = 6371000 * Math.PI / 180;
+
+	/**
+	 * The meters the estimate must move from the last one delivered before
+	 * it is delivered again.
+	 */
+	private final float motionThreshold;
+
+	/**
+	 * <code>true</code> once there is an estimate.
+	 */
+	private boolean initialized;
+
+	/**
+	 * The estimated position in degrees.
+	 */
+	private double latitude;
+	private double longitude;
+
+	/**
+	 * The estimated velocity east and north in meters per second.
+	 */
+	private double east;
+	private double north;
+
+	/**
+	 * The covariance of the position and velocity on each axis.  They are
+	 * the position variance, their covariance and the velocity variance.
+	 */
+	private double p00;
+	private double p01;
+	private double p11;
+
+	/**
+	 * The time of the last fix.
+	 */
+	private long time;
+
+	/**
+	 * <code>true</code> once an estimate has been delivered since starting
+	 * over.
+	 */
+	private boolean delivered;
+
+	/**
+	 * The last estimate that was delivered.
+	 */
+	private double deliveredLatitude;
+	private double deliveredLongitude;
+
+	/**
+	 * Constructs a filter.
+	 *
+	 * @param motionThreshold is how many meters the estimate must move
+	 *  before <code>update</code> returns <code>true</code> again.  0 or
+	 *  less delivers every fix.
+	 */
+	KalmanFilter (float motionThreshold)
+	{
+		this.motionThreshold = motionThreshold;
+	}
+
+	/**
+	 * Forgets the estimate.  The next fix starts it over.
+	 */
+	void reset ()
+	{
+		initialized = false;
+	}
+
+	/**
+	 * Adds a fix to the estimate.
+	 *
+	 * @param lat is the fix's latitude in degrees.
+	 * @param lon is the fix's longitude in degrees.
+	 * @param hdop is its horizontal dilution of precision or <code>Float.NaN</code>.
+	 * @param speed is its ground speed in meters per second or <code>Float.NaN</code>.
+	 * @param course is its course in degrees or <code>Float.NaN</code>.
+	 * @param timestamp is when it was taken in milliseconds.
+	 * @return <code>true</code> if the estimate has moved far enough to be
+	 *  delivered; <code>false</code> if it is within the motion threshold
+	 *  of the last one delivered or the fix has the same time as the last.
+	 */
+	boolean update (double lat, double lon, float hdop, float speed, float course, long timestamp)
+	{
+		double positionVariance = Float.isNaN( hdop ) ? DEFAULT_ERROR : hdop * UERE;
+		positionVariance *= positionVariance;
+
+		boolean hasVelocity = !Float.isNaN( speed ) && !Float.isNaN( course );
+		double ve = 0;
+		double vn = 0;
+
+		if ( hasVelocity )
+		{
+			double radians = Math.toRadians( course );
+			ve = speed * Math.sin( radians );
+			vn = speed * Math.cos( radians );
+		}
+
+		long elapsed = timestamp - time;
+
+		if ( (initialized == false) || (elapsed < 0) || (elapsed > MAX_GAP) )
+		{
+			// Start over from this fix.
+			initialized = true;
+			latitude = lat;
+			longitude = lon;
+			east = ve;
+			north = vn;
+			p00 = positionVariance;
+			p01 = 0;
+			p11 = hasVelocity ? VELOCITY_ERROR * VELOCITY_ERROR : UNKNOWN_VELOCITY_VARIANCE;
+			time = timestamp;
+			delivered = false;
+
+			return deliver();
+		}
+		else if ( elapsed == 0 )
+		{
+			// The same fix again, for example from another sentence of the
+			// same second.  Using it twice would overstate its accuracy.
+			return false;
+		}
+
+		time = timestamp;
+
+		double metersPerDegreeLongitude = METERS_PER_DEGREE * Math.cos( Math.toRadians(latitude) );
+
+		// Predict where the receiver is now from its velocity.
+		double dt = elapsed / 1000.0;
+		double q = ACCELERATION_NOISE;
+
+		latitude += north * dt / METERS_PER_DEGREE;
+		longitude += east * dt / metersPerDegreeLongitude;
+
+		p00 += dt * (2 * p01 + dt * p11) + q * dt * dt * dt / 3;
+		p01 += dt * p11 + q * dt * dt / 2;
+		p11 += q * dt;
+
+		// Correct the prediction with the fix's position.
+		double dx = longitude( lon - longitude ) * metersPerDegreeLongitude;
+		double dy = (lat - latitude) * METERS_PER_DEGREE;
+		double s = p00 + positionVariance;
+		double k0 = p00 / s;
+		double k1 = p01 / s;
+
+		latitude += k0 * dy / METERS_PER_DEGREE;
+		longitude += k0 * dx / metersPerDegreeLongitude;
+		east += k1 * dx;
+		north += k1 * dy;
+
+		p11 -= k1 * p01;
+		p01 -= k0 * p01;
+		p00 -= k0 * p00;
+
+		// Correct it again with the fix's velocity.
+		if ( hasVelocity )
+		{
+			dx = ve - east;
+			dy = vn - north;
+			s = p11 + VELOCITY_ERROR * VELOCITY_ERROR;
+			k0 = p01 / s;
+			k1 = p11 / s;
+
+			latitude += k0 * dy / METERS_PER_DEGREE;
+			longitude += k0 * dx / metersPerDegreeLongitude;
+			east += k1 * dx;
+			north += k1 * dy;
+
+			p00 -= k0 * p01;
+			p01 -= k1 * p01;
+			p11 -= k1 * p11;
+		}
+
+		latitude = Math.max( -90, Math.min(90, latitude) );
+		longitude = longitude( longitude );
+
+		return deliver();
+	}
+
+	/**
+	 * Decides if the estimate has moved far enough to be delivered.
+	 *
+	 * @return <code>true</code> if it should be delivered.
+	 */
+	private boolean deliver ()
+	{
+		if ( delivered && (motionThreshold > 0) )
+		{
+			double dx = longitude( longitude - deliveredLongitude ) * METERS_PER_DEGREE * Math.cos( Math.toRadians(latitude) );
+			double dy = (latitude - deliveredLatitude) * METERS_PER_DEGREE;
+
+			if ( dx * dx + dy * dy < motionThreshold * motionThreshold )
+			{
+				return false;
+			}
+		}
+
+		delivered = true;
+		deliveredLatitude = latitude;
+		deliveredLongitude = longitude;
+
+		return true;
+	}
+
+	/**
+	 * Wraps a longitude, or a difference between two, into -180 up to 180.
+	 *
+	 * @param degrees is the longitude.
+	 * @return The same longitude from -180 up to but not including 180.
+	 */
+	private static double longitude (double degrees)
+	{
+		if ( degrees >= 180 )
+		{
+			return degrees - 360;
+		}
+		else if ( degrees < -180 )
+		{
+			return degrees + 360;
+		}
+		else
+		{
+			return degrees;
+		}
+	}
+
+	/**
+	 * @return The smoothed latitude in degrees.
+	 */
+	double getLatitude ()
+	{
+		return latitude;
+	}
+
+	/**
+	 * @return The smoothed longitude in degrees.
+	 */
+	double getLongitude ()
+	{
+		return longitude;
+	}
+
+	/**
+	 * @return The smoothed ground speed in meters per second.
+	 */
+	float getSpeed ()
+	{
+		return (float)Math.sqrt( east * east + north * north );
+	}
+
+	/**
+	 * @return The smoothed course in degrees from true north or <code>Float.NaN</code>
+	 *  when moving too slowly to have one.
+	 */
+	float getCourse ()
+	{
+		if ( getSpeed() < MIN_COURSE_SPEED )
+		{
+			return Float.NaN;
+		}
+
+		double degrees = Math.toDegrees( MathFunc.atan2(east, north) );
+		return (float)((degrees < 0) ? degrees + 360 : degrees);
+	}
+
+	/**
+	 * @return The standard deviation of the smoothed position in meters.
+	 */
+	float getError ()
+	{
+		return (float)Math.sqrt( p00 );
+	}
+}
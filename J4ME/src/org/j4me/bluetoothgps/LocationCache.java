@@ -0,0 +1,152 @@
+package org.j4me.bluetoothgps;
+
+/**
+ * Holds a provider's latest location and hands it to threads waiting in
+ * <code>getLocation</code>.  A waiting thread is woken the moment a new
+ * location is set instead of polling for it.
+ * <p>
+ * The age of a location is how long ago it was set, measured with the
+ * phone's clock.  The location's own timestamp comes from the GPS and
+ * can be off from the phone's clock by any amount.
+ */
+final class LocationCache
+{
+	/**
+	 * The latest location or <code>null</code> if there is none yet.
+	 */
+	private Location location;
+
+	/**
+	 * When <code>location</code> was set according to
+	 * <code>System.currentTimeMillis</code>.
+	 */
+	private long arrival;
+
+	/**
+	 * Counts the locations set.  A waiting thread uses it to tell a new
+	 * location from the one that was there when it started waiting.
+	 */
+	private int sequence;
+
+	/**
+	 * Set when the provider closes so waiting threads give up.
+	 */
+	private boolean closed;
+
+	/**
+	 * Stores a new location and wakes every thread waiting for one.
+	 *
+	 * @param location is the new location.
+	 */
+	public synchronized void set (Location location)
+	{
+		this.location = location;
+		this.arrival = System.currentTimeMillis();
+		this.sequence++;
+		this.closed = false;
+		notifyAll();
+	}
+
+	/**
+	 * @return The latest location or <code>null</code> if there is none.
+	 */
+	public synchronized Location get ()
+	{
+		return location;
+	}
+
+	/**
+	 * Returns the latest location if it is recent enough.
+	 *
+	 * @param maxAge is the oldest, in milliseconds, the location can be.
+	 *  If it is negative any location is returned.
+	 * @return The latest location or <code>null</code> if there is none or
+	 *  it is too old.
+	 */
+	public synchronized Location get (long maxAge)
+	{
+		if ( (location != null) &&
+			 ((maxAge < 0) || (System.currentTimeMillis() - arrival <= maxAge)) )
+		{
+			return location;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Forgets the latest location.
+	 */
+	public synchronized void clear ()
+	{
+		location = null;
+	}
+
+	/**
+	 * Allows threads to wait again after <code>close</code>.
+	 */
+	public synchronized void open ()
+	{
+		closed = false;
+	}
+
+	/**
+	 * Wakes every waiting thread and makes them return without a location.
+	 * Threads that wait later return right away until <code>open</code> or
+	 * <code>set</code> is called.
+	 */
+	public synchronized void close ()
+	{
+		closed = true;
+		notifyAll();
+	}
+
+	/**
+	 * Blocks until there is a location no older than <code>maxAge</code>.
+	 * If the latest one is recent enough it is returned at once.  Otherwise
+	 * the thread sleeps until a new location is set or the timeout ends.
+	 *
+	 * @param maxAge is the oldest, in milliseconds, the location can be
+	 *  when this method is called.  0 waits for a location set after the
+	 *  call.  If it is negative any location is returned.
+	 * @param timeout is the most milliseconds to wait.
+	 * @return The location or <code>null</code> if the timeout expired or
+	 *  the provider was closed first.
+	 * @throws InterruptedException if the thread is interrupted while waiting.
+	 */
+	public synchronized Location waitFor (long maxAge, long timeout)
+		throws InterruptedException
+	{
+		long start = System.currentTimeMillis();
+		long end = start + timeout;
+		int first = sequence;
+
+		// Is the location we already have recent enough?
+		if ( (location != null) && ((maxAge < 0) || ((maxAge > 0) && (start - arrival <= maxAge))) )
+		{
+			return location;
+		}
+
+		while ( true )
+		{
+			if ( (location != null) && (sequence != first) )
+			{
+				return location;
+			}
+
+			if ( closed )
+			{
+				return null;
+			}
+
+			long remaining = end - System.currentTimeMillis();
+
+			if ( remaining <= 0 )
+			{
+				return null;
+			}
+
+			wait( remaining );
+		}
+	}
+}
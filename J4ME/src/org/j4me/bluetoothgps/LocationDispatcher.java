@@ -0,0 +1,354 @@
+package org.j4me.bluetoothgps;
+
+import java.util.*;
+import org.j4me.logging.*;
+
+/**
+ * Delivers events to a <code>LocationListener</code> on its own thread.  The
+ * thread reading the GPS device hands events to this class and goes straight
+ * back to reading.  A listener that takes a long time, for example to repaint
+ * a map, never stops the device from being read.
+ * <p>
+ * Like a <code>CubbyHole</code> only the latest location is kept.  If the
+ * listener is still busy when a new location arrives, the one waiting is
+ * replaced.  State changes are never dropped and are delivered in the order
+ * they happened relative to the locations.  For example if the provider
+ * becomes available and then sends a location the listener is told it is
+ * available before it gets the location.
+ */
+class LocationDispatcher implements Runnable
+{
+	/**
+	 * The events waiting to be delivered.  Locations are <code>Location</code>
+	 * objects, state changes are <code>Integer</code> objects, and tasks
+	 * are <code>Runnable</code> objects.
+	 */
+	private final Vector queue = new Vector();
+
+	/**
+	 * The provider passed to the listener.
+	 */
+	private final LocationProvider provider;
+
+	/**
+	 * The object receiving the events or <code>null</code> if there is none.
+	 */
+	private LocationListener listener;
+
+	/**
+	 * The thread that calls the listener.  It is <code>null</code> when the
+	 * dispatcher is not running.
+	 */
+	private Thread thread;
+
+	/**
+	 * Set when the thread should end once the queue is empty.
+	 */
+	private boolean stopping;
+
+	/**
+	 * Statistics.
+	 */
+	private int deliveredCount;
+	private int coalescedCount;
+	private int droppedCount;
+
+	/**
+	 * Times how long locations wait and how long the listener takes.  May
+	 * be <code>null</code>.
+	 */
+	private GPSStatistics statistics;
+
+	/**
+	 * The last location queued and when the data it came from was read.
+	 * Only the latest location's read time is kept.  An older location can
+	 * still be waiting when a state change or task was queued after it;
+	 * it is delivered without its latency being recorded.
+	 */
+	private Location latest;
+	private long latestReadTime;
+
+	/**
+	 * Constructs a dispatcher.
+	 *
+	 * @param provider is the source of the events.  It is passed to the listener.
+	 */
+	public LocationDispatcher (LocationProvider provider)
+	{
+		this.provider = provider;
+	}
+
+	/**
+	 * Sets the listener events are delivered to.  Events waiting for the
+	 * old listener are dropped.
+	 *
+	 * @param listener is the object to notify or <code>null</code> to stop
+	 *  delivering events.
+	 */
+	public synchronized void setListener (LocationListener listener)
+	{
+		if ( this.listener != listener )
+		{
+			droppedCount += queue.size();
+			queue.removeAllElements();
+		}
+
+		this.listener = listener;
+	}
+
+	/**
+	 * Sets the object that records how long locations take to reach the
+	 * listener.
+	 *
+	 * @param statistics is updated for every location delivered.  If
+	 *  <code>null</code> nothing is timed.
+	 */
+	public synchronized void setStatistics (GPSStatistics statistics)
+	{
+		this.statistics = statistics;
+	}
+
+	/**
+	 * Starts the thread that delivers events.  It does nothing if the
+	 * thread is already running.
+	 */
+	public synchronized void start ()
+	{
+		stopping = false;
+
+		if ( thread == null )
+		{
+			thread = new Thread( this );
+			thread.start();
+		}
+	}
+
+	/**
+	 * Stops the thread once the events already queued have been delivered.
+	 * It returns right away.
+	 */
+	public synchronized void stop ()
+	{
+		stopping = true;
+		notifyAll();
+	}
+
+	/**
+	 * Queues a new location for the listener.  If a location is already
+	 * waiting, and no state change came after it, it is replaced.
+	 *
+	 * @param location is the new location.
+	 */
+	public void locationUpdated (Location location)
+	{
+		locationUpdated( location, System.currentTimeMillis() );
+	}
+
+	/**
+	 * Queues a new location for the listener.  If a location is already
+	 * waiting, and no state change came after it, it is replaced.
+	 *
+	 * @param location is the new location.
+	 * @param readTime is when the data it came from was read.  The latency
+	 *  recorded in the statistics is measured from it.
+	 */
+	public synchronized void locationUpdated (Location location, long readTime)
+	{
+		latest = location;
+		latestReadTime = readTime;
+
+		if ( listener == null )
+		{
+			return;
+		}
+
+		if ( (queue.size() > 0) && (queue.lastElement() instanceof Location) )
+		{
+			// The listener has not gotten to the last one yet.
+			queue.setElementAt( location, queue.size() - 1 );
+			coalescedCount++;
+		}
+		else
+		{
+			queue.addElement( location );
+		}
+
+		notifyAll();
+	}
+
+	/**
+	 * Queues a provider state change for the listener.
+	 *
+	 * @param newState is the new state of the provider.
+	 */
+	public synchronized void providerStateChanged (int newState)
+	{
+		if ( listener == null )
+		{
+			return;
+		}
+
+		queue.addElement( new Integer(newState) );
+		notifyAll();
+	}
+
+	/**
+	 * Queues code to run on the dispatcher's thread in order with the
+	 * events.  The provider uses it for work that calls the listener, such
+	 * as sending a cached location, so the listener is only ever called
+	 * by one thread.
+	 *
+	 * @param task is the code to run.
+	 */
+	public synchronized void post (Runnable task)
+	{
+		queue.addElement( task );
+		notifyAll();
+	}
+
+	/**
+	 * @return The number of events delivered to listeners.
+	 */
+	public synchronized int getDeliveredCount ()
+	{
+		return deliveredCount;
+	}
+
+	/**
+	 * @return The number of locations replaced by a newer one before the
+	 *  listener got them.
+	 */
+	public synchronized int getCoalescedCount ()
+	{
+		return coalescedCount;
+	}
+
+	/**
+	 * @return The number of events thrown away because the listener was
+	 *  changed before they were delivered.
+	 */
+	public synchronized int getDroppedCount ()
+	{
+		return droppedCount;
+	}
+
+	/**
+	 * @return The number of events waiting to be delivered.
+	 */
+	public synchronized int getPendingCount ()
+	{
+		return queue.size();
+	}
+
+	/**
+	 * @return <code>true</code> while the thread that delivers events is
+	 *  running.  It ends after <code>stop</code> once the queue is empty.
+	 */
+	public synchronized boolean isRunning ()
+	{
+		return thread != null;
+	}
+
+	/**
+	 * Delivers events until stopped.
+	 */
+	public void run ()
+	{
+		while ( true )
+		{
+			Object event;
+			LocationListener target;
+			GPSStatistics timer;
+			long readTime = 0;
+
+			synchronized ( this )
+			{
+				try
+				{
+					while ( queue.isEmpty() && (stopping == false) )
+					{
+						wait();
+					}
+				}
+				catch (InterruptedException e)
+				{
+					// Exit the thread.
+					stopping = true;
+				}
+
+				if ( queue.isEmpty() )
+				{
+					thread = null;
+					return;
+				}
+
+				event = queue.elementAt( 0 );
+				queue.removeElementAt( 0 );
+				target = listener;
+				timer = statistics;
+
+				if ( event == latest )
+				{
+					readTime = latestReadTime;
+				}
+
+				if ( (target != null) && ((event instanceof Runnable) == false) )
+				{
+					// Only events that reach a listener count as delivered.
+					deliveredCount++;
+				}
+			}
+
+			// Call the listener without holding the lock so new events can
+			// be queued while it runs.
+			if ( event instanceof Runnable )
+			{
+				try
+				{
+					((Runnable)event).run();
+				}
+				catch (Throwable t)
+				{
+					Log.warn("Unhandled exception in location task", t);
+				}
+			}
+			else if ( target == null )
+			{
+				// The listener was removed after a task was queued.
+			}
+			else if ( event instanceof Location )
+			{
+				long start = System.currentTimeMillis();
+
+				try
+				{
+					target.locationUpdated( provider, (Location)event );
+				}
+				catch (Throwable t)
+				{
+					// This is a programming error in the user's application.
+					Log.warn("Unhandled exception in LocationProvider.locationUpdated\n" + event, t);
+				}
+
+				if ( (timer != null) && (readTime > 0) )
+				{
+					timer.delivered( start - readTime, System.currentTimeMillis() - start );
+				}
+			}
+			else
+			{
+				int state = ((Integer)event).intValue();
+
+				try
+				{
+					target.providerStateChanged( provider, state );
+				}
+				catch (Throwable t)
+				{
+					// This is a programming error in the user's application.
+					Log.warn("Unhandled exception in LocationProvider.providerStateChanged to " + state, t);
+				}
+			}
+		}
+	}
+}
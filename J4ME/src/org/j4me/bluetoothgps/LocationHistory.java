@@ -0,0 +1,368 @@
+package org.j4me.bluetoothgps;
+
+/**
+ * The most recent fixes from a <code>LocationProvider</code>.  Applications
+ * such as a pedometer or a track display use it instead of keeping their
+ * own list of locations and running totals.
+ * <p>
+ * The fixes are stored in parallel arrays of primitives, not as
+ * <code>Location</code> objects, in a ring that overwrites the oldest fix
+ * once it is full.  So the memory used is set by the capacity and does not
+ * grow however long the application runs.  None of the queries create
+ * objects.
+ * <p>
+ * Fixes are numbered back from the newest:  index 0 is the latest fix, 1 is
+ * the one before it, and so on up to <code>size() - 1</code>.  Windows are
+ * given as a time and include every fix whose timestamp is at or after it.
+ * Timestamps are the locations' own, which come from the GPS.
+ * <p>
+ * The provider adds fixes from its own thread so every method is
+ * synchronized.  Use <code>copyLast</code> to read several fixes without
+ * another being added part way through.
+ *
+ * @see LocationProvider#getHistory()
+ */
+public final class LocationHistory
+{
+	/**
+	 * The number of fixes kept by the providers.  It is two minutes of
+	 * fixes from a GPS sending one a second.
+	 */
+	public static final int DEFAULT_CAPACITY = 120;
+
+	/**
+	 * The latitude of each fix in degrees.
+	 */
+	private final double[] latitudes;
+
+	/**
+	 * The longitude of each fix in degrees.
+	 */
+	private final double[] longitudes;
+
+	/**
+	 * The timestamp of each fix.
+	 */
+	private final long[] timestamps;
+
+	/**
+	 * The horizontal accuracy of each fix in meters or <code>Float.NaN</code>
+	 * if not known.
+	 */
+	private final float[] accuracies;
+
+	/**
+	 * The ground speed of each fix in meters per second or <code>Float.NaN</code>
+	 * if not known.
+	 */
+	private final float[] speeds;
+
+	/**
+	 * The course of each fix in degrees or <code>Float.NaN</code> if not known.
+	 */
+	private final float[] courses;
+
+	/**
+	 * The slot the next fix is written to.
+	 */
+	private int next;
+
+	/**
+	 * The number of fixes stored.
+	 */
+	private int size;
+
+	/**
+	 * Constructs an empty history.
+	 *
+	 * @param capacity is the most fixes kept.  Once there are this many
+	 *  each new fix replaces the oldest.
+	 */
+	public LocationHistory (int capacity)
+	{
+		if ( capacity < 1 )
+		{
+			throw new IllegalArgumentException("capacity must be at least 1");
+		}
+
+		latitudes = new double[capacity];
+		longitudes = new double[capacity];
+		timestamps = new long[capacity];
+		accuracies = new float[capacity];
+		speeds = new float[capacity];
+		courses = new float[capacity];
+	}
+
+	/**
+	 * Adds a location as the newest fix.  Invalid locations are ignored.
+	 *
+	 * @param location is the fix to add.
+	 */
+	public void add (Location location)
+	{
+		if ( (location == null) || (location.isValid() == false) )
+		{
+			return;
+		}
+
+		QualifiedCoordinates coordinates = location.getQualifiedCoordinates();
+
+		add(
+			coordinates.getLatitude(),
+			coordinates.getLongitude(),
+			location.getTimestamp(),
+			coordinates.getHorizontalAccuracy(),
+			location.getSpeed(),
+			location.getCourse() );
+	}
+
+	/**
+	 * Adds the newest fix.
+	 *
+	 * @param latitude is the latitude in degrees.
+	 * @param longitude is the longitude in degrees.
+	 * @param timestamp is when the fix was taken.
+	 * @param accuracy is the horizontal accuracy in meters or <code>Float.NaN</code>.
+	 * @param speed is the ground speed in meters per second or <code>Float.NaN</code>.
+	 * @param course is the course in degrees or <code>Float.NaN</code>.
+	 */
+	public synchronized void add (double latitude, double longitude, long timestamp, float accuracy, float speed, float course)
+	{
+		latitudes[next] = latitude;
+		longitudes[next] = longitude;
+		timestamps[next] = timestamp;
+		accuracies[next] = accuracy;
+		speeds[next] = speed;
+		courses[next] = course;
+
+		next = (next + 1) % latitudes.length;
+
+		if ( size < latitudes.length )
+		{
+			size++;
+		}
+	}
+
+	/**
+	 * Forgets every fix.
+	 */
+	public synchronized void clear ()
+	{
+		next = 0;
+		size = 0;
+	}
+
+	/**
+	 * @return The most fixes kept.
+	 */
+	public int getCapacity ()
+	{
+		return latitudes.length;
+	}
+
+	/**
+	 * @return The number of fixes stored.
+	 */
+	public synchronized int size ()
+	{
+		return size;
+	}
+
+	/**
+	 * Returns the array slot of a fix.
+	 *
+	 * @param index is the fix where 0 is the newest.
+	 * @return The slot in the arrays.
+	 * @throws ArrayIndexOutOfBoundsException if there is no fix at <code>index</code>.
+	 */
+	private int slot (int index)
+	{
+		if ( (index < 0) || (index >= size) )
+		{
+			throw new ArrayIndexOutOfBoundsException( index );
+		}
+
+		int slot = next - 1 - index;
+		return (slot < 0) ? slot + latitudes.length : slot;
+	}
+
+	/**
+	 * @param index is the fix where 0 is the newest.
+	 * @return The fix's latitude in degrees.
+	 */
+	public synchronized double getLatitude (int index)
+	{
+		return latitudes[slot(index)];
+	}
+
+	/**
+	 * @param index is the fix where 0 is the newest.
+	 * @return The fix's longitude in degrees.
+	 */
+	public synchronized double getLongitude (int index)
+	{
+		return longitudes[slot(index)];
+	}
+
+	/**
+	 * @param index is the fix where 0 is the newest.
+	 * @return The fix's timestamp.
+	 */
+	public synchronized long getTimestamp (int index)
+	{
+		return timestamps[slot(index)];
+	}
+
+	/**
+	 * @param index is the fix where 0 is the newest.
+	 * @return The fix's horizontal accuracy in meters or <code>Float.NaN</code>.
+	 */
+	public synchronized float getAccuracy (int index)
+	{
+		return accuracies[slot(index)];
+	}
+
+	/**
+	 * @param index is the fix where 0 is the newest.
+	 * @return The fix's ground speed in meters per second or <code>Float.NaN</code>.
+	 */
+	public synchronized float getSpeed (int index)
+	{
+		return speeds[slot(index)];
+	}
+
+	/**
+	 * @param index is the fix where 0 is the newest.
+	 * @return The fix's course in degrees or <code>Float.NaN</code>.
+	 */
+	public synchronized float getCourse (int index)
+	{
+		return courses[slot(index)];
+	}
+
+	/**
+	 * Returns how many of the newest fixes are in a window.
+	 *
+	 * @param since is the start of the window.
+	 * @return The number of fixes, counting back from the newest, with a
+	 *  timestamp at or after <code>since</code>.  They are indexes 0 up to
+	 *  one less than the count.
+	 */
+	public synchronized int countSince (long since)
+	{
+		int count = 0;
+
+		while ( (count < size) && (timestamps[slot(count)] >= since) )
+		{
+			count++;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Copies the newest fixes into arrays owned by the caller.  They are
+	 * copied oldest first so they can be drawn or sent in order.
+	 *
+	 * @param n is the most fixes to copy.
+	 * @param lats gets the latitudes.  It may be <code>null</code>.
+	 * @param lons gets the longitudes.  It may be <code>null</code>.
+	 * @param times gets the timestamps.  It may be <code>null</code>.
+	 * @return The number of fixes copied.  It is the smallest of <code>n</code>,
+	 *  <code>size()</code> and the lengths of the arrays.
+	 */
+	public synchronized int copyLast (int n, double[] lats, double[] lons, long[] times)
+	{
+		int count = Math.min( n, size );
+
+		if ( lats != null )
+		{
+			count = Math.min( count, lats.length );
+		}
+
+		if ( lons != null )
+		{
+			count = Math.min( count, lons.length );
+		}
+
+		if ( times != null )
+		{
+			count = Math.min( count, times.length );
+		}
+
+		for ( int i = 0; i < count; i++ )
+		{
+			int s = slot( count - 1 - i );
+
+			if ( lats != null )
+			{
+				lats[i] = latitudes[s];
+			}
+
+			if ( lons != null )
+			{
+				lons[i] = longitudes[s];
+			}
+
+			if ( times != null )
+			{
+				times[i] = timestamps[s];
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * Returns the distance traveled over a window.  It is the sum of the
+	 * distances between each fix and the next so it follows the path taken.
+	 *
+	 * @param since is the start of the window.
+	 * @return The distance in meters.  It is 0 if fewer than two fixes are
+	 *  in the window.
+	 */
+	public synchronized float getDistance (long since)
+	{
+		int count = countSince( since );
+		double distance = 0;
+
+		for ( int i = 1; i < count; i++ )
+		{
+			int from = slot( i );
+			int to = slot( i - 1 );
+
+			distance += Coordinates.distance(
+				latitudes[from], longitudes[from],
+				latitudes[to], longitudes[to] );
+		}
+
+		return (float)distance;
+	}
+
+	/**
+	 * Returns the average speed over a window.  It is the distance traveled
+	 * divided by the time between the first and last fix in the window.
+	 *
+	 * @param since is the start of the window.
+	 * @return The speed in meters per second or <code>Float.NaN</code> if
+	 *  fewer than two fixes are in the window or they have the same time.
+	 */
+	public synchronized float getAverageSpeed (long since)
+	{
+		int count = countSince( since );
+
+		if ( count < 2 )
+		{
+			return Float.NaN;
+		}
+
+		long elapsed = timestamps[slot(0)] - timestamps[slot(count - 1)];
+
+		if ( elapsed <= 0 )
+		{
+			return Float.NaN;
+		}
+
+		return getDistance( since ) * 1000 / elapsed;
+	}
+}
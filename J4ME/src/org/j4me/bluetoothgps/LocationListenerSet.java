@@ -0,0 +1,804 @@
+package org.j4me.bluetoothgps;
+
+import org.j4me.logging.*;
+
+/**
+ * Sends location events to several <code>LocationListener</code> objects.
+ * Each listener has its own minimum interval between locations and its own
+ * minimum distance moved between locations.  A provider passes every event
+ * to this class and it forwards them to the listeners that want them.
+ * <p>
+ * The cost of each location does not grow with the number of listeners
+ * that are not due to get it.  Listeners waiting for their interval are
+ * kept in a heap ordered by when they are next due.  Listeners waiting to
+ * move far enough are kept in a second heap ordered by how far along the
+ * track they need to be.  The distance between fixes is calculated once
+ * per fix, with <code>Coordinates.distance</code>, and added to a running
+ * total.  Only the listeners at the top of the heaps are looked at.
+ * <p>
+ * The distance a listener has moved is measured along the track since
+ * it last got a location.
+ * <p>
+ * State changes go to every listener.
+ * <p>
+ * The listener set by <code>setLocationListener</code> can also have a
+ * maximum age and a timeout like JSR 179's.  They are checked by
+ * <code>expire</code> which the provider calls when they come due.  When
+ * the listener is due and the provider's <code>LocationCache</code> holds
+ * a location no older than the maximum age it is sent straight away.  When
+ * no location comes within the timeout after it was due it is sent an
+ * invalid location.
+ */
+final class LocationListenerSet
+	implements LocationListener
+{
+	/**
+	 * A listener and its filters.
+	 */
+	private static final class Registration
+	{
+		/**
+		 * The object being notified.
+		 */
+		final LocationListener listener;
+
+		/**
+		 * The least milliseconds between locations.  If negative the listener
+		 * only gets state changes.
+		 */
+		long interval;
+
+		/**
+		 * The least meters moved between locations.
+		 */
+		float minDistance;
+
+		/**
+		 * The oldest, in milliseconds, a cached location can be and still
+		 * be sent when the listener is due.  If negative cached locations
+		 * are not sent.
+		 */
+		long maxAge = -1;
+
+		/**
+		 * How many milliseconds after the listener is due it is sent an
+		 * invalid location if no new one has come.  If negative it waits
+		 * for a location however long it takes.
+		 */
+		long timeout = -1;
+
+		/**
+		 * Set once <code>expire</code> has started timing the listener.
+		 */
+		boolean timing;
+
+		/**
+		 * The value of <code>odometer</code> when the listener last got a
+		 * location.  It is <code>NaN</code> until then.
+		 */
+		double lastOdometer = Double.NaN;
+
+		/**
+		 * The heap this is in, its position in it, and the key it is ordered
+		 * by.  The key is a time in the time heap and an odometer reading in
+		 * the distance heap.
+		 */
+		Heap heap;
+		int index;
+		double key;
+
+		Registration (LocationListener listener)
+		{
+			this.listener = listener;
+		}
+	}
+
+	/**
+	 * A binary min-heap of <code>Registration</code> objects ordered by
+	 * their <code>key</code>.
+	 */
+	private static final class Heap
+	{
+		private Registration[] elements = new Registration[4];
+		private int size;
+
+		boolean isEmpty ()
+		{
+			return size == 0;
+		}
+
+		Registration peek ()
+		{
+			return elements[0];
+		}
+
+		void add (Registration r, double key)
+		{
+			if ( size == elements.length )
+			{
+				Registration[] bigger = new Registration[size * 2];
+				System.arraycopy( elements, 0, bigger, 0, size );
+				elements = bigger;
+			}
+
+			r.heap = this;
+			r.key = key;
+			r.index = size;
+			elements[size++] = r;
+			up( r.index );
+		}
+
+		Registration poll ()
+		{
+			Registration top = elements[0];
+			remove( top );
+			return top;
+		}
+
+		void remove (Registration r)
+		{
+			int i = r.index;
+			size--;
+
+			if ( i != size )
+			{
+				move( elements[size], i );
+				elements[size] = null;
+				up( i );
+				down( elements[i].index );
+			}
+			else
+			{
+				elements[size] = null;
+			}
+
+			r.heap = null;
+		}
+
+		private void up (int i)
+		{
+			Registration r = elements[i];
+
+			while ( i > 0 )
+			{
+				int parent = (i - 1) / 2;
+
+				if ( elements[parent].key <= r.key )
+				{
+					break;
+				}
+
+				move( elements[parent], i );
+				i = parent;
+			}
+
+			move( r, i );
+		}
+
+		private void down (int i)
+		{
+			Registration r = elements[i];
+
+			while ( true )
+			{
+				int child = 2 * i + 1;
+
+				if ( child >= size )
+				{
+					break;
+				}
+
+				if ( (child + 1 < size) && (elements[child + 1].key < elements[child].key) )
+				{
+					child++;
+				}
+
+				if ( r.key <= elements[child].key )
+				{
+					break;
+				}
+
+				move( elements[child], i );
+				i = child;
+			}
+
+			move( r, i );
+		}
+
+		private void move (Registration r, int i)
+		{
+			elements[i] = r;
+			r.index = i;
+		}
+	}
+
+	/**
+	 * The interval, in milliseconds, used when a listener asks for the
+	 * provider's default.
+	 */
+	private final long defaultInterval;
+
+	/**
+	 * Every registration.
+	 */
+	private Registration[] registrations = new Registration[0];
+
+	/**
+	 * The registration made by <code>setLocationListener</code> or
+	 * <code>null</code> if there is none.
+	 */
+	private Registration primary;
+
+	/**
+	 * Listeners waiting for their interval to pass.
+	 */
+	private final Heap timeHeap = new Heap();
+
+	/**
+	 * Listeners whose interval has passed waiting to move far enough.
+	 */
+	private final Heap distanceHeap = new Heap();
+
+	/**
+	 * The listeners getting the current location.  It is only used while
+	 * holding the lock.
+	 */
+	private Registration[] due = new Registration[4];
+
+	/**
+	 * The meters moved along the track since the first valid location.
+	 */
+	private double odometer;
+
+	/**
+	 * The coordinates of the last valid location or <code>null</code> if
+	 * there has not been one.
+	 */
+	private Coordinates last;
+
+	/**
+	 * Where the listener set by <code>setLocationListener</code> gets
+	 * locations younger than its maximum age.  It can be <code>null</code>.
+	 */
+	private final LocationCache cache;
+
+	/**
+	 * Statistics.
+	 */
+	private int freshCount;
+	private int cachedCount;
+	private int timeoutCount;
+
+	/**
+	 * Constructs an empty set of listeners.
+	 *
+	 * @param defaultInterval is the milliseconds between locations for
+	 *  listeners registered with an interval of -1.
+	 */
+	public LocationListenerSet (long defaultInterval)
+	{
+		this( defaultInterval, null );
+	}
+
+	/**
+	 * Constructs an empty set of listeners that can send cached locations.
+	 *
+	 * @param defaultInterval is the milliseconds between locations for
+	 *  listeners registered with an interval of -1.
+	 * @param cache holds the provider's latest location.  It is sent to the
+	 *  listener set by <code>setLocationListener</code> when that listener
+	 *  is due and the location is recent enough.
+	 */
+	public LocationListenerSet (long defaultInterval, LocationCache cache)
+	{
+		this.defaultInterval = defaultInterval;
+		this.cache = cache;
+	}
+
+	/**
+	 * Sets the listener for <code>LocationProvider.setLocationListener</code>.
+	 * It replaces the listener set by the last call.  Listeners added with
+	 * <code>add</code> are not affected.
+	 *
+	 * @param listener is the new listener or <code>null</code> to remove it.
+	 * @param interval is the seconds between locations as defined by
+	 *  <code>LocationProvider.setLocationListener</code>.  -1 is the
+	 *  default and 0 only sends state changes.
+	 */
+	public synchronized void setLocationListener (LocationListener listener, int interval)
+	{
+		setLocationListener( listener, interval, -1, -1 );
+	}
+
+	/**
+	 * Sets the listener for <code>LocationProvider.setLocationListener</code>
+	 * with a timeout and maximum age.  They only apply when an interval is
+	 * given.  Call <code>expire</code> right after to start the timeout.
+	 *
+	 * @param listener is the new listener or <code>null</code> to remove it.
+	 * @param interval is the seconds between locations as defined by
+	 *  <code>LocationProvider.setLocationListener</code>.  -1 is the
+	 *  default and 0 only sends state changes.
+	 * @param timeout is how many seconds late a location can be before an
+	 *  invalid location is sent instead.  -1 never sends one.
+	 * @param maxAge is the oldest, in seconds, a cached location can be when
+	 *  it is sent.  -1 only sends new locations.
+	 */
+	public synchronized void setLocationListener (LocationListener listener, int interval, int timeout, int maxAge)
+	{
+		if ( primary != null )
+		{
+			remove( primary.listener );
+			primary = null;
+		}
+
+		if ( listener != null )
+		{
+			long millis;
+
+			if ( interval < 0 )
+			{
+				millis = defaultInterval;
+			}
+			else if ( interval == 0 )
+			{
+				millis = -1;  // Only state changes
+			}
+			else
+			{
+				millis = interval * 1000L;
+			}
+
+			primary = register( listener, millis, 0 );
+
+			if ( interval > 0 )
+			{
+				primary.timeout = (timeout > 0) ? timeout * 1000L : -1;
+				primary.maxAge = (maxAge > 0) ? maxAge * 1000L : -1;
+			}
+		}
+	}
+
+	/**
+	 * Adds a listener.  If it is already registered its filters are changed.
+	 *
+	 * @param listener is the object to notify.
+	 * @param interval is the least milliseconds between locations.  0 sends
+	 *  every location.
+	 * @param minDistance is the least meters moved between locations.  0
+	 *  sends locations even when standing still.
+	 */
+	public synchronized void add (LocationListener listener, int interval, float minDistance)
+	{
+		if ( listener == null )
+		{
+			throw new IllegalArgumentException("listener cannot be null");
+		}
+
+		if ( (interval < 0) || (minDistance < 0) )
+		{
+			throw new IllegalArgumentException("interval and minDistance cannot be negative");
+		}
+
+		register( listener, interval, minDistance );
+	}
+
+	/**
+	 * Removes a listener.
+	 *
+	 * @param listener is the object to stop notifying.
+	 * @return <code>true</code> if it was registered.
+	 */
+	public synchronized boolean remove (LocationListener listener)
+	{
+		Registration r = find( listener );
+
+		if ( r == null )
+		{
+			return false;
+		}
+
+		if ( r.heap != null )
+		{
+			r.heap.remove( r );
+		}
+
+		if ( r == primary )
+		{
+			primary = null;
+		}
+
+		Registration[] smaller = new Registration[registrations.length - 1];
+
+		for ( int i = 0, j = 0; i < registrations.length; i++ )
+		{
+			if ( registrations[i] != r )
+			{
+				smaller[j++] = registrations[i];
+			}
+		}
+
+		registrations = smaller;
+		return true;
+	}
+
+	/**
+	 * Removes every listener.
+	 */
+	public synchronized void clear ()
+	{
+		while ( registrations.length > 0 )
+		{
+			remove( registrations[0].listener );
+		}
+	}
+
+	/**
+	 * Registers a listener or updates its filters.
+	 *
+	 * @param listener is the object to notify.
+	 * @param interval is the least milliseconds between locations or -1 for
+	 *  only state changes.
+	 * @param minDistance is the least meters moved between locations.
+	 * @return The registration.
+	 */
+	private Registration register (LocationListener listener, long interval, float minDistance)
+	{
+		Registration r = find( listener );
+
+		if ( r == null )
+		{
+			r = new Registration( listener );
+
+			Registration[] bigger = new Registration[registrations.length + 1];
+			System.arraycopy( registrations, 0, bigger, 0, registrations.length );
+			bigger[registrations.length] = r;
+			registrations = bigger;
+		}
+		else if ( r.heap != null )
+		{
+			r.heap.remove( r );
+		}
+
+		r.interval = interval;
+		r.minDistance = minDistance;
+		r.maxAge = -1;
+		r.timeout = -1;
+		r.timing = false;
+
+		if ( interval >= 0 )
+		{
+			// Due right away so it gets the next location.
+			timeHeap.add( r, 0 );
+		}
+
+		return r;
+	}
+
+	/**
+	 * @param listener is a registered listener.
+	 * @return Its registration or <code>null</code> if it is not registered.
+	 */
+	private Registration find (LocationListener listener)
+	{
+		for ( int i = 0; i < registrations.length; i++ )
+		{
+			if ( registrations[i].listener == listener )
+			{
+				return registrations[i];
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return <code>true</code> if there are no listeners.
+	 */
+	public synchronized boolean isEmpty ()
+	{
+		return registrations.length == 0;
+	}
+
+	/**
+	 * @return The number of listeners.
+	 */
+	public synchronized int size ()
+	{
+		return registrations.length;
+	}
+
+	/**
+	 * @return The number of new locations sent to listeners.
+	 */
+	public synchronized int getFreshCount ()
+	{
+		return freshCount;
+	}
+
+	/**
+	 * @return The number of cached locations sent to the listener set by
+	 *  <code>setLocationListener</code> because they were recent enough.
+	 */
+	public synchronized int getCachedCount ()
+	{
+		return cachedCount;
+	}
+
+	/**
+	 * @return The number of invalid locations sent to the listener set by
+	 *  <code>setLocationListener</code> because none came in time.
+	 */
+	public synchronized int getTimeoutCount ()
+	{
+		return timeoutCount;
+	}
+
+	/**
+	 * Sends a location to the listeners that are due to get it.
+	 *
+	 * @see org.j4me.bluetoothgps.LocationListener#locationUpdated(org.j4me.bluetoothgps.LocationProvider, org.j4me.bluetoothgps.Location)
+	 */
+	public void locationUpdated (LocationProvider provider, Location location)
+	{
+		locationUpdated( provider, location, System.currentTimeMillis() );
+	}
+
+	/**
+	 * Sends a location to the listeners that are due to get it.
+	 *
+	 * @param provider is the source of the location.
+	 * @param location is the new location.
+	 * @param now is the current time in milliseconds.
+	 */
+	void locationUpdated (LocationProvider provider, Location location, long now)
+	{
+		LocationListener[] targets = null;
+		int count = 0;
+
+		synchronized ( this )
+		{
+			// Move the odometer once for this fix.
+			Coordinates coordinates = null;
+
+			if ( location.isValid() )
+			{
+				coordinates = location.getQualifiedCoordinates();
+			}
+
+			if ( coordinates != null )
+			{
+				if ( last != null )
+				{
+					odometer += last.distance( coordinates );
+				}
+
+				last = coordinates;
+			}
+
+			// Find the listeners whose interval has passed.
+			while ( (timeHeap.isEmpty() == false) && (timeHeap.peek().key <= now) )
+			{
+				Registration r = timeHeap.poll();
+
+				if ( (coordinates == null) || Double.isNaN(r.lastOdometer) ||
+					 (odometer - r.lastOdometer >= r.minDistance) )
+				{
+					addDue( r, count++ );
+				}
+				else
+				{
+					// Wait until it has moved far enough.
+					distanceHeap.add( r, r.lastOdometer + r.minDistance );
+				}
+			}
+
+			// Find the listeners that have now moved far enough.
+			while ( (coordinates != null) && (distanceHeap.isEmpty() == false) &&
+					(distanceHeap.peek().key <= odometer) )
+			{
+				Registration r = distanceHeap.poll();
+				addDue( r, count++ );
+			}
+
+			// Schedule their next locations.  This is done after finding
+			// them all so a listener is never found twice.
+			if ( count > 0 )
+			{
+				targets = new LocationListener[count];
+
+				for ( int i = 0; i < count; i++ )
+				{
+					Registration r = due[i];
+					due[i] = null;
+
+					if ( last != null )
+					{
+						r.lastOdometer = odometer;
+					}
+
+					timeHeap.add( r, now + r.interval );
+					targets[i] = r.listener;
+				}
+
+				freshCount += count;
+			}
+		}
+
+		// Call the listeners without holding the lock so they can add and
+		// remove listeners.
+		for ( int i = 0; i < count; i++ )
+		{
+			try
+			{
+				targets[i].locationUpdated( provider, location );
+			}
+			catch (Throwable t)
+			{
+				// This is a programming error in the user's application.
+				Log.warn("Unhandled exception in LocationProvider.locationUpdated\n" + location, t);
+			}
+		}
+	}
+
+	/**
+	 * Applies the maximum age and timeout of the listener set by
+	 * <code>setLocationListener</code>.  If it is due and the cache has a
+	 * recent enough location it gets that location.  If it is overdue by
+	 * the timeout it gets an invalid location.
+	 * <p>
+	 * The provider calls this after setting the listener and again at the
+	 * time returned.  It must be called on the same thread as
+	 * <code>locationUpdated</code> so the listener is not sent two
+	 * locations at once.
+	 *
+	 * @param provider is passed to the listener.
+	 * @param now is the current time in milliseconds.
+	 * @return When to call again in milliseconds or
+	 *  <code>Long.MAX_VALUE</code> if there is nothing to check.
+	 */
+	long expire (LocationProvider provider, long now)
+	{
+		Registration r;
+		Location location = null;
+		long next;
+
+		synchronized ( this )
+		{
+			r = primary;
+
+			if ( (r == null) || (r.heap != timeHeap) || ((r.maxAge < 0) && (r.timeout < 0)) )
+			{
+				return Long.MAX_VALUE;
+			}
+
+			if ( r.timing == false )
+			{
+				// Just registered.  Its timeout starts now unless it was
+				// already sent a location.
+				r.timing = true;
+
+				if ( r.key < now )
+				{
+					timeHeap.remove( r );
+					timeHeap.add( r, now );
+				}
+			}
+
+			if ( now >= r.key )
+			{
+				if ( (r.maxAge >= 0) && (cache != null) )
+				{
+					location = cache.get( r.maxAge );
+				}
+
+				if ( (location != null) && location.isValid() )
+				{
+					cachedCount++;
+				}
+				else if ( (r.timeout >= 0) && (now >= r.key + r.timeout) )
+				{
+					location = new LocationImpl();
+					timeoutCount++;
+				}
+				else
+				{
+					location = null;
+				}
+
+				if ( location != null )
+				{
+					timeHeap.remove( r );
+					timeHeap.add( r, now + r.interval );
+
+					if ( last != null )
+					{
+						r.lastOdometer = odometer;
+					}
+				}
+			}
+
+			// When is the next cached location or timeout due?
+			long due = (long)r.key;
+
+			if ( now < due )
+			{
+				next = (r.maxAge >= 0) ? due : due + r.timeout;
+			}
+			else if ( r.timeout >= 0 )
+			{
+				next = due + r.timeout;
+			}
+			else
+			{
+				// Waiting for a new location.  Check again in case it is
+				// sent and the next one can come from the cache.
+				next = now + r.interval;
+			}
+		}
+
+		// Call the listener without holding the lock.
+		if ( location != null )
+		{
+			try
+			{
+				r.listener.locationUpdated( provider, location );
+			}
+			catch (Throwable t)
+			{
+				// This is a programming error in the user's application.
+				Log.warn("Unhandled exception in LocationProvider.locationUpdated\n" + location, t);
+			}
+		}
+
+		return next;
+	}
+
+	/**
+	 * Records that a listener is getting the current location.
+	 *
+	 * @param r is the listener's registration.
+	 * @param index is where to put <code>r</code> in <code>due</code>.
+	 */
+	private void addDue (Registration r, int index)
+	{
+		if ( index == due.length )
+		{
+			Registration[] bigger = new Registration[index * 2];
+			System.arraycopy( due, 0, bigger, 0, index );
+			due = bigger;
+		}
+
+		due[index] = r;
+	}
+
+	/**
+	 * Sends a state change to every listener.
+	 *
+	 * @see org.j4me.bluetoothgps.LocationListener#providerStateChanged(org.j4me.bluetoothgps.LocationProvider, int)
+	 */
+	public void providerStateChanged (LocationProvider provider, int newState)
+	{
+		Registration[] targets;
+
+		synchronized ( this )
+		{
+			// The array is replaced, not changed, when listeners are added
+			// or removed so it is safe to use outside the lock.
+			targets = registrations;
+		}
+
+		for ( int i = 0; i < targets.length; i++ )
+		{
+			try
+			{
+				targets[i].listener.providerStateChanged( provider, newState );
+			}
+			catch (Throwable t)
+			{
+				// This is a programming error in the user's application.
+				Log.warn("Unhandled exception in LocationProvider.providerStateChanged to " + newState, t);
+			}
+		}
+	}
+}
@@ -175,6 +175,69 @@ public abstract class LocationProvider
 		return devices;
 	}
 
+	/**
+	 * Starts Bluetooth device discovery and returns at once.  Each device is
+	 * passed to <code>listener</code> the moment it is found, followed by
+	 * its name and, if <code>findChannels</code> is set, the channel of its
+	 * serial port.  The listener can stop the search as soon as it sees the
+	 * GPS device it is looking for instead of waiting out the whole inquiry.
+	 * <p>
+	 * Names and channels are looked up while the inquiry carries on, several
+	 * at a time.  Only the service attributes needed for the channel are
+	 * requested.
+	 * 
+	 * @param listener receives the devices as they are found.
+	 * @param findChannels when <code>true</code> each device is searched for
+	 *  a serial port and <code>listener.channelFound</code> is called.
+	 * @return <code>true</code> if discovery started; <code>false</code> if
+	 *  the device does not support the Bluetooth API.
+	 * @throws IOException if any Bluetooth I/O errors occur.  For example if
+	 *  another Bluetooth discovery operation is already in progess.
+	 * @throws SecurityException if the user did not grant access to Bluetooth
+	 *  on the device.
+	 * @see DeviceDiscoveryListener
+	 * @see #discoverBluetoothDevices()
+	 */
+	public static boolean discoverBluetoothDevices (DeviceDiscoveryListener listener, boolean findChannels)
+		throws IOException, SecurityException
+	{
+		if ( listener == null )
+		{
+			throw new IllegalArgumentException("listener cannot be null");
+		}
+		
+		boolean started = false;
+		
+		//#ifndef BLACKBERRY
+		//#ifndef ANDROID
+		
+			// If the device doesn't support Bluetooth, there is nothing to discover.
+			if ( supportsBluetoothAPI() == false )
+			{
+				return false;
+			}
+			
+			BluetoothDeviceDiscovery discoverer = null;
+			
+			try
+			{
+				discoverer = (BluetoothDeviceDiscovery)Class.forName( "org.j4me.bluetoothgps.BluetoothDeviceDiscovery" ).newInstance();
+			}
+			catch (Exception e)
+			{
+				Log.warn("Cannot discover Bluetooth devices", e);
+				return false;
+			}
+	
+			discoverer.discover( listener, findChannels );
+			started = true;
+			
+		//#endif // !ANDROID
+		//#endif // !BlackBerry
+			
+		return started;
+	}
+
 	/**
 	 * This factory method is used to get an actual <code>LocationProvider</code>
 	 * implementation based on the defined criteria. The implementation chooses
@@ -263,6 +326,41 @@ public abstract class LocationProvider
 			}
 		}
 		
+		// If there is an on-device provider and a Bluetooth GPS, use both.
+		//  The on-device provider is already getting a fix while we connect
+		//  so the first fix comes from whichever is quicker.
+		if ( (provider != null) &&
+			 (criteria.getRemoteDeviceAddress() != null) &&
+			 BluetoothLocationProvider.matchesCriteria(criteria) )
+		{
+			CompositeLocationProvider composite = new CompositeLocationProvider();
+			composite.addSource( provider );
+			
+			try
+			{
+				LocationProvider bluetooth = BluetoothLocationProvider.getInstance( criteria );
+				
+				if ( bluetooth != null )
+				{
+					composite.addSource( bluetooth );
+					provider = composite;
+				}
+			}
+			catch (Exception e)
+			{
+				// Just use the on-device provider.
+				Log.warn("Could not connect to Bluetooth GPS; using on-device location", e);
+			}
+			
+			if ( provider != composite )
+			{
+				// Stop listening through the composite and end its thread.
+				//  It has no sources left so nothing else is closed.
+				composite.removeSource( provider );
+				composite.close();
+			}
+		}
+		
 		// If there is no on-device provider, try remote Bluetooth GPS.
 		if ( provider == null )
 		{
@@ -374,6 +472,51 @@ public abstract class LocationProvider
 	public abstract Location getLocation (int timeout)
 		throws LocationException, InterruptedException;
 
+	/**
+	 * Retrieves a <code>Location</code> no older than <code>maxAge</code>.  If
+	 * the provider already has a location that recent it is returned at once
+	 * without waiting for a new one.  Otherwise this works like
+	 * <code>getLocation(int)</code>.
+	 * <p>
+	 * This is not part of JSR 179.  It saves waiting a whole fix when the
+	 * application has just been given a location and asks again.
+	 * 
+	 * @param timeout - a timeout value in seconds. -1 is used to indicate that the 
+	 *  implementation shall use its default timeout value for this provider.
+	 * @param maxAge - the oldest, in seconds, the location can be.  0 waits for
+	 *  a new location.  -1 accepts any location the provider already has.
+	 * @return a <code>Location</code> object 
+	 * @throws LocationException - if the location couldn't be retrieved or if the
+	 *  timeout period expired
+	 * @throws InterruptedException - if the operation is interrupted by calling
+	 *  <code>reset()</code> from another thread
+	 * @throws SecurityException - if the calling application does not have a 
+	 *  permission to query the location information
+	 * @throws IllegalArgumentException - if the timeout = 0 or timeout < -1 or
+	 *  maxAge < -1
+	 * 
+	 * @see #getLocation(int)
+	 */
+	public Location getLocation (int timeout, int maxAge)
+		throws LocationException, InterruptedException
+	{
+		if ( maxAge < -1 )
+		{
+			throw new IllegalArgumentException("maxAge must be -1 or more");
+		}
+		
+		// Use the last location if it is recent enough.
+		Location last = getLastKnownLocationToProvider();
+		
+		if ( (last != null) && last.isValid() &&
+			 ((maxAge == -1) || (System.currentTimeMillis() - last.getTimestamp() <= maxAge * 1000L)) )
+		{
+			return last;
+		}
+		
+		return getLocation( timeout );
+	}
+
 	/**
 	 * Adds a <code>LocationListener</code> for updates at the defined interval. The
 	 * listener will be called with updated location at the defined interval.
@@ -459,6 +602,75 @@ public abstract class LocationProvider
 	public abstract void setLocationListener (
 			LocationListener locationlistener, int interval, int timeout, int maxAge);
 
+	/**
+	 * Adds a listener for location events.  Any number of listeners can be
+	 * added and each has its own filters.  For example a map can get every
+	 * location, a trip recorder one every 5 seconds, and a geofence one each
+	 * time the user moves 50 meters.
+	 * <p>
+	 * A location is sent to the listener once at least <code>interval</code>
+	 * milliseconds have passed since the last one it got and the user has moved
+	 * at least <code>minDistance</code> meters along the track since then.
+	 * The first location is always sent.  Every listener gets every state
+	 * change.
+	 * <p>
+	 * The listener set by <code>setLocationListener</code> is separate.
+	 * Setting it does not remove listeners added by this method.
+	 * <p>
+	 * This method is new to the J4ME implementation (it is not part of the JSR 179
+	 * spec).  The providers in this package override it.  Subclasses that do
+	 * not override it get this implementation, which only supports one
+	 * listener:  it
+	 * calls <code>setLocationListener</code> with <code>interval</code> rounded
+	 * up to seconds, replacing any listener already set, and ignores
+	 * <code>minDistance</code>.
+	 * 
+	 * @param listener is the object to notify.  If it was already added its
+	 *  filters are replaced.
+	 * @param interval is the least milliseconds between locations.  0 sends
+	 *  every location.
+	 * @param minDistance is the least meters moved between locations.  0 sends
+	 *  locations even when the user is standing still.
+	 * @throws IllegalArgumentException if <code>listener</code> is <code>null</code>
+	 *  or <code>interval</code> or <code>minDistance</code> is negative.
+	 * @see #removeLocationListener(LocationListener)
+	 */
+	public void addLocationListener (
+			LocationListener listener, int interval, float minDistance)
+	{
+		if ( listener == null )
+		{
+			throw new IllegalArgumentException("addLocationListener does not accept a null listener.");
+		}
+		
+		if ( (interval < 0) || (minDistance < 0) )
+		{
+			throw new IllegalArgumentException("addLocationListener interval and minDistance must not be negative.");
+		}
+		
+		// setLocationListener's interval is in seconds and -1 is the
+		// provider's default rate.
+		int seconds = (interval == 0) ? -1 : (interval + 999) / 1000;
+		setLocationListener( listener, seconds, -1, -1 );
+	}
+
+	/**
+	 * Removes a listener added with <code>addLocationListener</code> or
+	 * <code>setLocationListener</code>.
+	 * <p>
+	 * This method is new to the J4ME implementation (it is not part of the JSR 179
+	 * spec).  The providers in this package override it.  Subclasses that do
+	 * not override it get this implementation, which removes the listener set by
+	 * <code>setLocationListener</code> whatever <code>listener</code> is.
+	 * 
+	 * @param listener is the object to stop notifying.
+	 * @see #addLocationListener(LocationListener, int, float)
+	 */
+	public void removeLocationListener (LocationListener listener)
+	{
+		setLocationListener( null, -1, -1, -1 );
+	}
+
 	/**
 	 * Closes the location provider.  Removes any <code>LocationListener</code>
 	 * from the provider. This should be called when the MIDlet
@@ -487,6 +699,38 @@ public abstract class LocationProvider
 	public abstract void reset ()
 		throws IOException;
 	
+	/**
+	 * Returns the provider's recent fixes.  They are kept as numbers in a
+	 * fixed amount of memory and can be queried for the distance traveled
+	 * and average speed over a window without creating objects.
+	 * <p>
+	 * This method is new to the J4ME implementation (it is not part of the JSR 179
+	 * spec).
+	 * 
+	 * @return The history of fixes or <code>null</code> if this provider
+	 *  does not keep one.
+	 */
+	public LocationHistory getHistory ()
+	{
+		return null;
+	}
+	
+	/**
+	 * Returns counts of what happened between the GPS device and the
+	 * location listeners.  Show its <code>toString</code> on a diagnostics
+	 * screen to find out why fixes are slow.
+	 * <p>
+	 * This method is new to the J4ME implementation (it is not part of the JSR 179
+	 * spec).
+	 * 
+	 * @return The statistics or <code>null</code> if this provider does not
+	 *  keep them.
+	 */
+	public GPSStatistics getStatistics ()
+	{
+		return null;
+	}
+	
 	/**
 	 * Returns the last known location that the implementation has.  This is the
 	 * best estimate that the implementation has for the previously known location.
@@ -1,6 +1,6 @@
 package org.j4me.bluetoothgps;
 
-import org.j4me.logging.*;
+import org.j4me.util.*;
 
 /**
  * A <code>LocationProvider</code> for testing MIDlets.  Methods on this class
@@ -21,15 +21,35 @@ public class MockLocationProvider
 	private int state = TEMPORARILY_UNAVAILABLE;
 	
 	/**
-	 * The object listening to location events.  If none are set, this
-	 * will be <code>null</code>.
+	 * The last location set by <code>setLocation</code>.  Threads waiting
+	 * in <code>getLocation</code> are woken when it is set.
 	 */
-	private LocationListener listener;
+	private final LocationCache location = new LocationCache();
 	
 	/**
-	 * The last location set by <code>setLocation</code>
+	 * The recent locations set by <code>setLocation</code>.
 	 */
-	private Location location;
+	private final LocationHistory history = new LocationHistory( LocationHistory.DEFAULT_CAPACITY );
+	
+	/**
+	 * The objects listening to location events.  The listener set with
+	 * <code>setLocationListener</code> gets every location unless it has
+	 * an interval.
+	 */
+	private final LocationListenerSet listeners = new LocationListenerSet( 0, location );
+	
+	/**
+	 * Sends the listener cached locations and timeouts.  The mock provider
+	 * has no thread of its own so the listener is called on the library's
+	 * <code>DeadlineScheduler</code> thread.
+	 */
+	private final Deadline expiry = new Deadline( new Runnable()
+		{
+			public void run ()
+			{
+				expire();
+			}
+		} );
 	
 	/**
 	 * Constructs a mock location provider.
@@ -70,19 +90,8 @@ public class MockLocationProvider
 			// Record the new state.
 			this.state = state;
 			
-			// Inform the listener.
-			if ( listener != null )
-			{
-				try
-				{
-					listener.providerStateChanged( this, state );
-				}
-				catch (Throwable t)
-				{
-					// This is a programming error in the user's application.
-					Log.warn("Unhandled exception in LocationProvider.providerStateChanged to " + state, t);
-				}
-			}
+			// Inform the listeners.
+			listeners.providerStateChanged( this, state );
 		}
 	}
 	
@@ -104,21 +113,11 @@ public class MockLocationProvider
 		// The location provider will now be available.
 		setState( AVAILABLE );
 		
-		// Inform the listener.
-		if ( listener != null )
-		{
-			location = new LocationImpl( coordinates, speed, Float.NaN, System.currentTimeMillis() );
-			
-			try
-			{
-				listener.locationUpdated( this, location );
-			}
-			catch (Throwable t)
-			{
-				// This is a programming error in the user's application.
-				Log.warn("Unhandled exception in LocationProvider.locationUpdated\n" + location, t);
-			}
-		}
+		// Inform the listeners that are due a location.
+		Location l = new LocationImpl( coordinates, speed, Float.NaN, System.currentTimeMillis() );
+		location.set( l );
+		history.add( l );
+		listeners.locationUpdated( this, l );
 	}
 	
 	/**
@@ -135,24 +134,48 @@ public class MockLocationProvider
 	}
 
 	/**
-	 * Gets the last location set.
+	 * Gets the last location set.  If none has been set it waits up to
+	 * <code>timeout</code> seconds for <code>setLocation</code> to be called.
+	 * The default timeout of -1 does not wait.
 	 * 
 	 * @see org.j4me.bluetoothgps.LocationProvider#getLocation(int)
 	 */
 	public Location getLocation (int timeout)
 		throws LocationException, InterruptedException
 	{
+		return getLocation( timeout, -1 );
+	}
+	
+	/**
+	 * Gets the last location set if it is recent enough.  Otherwise it waits
+	 * up to <code>timeout</code> seconds for <code>setLocation</code> to be
+	 * called.  The default timeout of -1 does not wait.
+	 * 
+	 * @see org.j4me.bluetoothgps.LocationProvider#getLocation(int, int)
+	 */
+	public Location getLocation (int timeout, int maxAge)
+		throws LocationException, InterruptedException
+	{
+		if ( (timeout == 0) || (timeout < -1) || (maxAge < -1) )
+		{
+			throw new IllegalArgumentException();
+		}
+		
 		if ( state == OUT_OF_SERVICE )
 		{
 			throw new LocationException("Mock provider is out of service");
 		}
 		
-		if ( location == null )
+		long wait = (timeout == -1) ? 0 : timeout * 1000L;
+		long age = (maxAge == -1) ? -1 : maxAge * 1000L;
+		Location l = location.waitFor( age, wait );
+		
+		if ( l == null )
 		{
 			throw new LocationException("Mock provider has not had location set yet");
 		}
 		
-		return location;
+		return l;
 	}
 	
 	/**
@@ -167,18 +190,69 @@ public class MockLocationProvider
 	 */
 	protected Location getLastKnownLocationToProvider ()
 	{
-		return location;
+		return location.get();
+	}
+
+	/**
+	 * @see LocationProvider#getHistory()
+	 */
+	public LocationHistory getHistory ()
+	{
+		return history;
 	}
 
 	/**
 	 * Sets the listener that gets called when the <code>setLocation</code>
-	 * and <code>setState</code> methods are called.
+	 * and <code>setState</code> methods are called.  With the default
+	 * interval of -1 it gets every location.  With an interval it also
+	 * gets the last location set when it is due, if it is no older than
+	 * <code>maxAge</code>, and an invalid location if none is set within
+	 * <code>timeout</code>.
 	 * 
 	 * @see org.j4me.bluetoothgps.LocationProvider#setLocationListener(org.j4me.bluetoothgps.LocationListener, int, int, int)
 	 */
 	public void setLocationListener (LocationListener locationlistener, int interval, int timeout, int maxAge)
 	{
-		this.listener = locationlistener;
+		listeners.setLocationListener( locationlistener, interval, timeout, maxAge );
+		expire();
+	}
+	
+	/**
+	 * Sends the listener a cached location or timeout if one is due and
+	 * schedules the next check.
+	 */
+	private void expire ()
+	{
+		long now = System.currentTimeMillis();
+		long next = listeners.expire( this, now );
+		
+		if ( next != Long.MAX_VALUE )
+		{
+			DeadlineScheduler.getInstance().schedule( expiry, Math.max(next - now, 0) );
+		}
+		else
+		{
+			DeadlineScheduler.getInstance().cancel( expiry );
+		}
+	}
+
+	/**
+	 * Adds a listener that gets the locations set by <code>setLocation</code>
+	 * that pass its filters.
+	 * 
+	 * @see org.j4me.bluetoothgps.LocationProvider#addLocationListener(org.j4me.bluetoothgps.LocationListener, int, float)
+	 */
+	public void addLocationListener (LocationListener listener, int interval, float minDistance)
+	{
+		listeners.add( listener, interval, minDistance );
+	}
+
+	/**
+	 * @see org.j4me.bluetoothgps.LocationProvider#removeLocationListener(org.j4me.bluetoothgps.LocationListener)
+	 */
+	public void removeLocationListener (LocationListener listener)
+	{
+		listeners.remove( listener );
 	}
 
 	/**
@@ -198,6 +272,8 @@ public class MockLocationProvider
 	public void close ()
 	{
 		setState( OUT_OF_SERVICE );
-		location = null;
+		DeadlineScheduler.getInstance().cancel( expiry );
+		location.clear();
+		location.close();
 	}
 }
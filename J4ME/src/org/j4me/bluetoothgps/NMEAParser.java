@@ -4,15 +4,30 @@ import org.j4me.logging.*;
 
 /**
  * Parses chunks of data from a GPS device.
+ * <p>
+ * The parser copies the bytes of each sentence into a buffer as they
+ * arrive.  A sentence split across several calls to <code>parse</code> is kept
+ * until its end arrives.  Then it is scanned once more to check its checksum
+ * and split it into fields.  Every sentence is decoded in the order it was
+ * received.  A corrupt sentence is dropped and the parser starts over at the
+ * next '$' so only the broken sentence is lost.
+ * <p>
+ * Sentences are dispatched through a table keyed on their address field,
+ * such as "GPRMC", packed into an <code>int</code>.  The same handler is
+ * registered for each talker so sentences from GPS ("GP"), combined
+ * GNSS ("GN"), GLONASS ("GL"), Galileo ("GA"), and BeiDou ("BD")
+ * receivers are all understood.  More handlers can be added with
+ * <code>setSentenceHandler</code>.
  */
 class NMEAParser {
-    private static final String DOLLAR_SIGN_GPGSA = "$GPGSA";
-    private static final String DOLLAR_SIGN_GPGGA = "$GPGGA";
-    private static final String DOLLAR_SIGN_GPRMC = "$GPRMC";
+    /**
+     * The talker IDs of the satellite systems we understand.
+     */
+    private static final String[] TALKERS = { "GP", "GN", "GL", "GA", "BD" };
 
     /**
-     * Size of the string buffer. This should be a little more than the size of
-     * the byte array plus 80 (the max size of an NMEA sentence).
+     * The most bytes callers should read from the GPS device at once.  The
+     * parser itself does not buffer more than a single sentence.
      */
     public static final short OUTPUT_BUFFER_MAX_SIZE = 2048;
 
@@ -22,6 +37,18 @@ class NMEAParser {
      */
     private static final short MAX_SENTENCE_SIZE = 128;
 
+    /**
+     * Powers of ten used to place the decimal point of parsed numbers.
+     */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9,
+            1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18 };
+
+    /**
+     * The number of milliseconds in a day.
+     */
+    static final long MILLIS_PER_DAY = 86400000L;
+
     /**
      * Sentence characters
      */
@@ -41,238 +68,376 @@ class NMEAParser {
     public static final short TYPE_NONE = 0;
 
     /**
-     * Type GPRMC.
+     * Type RMC (recommended minimum) from any talker.  It has the latitude,
+     * longitude, speed, and course.
      */
     public static final short TYPE_GPRMC = 1;
 
     /**
-     * Type GPGGA.
+     * Type GGA (fix data) from any talker.  It has the altitude.
      */
     public static final short TYPE_GPGGA = 2;
 
     /**
-     * Type GPGSA.
+     * Type GSA (DOP and active satellites) from any talker.  It has the
+     * accuracy.
      */
     public static final short TYPE_GPGSA = 4;
 
     /**
-     * TYPE_GPRMC | TYPE_GPGGA | TYPE_GPGSA
+     * Type GSV (satellites in view) from any talker.
+     */
+    public static final short TYPE_GPGSV = 8;
+
+    /**
+     * Type VTG (course and speed) from any talker.
+     */
+    public static final short TYPE_GPVTG = 16;
+
+    /**
+     * Type GLL (latitude and longitude) from any talker.
+     */
+    public static final short TYPE_GPGLL = 32;
+
+    /**
+     * TYPE_GPRMC | TYPE_GPGGA | TYPE_GPGSA.  These are the sentences that
+     * together make a complete location.
      */
     public static final short ALL_TYPES_MASK = 7;
 
     /**
-     * The current data read from the GPS device
+     * The sentence being received.  Bytes are copied in as they arrive
+     * starting with the one after the '$'.
      */
-    private byte[] data = new byte[OUTPUT_BUFFER_MAX_SIZE];
+    private final byte[] sentence = new byte[MAX_SENTENCE_SIZE];
 
     /**
-     * The length of <code>data</code>
+     * The number of bytes in <code>sentence</code>.
      */
-    private int dataLength = 0;
+    private int sentenceLength = 0;
+
+    /**
+     * <code>true</code> after a '$' until the end of that sentence.  When
+     * <code>false</code> bytes are ignored until the next '$'.
+     */
+    private boolean inSentence = false;
     
     /**
      * The record being built
      */
-    private GPSRecord record = null;
+    private final GPSRecord record = new GPSRecord();
 
     /**
-     * Holds a record to be processed
+     * Holds a record to be processed.  It is a copy of <code>record</code>
+     * taken at the end of each <code>parse</code> call that found something.
+     * The same object is reused so parsing does not create garbage.
      */
-    private GPSRecord recordBuffer = null;
+    private final GPSRecord recordBuffer = new GPSRecord();
 
     /**
-     * Cosntructor. Initialize the output buffer and record
-     *
+     * Set once <code>recordBuffer</code> holds a parsed record.
+     */
+    private boolean hasRecordBuffer = false;
+
+    /**
+     * The packed address fields of the sentences we handle in ascending
+     * order so they can be binary searched.
+     */
+    private int[] handlerKeys = new int[0];
+
+    /**
+     * The sentence handler for each entry in <code>handlerKeys</code>.
+     * Handlers are created once and reused so no objects are created
+     * while parsing.
+     */
+    private SentenceData[] handlers = new SentenceData[0];
+
+    /**
+     * The <code>TYPE_</code> bit for each entry in <code>handlerKeys</code>.
+     */
+    private short[] handlerTypes = new short[0];
+
+    /**
+     * Notified of each sentence as it is decoded.  May be <code>null</code>.
+     */
+    private GPSRecordListener listener;
+
+    /**
+     * Notified of each proprietary sentence.  May be <code>null</code>.
+     */
+    private ProprietarySentenceListener proprietaryListener;
+
+    /**
+     * Counts the sentences received and those with bad checksums.  May be
+     * <code>null</code>.
+     */
+    private GPSStatistics statistics;
+
+    /**
+     * The NMEA date (<i>ddmmyy</i>) of <code>cachedDayMillis</code> or -1
+     * if nothing is cached.
+     */
+    private int cachedDate = -1;
+
+    /**
+     * The Java time of midnight UTC on <code>cachedDate</code>.  The date
+     * only changes once a day so this saves working out the calendar for
+     * every fix.
+     */
+    private long cachedDayMillis;
+
+    /**
+     * Cosntructor. Registers the handlers for the standard sentences.
      */
     public NMEAParser() {
-        record = new GPSRecord();
+        setSentenceHandler("RMC", TYPE_GPRMC, new GPRMCRecord());
+        setSentenceHandler("GGA", TYPE_GPGGA, new GPGGARecord());
+        setSentenceHandler("GSA", TYPE_GPGSA, new GPGSARecord());
+        setSentenceHandler("GSV", TYPE_GPGSV, new GPGSVRecord());
+        setSentenceHandler("VTG", TYPE_GPVTG, new GPVTGRecord());
+        setSentenceHandler("GLL", TYPE_GPGLL, new GPGLLRecord());
     }
 
     /**
-     * Append the output to the output buffer. The size of the output must
-     * always be less than {@link #OUTPUT_BUFFER_MAX_SIZE}.
+     * Registers the handler for a sentence type from every talker we
+     * understand.  For example <code>setSentenceHandler("RMC", ...)</code>
+     * handles "$GPRMC", "$GNRMC", "$GLRMC", etc.
      *
-     * @param output - the output in bytes
-     * @param size - the size of the output
+     * @param sentenceType is the three letter NMEA sentence type.
+     * @param type is the bit returned by <code>parse</code> when this
+     *  sentence is processed.
+     * @param handler decodes the sentence.  It replaces any existing handler
+     *  for <code>sentenceType</code>.
      */
-    private void append(byte[] output, int size)
-    {
-    	// Allocate a new buffer if we got so much data that it will
-    	// contain all our information and the buffer from before can
-    	// be discarded to save the overhead of processing it.
-        if ( dataLength + size >= data.length )
-        {
-        	flush();
+    void setSentenceHandler(String sentenceType, short type, SentenceData handler) {
+        for (int i = 0; i < TALKERS.length; i++) {
+            byte[] address = (TALKERS[i] + sentenceType).getBytes();
+            setSentenceHandler(pack(address, 0, address.length), type, handler);
         }
-        
-        // Append output to data left over from a past append().
-        int start = 0;
-        int length = size;
-        
-        if ( size > data.length )
-        {
-        	start = size - data.length;
-        	length = size - start;
+    }
+
+    /**
+     * Registers the handler for a single address field.
+     *
+     * @param key is the address field packed by <code>pack</code>.
+     * @param type is the bit returned by <code>parse</code>.
+     * @param handler decodes the sentence.
+     */
+    private void setSentenceHandler(int key, short type, SentenceData handler) {
+        int index = findHandler(key);
+
+        if (index < 0) {
+            // Insert a new entry keeping the keys sorted.  This only
+            // happens while setting up so the copying is fine.
+            index = -(index + 1);
+            int size = handlerKeys.length;
+
+            int[] keys = new int[size + 1];
+            SentenceData[] datas = new SentenceData[size + 1];
+            short[] types = new short[size + 1];
+
+            System.arraycopy(handlerKeys, 0, keys, 0, index);
+            System.arraycopy(handlers, 0, datas, 0, index);
+            System.arraycopy(handlerTypes, 0, types, 0, index);
+            System.arraycopy(handlerKeys, index, keys, index + 1, size - index);
+            System.arraycopy(handlers, index, datas, index + 1, size - index);
+            System.arraycopy(handlerTypes, index, types, index + 1, size - index);
+
+            handlerKeys = keys;
+            handlers = datas;
+            handlerTypes = types;
         }
-        
-        System.arraycopy( output, start, data, dataLength, length );
-        dataLength += size;
+
+        handlerKeys[index] = key;
+        handlers[index] = handler;
+        handlerTypes[index] = type;
     }
 
     /**
-     * Flush the buffer.
+     * Binary searches <code>handlerKeys</code>.
+     *
+     * @param key is the packed address field to find.
+     * @return The index of <code>key</code> or, if it is not registered,
+     *  <code>(-(insertion point) - 1)</code>.
+     */
+    private int findHandler(int key) {
+        int low = 0;
+        int high = handlerKeys.length - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int value = handlerKeys[middle];
+
+            if (value < key) {
+                low = middle + 1;
+            } else if (value > key) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+
+        return -(low + 1);
+    }
+
+    /**
+     * Sets the object notified as each sentence is decoded.
+     * 
+     * @param listener is called for every sentence as it is parsed.  If
+     *  <code>null</code> nothing is notified.
+     */
+    public void setRecordListener(GPSRecordListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Sets the object notified of proprietary sentences such as "$PSRFTXT"
+     * and "$PMTK001".  They have no handler and are otherwise ignored.
+     * 
+     * @param listener is called for every proprietary sentence that passes
+     *  its checksum.  If <code>null</code> nothing is notified.
+     */
+    public void setProprietaryListener(ProprietarySentenceListener listener) {
+        this.proprietaryListener = listener;
+    }
+
+    /**
+     * Sets the object that counts sentences and checksum failures.
+     *
+     * @param statistics is updated for every sentence.  If <code>null</code>
+     *  nothing is counted.
+     */
+    void setStatistics(GPSStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * Forgets any partially received sentence.  The next sentence starts
+     * with the next '$'.
      */
     public void flush()
     {
-    	dataLength = 0;
+    	sentenceLength = 0;
+    	inSentence = false;
     }
 
     /**
-     * Append the output and parse it. The size of the output must always be
-     * less than {@link #OUTPUT_BUFFER_MAX_SIZE}.
+     * Parse the output.  It may start or stop anywhere within a sentence.
      *
      * @param output - the output to parse in bytes
      * @param size - the size of the output
      * @return a integer to indicate which sentences were parsed
      */
     public int parse(byte[] output, int size) {
-        append(output, size);
-        return doParse();
+        return parse(output, 0, size);
     }
 
     /**
-     * Parse the data from the Bluetooth GPS device into NMEA sentences.
+     * Parse the output.  This is the same as <code>parse(byte[], int)</code>
+     * but reads the output from the middle of an array so callers do not have
+     * to copy it first.
+     * <p>
+     * Each sentence found is decoded into the record and reported to the
+     * <code>GPSRecordListener</code> before the next one is looked at.
      *
+     * @param output - the output to parse in bytes
+     * @param offset - the index of the first byte to parse in <code>output</code>
+     * @param size - the number of bytes to parse
      * @return a integer to indicate which sentences were parsed
      */
-    private int doParse() {
+    public int parse(byte[] output, int offset, int size) {
         int parsedSentenceTypes = TYPE_NONE;
+        int stop = offset + size;
+
+        for (int i = offset; i < stop; i++) {
+            byte character = output[i];
+
+            if (character == SENTENCE_START) {
+                // Always start over on a '$'.  If the last sentence never
+                // ended it was corrupt and is thrown away.
+                sentenceLength = 0;
+                inSentence = true;
+            } else if (!inSentence) {
+                // Noise between sentences such as the tail of a sentence
+                // we dropped.  Skip it until the next sentence starts.
+            } else if (character == SENTENCE_END) {
+                inSentence = false;
+
+                if (statistics != null) {
+                    statistics.sentenceReceived();
+                }
 
-        // If there is hardly anything in the buffer, there won't be a
-        // NMEA sentence, so don't bother processing it.
-        if (dataLength < 40) {
-            return TYPE_NONE;
+                parsedSentenceTypes |= processSentence(sentence, sentenceLength);
+            } else if (sentenceLength < MAX_SENTENCE_SIZE) {
+                sentence[sentenceLength++] = character;
+            } else {
+                // Too long to be a NMEA sentence.  We missed its end.
+                inSentence = false;
+            }
         }
 
-        // Set the current index to be the
-        int currentIndex = dataLength - 1;
+        return parsedSentenceTypes;
+    }
 
-        // True if the current sentence is the last sentence in the buffer
-        boolean isLastSentence = true;
+    /**
+     * Decodes one complete sentence and notifies the listener.
+     *
+     * @param data holds the sentence without the leading '$'.
+     * @param length is the number of bytes in the sentence.
+     * @return the type of the setence processed. If the sentence is not one
+     *  we use or it is corrupt this returns <code>TYPE_NONE</code>.
+     */
+    private short processSentence(byte[] data, int length) {
+        // Look for the first delimitter to get the sentence type.
+        int typeLength = indexOf( data, DELIMITER, 0, length );
 
-        // Index of the start of the last sentence
-        int lastSentenceStart = -1;
+        if (typeLength < 0) {
+            return TYPE_NONE;
+        }
 
-        // While there are characters left to process
-        while (currentIndex > 0)
-        {
-            // Find the start of the last NMEA sentence.
-            int sentenceStart = lastIndexOf( data, SENTENCE_START, currentIndex );
-
-            // Did we find the start of a sentence?
-            if (sentenceStart != -1)
-            {
-                // We found the start of a sentence, look for the end.
-                int sentenceEnd = indexOf( data, SENTENCE_END, sentenceStart, dataLength );
-            	
-                // Did we find the sentence end?
-                if (sentenceEnd != -1)
-                {
-                    // Look for the first delimitter to get the sentence type.
-                	// (i.e. String.indexOf(DELIMITER, sentenceStart))
-                    int sentenceTypeEnd = indexOf( data, DELIMITER, sentenceStart, sentenceEnd );
-
-                    // If we found the type end and the sentence end is within
-                    // this sentence, then process the sentence. By checking that the
-                    // sentence end is less than the current index then we
-                    // handle the the case that we have a buffer left of
-                    // "$GPRMC,45667,V,4354.788"
-                    // and the first chunch of the new chars does not end the
-                    // same sentence
-                    // but instead starts a new one.
-                    if ((sentenceTypeEnd != -1) && (sentenceEnd <= currentIndex)) {
-                        try {
-                            String type = new String(data, sentenceStart, sentenceTypeEnd - sentenceStart);
-                            
-                            if ((type.equals(DOLLAR_SIGN_GPRMC)) &&
-                                    ((parsedSentenceTypes & TYPE_GPRMC) == 0)) {
-                                parsedSentenceTypes = parsedSentenceTypes |
-                                    processSentence(data, sentenceStart, sentenceEnd, TYPE_GPRMC);
-                            } else if ((type.equals(DOLLAR_SIGN_GPGGA)) &&
-                                    ((parsedSentenceTypes & TYPE_GPGGA) == 0)) {
-                                parsedSentenceTypes = parsedSentenceTypes |
-                                	processSentence(data, sentenceStart, sentenceEnd, TYPE_GPGGA);
-                            } else if ((type.equals(DOLLAR_SIGN_GPGSA)) &&
-                                    ((parsedSentenceTypes & TYPE_GPGSA) == 0)) {
-                                parsedSentenceTypes = parsedSentenceTypes |
-                                	processSentence(data, sentenceStart, sentenceEnd, TYPE_GPGSA);
-                            }
-                        } catch (Throwable t) {
-                            Log.warn("processSentence: dataLength=" + dataLength +
-                            		 ", Start=" + sentenceStart + 
-                            		 ", End=" + sentenceEnd, t);
-
-                            // We are kind of screwed at this point so just return
-                            // what we have and flush the buffer.
-                            flush();
-
-                            return parsedSentenceTypes;
-                        }
-
-                        // move the current position
-                        currentIndex = sentenceStart - 1;
-
-                        // Check if we have a complete record. If so we do
-                        // not need to keep working with this buffer
-                        if (parsedSentenceTypes == ALL_TYPES_MASK) {
-                            break;
-                        }
-                    } else {
-                        // This sentence is bunk, so just skip it
-                        currentIndex = sentenceStart - 1;
-                    }
-                } else {
-                    // If this is the last sentence in the buffer, then keep the
-                    // index of the start so that we do not delete it.
-                    if (isLastSentence) {
-                        lastSentenceStart = sentenceStart;
-                    }
+        // Find the handler.  Proprietary and unknown sentences don't
+        // have one and are ignored.
+        int index = findHandler( pack(data, 0, typeLength) );
+
+        if (index < 0) {
+            // Proprietary sentences start with 'P'.  They are rare, usually
+            // banners and replies to commands, so checking them is cheap.
+            if ((data[0] == 'P') && (proprietaryListener != null)) {
+                int end = checksumStart( data, length );
 
-                    currentIndex = sentenceStart - 1;
+                if (end > 0) {
+                    proprietaryListener.proprietarySentence( data, 0, end );
+                } else if (statistics != null) {
+                    statistics.checksumFailed();
                 }
-            } else {
-                break;
             }
 
-            // Once we have completed an iteration, set the last sentence flag
-            // to false
-            isLastSentence = false;
-        } // while
-
-        // Throw away everything that has already been parsed.
-        if ( lastSentenceStart < 0 )
-        {
-        	// Processed everything.  No partial sentence left at the end.
-        	flush();
+            return TYPE_NONE;
         }
-        else
-        {
-        	// Keep the partial last sentence.
-        	dataLength -= lastSentenceStart;
-            System.arraycopy( data, lastSentenceStart, data, 0, dataLength );
+
+        short type;
+
+        try {
+            type = processSentence(data, 0, length, handlers[index], handlerTypes[index]);
+        } catch (Throwable t) {
+            Log.warn("processSentence: length=" + length, t);
+            return TYPE_NONE;
         }
 
-        // If we parsed any of the sentences that we care about, put the record
-        // in the buffer.
-        if (parsedSentenceTypes != 0) {
-            // Put the record in the record buffer
-        	setRecordBuffer( record );
+        if (type != TYPE_NONE) {
+            // Update the time of the fix.
+            record.timestamp = toTimestamp( record.date, record.millisSinceMidnight );
+            
+            // Copy the record into the record buffer.  The record keeps
+            // accumulating data from future sentences.
+            setRecordBuffer( record );
 
-            // Create a new record from the existing record
-            record = new GPSRecord(record);
+            if (listener != null) {
+                listener.recordParsed( recordBuffer, type );
+            }
         }
 
-        return parsedSentenceTypes;
+        return type;
     }
 
     /**
@@ -301,56 +466,521 @@ class NMEAParser {
     }
     
     /**
-     * Looks for the last occurance of a byte <code>b</code> in <code>array</code> going
-     * backwards from <code>fromIndex</code>.
+     * Checks the checksum of a sentence that has no handler.  It is also
+     * used to tell if a device is sending NMEA at all.
      * 
-     * @param array is the data to scan.
-     * @param b is the byte to match.
-     * @param fromIndex is the first index into array to check.
-     * @return The last index where <code>b</code> was found; -1 if it was not
-     *  found. 
+     * @param data holds the sentence without the leading '$'.
+     * @param length is the number of bytes in the sentence.
+     * @return The index of the '*' that starts the checksum or -1 if the
+     *  checksum is missing or does not match.
+     * @see ConnectionRace
      */
-    protected static int lastIndexOf (byte[] array, byte b, int fromIndex)
+    static int checksumStart (byte[] data, int length)
     {
-        for ( int position = fromIndex; position >= 0; position-- )
+        int checksum = 0;
+        
+        for ( int i = 0; i < length; i++ )
         {
-        	if ( array[position] == b )
+        	byte character = data[i];
+        	
+        	if ( character == CHECKSUM_START )
         	{
-        		return position;
+        		int high = (i + 2 < length) ? hexValue( data[i + 1] ) : -1;
+        		int low = (i + 2 < length) ? hexValue( data[i + 2] ) : -1;
+        		
+        		if ( (high >= 0) && (low >= 0) && (((high << 4) | low) == checksum) )
+        		{
+        			return i;
+        		}
+        		
+        		return -1;
         	}
+        	
+        	checksum ^= character;
         }
         
-        // If we made it here, b was not found.
         return -1;
     }
     
     /**
-     * @return The lastest location information.
+     * Packs a short run of capital letters, such as the address field "GPRMC"
+     * or the talker ID "GP", into an <code>int</code>.  Each letter takes 5 bits
+     * so up to 6 letters fit.  It lets sentences be looked up without creating
+     * a string.
+     * 
+     * @param array holds the letters.
+     * @param offset is the index of the first letter.
+     * @param length is the number of letters.
+     * @return The packed letters or -1 if they are not 1 to 6 capital letters.
+     */
+    protected static int pack (byte[] array, int offset, int length)
+    {
+    	if ( (length <= 0) || (length > 6) )
+    	{
+    		return -1;
+    	}
+    	
+    	int key = 0;
+    	
+    	for ( int i = offset; i < offset + length; i++ )
+    	{
+    		byte c = array[i];
+    		
+    		if ( (c < 'A') || (c > 'Z') )
+    		{
+    			return -1;
+    		}
+    		
+    		key = (key << 5) | (c - 'A' + 1);
+    	}
+    	
+    	return key;
+    }
+    
+    /**
+     * Parses a decimal number such as "-25.3" out of a byte array.  This
+     * does the same as <code>Double.parseDouble</code> without creating
+     * a string.
+     * 
+     * @param array is the data to parse.
+     * @param offset is the index of the first character of the number.
+     * @param length is the number of characters in the number.
+     * @return The number or <code>Double.NaN</code> if the characters are
+     *  empty or not a number.
+     */
+    protected static double parseDecimal (byte[] array, int offset, int length)
+    {
+    	if ( length <= 0 )
+    	{
+    		return Double.NaN;
+    	}
+    	
+    	int position = offset;
+    	int stop = offset + length;
+    	boolean negative = false;
+    	
+    	if ( array[position] == '-' )
+    	{
+    		negative = true;
+    		position++;
+    	}
+    	else if ( array[position] == '+' )
+    	{
+    		position++;
+    	}
+    	
+    	long mantissa = 0;
+    	int fractionDigits = -1;  // -1 until the decimal point is seen
+    	int digits = 0;
+    	
+    	for ( ; position < stop; position++ )
+    	{
+    		byte c = array[position];
+    		
+    		if ( (c >= '0') && (c <= '9') )
+    		{
+    			// Digits beyond what a long can hold are beyond the precision
+    			// of a double anyway.
+    			if ( digits < 18 )
+    			{
+    				mantissa = mantissa * 10 + (c - '0');
+    				digits++;
+    				
+    				if ( fractionDigits >= 0 )
+    				{
+    					fractionDigits++;
+    				}
+    			}
+    			else if ( fractionDigits < 0 )
+    			{
+    				return Double.NaN;  // Too large
+    			}
+    		}
+    		else if ( (c == '.') && (fractionDigits < 0) )
+    		{
+    			fractionDigits = 0;
+    		}
+    		else
+    		{
+    			return Double.NaN;
+    		}
+    	}
+    	
+    	if ( digits == 0 )
+    	{
+    		return Double.NaN;
+    	}
+    	
+    	double value = mantissa;
+    	
+    	if ( fractionDigits > 0 )
+    	{
+    		value /= POWERS_OF_TEN[fractionDigits];
+    	}
+    	
+    	return (negative ? -value : value);
+    }
+    
+    /**
+     * Parses a non-negative integer such as "08" out of a byte array.  This
+     * does the same as <code>Integer.parseInt</code> without creating a string.
+     * 
+     * @param array is the data to parse.
+     * @param offset is the index of the first digit.
+     * @param length is the number of digits.
+     * @return The number or -1 if the characters are empty or not all digits.
+     */
+    protected static int parseInteger (byte[] array, int offset, int length)
+    {
+    	if ( (length <= 0) || (length > 9) )
+    	{
+    		return -1;
+    	}
+    	
+    	int value = 0;
+    	
+    	for ( int i = offset; i < offset + length; i++ )
+    	{
+    		int digit = array[i] - '0';
+    		
+    		if ( (digit < 0) || (digit > 9) )
+    		{
+    			return -1;
+    		}
+    		
+    		value = value * 10 + digit;
+    	}
+    	
+    	return value;
+    }
+    
+    /**
+     * Parses a NMEA UTC time such as "063559.998" (<i>hhmmss.sss</i>) out of
+     * a byte array.  Any number of digits may follow the decimal.
+     * 
+     * @param array is the data to parse.
+     * @param offset is the index of the first digit.
+     * @param length is the number of characters in the time.
+     * @return The number of milliseconds since midnight or -1 if the time
+     *  is invalid.
+     */
+    protected static int parseTime (byte[] array, int offset, int length)
+    {
+    	if ( length < 6 )
+    	{
+    		return -1;
+    	}
+    	
+    	int hours = parseInteger( array, offset, 2 );
+    	int minutes = parseInteger( array, offset + 2, 2 );
+    	int seconds = parseInteger( array, offset + 4, 2 );
+    	
+    	if ( (hours < 0) || (minutes < 0) || (seconds < 0) )
+    	{
+    		return -1;
+    	}
+    	
+    	int millis = 0;
+    	
+    	if ( length > 6 )
+    	{
+    		if ( array[offset + 6] != '.' )
+    		{
+    			return -1;
+    		}
+    		
+    		// Only the first three digits after the decimal matter.
+    		int multiplier = 100;
+    		
+    		for ( int i = offset + 7; (i < offset + length) && (multiplier > 0); i++ )
+    		{
+    			int digit = array[i] - '0';
+    			
+        		if ( (digit < 0) || (digit > 9) )
+        		{
+        			return -1;
+        		}
+        		
+        		millis += digit * multiplier;
+        		multiplier /= 10;
+    		}
+    	}
+    	
+    	return ((hours * 60 + minutes) * 60 + seconds) * 1000 + millis;
+    }
+    
+    /**
+     * Parses a NMEA latitude or longitude such as "3746.0188" (<i>ddmm.mmmm</i>)
+     * or "12226.1276" (<i>dddmm.mmmm</i>) out of a byte array.  The minutes are
+     * read as a fixed-point number so no precision is lost before the one
+     * division into degrees.
+     * 
+     * @param array is the data to parse.
+     * @param offset is the index of the first digit.
+     * @param length is the number of characters in the value.
+     * @return The value in decimal degrees or <code>Double.NaN</code> if it is
+     *  empty or invalid.  It is always positive; the direction is a separate
+     *  field in NMEA sentences.
+     */
+    protected static double parseDegrees (byte[] array, int offset, int length)
+    {
+    	// Find the end of the whole minutes.
+    	int stop = offset + length;
+    	int point = indexOf( array, (byte)'.', offset, stop );
+    	
+    	if ( point < 0 )
+    	{
+    		point = stop;
+    	}
+    	
+    	// There must be at least 1 digit of degrees and 2 of minutes.
+    	if ( point - offset < 3 )
+    	{
+    		return Double.NaN;
+    	}
+    	
+    	int degrees = parseInteger( array, offset, point - offset - 2 );
+    	
+    	// Read the minutes as a whole number of 10^-digits minutes.
+    	long minutes = parseInteger( array, point - 2, 2 );
+    	int fractionDigits = 0;
+    	
+    	if ( (degrees < 0) || (minutes < 0) || (minutes >= 60) )
+    	{
+    		return Double.NaN;
+    	}
+    	
+    	for ( int i = point + 1; i < stop; i++ )
+    	{
+    		int digit = array[i] - '0';
+    		
+    		if ( (digit < 0) || (digit > 9) )
+    		{
+    			return Double.NaN;
+    		}
+    		
+    		// Further digits are below a double's precision.
+    		if ( fractionDigits < 12 )
+    		{
+    			minutes = minutes * 10 + digit;
+    			fractionDigits++;
+    		}
+    	}
+    	
+    	return degrees + minutes / (60 * POWERS_OF_TEN[fractionDigits]);
+    }
+    
+    /**
+     * Converts a NMEA UTC date and time into Java's time.  Java uses the POSIX
+     * standard with 1 January 1970 00:00:00 as the epoch.  It has a precision
+     * of milliseconds.
+     * <p>
+     * The calendar math is cached until the date changes.
+     * 
+     * @param date is the NMEA date <i>ddmmyy</i> such as 140207 for
+     *  February 14, 2007.
+     * @param millisSinceMidnight is the time of day in milliseconds.
+     * @return The Java time in milliseconds or -1 if either argument is
+     *  unknown or invalid.
+     */
+    long toTimestamp (int date, int millisSinceMidnight)
+    {
+    	if ( (date < 0) || (millisSinceMidnight < 0) )
+    	{
+    		return -1;
+    	}
+    	
+    	if ( date != cachedDate )
+    	{
+    		long millis = toEpochMillis( date, 0, currentYear() );
+    		
+    		if ( millis < 0 )
+    		{
+    			return -1;
+    		}
+    		
+    		cachedDayMillis = millis;
+    		cachedDate = date;
+    	}
+    	
+    	return cachedDayMillis + millisSinceMidnight;
+    }
+    
+    /**
+     * Converts a NMEA UTC date and time into Java's time.  This is the same
+     * as <code>toTimestamp</code> without the cache.
+     * 
+     * @param date is the NMEA date <i>ddmmyy</i> such as 140207 for
+     *  February 14, 2007.
+     * @param millisSinceMidnight is the time of day in milliseconds.
+     * @param referenceYear is a year close to <code>date</code>.  NMEA
+     *  only gives two digits for the year so the century is chosen to put
+     *  the year within 50 years of this one.
+     * @return The Java time in milliseconds or -1 if either argument is
+     *  unknown or invalid.
+     */
+    protected static long toEpochMillis (int date, int millisSinceMidnight, int referenceYear)
+    {
+    	if ( (date < 0) || (millisSinceMidnight < 0) )
+    	{
+    		return -1;
+    	}
+    	
+    	int day = date / 10000;
+    	int month = (date / 100) % 100;
+    	int year = expandYear( date % 100, referenceYear );
+    	
+    	if ( (month < 1) || (month > 12) || (day < 1) || (day > 31) )
+    	{
+    		return -1;
+    	}
+    	
+    	return toEpochDay( year, month, day ) * MILLIS_PER_DAY + millisSinceMidnight;
+    }
+    
+    /**
+     * Turns a two digit year into a four digit one.  The century is the one
+     * that puts the year within 50 years of <code>referenceYear</code>.  This
+     * keeps working past 2099.
+     * 
+     * @param twoDigitYear is the year from 0 to 99.
+     * @param referenceYear is a four digit year close to the answer, usually
+     *  the current year.
+     * @return The four digit year.
+     */
+    protected static int expandYear (int twoDigitYear, int referenceYear)
+    {
+    	int year = referenceYear - (referenceYear % 100) + twoDigitYear;
+    	
+    	if ( year > referenceYear + 50 )
+    	{
+    		year -= 100;
+    	}
+    	else if ( year <= referenceYear - 50 )
+    	{
+    		year += 100;
+    	}
+    	
+    	return year;
+    }
+    
+    /**
+     * Returns the number of days from 1 January 1970 to a date in the
+     * Gregorian calendar.  It handles every leap year rule, including
+     * 2100 not being one.
+     * 
+     * @param year is the four digit year.
+     * @param month is the month from 1 to 12.
+     * @param day is the day of the month starting at 1.
+     * @return The number of days since the epoch.  It is negative for
+     *  dates before 1970.
+     */
+    protected static long toEpochDay (int year, int month, int day)
+    {
+    	// Count years from March so the leap day is the last day of the year.
+    	int y = (month <= 2) ? year - 1 : year;
+    	int era = ((y >= 0) ? y : y - 399) / 400;  // 400 year cycles
+    	int yearOfEra = y - era * 400;
+    	int dayOfYear = (153 * (month + ((month > 2) ? -3 : 9)) + 2) / 5 + day - 1;
+    	int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    	
+    	return era * 146097L + dayOfEra - 719468;  // 719468 days from 0000-03-01 to 1970-01-01
+    }
+    
+    /**
+     * @return The current year according to the system clock.  It is only
+     *  used to pick the century of NMEA dates so it does not have to be
+     *  exact on New Year's Day.
+     */
+    static int currentYear ()
+    {
+    	long days = System.currentTimeMillis() / MILLIS_PER_DAY;
+    	return (int)(1970 + days * 400 / 146097);
+    }
+    
+    /**
+     * Applies the direction to a latitude or longitude.
+     * 
+     * @param degrees is the unsigned value.
+     * @param direction is 'N', 'S', 'E', or 'W'.
+     * @return <code>degrees</code> made negative if the direction is south
+     *  or west.
+     */
+    private static double signedDegrees (double degrees, char direction)
+    {
+    	if ( (direction == 'S') || (direction == 's') || (direction == 'W') || (direction == 'w') )
+    	{
+    		return -degrees;
+    	}
+    	
+    	return degrees;
+    }
+    
+    /**
+     * Returns the value of a hexadecimal character.
+     * 
+     * @param c is a character '0'-'9', 'A'-'F', or 'a'-'f'.
+     * @return The value of <code>c</code> or -1 if it is not a hexadecimal character.
+     */
+    private static int hexValue (byte c)
+    {
+    	if ( (c >= '0') && (c <= '9') )
+    	{
+    		return c - '0';
+    	}
+    	else if ( (c >= 'A') && (c <= 'F') )
+    	{
+    		return c - 'A' + 10;
+    	}
+    	else if ( (c >= 'a') && (c <= 'f') )
+    	{
+    		return c - 'a' + 10;
+    	}
+    	else
+    	{
+    		return -1;
+    	}
+    }
+    
+    /**
+     * Returns the latest location information.  The same object is returned
+     * every time and is overwritten by the next call to <code>parse</code>
+     * that finds a sentence.  It must be read on the same thread that calls
+     * <code>parse</code> or be copied.
+     * 
+     * @return The lastest location information or <code>null</code> if
+     *  nothing has been parsed yet.
      */
     public synchronized GPSRecord getRecordBuffer() {
-        return recordBuffer;
+        if ( hasRecordBuffer ) {
+            return recordBuffer;
+        } else {
+            return null;
+        }
     }
 
     /**
-     * @param record is the latest location information.
+     * @param record is the latest location information.  It is copied.
      */
     private synchronized void setRecordBuffer(GPSRecord record) {
-        this.recordBuffer = record;
+        this.recordBuffer.set( record );
+        this.hasRecordBuffer = true;
     }
     
     /**
      * Process the sentence of the specified type.  The sentence is
      * every ASCII character stored in <code>data</code> between <code>offset</code>
-     * and <code>stop</code>.
+     * and <code>stop</code> not including the leading '$'.
      *
      * @param data contains the NMEA sentence to process.
      * @param offset is the index that starts the NMEA sentence within <code>data</code>.
      * @param stop is the index of the final character in the sentence.
+     * @param sentenceData - decodes the tokens of the sentence
      * @param type - the sentence type
      * @return the type of the setence processed. If the sentence cannot be
      *         processed this returns 0.
      */
-    private short processSentence(byte[] data, int offset, int stop, short type) {
+    private short processSentence(byte[] data, int offset, int stop, SentenceData sentenceData, short type) {
         // The index of the current token
         short tokenIndex = 0;
 
@@ -365,25 +995,26 @@ class NMEAParser {
 
         // If the sentence is greater than the max size just discard it
         if ( stop - offset <= MAX_SENTENCE_SIZE) {
-            SentenceData sentenceData = contructSentenceData(type);
+            sentenceData.clear();
             
             for (int i = offset; i < stop; i++) {
                 byte character = data[i];
 
-                if (character == SENTENCE_START) {
-                    // Ignore the dollar sign
-                } else if (character == CHECKSUM_START) {
+                if (character == CHECKSUM_START) {
                     // First process the remaining token
                     sentenceData.processToken(tokenIndex, data, tokenStart, i - tokenStart);
 
                     // get the sent check sum
-                    try {
-                    	String transmittedChecksum = new String( data, i + 1, 2 );
-                        sentChecksum = Integer.valueOf(transmittedChecksum, 16).intValue();
-                    } catch (NumberFormatException nfe) {
+                    int high = (i + 2 < stop) ? hexValue( data[i + 1] ) : -1;
+                    int low = (i + 2 < stop) ? hexValue( data[i + 2] ) : -1;
+                    
+                    if ((high < 0) || (low < 0)) {
                     	// The check sum was corrupt so discard the sentence.
-                        return TYPE_NONE;
+                        sentChecksum = -1;
+                        break;
                     }
+                    
+                    sentChecksum = (high << 4) | low;
 
                     // Stop processing
                     break;
@@ -408,39 +1039,30 @@ class NMEAParser {
                 // return the type that we processed
                 return type;
             }
+
+            // The sentence was corrupted on the way.
+            if (statistics != null) {
+                statistics.checksumFailed();
+            }
         }
 
         return TYPE_NONE;
     }
 
-    /**
-     * Contruct an instance of the sentence data interface that is appropriate
-     * for the type passed in.
-     *
-     * @param type - the type
-     * @return the appropriate sentence data implementation instance
-     */
-    private SentenceData contructSentenceData(int type) {
-        switch (type) {
-        case TYPE_GPRMC:
-            return new GPRMCRecord();
-
-        case TYPE_GPGGA:
-            return new GPGGARecord();
-
-        case TYPE_GPGSA:
-            return new GPGSARecord();
-
-        default:
-            return null;
-        }
-    }
-
     /**
      * Interface implemented by classes that know the structure of
-     * NMEA sentences.
+     * NMEA sentences.  Token 0 is the address field, such as "GPRMC",
+     * so handlers shared by several talkers can tell them apart.
+     * 
+     * @see NMEAParser#setSentenceHandler(String, short, SentenceData)
      */
-    private static interface SentenceData {
+    static interface SentenceData {
+    	/**
+    	 * Forgets the values from the last sentence.  Implementations are
+    	 * reused so this is called before the first token of every sentence.
+    	 */
+    	public void clear();
+    	
     	/**
     	 * Processes a token within a NMEA sentence.  Tokens are the data
     	 * between commas.
@@ -466,18 +1088,23 @@ class NMEAParser {
      * horizontal and vertical) of the reading.
      */
     private static final class GPGSARecord implements SentenceData {
-        public String hdop = null;
-        public String vdop = null;
+        public float hdop;
+        public float vdop;
+
+        public void clear() {
+            hdop = Float.NaN;
+            vdop = Float.NaN;
+        }
 
         public void processToken(short tokenIndex, byte[] data, int offset, int length) {
             switch (tokenIndex) {
             case 16:
-                hdop = new String( data, offset, length );
+                hdop = (float)parseDecimal( data, offset, length );
 
                 break;
 
             case 17:
-                vdop = new String( data, offset, length );
+                vdop = (float)parseDecimal( data, offset, length );
 
                 break;
             }
@@ -493,28 +1120,30 @@ class NMEAParser {
      * $GPGGA NMEA 0183 sentence.  This sentence the altitude of coordinates.
      */
     private static final class GPGGARecord implements SentenceData {
-        public String quality = null;
-        public String satelliteCount = null;
-        public String altitude = null;
+        public int quality;
+        public int satelliteCount;
+        public float altitude;
+
+        public void clear() {
+            quality = -1;
+            satelliteCount = -1;
+            altitude = Float.NaN;
+        }
 
         public void processToken(short tokenIndex, byte[] data, int offset, int length) {
             switch (tokenIndex) {
             case 6:
-                quality = new String( data, offset, length );
+                quality = parseInteger( data, offset, length );
 
                 break;
 
             case 7:
-                satelliteCount = new String( data, offset, length );
+                satelliteCount = parseInteger( data, offset, length );
 
                 break;
 
             case 9:
-            	if ( length > 0 ) {
-            		altitude = new String( data, offset, length );
-            	} else {
-            		altitude = null;
-            	}
+                altitude = (float)parseDecimal( data, offset, length );
 
                 break;
             }
@@ -532,24 +1161,35 @@ class NMEAParser {
      * speed, and course.
      */
     private static final class GPRMCRecord implements SentenceData {
-        public String date = null;
-        public String secondsSinceMidnight = null;
-        public String lattitude = null;
+        public int date;
+        public int millisSinceMidnight;
+        public double lattitude;
         public char lattitudeDirection;
-        public String longitude = null;
+        public double longitude;
         public char longitudeDirection;
-        private String speed = null;
-        private String course = null;
+        private float speed;
+        private float course;
+
+        public void clear() {
+            date = -1;
+            millisSinceMidnight = -1;
+            lattitude = Double.NaN;
+            lattitudeDirection = 0;
+            longitude = Double.NaN;
+            longitudeDirection = 0;
+            speed = Float.NaN;
+            course = Float.NaN;
+        }
 
         public void processToken(short tokenIndex, byte[] data, int offset, int length) {
             switch (tokenIndex) {
             case 1:
-            	secondsSinceMidnight = new String( data, offset, length );
+            	millisSinceMidnight = parseTime( data, offset, length );
 
                 break;
 
             case 3:
-                lattitude = new String( data, offset, length );
+                lattitude = parseDegrees( data, offset, length );
 
                 break;
 
@@ -562,7 +1202,7 @@ class NMEAParser {
                 break;
 
             case 5:
-                longitude = new String( data, offset, length );
+                longitude = parseDegrees( data, offset, length );
 
                 break;
 
@@ -576,20 +1216,18 @@ class NMEAParser {
 
             case 7:
             	// Speed is in knots.
-                speed = new String( data, offset, length );
+                speed = (float)parseDecimal( data, offset, length );
 
                 break;
                 
             case 8:
-            	if (length > 0) {
-            		course = new String( data, offset, length );
-            	}
+            	course = (float)parseDecimal( data, offset, length );
             	
             	break;
 
             case 9:
             	if (length == 6) {
-                    date = new String( data, offset, length );
+                    date = parseInteger( data, offset, length );
             	}
 
                 break;
@@ -598,13 +1236,261 @@ class NMEAParser {
 
         public void applySentenceData(GPSRecord record) {
             record.date = date;
-            record.secondsSinceMidnight = secondsSinceMidnight;
-            record.lattitude = lattitude;
+            record.millisSinceMidnight = millisSinceMidnight;
+            record.lattitude = signedDegrees(lattitude, lattitudeDirection);
             record.lattitudeDirection = lattitudeDirection;
-            record.longitude = longitude;
+            record.longitude = signedDegrees(longitude, longitudeDirection);
             record.longitudeDirection = longitudeDirection;
             record.speed = speed;
             record.course = course;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * $GPGSV NMEA 0183 sentence.  This sentence lists the satellites in view
+     * and their signal strengths.  It takes several sentences to list them
+     * all so they are collected until the last of the group arrives.  Each
+     * satellite system (talker) sends its own group.
+     */
+    private static final class GPGSVRecord implements SentenceData {
+        /**
+         * Satellites per sentence.  NMEA 4.10 may add a signal ID after them.
+         */
+        private static final int SATELLITES_PER_SENTENCE = 4;
+
+        private int talker;
+        private int messages;
+        private int message;
+
+        /**
+         * The satellites collected for the current group.
+         */
+        private final int[] prn = new int[GPSRecord.MAX_SATELLITES];
+        private final int[] elevation = new int[GPSRecord.MAX_SATELLITES];
+        private final int[] azimuth = new int[GPSRecord.MAX_SATELLITES];
+        private final int[] snr = new int[GPSRecord.MAX_SATELLITES];
+
+        /**
+         * The number of satellites collected, including this sentence's.
+         */
+        private int count;
+
+        /**
+         * The number of satellites collected from sentences that passed
+         * their checksums.  This sentence's satellites go after them.
+         */
+        private int committed;
+
+        /**
+         * The talker of the group being collected or -1 if the group is
+         * broken and we wait for the next one to start.
+         */
+        private int groupTalker = -1;
+
+        /**
+         * The message number expected next in the group.
+         */
+        private int nextMessage;
+
+        public void clear() {
+            talker = -1;
+            messages = -1;
+            message = -1;
+            count = committed;
+        }
+
+        public void processToken(short tokenIndex, byte[] data, int offset, int length) {
+            switch (tokenIndex) {
+            case 0:
+                talker = pack( data, offset, 2 );
+                break;
+
+            case 1:
+                messages = parseInteger( data, offset, length );
+                break;
+
+            case 2:
+                message = parseInteger( data, offset, length );
+
+                if (message == 1) {
+                    // Starting a new group.
+                    count = 0;
+                }
+
+                break;
+
+            case 3:
+                // Total satellites in view.  We count them ourselves.
+                break;
+
+            default:
+                int satellite = (tokenIndex - 4) / 4;
+
+                if (satellite >= SATELLITES_PER_SENTENCE) {
+                    break;
+                }
+
+                int index = ((message == 1) ? 0 : committed) + satellite;
+
+                if ((message < 1) || (index >= GPSRecord.MAX_SATELLITES)) {
+                    break;
+                }
+
+                int value = parseInteger( data, offset, length );
+
+                switch ((tokenIndex - 4) % 4) {
+                case 0:
+                    if (value < 0) {
+                        // Empty field at the end of the last sentence.
+                        break;
+                    }
+
+                    prn[index] = value;
+                    elevation[index] = -1;
+                    azimuth[index] = -1;
+                    snr[index] = -1;
+                    count = index + 1;
+                    break;
+
+                case 1:
+                    elevation[index] = value;
+                    break;
+
+                case 2:
+                    azimuth[index] = value;
+                    break;
+
+                case 3:
+                    snr[index] = value;
+                    break;
+                }
+            }
+        }
+
+        public void applySentenceData(GPSRecord record) {
+            if (message == 1) {
+                groupTalker = talker;
+            } else if ((talker != groupTalker) || (message != nextMessage)) {
+                // A sentence of the group was lost.  Wait for the next group.
+                groupTalker = -1;
+                committed = 0;
+                return;
+            }
+
+            committed = count;
+            nextMessage = message + 1;
+
+            if ((message == messages) && (groupTalker != -1)) {
+                record.setSatellites(groupTalker, prn, elevation, azimuth, snr, count);
+            }
+        }
+    }
+
+    /**
+     * $GPVTG NMEA 0183 sentence.  This sentence has the course and speed.
+     * Receivers often send it before the $GPRMC so the record gets them
+     * sooner.
+     */
+    private static final class GPVTGRecord implements SentenceData {
+        private float course;
+        private float speed;
+
+        public void clear() {
+            course = Float.NaN;
+            speed = Float.NaN;
+        }
+
+        public void processToken(short tokenIndex, byte[] data, int offset, int length) {
+            switch (tokenIndex) {
+            case 1:
+                // Course relative to true north.
+                course = (float)parseDecimal( data, offset, length );
+
+                break;
+
+            case 5:
+                // Speed is in knots.
+                speed = (float)parseDecimal( data, offset, length );
+
+                break;
+            }
+        }
+
+        public void applySentenceData(GPSRecord record) {
+            // Only overwrite what we have.  Many receivers leave the course
+            // empty when not moving.
+            if (!Float.isNaN(course)) {
+                record.course = course;
+            }
+
+            if (!Float.isNaN(speed)) {
+                record.speed = speed;
+            }
+        }
+    }
+
+    /**
+     * $GPGLL NMEA 0183 sentence.  This sentence has the latitude and longitude.
+     * Some receivers send it instead of $GPRMC.
+     */
+    private static final class GPGLLRecord implements SentenceData {
+        private double lattitude;
+        private char lattitudeDirection;
+        private double longitude;
+        private char longitudeDirection;
+        private int millisSinceMidnight;
+        private boolean valid;
+
+        public void clear() {
+            lattitude = Double.NaN;
+            lattitudeDirection = 0;
+            longitude = Double.NaN;
+            longitudeDirection = 0;
+            millisSinceMidnight = -1;
+            valid = false;
+        }
+
+        public void processToken(short tokenIndex, byte[] data, int offset, int length) {
+            switch (tokenIndex) {
+            case 1:
+                lattitude = parseDegrees( data, offset, length );
+                break;
+
+            case 2:
+                if (length > 0) {
+                    lattitudeDirection = (char)data[offset];
+                }
+                break;
+
+            case 3:
+                longitude = parseDegrees( data, offset, length );
+                break;
+
+            case 4:
+                if (length > 0) {
+                    longitudeDirection = (char)data[offset];
+                }
+                break;
+
+            case 5:
+                millisSinceMidnight = parseTime( data, offset, length );
+                break;
+
+            case 6:
+                // 'A' is valid data and 'V' is not.
+                valid = (length > 0) && (data[offset] == 'A');
+                break;
+            }
+        }
+
+        public void applySentenceData(GPSRecord record) {
+            if (valid) {
+                record.lattitude = signedDegrees(lattitude, lattitudeDirection);
+                record.lattitudeDirection = lattitudeDirection;
+                record.longitude = signedDegrees(longitude, longitudeDirection);
+                record.longitudeDirection = longitudeDirection;
+                record.millisSinceMidnight = millisSinceMidnight;
+            }
+        }
+    }
+}
@@ -0,0 +1,798 @@
+package org.j4me.bluetoothgps;
+
+import java.io.*;
+import javax.microedition.io.*;
+
+/**
+ * Plays back a recorded NMEA log as if it were coming from a GPS device.
+ * It stands in for the Bluetooth connection so the data goes through the
+ * real parser, <code>BluetoothGPS</code>, and the location listeners.  This
+ * makes it possible to test and load test an application on a desktop JVM
+ * without a GPS device.
+ * <p>
+ * The sentences are paced by the UTC times recorded in them.  The replay
+ * speed is a multiplier of that clock.  <code>REAL_TIME</code> sends each
+ * fix when it was recorded, <code>2</code> sends them twice as fast, and
+ * <code>AS_FAST_AS_POSSIBLE</code> does not wait at all.
+ * <p>
+ * Problems seen on real devices can be scripted by sentence number:
+ * <ul>
+ *  <li><code>addBurst</code> holds sentences back and sends them all at once.
+ *  <li><code>addStall</code> stops sending for a while.
+ *  <li><code>addDisconnect</code> drops the connection.  The replay resumes
+ *      at the same sentence when it is opened again.
+ *  <li><code>addTruncation</code> cuts a sentence short.
+ * </ul>
+ * <p>
+ * Like a Bluetooth GPS device only one connection can be open at a time.
+ * Configuration sentences written to the connection are kept and can be
+ * read back with <code>getCommands</code>.
+ *
+ * @see ReplayLocationProvider
+ */
+public class NMEAReplay
+{
+	/**
+	 * The replay speed that sends sentences as soon as they are read.
+	 */
+	public static final float AS_FAST_AS_POSSIBLE = 0;
+
+	/**
+	 * The replay speed that sends sentences at the rate they were recorded.
+	 */
+	public static final float REAL_TIME = 1;
+
+	/**
+	 * The recorded NMEA data.
+	 */
+	private final byte[] log;
+
+	/**
+	 * The index into <code>log</code> of the first byte of each sentence.
+	 */
+	private final int[] starts;
+
+	/**
+	 * The index into <code>log</code> just past the end of each sentence,
+	 * including its line terminator.
+	 */
+	private final int[] ends;
+
+	/**
+	 * The recorded time of each sentence in milliseconds after the first
+	 * one.  Sentences without a time have the time of the one before them.
+	 */
+	private final long[] recordedTimes;
+
+	/**
+	 * The number of sentences in <code>log</code>.
+	 */
+	private final int count;
+
+	/**
+	 * The script.  Each array is indexed by sentence number.
+	 */
+	private final int[] burstEnds;
+	private final int[] stalls;
+	private final boolean[] disconnects;
+	private final int[] truncations;
+
+	/**
+	 * When each sentence is sent in milliseconds after <code>origin</code>.
+	 * It is calculated from the recorded times, speed, and script each time
+	 * the replay is opened.
+	 */
+	private final long[] due;
+
+	/**
+	 * The multiplier of the recorded clock.
+	 */
+	private float speed = REAL_TIME;
+
+	/**
+	 * The system time when the first sentence was due.
+	 */
+	private long origin;
+
+	/**
+	 * The next sentence to send.
+	 */
+	private int index;
+
+	/**
+	 * How many bytes of sentence <code>index</code> have been sent.
+	 */
+	private int position;
+
+	/**
+	 * The stream currently reading the replay or <code>null</code> if it
+	 * is not open.
+	 */
+	private ReplayInputStream stream;
+
+	/**
+	 * Configuration sentences written to the connection.
+	 */
+	private final ByteArrayOutputStream commands = new ByteArrayOutputStream();
+
+	/**
+	 * Statistics.
+	 */
+	private int sentencesSent;
+	private long bytesSent;
+	private int connectCount;
+
+	/**
+	 * Constructs a replay of a recorded NMEA log.
+	 *
+	 * @param log is the NMEA data exactly as it was received from a GPS
+	 *  device.
+	 */
+	public NMEAReplay (byte[] log)
+	{
+		if ( log == null )
+		{
+			throw new IllegalArgumentException("log cannot be null");
+		}
+
+		this.log = log;
+
+		// Count the sentences.  Every line is one even if it is corrupt.
+		int lines = 0;
+
+		for ( int i = 0; i < log.length; i++ )
+		{
+			if ( (log[i] == '\n') || (i == log.length - 1) )
+			{
+				lines++;
+			}
+		}
+
+		count = lines;
+		starts = new int[count];
+		ends = new int[count];
+		recordedTimes = new long[count];
+		due = new long[count];
+		burstEnds = new int[count];
+		stalls = new int[count];
+		disconnects = new boolean[count];
+		truncations = new int[count];
+
+		// Find where each sentence is and when it was recorded.
+		int start = 0;
+		long first = -1;
+		long previous = 0;
+		long offset = 0;
+
+		for ( int i = 0; i < count; i++ )
+		{
+			int end = NMEAParser.indexOf( log, (byte)'\n', start, log.length );
+			end = (end < 0) ? log.length : end + 1;
+
+			starts[i] = start;
+			ends[i] = end;
+			burstEnds[i] = -1;
+			truncations[i] = -1;
+
+			long time = recordedTime( log, start, end );
+
+			if ( time >= 0 )
+			{
+				if ( first < 0 )
+				{
+					first = time;
+				}
+
+				time += offset - first;
+
+				if ( time < previous )
+				{
+					// The recording went past midnight.
+					offset += NMEAParser.MILLIS_PER_DAY;
+					time += NMEAParser.MILLIS_PER_DAY;
+				}
+
+				previous = time;
+			}
+
+			recordedTimes[i] = previous;
+			start = end;
+		}
+	}
+
+	/**
+	 * Reads an NMEA log from a stream.  For example a file or resource.
+	 *
+	 * @param in is the stream with the recorded NMEA data.  It is read to
+	 *  the end but not closed.
+	 * @return A replay of the data in <code>in</code>.
+	 * @throws IOException if <code>in</code> throws it.
+	 */
+	public static NMEAReplay load (InputStream in)
+		throws IOException
+	{
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		byte[] buffer = new byte[NMEAParser.OUTPUT_BUFFER_MAX_SIZE];
+		int read;
+
+		while ( (read = in.read(buffer)) >= 0 )
+		{
+			data.write( buffer, 0, read );
+		}
+
+		return new NMEAReplay( data.toByteArray() );
+	}
+
+	/**
+	 * Returns the time a sentence was recorded.  It comes from the UTC time
+	 * field of sentences that have one.
+	 *
+	 * @param log is the recorded data.
+	 * @param start is the index of the first byte of the sentence.
+	 * @param end is the index past the last byte of the sentence.
+	 * @return The milliseconds since midnight or -1 if the sentence does
+	 *  not have a time.
+	 */
+	private static long recordedTime (byte[] log, int start, int end)
+	{
+		// Sentences are "$ttsss,..." where "sss" is the type.
+		if ( (end - start < 7) || (log[start] != '$') )
+		{
+			return -1;
+		}
+
+		int field;
+		byte a = log[start + 3];
+		byte b = log[start + 4];
+		byte c = log[start + 5];
+
+		if ( ((a == 'R') && (b == 'M') && (c == 'C')) ||
+			 ((a == 'G') && (b == 'G') && (c == 'A')) ||
+			 ((a == 'G') && (b == 'N') && (c == 'S')) ||
+			 ((a == 'Z') && (b == 'D') && (c == 'A')) )
+		{
+			field = 1;
+		}
+		else if ( (a == 'G') && (b == 'L') && (c == 'L') )
+		{
+			field = 5;
+		}
+		else
+		{
+			return -1;
+		}
+
+		// Find the field.
+		int fieldStart = start;
+
+		for ( int i = 0; i < field; i++ )
+		{
+			fieldStart = NMEAParser.indexOf( log, (byte)',', fieldStart, end );
+
+			if ( fieldStart < 0 )
+			{
+				return -1;
+			}
+
+			fieldStart++;
+		}
+
+		int fieldEnd = NMEAParser.indexOf( log, (byte)',', fieldStart, end );
+
+		if ( fieldEnd < 0 )
+		{
+			return -1;
+		}
+
+		return NMEAParser.parseTime( log, fieldStart, fieldEnd - fieldStart );
+	}
+
+	/**
+	 * @return The number of sentences in the log.
+	 */
+	public int getSentenceCount ()
+	{
+		return count;
+	}
+
+	/**
+	 * @return The recorded time from the first sentence to the last in
+	 *  milliseconds.
+	 */
+	public long getRecordedDuration ()
+	{
+		return (count == 0) ? 0 : recordedTimes[count - 1];
+	}
+
+	/**
+	 * Sets how fast to replay the log.
+	 *
+	 * @param speed is a multiplier of the recorded time.  For example
+	 *  <code>REAL_TIME</code> or <code>10</code> for ten times as fast.
+	 *  <code>AS_FAST_AS_POSSIBLE</code> does not wait between sentences.
+	 */
+	public synchronized void setSpeed (float speed)
+	{
+		if ( speed < 0 )
+		{
+			throw new IllegalArgumentException("speed cannot be negative");
+		}
+
+		this.speed = speed;
+	}
+
+	/**
+	 * @return How fast the log is replayed.
+	 */
+	public float getSpeed ()
+	{
+		return speed;
+	}
+
+	/**
+	 * Holds sentences back and then sends them all at once.  This is what
+	 * a device does when it buffers data while the connection is slow.
+	 *
+	 * @param first is the number of the first sentence held back.
+	 * @param length is how many sentences are sent together.  They are sent
+	 *  when the last one is due.
+	 */
+	public synchronized void addBurst (int first, int length)
+	{
+		checkSentence( first );
+		checkSentence( first + length - 1 );
+
+		for ( int i = first; i < first + length; i++ )
+		{
+			burstEnds[i] = first + length - 1;
+		}
+	}
+
+	/**
+	 * Stops sending before a sentence.  The stall is in real time and is not
+	 * affected by the replay speed.  Stalls longer than
+	 * <code>BluetoothGPS.READ_TIMEOUT</code> make the reader reconnect.
+	 *
+	 * @param sentence is the number of the sentence that is delayed.
+	 * @param millis is how long to stop sending.
+	 */
+	public synchronized void addStall (int sentence, int millis)
+	{
+		checkSentence( sentence );
+		stalls[sentence] += millis;
+	}
+
+	/**
+	 * Drops the connection before a sentence.  Reading it throws an
+	 * <code>IOException</code>.  The replay continues from that sentence
+	 * when it is opened again.
+	 *
+	 * @param sentence is the number of the first sentence not sent.
+	 */
+	public synchronized void addDisconnect (int sentence)
+	{
+		checkSentence( sentence );
+		disconnects[sentence] = true;
+	}
+
+	/**
+	 * Cuts a sentence short.  Only the first part of it is sent and the rest,
+	 * including its line terminator, is lost.
+	 *
+	 * @param sentence is the number of the sentence to cut.
+	 * @param length is how many bytes of it are sent.
+	 */
+	public synchronized void addTruncation (int sentence, int length)
+	{
+		checkSentence( sentence );
+
+		if ( (length < 0) || (length > ends[sentence] - starts[sentence]) )
+		{
+			throw new IllegalArgumentException("length " + length);
+		}
+
+		truncations[sentence] = length;
+	}
+
+	/**
+	 * @param sentence is a sentence number given to a script method.
+	 * @throws IllegalArgumentException if <code>sentence</code> is not in
+	 *  the log.
+	 */
+	private void checkSentence (int sentence)
+	{
+		if ( (sentence < 0) || (sentence >= count) )
+		{
+			throw new IllegalArgumentException("sentence " + sentence + " of " + count);
+		}
+	}
+
+	/**
+	 * Opens a connection to the replay.  It continues from the first sentence
+	 * not yet sent.
+	 *
+	 * @return A connection whose input stream is the replayed data.
+	 * @throws IOException if the whole log has been sent or a connection
+	 *  is already open.
+	 */
+	public synchronized StreamConnection openConnection ()
+		throws IOException
+	{
+		if ( index >= count )
+		{
+			throw new IOException("NMEA replay finished");
+		}
+
+		if ( stream != null )
+		{
+			throw new IOException("NMEA replay already connected");
+		}
+
+		schedule();
+
+		// Resume right away at the next sentence.  Sentences held back in
+		//  a burst still wait for the rest of it.
+		origin = System.currentTimeMillis() - paced( index );
+		connectCount++;
+
+		final ReplayInputStream in = new ReplayInputStream();
+		stream = in;
+
+		return new StreamConnection()
+			{
+				public InputStream openInputStream ()
+				{
+					return in;
+				}
+
+				public DataInputStream openDataInputStream ()
+				{
+					return new DataInputStream( in );
+				}
+
+				public OutputStream openOutputStream ()
+				{
+					return commands;
+				}
+
+				public DataOutputStream openDataOutputStream ()
+				{
+					return new DataOutputStream( commands );
+				}
+
+				public void close ()
+				{
+					in.close();
+				}
+			};
+	}
+
+	/**
+	 * Returns when a sentence is sent relative to the first, ignoring bursts.
+	 *
+	 * @param sentence is the number of the sentence.
+	 * @return The recorded time scaled by the speed plus any stalls.
+	 */
+	private long paced (int sentence)
+	{
+		long time = 0;
+
+		if ( speed > 0 )
+		{
+			time = (long)(recordedTimes[sentence] / speed);
+		}
+
+		for ( int i = 0; i <= sentence; i++ )
+		{
+			time += stalls[i];
+		}
+
+		return time;
+	}
+
+	/**
+	 * Calculates when each sentence is sent relative to the first.
+	 */
+	private void schedule ()
+	{
+		long stalled = 0;
+
+		for ( int i = 0; i < count; i++ )
+		{
+			stalled += stalls[i];
+
+			long time = 0;
+
+			if ( speed > 0 )
+			{
+				time = (long)(recordedTimes[i] / speed);
+			}
+
+			due[i] = time + stalled;
+		}
+
+		// Sentences in a burst wait for the last one.
+		for ( int i = 0; i < count; i++ )
+		{
+			if ( burstEnds[i] >= 0 )
+			{
+				due[i] = due[burstEnds[i]];
+			}
+		}
+	}
+
+	/**
+	 * Closes the current connection.
+	 */
+	private synchronized void disconnect ()
+	{
+		stream = null;
+		notifyAll();
+	}
+
+	/**
+	 * @return <code>true</code> once every sentence has been sent.
+	 */
+	public synchronized boolean isFinished ()
+	{
+		return index >= count;
+	}
+
+	/**
+	 * Blocks until every sentence has been sent.
+	 *
+	 * @param timeout is the most milliseconds to wait.
+	 * @return <code>true</code> if the replay finished or <code>false</code>
+	 *  if it timed out.
+	 * @throws InterruptedException if the thread is interrupted.
+	 */
+	public synchronized boolean waitUntilFinished (long timeout)
+		throws InterruptedException
+	{
+		long end = System.currentTimeMillis() + timeout;
+
+		while ( index < count )
+		{
+			long remaining = end - System.currentTimeMillis();
+
+			if ( remaining <= 0 )
+			{
+				return false;
+			}
+
+			wait( remaining );
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return The number of sentences completely or partially sent.
+	 */
+	public synchronized int getSentencesSent ()
+	{
+		return sentencesSent;
+	}
+
+	/**
+	 * @return The number of bytes sent.
+	 */
+	public synchronized long getBytesSent ()
+	{
+		return bytesSent;
+	}
+
+	/**
+	 * @return How many times the replay was opened.
+	 */
+	public synchronized int getConnectCount ()
+	{
+		return connectCount;
+	}
+
+	/**
+	 * @return The configuration sentences written to the replay's connections.
+	 */
+	public synchronized byte[] getCommands ()
+	{
+		return commands.toByteArray();
+	}
+
+	/**
+	 * The stream of replayed data.  Like a device's input stream it blocks
+	 * until data is sent and <code>available</code> only counts bytes that
+	 * have been sent.
+	 */
+	private final class ReplayInputStream
+		extends InputStream
+	{
+		/**
+		 * @return The end of the part of sentence <code>i</code> that is sent.
+		 */
+		private int end (int i)
+		{
+			if ( truncations[i] >= 0 )
+			{
+				return starts[i] + truncations[i];
+			}
+
+			return ends[i];
+		}
+
+		/**
+		 * @throws IOException if this stream is closed.
+		 */
+		private void checkOpen ()
+			throws IOException
+		{
+			if ( stream != this )
+			{
+				throw new IOException("NMEA replay connection closed");
+			}
+		}
+
+		/**
+		 * Drops the connection if it is scripted to happen now.
+		 *
+		 * @param elapsed is the milliseconds since <code>origin</code>.
+		 * @throws IOException if the connection was dropped.
+		 */
+		private void checkDisconnect (long elapsed)
+			throws IOException
+		{
+			if ( (index < count) && disconnects[index] && (position == 0) && (due[index] <= elapsed) )
+			{
+				disconnects[index] = false;
+				disconnect();
+				throw new IOException("NMEA replay dropped the connection");
+			}
+		}
+
+		/**
+		 * Returns the number of bytes sent but not yet read.  Like a broken
+		 * Bluetooth connection it throws an exception once a scripted drop
+		 * is reached.
+		 *
+		 * @see java.io.InputStream#available()
+		 */
+		public int available ()
+			throws IOException
+		{
+			synchronized ( NMEAReplay.this )
+			{
+				checkOpen();
+
+				long elapsed = System.currentTimeMillis() - origin;
+				checkDisconnect( elapsed );
+				int available = 0;
+				int offset = position;
+
+				for ( int i = index; (i < count) && (due[i] <= elapsed); i++ )
+				{
+					if ( disconnects[i] && (offset == 0) )
+					{
+						break;
+					}
+
+					available += end( i ) - starts[i] - offset;
+					offset = 0;
+				}
+
+				return available;
+			}
+		}
+
+		/**
+		 * @see java.io.InputStream#read()
+		 */
+		public int read ()
+			throws IOException
+		{
+			byte[] b = new byte[1];
+			int read = read( b, 0, 1 );
+			return (read < 0) ? -1 : (b[0] & 0xFF);
+		}
+
+		/**
+		 * Reads the data sent so far.  If nothing has been sent, blocks until
+		 * the next sentence is.
+		 *
+		 * @see java.io.InputStream#read(byte[], int, int)
+		 */
+		public int read (byte[] b, int off, int len)
+			throws IOException
+		{
+			synchronized ( NMEAReplay.this )
+			{
+				checkOpen();
+
+				if ( index >= count )
+				{
+					return -1;
+				}
+
+				if ( len == 0 )
+				{
+					return 0;
+				}
+
+				// Wait for the next sentence to be sent.
+				long wait = origin + due[index] - System.currentTimeMillis();
+
+				while ( wait > 0 )
+				{
+					try
+					{
+						NMEAReplay.this.wait( wait );
+					}
+					catch (InterruptedException e)
+					{
+						throw new InterruptedIOException();
+					}
+
+					checkOpen();
+					wait = origin + due[index] - System.currentTimeMillis();
+				}
+
+				// Copy everything that has been sent.
+				long elapsed = System.currentTimeMillis() - origin;
+				checkDisconnect( elapsed );
+
+				int read = 0;
+
+				while ( (read < len) && (index < count) && (due[index] <= elapsed) )
+				{
+					if ( disconnects[index] && (position == 0) )
+					{
+						// Return what we have and drop on the next read.
+						break;
+					}
+
+					int start = starts[index] + position;
+					int length = Math.min( len - read, end(index) - start );
+
+					System.arraycopy( log, start, b, off + read, length );
+					read += length;
+					position += length;
+
+					if ( position == 0 )
+					{
+						// Truncated to nothing.
+						sentencesSent++;
+						index++;
+					}
+					else if ( starts[index] + position == end(index) )
+					{
+						sentencesSent++;
+						index++;
+						position = 0;
+					}
+				}
+
+				bytesSent += read;
+
+				if ( index >= count )
+				{
+					// Wake up anyone waiting for the replay to finish.
+					NMEAReplay.this.notifyAll();
+				}
+
+				return read;
+			}
+		}
+
+		/**
+		 * @see java.io.InputStream#close()
+		 */
+		public void close ()
+		{
+			synchronized ( NMEAReplay.this )
+			{
+				if ( stream == this )
+				{
+					disconnect();
+				}
+			}
+		}
+	}
+}
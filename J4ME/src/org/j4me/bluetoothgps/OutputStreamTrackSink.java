@@ -0,0 +1,54 @@
+package org.j4me.bluetoothgps;
+
+import java.io.*;
+
+/**
+ * Writes a track to an <code>OutputStream</code>.  The stream is flushed
+ * after every batch so a track cut short by the application being killed
+ * loses no more than the batch being recorded.
+ *
+ * @see TrackRecorder
+ */
+public class OutputStreamTrackSink
+	implements TrackSink
+{
+	/**
+	 * The stream the track is written to.
+	 */
+	private final OutputStream out;
+
+	/**
+	 * Constructs a sink.
+	 *
+	 * @param out is the stream to write the track to.  It is closed when
+	 *  the recorder is.
+	 */
+	public OutputStreamTrackSink (OutputStream out)
+	{
+		if ( out == null )
+		{
+			throw new IllegalArgumentException("out cannot be null");
+		}
+
+		this.out = out;
+	}
+
+	/**
+	 * @see org.j4me.bluetoothgps.TrackSink#write(byte[], int, int)
+	 */
+	public void write (byte[] data, int offset, int length)
+		throws IOException
+	{
+		out.write( data, offset, length );
+		out.flush();
+	}
+
+	/**
+	 * @see org.j4me.bluetoothgps.TrackSink#close()
+	 */
+	public void close ()
+		throws IOException
+	{
+		out.close();
+	}
+}
@@ -0,0 +1,25 @@
+package org.j4me.bluetoothgps;
+
+/**
+ * Receives the proprietary sentences, such as "$PSRFTXT" or "$PMTK001",
+ * found by <code>NMEAParser</code>.  They identify the GPS chipset and
+ * answer the commands sent to it.
+ *
+ * @see NMEAParser#setProprietaryListener(ProprietarySentenceListener)
+ */
+interface ProprietarySentenceListener
+{
+	/**
+	 * Called by the <code>NMEAParser</code> after a proprietary sentence passed
+	 * its checksum.
+	 * <p>
+	 * The <code>data</code> array is reused for every sentence.  It must be
+	 * copied if it is needed after this method returns.
+	 *
+	 * @param data holds the sentence.
+	 * @param offset is the index of the first character after the '$'.
+	 * @param length is the number of characters up to, but not including,
+	 *  the '*' that starts the checksum.
+	 */
+	public void proprietarySentence (byte[] data, int offset, int length);
+}
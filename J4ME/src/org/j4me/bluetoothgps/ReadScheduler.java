@@ -0,0 +1,300 @@
+package org.j4me.bluetoothgps;
+
+import java.io.*;
+
+/**
+ * Decides when to read from a GPS device's input stream.
+ * <p>
+ * GPS receivers send a burst of sentences once per fix, usually every second.
+ * Reading as soon as a burst arrives gives the lowest latency.  Polling the
+ * stream constantly wastes the battery.  Blocking on a read for a long time
+ * hangs on some phones' Bluetooth implementations.
+ * <p>
+ * This class learns the interval between fixes.  It sleeps until just before
+ * the next fix is due and checks <code>InputStream.available()</code> while it
+ * waits.  Once the fix is due it lets the caller block on the read.  Data that
+ * arrives early is read right away.
+ * <p>
+ * The pacing comes from the <code>Criteria</code>.  A short preferred response
+ * time polls more often.  Low power usage polls rarely and does not wake up
+ * before a fix is due.
+ * <p>
+ * It also measures the fix latency.  This is the time from when the data
+ * carrying a fix could first be read until the fix is delivered.
+ */
+class ReadScheduler
+{
+	/**
+	 * How often, in milliseconds, to check for data when there are no
+	 * <code>Criteria</code> requirements.
+	 */
+	static final int DEFAULT_POLL_INTERVAL = 50;
+
+	/**
+	 * The fastest polling allowed in milliseconds.
+	 */
+	static final int MIN_POLL_INTERVAL = 10;
+
+	/**
+	 * The polling interval in milliseconds when the <code>Criteria</code>
+	 * asks for low power usage.
+	 */
+	static final int LOW_POWER_POLL_INTERVAL = 250;
+
+	/**
+	 * The milliseconds between checks of <code>InputStream.available()</code>.
+	 */
+	private final int pollInterval;
+
+	/**
+	 * When <code>true</code> we wait until a fix is due before reading.
+	 * Otherwise we start checking one poll interval early.
+	 */
+	private final boolean lowPower;
+
+	/**
+	 * The average number of milliseconds between fixes.  It is -1 until
+	 * two fixes have been seen.
+	 */
+	private long fixInterval = -1;
+
+	/**
+	 * When the data for the last fix arrived.  It is -1 until the first fix.
+	 */
+	private long lastFixArrival = -1;
+
+	/**
+	 * The last time the stream had no data.  Data found after this arrived
+	 * between then and the next check.
+	 */
+	private long lastEmpty;
+
+	/**
+	 * When the data for the current read arrived.  It is -1 when the caller
+	 * is going to block on a read.  Then it arrives when the read returns.
+	 */
+	private long dataArrival = -1;
+
+	/**
+	 * Fix latency statistics.
+	 */
+	private int fixCount;
+	private long totalLatency;
+	private long maxLatency;
+
+	/**
+	 * Constructs a scheduler.
+	 *
+	 * @param criteria defines the application's response time and power
+	 *  requirements.  If <code>null</code> the defaults are used.
+	 */
+	public ReadScheduler (Criteria criteria)
+	{
+		int poll = DEFAULT_POLL_INTERVAL;
+		boolean low = false;
+
+		if ( criteria != null )
+		{
+			// Check the stream about ten times per response time.
+			int responseTime = criteria.getPreferredResponseTime();
+
+			if ( responseTime != Criteria.NO_REQUIREMENT )
+			{
+				poll = responseTime / 10;
+			}
+
+			if ( criteria.getPreferredPowerConsumption() == Criteria.POWER_USAGE_LOW )
+			{
+				poll = LOW_POWER_POLL_INTERVAL;
+				low = true;
+			}
+		}
+
+		if ( poll < MIN_POLL_INTERVAL )
+		{
+			poll = MIN_POLL_INTERVAL;
+		}
+		else if ( poll > LOW_POWER_POLL_INTERVAL )
+		{
+			poll = LOW_POWER_POLL_INTERVAL;
+		}
+
+		this.pollInterval = poll;
+		this.lowPower = low;
+		this.lastEmpty = System.currentTimeMillis();
+	}
+
+	/**
+	 * @return The milliseconds between checks for data.
+	 */
+	public int getPollInterval ()
+	{
+		return pollInterval;
+	}
+
+	/**
+	 * @return The average milliseconds between fixes or -1 if it is not
+	 *  known yet.
+	 */
+	public long getFixInterval ()
+	{
+		return fixInterval;
+	}
+
+	/**
+	 * Returns how long to wait before reading.
+	 *
+	 * @param now is the current time in milliseconds.
+	 * @return The number of milliseconds until the next fix is due.  It is
+	 *  0 when the caller should read now even if no data is available.
+	 */
+	public long getDelay (long now)
+	{
+		if ( fixInterval < 0 )
+		{
+			// We don't know when data comes yet so keep polling.
+			return pollInterval;
+		}
+
+		long due = lastFixArrival + fixInterval;
+
+		if ( lowPower == false )
+		{
+			due -= pollInterval;
+		}
+
+		long delay = due - now;
+		return (delay > 0) ? delay : 0;
+	}
+
+	/**
+	 * Blocks until <code>in</code> has data or the next fix is due.  Call this
+	 * before every read.
+	 *
+	 * @param in is the stream from the GPS device.
+	 * @throws IOException if <code>in</code> is broken.
+	 * @throws InterruptedException if the thread is interrupted while sleeping.
+	 */
+	public void waitForData (InputStream in)
+		throws IOException, InterruptedException
+	{
+		while ( true )
+		{
+			long now = System.currentTimeMillis();
+
+			if ( in.available() > 0 )
+			{
+				// The data came in since we last saw the stream empty.
+				dataArrival = lastEmpty;
+				return;
+			}
+
+			lastEmpty = now;
+			long delay = getDelay( now );
+
+			if ( delay <= 0 )
+			{
+				// The fix is due.  The read will block until it arrives.
+				//  Some implementations always return 0 for available()
+				//  and this is how they get read.
+				dataArrival = -1;
+				return;
+			}
+
+			Thread.sleep( Math.min(delay, pollInterval) );
+		}
+	}
+
+	/**
+	 * Call after each read from the stream.
+	 *
+	 * @param now is the current time in milliseconds.
+	 */
+	public void readCompleted (long now)
+	{
+		if ( dataArrival < 0 )
+		{
+			dataArrival = now;
+		}
+
+		lastEmpty = now;
+	}
+
+	/**
+	 * Call when a fix from the last read has been delivered.  It updates
+	 * the fix cadence and the latency statistics.
+	 *
+	 * @param now is the current time in milliseconds.
+	 */
+	public void fixDelivered (long now)
+	{
+		// Update the cadence.  Several fixes in one read are a backlog,
+		//  not the receiver's rate, so they don't count.
+		if ( dataArrival > lastFixArrival )
+		{
+			if ( lastFixArrival >= 0 )
+			{
+				long interval = dataArrival - lastFixArrival;
+
+				if ( fixInterval < 0 )
+				{
+					fixInterval = interval;
+				}
+				else
+				{
+					// Moving average that favors the history so a single
+					//  late burst does not throw off the schedule.
+					fixInterval = (fixInterval * 3 + interval) / 4;
+				}
+			}
+
+			lastFixArrival = dataArrival;
+		}
+
+		// Record the latency.
+		long latency = now - dataArrival;
+
+		if ( latency < 0 )
+		{
+			latency = 0;
+		}
+
+		fixCount++;
+		totalLatency += latency;
+
+		if ( latency > maxLatency )
+		{
+			maxLatency = latency;
+		}
+	}
+
+	/**
+	 * @return The number of fixes delivered.
+	 */
+	public int getFixCount ()
+	{
+		return fixCount;
+	}
+
+	/**
+	 * @return The average fix latency in milliseconds or 0 if there have
+	 *  not been any fixes.
+	 */
+	public long getAverageLatency ()
+	{
+		if ( fixCount == 0 )
+		{
+			return 0;
+		}
+
+		return totalLatency / fixCount;
+	}
+
+	/**
+	 * @return The longest fix latency in milliseconds.
+	 */
+	public long getMaxLatency ()
+	{
+		return maxLatency;
+	}
+}
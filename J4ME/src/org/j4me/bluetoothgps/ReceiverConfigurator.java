@@ -0,0 +1,586 @@
+package org.j4me.bluetoothgps;
+
+import java.io.*;
+import org.j4me.logging.*;
+
+/**
+ * Configures a GPS device for the application's <code>Criteria</code>.
+ * <p>
+ * When connected it asks the device to identify itself.  The chipset is
+ * recognized from the proprietary sentences it sends, such as SiRF's
+ * "$PSRFTXT" banner or MTK's "$PMTK705" reply.  The matching
+ * <code>ReceiverProfile</code> then turns off the sentences we do not use
+ * and sets the fix rate.  If the device never identifies itself it is sent
+ * the commands other chipsets ignore, at 1 Hz, the way it always has been.
+ * <p>
+ * Devices that do not understand a command just ignore it.  So the change is
+ * confirmed from the sentences that come back.  Once the device has had a
+ * second to switch over, the time between fixes is measured from their
+ * timestamps and the unused sentences must have stopped.  If not the
+ * commands are sent again and, if the fixes are still too slow, the next
+ * slower rate is tried.
+ * <p>
+ * If allowed by <code>Criteria.setSiRFBinaryAllowed</code>, a confirmed
+ * SiRF device is then switched to the SiRF binary protocol.  It sends a fraction of the data and is much quicker to parse.
+ * If NMEA fixes keep arriving the switch failed and NMEA is used from then
+ * on.  If the connection is lost during the switch the device is told to
+ * go back to NMEA.
+ * <p>
+ * All the methods are called on the thread reading the device.
+ */
+class ReceiverConfigurator
+	implements ProprietarySentenceListener
+{
+	/**
+	 * Waiting for the device to identify itself.
+	 */
+	public static final int DETECTING = 0;
+
+	/**
+	 * The configuration was sent and is being confirmed.
+	 */
+	public static final int CONFIGURING = 1;
+
+	/**
+	 * The device is sending what was asked for.
+	 */
+	public static final int CONFIRMED = 2;
+
+	/**
+	 * The device ignored the configuration.  It is left as it is.
+	 */
+	public static final int FAILED = 3;
+
+	/**
+	 * A SiRF device was told to switch to its binary protocol.
+	 */
+	public static final int SWITCHING = 4;
+
+	/**
+	 * The device is sending SiRF binary.
+	 */
+	public static final int BINARY = 5;
+
+	/**
+	 * The fixes to wait for the device to identify itself.
+	 */
+	static final int DETECT_FIXES = 3;
+
+	/**
+	 * The milliseconds, by the fixes' timestamps, given to the device to
+	 * switch over after being configured.
+	 */
+	static final int SETTLE_TIME = 1000;
+
+	/**
+	 * The fixes measured to confirm the configuration.
+	 */
+	static final int CONFIRM_FIXES = 5;
+
+	/**
+	 * The times to send a configuration before giving up on it.
+	 */
+	static final int MAX_ATTEMPTS = 2;
+
+	/**
+	 * The sentences we turn off.
+	 */
+	static final int UNWANTED_TYPES =
+		NMEAParser.TYPE_GPGSV | NMEAParser.TYPE_GPVTG | NMEAParser.TYPE_GPGLL;
+
+	/**
+	 * The fix rate, in hertz, the application wants.
+	 */
+	private final int requestedRate;
+
+	/**
+	 * The stream to the device or <code>null</code> if not connected.
+	 */
+	private OutputStream out;
+
+	/**
+	 * The device's chipset or <code>null</code> until it is known.
+	 */
+	private ReceiverProfile profile;
+
+	/**
+	 * One of <code>DETECTING</code>, <code>CONFIGURING</code>,
+	 * <code>CONFIRMED</code>, <code>FAILED</code>, <code>SWITCHING</code>,
+	 * or <code>BINARY</code>.
+	 */
+	private int state = DETECTING;
+
+	/**
+	 * The fix rate, in hertz, last sent to the device.
+	 */
+	private int rate;
+
+	/**
+	 * The times the current configuration has been sent.
+	 */
+	private int attempts;
+
+	/**
+	 * The fixes seen since the last state change.
+	 */
+	private int fixes;
+
+	/**
+	 * The timestamp, in milliseconds since midnight, of the first fix after
+	 * the device was configured.  It is -1 until then.
+	 */
+	private int settleStart;
+
+	/**
+	 * The timestamps of the first and last fixes measured.
+	 */
+	private int firstMeasured;
+	private int lastMeasured;
+
+	/**
+	 * The number of fixes measured.
+	 */
+	private int measured;
+
+	/**
+	 * The <code>UNWANTED_TYPES</code> seen while measuring.
+	 */
+	private int unwantedSeen;
+
+	/**
+	 * The milliseconds between fixes that confirmed the configuration or
+	 * -1 if it has not been confirmed.
+	 */
+	private int observedInterval = -1;
+
+	/**
+	 * Set when a SiRF device may be switched to its binary protocol.
+	 */
+	private boolean binaryAllowed;
+
+	/**
+	 * Set once switching to the binary protocol failed.  It is not tried
+	 * again.
+	 */
+	private boolean binaryFailed;
+
+	/**
+	 * Constructs a configurator.
+	 *
+	 * @param criteria is the application's requirements.  A short preferred
+	 *  response time asks for more fixes a second.  It may be <code>null</code>.
+	 */
+	public ReceiverConfigurator (Criteria criteria)
+	{
+		this.requestedRate = ReceiverProfile.getRequestedRate( criteria );
+	}
+
+	/**
+	 * Called once the streams to the device are open.  If the chipset is
+	 * already known, from an earlier connection, it is configured again
+	 * right away.  Otherwise the device is asked to identify itself.
+	 *
+	 * @param out is the stream to the device.
+	 */
+	public synchronized void connected (OutputStream out)
+	{
+		this.out = out;
+
+		if ( profile == null )
+		{
+			state = DETECTING;
+			fixes = 0;
+
+			try
+			{
+				ReceiverProfile.sendProbe( out );
+			}
+			catch (IOException e)
+			{
+				Log.warn("Could not query the GPS chipset", e);
+			}
+		}
+		else if ( state == BINARY )
+		{
+			// The device is still sending binary.
+			send( SiRFBinaryParser.createGeodeticOnly() );
+		}
+		else if ( state != FAILED )
+		{
+			if ( state == SWITCHING )
+			{
+				// The switch lost the connection.  Go back to NMEA.
+				Log.warn("GPS device did not switch to SiRF binary");
+				binaryFailed = true;
+				send( SiRFBinaryParser.createSwitchToNMEA() );
+			}
+
+			// The device may have been turned off and lost its settings.
+			attempts = 0;
+			configure( rate );
+		}
+	}
+
+	/**
+	 * Called before the application closes the connection.  A device sending
+	 * SiRF binary is switched back to NMEA so applications that only
+	 * understand NMEA can use it later.
+	 */
+	public synchronized void closing ()
+	{
+		if ( state == BINARY )
+		{
+			send( SiRFBinaryParser.createSwitchToNMEA() );
+			state = CONFIRMED;
+		}
+	}
+
+	/**
+	 * Called when the connection to the device is closed.
+	 */
+	public synchronized void disconnected ()
+	{
+		out = null;
+	}
+
+	/**
+	 * Allows a SiRF device to be switched to its binary protocol.  It is
+	 * switched once it is confirmed to be sending NMEA.
+	 *
+	 * @param allowed is <code>true</code> to use SiRF binary if the device
+	 *  supports it.
+	 */
+	public synchronized void setBinaryAllowed (boolean allowed)
+	{
+		this.binaryAllowed = allowed;
+
+		if ( allowed && (state == CONFIRMED) )
+		{
+			switchToBinary();
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if a SiRF device may be switched to its
+	 *  binary protocol.
+	 */
+	public synchronized boolean isBinaryAllowed ()
+	{
+		return binaryAllowed;
+	}
+
+	/**
+	 * @return The device's chipset or <code>null</code> if it is not
+	 *  known yet.
+	 */
+	public synchronized ReceiverProfile getProfile ()
+	{
+		return profile;
+	}
+
+	/**
+	 * @return One of <code>DETECTING</code>, <code>CONFIGURING</code>,
+	 *  <code>CONFIRMED</code>, <code>FAILED</code>, <code>SWITCHING</code>,
+	 *  or <code>BINARY</code>.
+	 */
+	public synchronized int getState ()
+	{
+		return state;
+	}
+
+	/**
+	 * @return The fix rate, in hertz, the <code>Criteria</code> asks for.
+	 */
+	public int getRequestedRate ()
+	{
+		return requestedRate;
+	}
+
+	/**
+	 * @return The fix rate, in hertz, last sent to the device or 0 if it
+	 *  has not been configured.
+	 */
+	public synchronized int getRate ()
+	{
+		return rate;
+	}
+
+	/**
+	 * @return The measured milliseconds between fixes once the configuration
+	 *  is confirmed or -1 if it has not been.
+	 */
+	public synchronized int getObservedInterval ()
+	{
+		return observedInterval;
+	}
+
+	/**
+	 * Recognizes the chipset and its replies to our commands.
+	 *
+	 * @see org.j4me.bluetoothgps.ProprietarySentenceListener#proprietarySentence(byte[], int, int)
+	 */
+	public synchronized void proprietarySentence (byte[] data, int offset, int length)
+	{
+		if ( out == null )
+		{
+			// Not connected so nothing can be sent.
+			return;
+		}
+
+		if ( (profile == null) || (profile == ReceiverProfile.UNKNOWN) )
+		{
+			ReceiverProfile detected = ReceiverProfile.detect( data, offset, length );
+
+			if ( detected != null )
+			{
+				profile = detected;
+				Log.info("GPS chipset is " + profile.getName());
+
+				attempts = 0;
+				configure( profile.getSupportedRate(requestedRate) );
+			}
+		}
+		else if ( state == CONFIGURING )
+		{
+			if ( profile.parseRateAcknowledgement(data, offset, length) == 0 )
+			{
+				// The chipset said it cannot do this rate.
+				Log.info("GPS chipset rejected " + rate + " Hz");
+				slowDown();
+			}
+		}
+	}
+
+	/**
+	 * Watches the sentences decoded from the device.
+	 *
+	 * @param record is the GPS data from every sentence so far.
+	 * @param type is the type of sentence just decoded such as
+	 *  <code>NMEAParser.TYPE_GPRMC</code>.
+	 */
+	public synchronized void sentenceParsed (GPSRecord record, int type)
+	{
+		if ( out == null )
+		{
+			// Not connected so nothing can be sent.
+			return;
+		}
+
+		if ( type == SiRFBinaryParser.TYPE_GEODETIC )
+		{
+			if ( state != BINARY )
+			{
+				// Only SiRF devices send it.  They start out sending every
+				// binary message so turn off the ones we do not use.
+				profile = ReceiverProfile.SIRF;
+				state = BINARY;
+				send( SiRFBinaryParser.createGeodeticOnly() );
+				Log.info("GPS device is sending SiRF binary");
+			}
+		}
+		else if ( state == SWITCHING )
+		{
+			if ( type == NMEAParser.TYPE_GPRMC )
+			{
+				fixes++;
+
+				if ( fixes >= DETECT_FIXES )
+				{
+					// It ignored the switch.
+					Log.warn("GPS device did not switch to SiRF binary");
+					binaryFailed = true;
+					state = CONFIRMED;
+				}
+			}
+		}
+		else if ( state == DETECTING )
+		{
+			if ( type == NMEAParser.TYPE_GPRMC )
+			{
+				fixes++;
+
+				if ( fixes >= DETECT_FIXES )
+				{
+					// The device did not say what it is.
+					profile = ReceiverProfile.UNKNOWN;
+					Log.info("GPS chipset not recognized");
+
+					attempts = 0;
+					configure( 1 );
+				}
+			}
+		}
+		else if ( state == CONFIGURING )
+		{
+			int time = record.millisSinceMidnight;
+
+			if ( type == NMEAParser.TYPE_GPRMC )
+			{
+				if ( time < 0 )
+				{
+					// The device has not sent the time yet.
+					return;
+				}
+
+				if ( settleStart < 0 )
+				{
+					settleStart = time;
+				}
+				else if ( time < settleStart )
+				{
+					// It passed midnight so start over.
+					settleStart = time;
+					measured = 0;
+					unwantedSeen = 0;
+				}
+				else if ( time - settleStart >= SETTLE_TIME )
+				{
+					if ( measured == 0 )
+					{
+						firstMeasured = time;
+					}
+
+					lastMeasured = time;
+					measured++;
+
+					if ( measured > CONFIRM_FIXES )
+					{
+						confirm();
+					}
+				}
+			}
+			else if ( ((type & UNWANTED_TYPES) != 0) && (measured > 0) )
+			{
+				unwantedSeen |= type;
+			}
+		}
+	}
+
+	/**
+	 * Decides if the device is sending what was asked for.
+	 */
+	private void confirm ()
+	{
+		int interval = (lastMeasured - firstMeasured) / (measured - 1);
+		int expected = 1000 / rate;
+		boolean fastEnough = (interval <= expected + expected / 4);
+
+		if ( fastEnough && (unwantedSeen == 0) )
+		{
+			state = CONFIRMED;
+			observedInterval = interval;
+			Log.info("GPS configured for " + rate + " Hz");
+
+			if ( binaryAllowed )
+			{
+				switchToBinary();
+			}
+		}
+		else if ( attempts < MAX_ATTEMPTS )
+		{
+			// Maybe the device missed the commands.
+			configure( rate );
+		}
+		else if ( fastEnough == false )
+		{
+			slowDown();
+		}
+		else
+		{
+			// The fix rate is fine but the sentences are not.
+			giveUp();
+		}
+	}
+
+	/**
+	 * Tries the next slower fix rate.
+	 */
+	private void slowDown ()
+	{
+		int lower = profile.getLowerRate( rate );
+
+		if ( lower > 0 )
+		{
+			attempts = 0;
+			configure( lower );
+		}
+		else
+		{
+			giveUp();
+		}
+	}
+
+	/**
+	 * Stops configuring a device that ignores us.
+	 */
+	private void giveUp ()
+	{
+		state = FAILED;
+		Log.warn("GPS device ignored its " + profile.getName() + " configuration");
+	}
+
+	/**
+	 * Switches a SiRF device to its binary protocol.  Nothing happens if
+	 * the device is not SiRF or switching failed before.
+	 */
+	private void switchToBinary ()
+	{
+		if ( (profile == ReceiverProfile.SIRF) && (binaryFailed == false) )
+		{
+			state = SWITCHING;
+			fixes = 0;
+			send( SiRFBinaryParser.createSwitchToBinary() );
+			Log.debug("Switching GPS device to SiRF binary");
+		}
+	}
+
+	/**
+	 * Writes a command to the device.
+	 *
+	 * @param command is the data to send.
+	 */
+	private void send (byte[] command)
+	{
+		if ( out != null )
+		{
+			try
+			{
+				out.write( command );
+				out.flush();
+			}
+			catch (IOException e)
+			{
+				Log.warn("Could not send command to Bluetooth GPS", e);
+			}
+		}
+	}
+
+	/**
+	 * Sends the configuration to the device and starts confirming it.
+	 *
+	 * @param rate is the fix rate in hertz.
+	 */
+	private void configure (int rate)
+	{
+		this.rate = rate;
+		this.state = CONFIGURING;
+		this.attempts++;
+		this.settleStart = -1;
+		this.measured = 0;
+		this.unwantedSeen = 0;
+		this.observedInterval = -1;
+
+		if ( out != null )
+		{
+			try
+			{
+				profile.configure( out, rate );
+				Log.debug("Configured " + profile.getName() + " GPS device for " + rate + " Hz");
+			}
+			catch (IOException e)
+			{
+				Log.warn("Could not send configuration sentences to Bluetooth GPS", e);
+			}
+		}
+	}
+}
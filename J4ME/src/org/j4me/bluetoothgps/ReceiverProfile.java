@@ -0,0 +1,484 @@
+package org.j4me.bluetoothgps;
+
+import java.io.*;
+
+/**
+ * The configuration commands understood by a family of GPS chipsets.
+ * <p>
+ * Bluetooth GPS devices send more sentences than we use, usually once a
+ * second.  Each chipset has its own proprietary input sentences to turn the
+ * extra ones off and, on some, to send fixes more often.  A profile knows
+ * those sentences, the fix rates the chipset supports, and how to recognize
+ * the chipset from the proprietary sentences it sends.
+ * <p>
+ * A good list of the proprietary input sentences is here:
+ * http://www.gpsinformation.org/dale/nmea.htm
+ *
+ * @see ReceiverConfigurator
+ */
+abstract class ReceiverProfile
+{
+	/**
+	 * The SiRF chipset.  It is in most Bluetooth GPS devices.
+	 */
+	public static final ReceiverProfile SIRF = new SiRF();
+
+	/**
+	 * The MediaTek (MTK) chipset.  It is in the i-Blue and Qstarz devices.
+	 */
+	public static final ReceiverProfile MTK = new MTK();
+
+	/**
+	 * Garmin receivers.
+	 */
+	public static final ReceiverProfile GARMIN = new Garmin();
+
+	/**
+	 * A receiver that did not identify itself.  It is sent the SiRF and
+	 * Garmin sentence masks which other chipsets ignore.
+	 */
+	public static final ReceiverProfile UNKNOWN = new Unknown();
+
+	/**
+	 * The profiles that can be recognized.
+	 */
+	private static final ReceiverProfile[] KNOWN = { SIRF, MTK, GARMIN };
+
+	/**
+	 * The name of the chipset.
+	 */
+	private final String name;
+
+	/**
+	 * The start of the proprietary sentences the chipset sends such as
+	 * "PSRF".  It is <code>null</code> if it cannot be recognized.
+	 */
+	private final byte[] prefix;
+
+	/**
+	 * The fix rates, in hertz, the chipset supports in ascending order.
+	 */
+	private final int[] rates;
+
+	/**
+	 * Constructs a profile.
+	 *
+	 * @param name is the name of the chipset.
+	 * @param prefix starts the proprietary sentences the chipset sends.
+	 * @param rates are the fix rates, in hertz, supported in ascending order.
+	 */
+	private ReceiverProfile (String name, String prefix, int[] rates)
+	{
+		this.name = name;
+		this.prefix = (prefix == null) ? null : prefix.getBytes();
+		this.rates = rates;
+	}
+
+	/**
+	 * @return The name of the chipset.
+	 */
+	public String getName ()
+	{
+		return name;
+	}
+
+	/**
+	 * @return The highest fix rate, in hertz, the chipset supports.
+	 */
+	public int getMaxRate ()
+	{
+		return rates[rates.length - 1];
+	}
+
+	/**
+	 * Returns the fix rate to use when the application wants <code>wanted</code>.
+	 * It is the slowest supported rate at least as fast as <code>wanted</code>
+	 * or the fastest one if none are.
+	 *
+	 * @param wanted is the fix rate, in hertz, the application wants.
+	 * @return The fix rate to use.
+	 */
+	public int getSupportedRate (int wanted)
+	{
+		for ( int i = 0; i < rates.length; i++ )
+		{
+			if ( rates[i] >= wanted )
+			{
+				return rates[i];
+			}
+		}
+
+		return getMaxRate();
+	}
+
+	/**
+	 * @param rate is a supported fix rate.
+	 * @return The next slower supported fix rate or 0 if there is none.
+	 */
+	public int getLowerRate (int rate)
+	{
+		int lower = 0;
+
+		for ( int i = 0; (i < rates.length) && (rates[i] < rate); i++ )
+		{
+			lower = rates[i];
+		}
+
+		return lower;
+	}
+
+	/**
+	 * @param data holds a proprietary sentence.
+	 * @param offset is the index of the first character after the '$'.
+	 * @param length is the number of characters in the sentence.
+	 * @return <code>true</code> if this chipset sent the sentence.
+	 */
+	public boolean isFrom (byte[] data, int offset, int length)
+	{
+		return startsWith( data, offset, length, prefix );
+	}
+
+	/**
+	 * Checks if a proprietary sentence acknowledges the command that sets
+	 * the fix rate.
+	 *
+	 * @param data holds a proprietary sentence.
+	 * @param offset is the index of the first character after the '$'.
+	 * @param length is the number of characters in the sentence.
+	 * @return 1 if the chipset accepted the fix rate, 0 if it rejected it,
+	 *  or -1 if the sentence is not an acknowledgement.
+	 */
+	public int parseRateAcknowledgement (byte[] data, int offset, int length)
+	{
+		// Most chipsets do not acknowledge commands.
+		return -1;
+	}
+
+	/**
+	 * Sends the sentences that turn off the ones we do not use and set the
+	 * fix rate.  We use GGA, GSA, and RMC.
+	 *
+	 * @param out is the stream to the GPS device.
+	 * @param rate is the fix rate in hertz.  It is one returned by
+	 *  <code>getSupportedRate</code>.
+	 * @throws IOException if the sentences cannot be sent.
+	 */
+	public abstract void configure (OutputStream out, int rate)
+		throws IOException;
+
+	/**
+	 * Finds the chipset that sent a proprietary sentence.
+	 *
+	 * @param data holds the sentence.
+	 * @param offset is the index of the first character after the '$'.
+	 * @param length is the number of characters in the sentence.
+	 * @return The profile for the chipset or <code>null</code> if it is not
+	 *  known.
+	 */
+	public static ReceiverProfile detect (byte[] data, int offset, int length)
+	{
+		for ( int i = 0; i < KNOWN.length; i++ )
+		{
+			if ( KNOWN[i].isFrom(data, offset, length) )
+			{
+				return KNOWN[i];
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Sends queries that make MTK and Garmin receivers identify themselves.
+	 * SiRF receivers are recognized from the text sentences they send.
+	 * Every chipset ignores the other chipsets' sentences.
+	 *
+	 * @param out is the stream to the GPS device.
+	 * @throws IOException if the sentences cannot be sent.
+	 */
+	public static void sendProbe (OutputStream out)
+		throws IOException
+	{
+		send( out, "PMTK605" );  // MTK:  query the firmware release, answered by $PMTK705
+		send( out, "PGRMCE" );  // Garmin:  query the sensor configuration, answered by $PGRMC
+		out.flush();
+	}
+
+	/**
+	 * Returns the fix rate the application's <code>Criteria</code> asks for.
+	 * A preferred response time under a second asks for enough fixes to meet
+	 * it.  Low power usage always gets one fix a second.
+	 *
+	 * @param criteria is the application's requirements.  It may be
+	 *  <code>null</code>.
+	 * @return The fix rate in hertz.
+	 */
+	public static int getRequestedRate (Criteria criteria)
+	{
+		if ( (criteria == null) ||
+			 (criteria.getPreferredPowerConsumption() == Criteria.POWER_USAGE_LOW) )
+		{
+			return 1;
+		}
+
+		int responseTime = criteria.getPreferredResponseTime();
+
+		if ( (responseTime == Criteria.NO_REQUIREMENT) || (responseTime >= 1000) )
+		{
+			return 1;
+		}
+
+		return (1000 + responseTime - 1) / responseTime;
+	}
+
+	/**
+	 * Writes a NMEA input sentence.
+	 *
+	 * @param out is the stream to the GPS device.
+	 * @param sentence is the sentence without the '$' or checksum.
+	 * @throws IOException if the sentence cannot be sent.
+	 */
+	private static void send (OutputStream out, String sentence)
+		throws IOException
+	{
+		out.write( BluetoothGPS.createSentence(sentence) );
+	}
+
+	/**
+	 * @param data holds a sentence.
+	 * @param offset is the index of its first character.
+	 * @param length is the number of characters.
+	 * @param prefix is the characters to look for.  If <code>null</code> this
+	 *  returns <code>false</code>.
+	 * @return <code>true</code> if the sentence starts with <code>prefix</code>.
+	 */
+	private static boolean startsWith (byte[] data, int offset, int length, byte[] prefix)
+	{
+		if ( (prefix == null) || (length < prefix.length) )
+		{
+			return false;
+		}
+
+		for ( int i = 0; i < prefix.length; i++ )
+		{
+			if ( data[offset + i] != prefix[i] )
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * The SiRF chipset.  It sends "$PSRFTXT" banners when it starts and
+	 * "$PSRF150" when it is ready for commands.
+	 * <p>
+	 * The sentences are discussed here:
+	 *    http://www.gpsinformation.org/dale/nmea.htm#sirf
+	 *    http://www.elgps.com/public_ftp/Documentos/SIRF_Protocol.pdf
+	 * They can be tested using the SiRFDemo application:
+	 *    http://www.gpspassion.com/forumsen/topic.asp?TOPIC_ID=25575
+	 * <p>
+	 * The Bluetooth modems in SiRF devices do not allow the baud rate to be
+	 * changed.  It is usually 38400 or higher which is enough for 5 Hz.
+	 */
+	private static final class SiRF extends ReceiverProfile
+	{
+		SiRF ()
+		{
+			super( "SiRF", "PSRF", new int[] { 1, 5 } );
+		}
+
+		public void configure (OutputStream out, int rate)
+			throws IOException
+		{
+			// SiRF III chipsets compute 5 fixes a second in 5 Hz mode.  It is
+			//  mode 6 of $PSRF103 and mode 7 turns it off.  Older chipsets
+			//  ignore it and confirmation falls back to 1 Hz.
+			send( out, (rate > 1) ? "PSRF103,00,6,00,0" : "PSRF103,00,7,00,0" );
+
+			sendMask( out );
+			out.flush();
+		}
+
+		/**
+		 * Sends the SiRF sentence mask.  Only GGA, GSA, and RMC are sent.
+		 *
+		 * @param out is the stream to the GPS device.
+		 * @throws IOException if the sentences cannot be sent.
+		 */
+		static void sendMask (OutputStream out)
+			throws IOException
+		{
+			// The SiRF input sentence that controls output sentences is:
+			//     $PSRF103,05,00,01,01*20
+			//	where
+			//	   $PSRF103
+			//	   05         00=GGA
+			//	              01=GLL
+			//	              02=GSA
+			//	              03=GSV
+			//	              04=RMC
+			//	              05=VTG
+			//                ... through 10
+			//	   00         mode, 0=set rate, 1=query
+			//	   01         rate in seconds, 0-255
+			//	   01         checksum 0=no, 1=yes
+			//	   *20        checksum
+
+			// Send the NMEA sentences we care about every fix.
+			send( out, "PSRF103,00,00,01,01" );  // GPGGA
+			send( out, "PSRF103,02,00,01,01" );  // GPGSA
+			send( out, "PSRF103,04,00,01,01" );  // GPRMC
+
+			// Disable the remaining sentences.
+			//     This avoids the overhead of receiving them, processing them, and
+			//   throwing them away.  They can be very frequent and cause problems
+			//   for slow processors such as on the Motorola SLVR.
+			//     Not all of these are NMEA sentences.  Some are SiRF specific
+			//   PSRFTXT sentences which are the most frequent and therefore most
+			//   problematic.
+			send( out, "PSRF103,01,00,00,01" );  // GPGLL
+			send( out, "PSRF103,03,00,00,01" );  // GPGSV
+			send( out, "PSRF103,05,00,00,01" );  // GPVTG
+			send( out, "PSRF103,06,00,00,01" );  // GPMSS
+			send( out, "PSRF103,07,00,00,01" );  // ? (Untested but might be the PSRFTXT we turn off)
+			send( out, "PSRF103,08,00,00,01" );  // ? (Untested but might be the PSRFTXT we turn off)
+			send( out, "PSRF103,09,00,00,01" );  // GPZDA
+			send( out, "PSRF103,10,00,00,01" );  // ? (Untested but might be the PSRFTXT we turn off)
+		}
+	}
+
+	/**
+	 * The MediaTek (MTK) chipset.  It answers every command with
+	 * "$PMTK001,<i>command</i>,<i>flag</i>" where a flag of 3 means it
+	 * succeeded.  See the programming guide:
+	 * http://www.transystem.com.tw/driver_manual/EB-230-Data-Sheet-V1.2.pdf
+	 * <p>
+	 * At 10 Hz the sentences need more than the 9600 baud some devices use
+	 * between the chipset and the Bluetooth modem.  Confirmation notices the
+	 * missing fixes and falls back to a slower rate.
+	 */
+	private static final class MTK extends ReceiverProfile
+	{
+		/**
+		 * The start of an acknowledgement of the fix interval command.
+		 */
+		private static final byte[] RATE_ACKNOWLEDGEMENT = "PMTK001,220,".getBytes();
+
+		MTK ()
+		{
+			super( "MTK", "PMTK", new int[] { 1, 2, 5, 10 } );
+		}
+
+		public int parseRateAcknowledgement (byte[] data, int offset, int length)
+		{
+			if ( (length == RATE_ACKNOWLEDGEMENT.length + 1) &&
+				 startsWith(data, offset, length, RATE_ACKNOWLEDGEMENT) )
+			{
+				return (data[offset + length - 1] == '3') ? 1 : 0;
+			}
+
+			return -1;
+		}
+
+		public void configure (OutputStream out, int rate)
+			throws IOException
+		{
+			// The milliseconds between fixes is set by:
+			//     $PMTK220,<interval>*hh\r\n
+			send( out, "PMTK220," + (1000 / rate) );
+
+			// The output sentences are set by:
+			//     $PMTK314,<0>,...,<18>*hh\r\n
+			//  where each field
+			//     0=off, 1=every fix, 2=every two fixes, etc.
+			//  and the field numbers are
+			//	   0 NMEA_SEN_GLL, // GPGLL interval - Geographic Position - Latitude longitude
+			//	   1 NMEA_SEN_RMC, // GPRMC interval - Recommended Min. specific GNSS sentence
+			//	   2 NMEA_SEN_VTG, // GPVTG interval - Course Over Ground and Ground Speed
+			//	   3 NMEA_SEN_GGA, // GPGGA interval - GPS Fix Data
+			//	   4 NMEA_SEN_GSA, // GPGSA interval - GNSS DOPS and Active Satellites
+			//	   5 NMEA_SEN_GSV, // GPGSV interval - GNSS Satellites in View
+			//	   6 NMEA_SEN_GRS, // GPGRS interval - GNSS Range Residuals
+			//	   7 NMEA_SEN_GST, // GPGST interval - GNSS Pseudorange Error Statistics
+			//	   13 NMEA_SEN_MALM, // PMTKALM interval - GPS almanac information
+			//	   14 NMEA_SEN_MEPH, // PMTKEPH interval - GPS ephemeris information
+			//	   15 NMEA_SEN_MDGP, // PMTKDGP interval - GPS differential correction information
+			//	   16 NMEA_SEN_MDBG, // PMTKDBG interval - MTK debug information
+			//	   17 NMEA_SEN_ZDA, // GPZDA interval - Time & Date
+			//	   18 NMEA_SEN_MCHN, // PMTKCHN interval - GPS channel status
+			//  The accuracy in GSA changes slowly so it is only sent once a second.
+			send( out, "PMTK314,0,1,0,1," + rate + ",0,0,0,0,0,0,0,0,0,0,0,0,0,0" );
+			out.flush();
+		}
+	}
+
+	/**
+	 * Garmin receivers.  They send "$PGRME" and other sentences starting
+	 * with "$PGRM".  The fix rate is fixed at 1 Hz.
+	 * <p>
+	 * Garmin device programming (see section 3.1.5)
+	 * http://www.garmin.com/manuals/GPS10_TechnicalSpecifications.pdf
+	 */
+	private static final class Garmin extends ReceiverProfile
+	{
+		Garmin ()
+		{
+			super( "Garmin", "PGRM", new int[] { 1 } );
+		}
+
+		public void configure (OutputStream out, int rate)
+			throws IOException
+		{
+			sendMask( out );
+			out.flush();
+		}
+
+		/**
+		 * Sends the Garmin sentence mask.  Only GGA, GSA, and RMC are sent.
+		 *
+		 * @param out is the stream to the GPS device.
+		 * @throws IOException if the sentences cannot be sent.
+		 */
+		static void sendMask (OutputStream out)
+			throws IOException
+		{
+			//  Output sentence enable/disable (PGRMO).  The format is:
+			//     $PGRMO,<1>,<2>*hh\r\n
+			//	where
+			//     <1> Target sentence description (e.g. GPGSV)
+			//     <2> Mode where:
+			//          0 = disable specific sentence
+			//          1 = enable specific sentence
+			//          2 = disable all output sentences
+			//          3 = enable all output sentences (except GPALM)
+			//          4 = restore factory default output sentences
+			send( out, "PGRMO,,2" );  // Turn off all sentences
+			send( out, "PGRMO,GPGGA,1" );  // Turn on GPGGA
+			send( out, "PGRMO,GPGSA,1" );  // Turn on GPGSA
+			send( out, "PGRMO,GPRMC,1" );  // Turn on GPRMC
+		}
+	}
+
+	/**
+	 * A receiver that did not identify itself.  It gets the SiRF and Garmin
+	 * masks at 1 Hz.  The chipsets that do not understand them ignore them.
+	 */
+	private static final class Unknown extends ReceiverProfile
+	{
+		Unknown ()
+		{
+			super( "Unknown", null, new int[] { 1 } );
+		}
+
+		public void configure (OutputStream out, int rate)
+			throws IOException
+		{
+			SiRF.sendMask( out );
+			Garmin.sendMask( out );
+			out.flush();
+		}
+	}
+}
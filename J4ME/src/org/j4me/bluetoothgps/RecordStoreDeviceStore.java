@@ -0,0 +1,125 @@
+package org.j4me.bluetoothgps;
+
+import java.io.*;
+import javax.microedition.rms.*;
+
+/**
+ * Keeps a <code>DeviceCache</code> in a MIDP record store.  The data is a
+ * single record.
+ *
+ * @see DeviceCache
+ */
+public class RecordStoreDeviceStore
+	implements DeviceStore
+{
+	/**
+	 * The record store used by <code>DeviceCache.open</code>.
+	 */
+	public static final String DEFAULT_NAME = "j4me.gps.devices";
+
+	/**
+	 * The name of the record store.
+	 */
+	private final String name;
+
+	/**
+	 * Constructs a store.  The record store is only opened when data is
+	 * loaded or saved.
+	 *
+	 * @param name is the name of the record store.
+	 */
+	public RecordStoreDeviceStore (String name)
+	{
+		if ( name == null )
+		{
+			throw new IllegalArgumentException("name cannot be null");
+		}
+
+		this.name = name;
+	}
+
+	/**
+	 * @see org.j4me.bluetoothgps.DeviceStore#load()
+	 */
+	public byte[] load ()
+		throws IOException
+	{
+		RecordStore store = null;
+
+		try
+		{
+			store = RecordStore.openRecordStore( name, false );
+
+			if ( store.getNumRecords() == 0 )
+			{
+				return null;
+			}
+
+			return store.getRecord( 1 );
+		}
+		catch (RecordStoreNotFoundException e)
+		{
+			// Nothing has been saved yet.
+			return null;
+		}
+		catch (RecordStoreException e)
+		{
+			throw new IOException( e.toString() );
+		}
+		finally
+		{
+			close( store );
+		}
+	}
+
+	/**
+	 * @see org.j4me.bluetoothgps.DeviceStore#save(byte[])
+	 */
+	public void save (byte[] data)
+		throws IOException
+	{
+		RecordStore store = null;
+
+		try
+		{
+			store = RecordStore.openRecordStore( name, true );
+
+			if ( store.getNumRecords() == 0 )
+			{
+				store.addRecord( data, 0, data.length );
+			}
+			else
+			{
+				store.setRecord( 1, data, 0, data.length );
+			}
+		}
+		catch (RecordStoreException e)
+		{
+			throw new IOException( e.toString() );
+		}
+		finally
+		{
+			close( store );
+		}
+	}
+
+	/**
+	 * Closes a record store, ignoring errors.
+	 *
+	 * @param store is the record store to close.  It can be <code>null</code>.
+	 */
+	private static void close (RecordStore store)
+	{
+		if ( store != null )
+		{
+			try
+			{
+				store.closeRecordStore();
+			}
+			catch (RecordStoreException e)
+			{
+				// Ignore.  Nothing more can be done.
+			}
+		}
+	}
+}
@@ -0,0 +1,241 @@
+package org.j4me.bluetoothgps;
+
+import java.io.*;
+import javax.microedition.rms.*;
+
+/**
+ * Keeps a track in a MIDP record store.  Each batch is a record so a track
+ * can be read back with <code>openInputStream</code> while it is still
+ * being recorded.
+ *
+ * @see TrackRecorder
+ */
+public class RecordStoreTrackSink
+	implements TrackSink
+{
+	/**
+	 * The name of the record store.
+	 */
+	private final String name;
+
+	/**
+	 * The record store while the track is being written.  It is opened by
+	 * the first batch.
+	 */
+	private RecordStore store;
+
+	/**
+	 * Constructs a sink.  The record store is only opened when the first
+	 * batch is written.
+	 *
+	 * @param name is the name of the record store.  Batches are added to
+	 *  any already in it.
+	 */
+	public RecordStoreTrackSink (String name)
+	{
+		if ( name == null )
+		{
+			throw new IllegalArgumentException("name cannot be null");
+		}
+
+		this.name = name;
+	}
+
+	/**
+	 * @see org.j4me.bluetoothgps.TrackSink#write(byte[], int, int)
+	 */
+	public synchronized void write (byte[] data, int offset, int length)
+		throws IOException
+	{
+		try
+		{
+			if ( store == null )
+			{
+				store = RecordStore.openRecordStore( name, true );
+			}
+
+			store.addRecord( data, offset, length );
+		}
+		catch (RecordStoreException e)
+		{
+			throw new IOException( e.toString() );
+		}
+	}
+
+	/**
+	 * @see org.j4me.bluetoothgps.TrackSink#close()
+	 */
+	public synchronized void close ()
+		throws IOException
+	{
+		if ( store != null )
+		{
+			try
+			{
+				store.closeRecordStore();
+			}
+			catch (RecordStoreException e)
+			{
+				throw new IOException( e.toString() );
+			}
+			finally
+			{
+				store = null;
+			}
+		}
+	}
+
+	/**
+	 * Reads a track back.  The records are read one at a time as the stream
+	 * needs them, so a long track is never all in memory.
+	 *
+	 * @param name is the name of the record store.
+	 * @return A stream of the track for <code>TrackReader</code>.  It is empty
+	 *  if nothing has been recorded.
+	 * @throws IOException if the record store cannot be opened.
+	 */
+	public static InputStream openInputStream (String name)
+		throws IOException
+	{
+		try
+		{
+			return new RecordInputStream( RecordStore.openRecordStore(name, false) );
+		}
+		catch (RecordStoreNotFoundException e)
+		{
+			return new ByteArrayInputStream( new byte[0] );
+		}
+		catch (RecordStoreException e)
+		{
+			throw new IOException( e.toString() );
+		}
+	}
+
+	/**
+	 * Reads the records of a record store in order as one stream.
+	 */
+	private static final class RecordInputStream
+		extends InputStream
+	{
+		/**
+		 * The record store being read.  It is <code>null</code> once closed.
+		 */
+		private RecordStore store;
+
+		/**
+		 * The ID of the next record to read.
+		 */
+		private int nextID = 1;
+
+		/**
+		 * The record being read.
+		 */
+		private byte[] record = new byte[0];
+
+		/**
+		 * The index of the next byte to read in <code>record</code>.
+		 */
+		private int position;
+
+		RecordInputStream (RecordStore store)
+		{
+			this.store = store;
+		}
+
+		public int read ()
+			throws IOException
+		{
+			while ( position >= record.length )
+			{
+				if ( nextRecord() == false )
+				{
+					return -1;
+				}
+			}
+
+			return record[position++] & 0xFF;
+		}
+
+		public int read (byte[] b, int off, int len)
+			throws IOException
+		{
+			while ( position >= record.length )
+			{
+				if ( nextRecord() == false )
+				{
+					return -1;
+				}
+			}
+
+			int count = Math.min( len, record.length - position );
+			System.arraycopy( record, position, b, off, count );
+			position += count;
+			return count;
+		}
+
+		/**
+		 * Moves on to the next record.  Deleted records are skipped.
+		 *
+		 * @return <code>false</code> if there are no more.
+		 * @throws IOException if the record store cannot be read.
+		 */
+		private boolean nextRecord ()
+			throws IOException
+		{
+			if ( store == null )
+			{
+				return false;
+			}
+
+			try
+			{
+				while ( nextID < store.getNextRecordID() )
+				{
+					int id = nextID++;
+
+					try
+					{
+						byte[] data = store.getRecord( id );
+
+						if ( data != null )
+						{
+							record = data;
+							position = 0;
+							return true;
+						}
+					}
+					catch (InvalidRecordIDException e)
+					{
+						// The record was deleted.
+					}
+				}
+
+				return false;
+			}
+			catch (RecordStoreException e)
+			{
+				throw new IOException( e.toString() );
+			}
+		}
+
+		public void close ()
+			throws IOException
+		{
+			if ( store != null )
+			{
+				try
+				{
+					store.closeRecordStore();
+				}
+				catch (RecordStoreException e)
+				{
+					throw new IOException( e.toString() );
+				}
+				finally
+				{
+					store = null;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package org.j4me.bluetoothgps;
+
+import java.io.*;
+import javax.microedition.io.*;
+
+/**
+ * A <code>LocationProvider</code> that replays a recorded NMEA log.  It works
+ * exactly like the Bluetooth GPS provider except the data comes from an
+ * <code>NMEAReplay</code> instead of a device.  Every sentence goes through
+ * the real parser and listener code so it can be used to test and load test
+ * MIDlets on a desktop JVM.
+ * <p>
+ * For example to send a log to a listener ten times faster than it was
+ * recorded:
+ * <pre>
+ *  NMEAReplay replay = NMEAReplay.load( in );
+ *  replay.setSpeed( 10 );
+ *  LocationProvider provider = new ReplayLocationProvider( replay, null );
+ *  provider.setLocationListener( listener, -1, -1, -1 );
+ * </pre>
+ * <p>
+ * Make sure the <code>ReplayLocationProvider</code> is not referenced in
+ * anything but your test code.  Then the obfuscator will remove this class
+ * from the final Jar.
+ *
+ * @see NMEAReplay
+ * @see MockLocationProvider
+ */
+public class ReplayLocationProvider
+	extends BluetoothLocationProvider
+{
+	/**
+	 * The recorded data being played.
+	 */
+	private final NMEAReplay replay;
+
+	/**
+	 * Reads and parses the replayed data.
+	 */
+	private final BluetoothGPS gps;
+
+	/**
+	 * Constructs a provider and starts the replay.
+	 *
+	 * @param replay is the recorded NMEA data to play.
+	 * @param criteria are the application's requirements.  The response time
+	 *  and power usage control how often the data is read.  This may be
+	 *  <code>null</code>.
+	 * @throws IOException if the replay cannot be opened.
+	 */
+	public ReplayLocationProvider (final NMEAReplay replay, Criteria criteria)
+		throws IOException
+	{
+		if ( replay == null )
+		{
+			throw new IllegalArgumentException("replay cannot be null");
+		}
+
+		this.replay = replay;
+		this.gps = new BluetoothGPS( this, "replay", criteria )
+			{
+				protected StreamConnection openConnection ()
+					throws IOException
+				{
+					return replay.openConnection();
+				}
+			};
+
+		start( gps );
+	}
+
+	/**
+	 * @return The recorded data being played.
+	 */
+	public NMEAReplay getReplay ()
+	{
+		return replay;
+	}
+
+	/**
+	 * @return The number of locations delivered from the replay.
+	 */
+	public int getFixCount ()
+	{
+		return gps.getReadScheduler().getFixCount();
+	}
+
+	/**
+	 * Returns the average fix latency.  This is the time from when the data
+	 * for a fix could first be read until the location was delivered.
+	 *
+	 * @return The average fix latency in milliseconds.
+	 */
+	public long getAverageLatency ()
+	{
+		return gps.getReadScheduler().getAverageLatency();
+	}
+
+	/**
+	 * @return The longest fix latency in milliseconds.
+	 */
+	public long getMaxLatency ()
+	{
+		return gps.getReadScheduler().getMaxLatency();
+	}
+}
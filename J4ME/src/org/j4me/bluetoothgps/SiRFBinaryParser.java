@@ -0,0 +1,526 @@
+package org.j4me.bluetoothgps;
+
+/**
+ * Parses the SiRF binary protocol.  SiRF chipsets can send it instead of
+ * NMEA sentences.  The Geodetic Navigation Data message (ID 41) has
+ * everything a GGA, GSA, and RMC do in 91 bytes of binary numbers.  There is
+ * no text to scan or decimal numbers to parse so it takes a fraction of the
+ * data and the work.
+ * <p>
+ * Every message is framed as:
+ * <pre>
+ *    A0 A2  length (2 bytes)  payload  checksum (2 bytes)  B0 B3
+ * </pre>
+ * The length and checksum are big-endian 15 bit numbers.  The checksum is
+ * the sum of the payload bytes.  The first payload byte is the message ID.
+ * <p>
+ * The bytes between frames are passed to a <code>NMEAParser</code>.  NMEA
+ * is plain ASCII so it never has the 0xA0 that starts a frame.  This lets
+ * a device be read while it switches from one protocol to the other, or if
+ * the switch fails and it keeps sending NMEA.
+ * <p>
+ * The protocol is described in the SiRF Binary Protocol Reference Manual:
+ * http://www.usglobalsat.com/downloads/SiRF_Binary_Protocol.pdf
+ *
+ * @see ReceiverConfigurator
+ */
+class SiRFBinaryParser
+{
+	/**
+	 * The type reported to the <code>GPSRecordListener</code> for a Geodetic
+	 * Navigation Data message.  It follows the <code>NMEAParser.TYPE_</code>
+	 * bits.  Like a GPRMC it completes a fix.
+	 */
+	public static final short TYPE_GEODETIC = 64;
+
+	/**
+	 * The ID of the Geodetic Navigation Data message.
+	 */
+	public static final int MESSAGE_GEODETIC = 41;
+
+	/**
+	 * The ID of the input message that switches the device to NMEA.
+	 */
+	public static final int MESSAGE_SWITCH_TO_NMEA = 129;
+
+	/**
+	 * The ID of the input message that sets how often a message is sent.
+	 */
+	public static final int MESSAGE_SET_RATE = 166;
+
+	/**
+	 * The baud rate given to the device when switching protocols.  It is
+	 * what the Bluetooth modems in SiRF devices use.
+	 */
+	public static final int BAUD_RATE = 38400;
+
+	/**
+	 * The largest payload we accept.  Longer frames are corrupt.
+	 */
+	static final int MAX_PAYLOAD = 1023;
+
+	/**
+	 * The length of a Geodetic Navigation Data payload.
+	 */
+	static final int GEODETIC_LENGTH = 91;
+
+	/**
+	 * The bytes that start and end a frame.
+	 */
+	private static final int START1 = 0xA0;
+	private static final int START2 = 0xA2;
+	private static final int END1 = 0xB0;
+	private static final int END2 = 0xB3;
+
+	/**
+	 * The states of the frame decoder.  Each is the byte expected next.
+	 */
+	private static final int WAIT_START1 = 0;
+	private static final int WAIT_START2 = 1;
+	private static final int WAIT_LENGTH_HIGH = 2;
+	private static final int WAIT_LENGTH_LOW = 3;
+	private static final int WAIT_PAYLOAD = 4;
+	private static final int WAIT_CHECKSUM_HIGH = 5;
+	private static final int WAIT_CHECKSUM_LOW = 6;
+	private static final int WAIT_END1 = 7;
+	private static final int WAIT_END2 = 8;
+
+	/**
+	 * Gets the bytes between frames.  May be <code>null</code>.
+	 */
+	private final NMEAParser nmea;
+
+	/**
+	 * The payload being received.
+	 */
+	private final byte[] payload = new byte[MAX_PAYLOAD];
+
+	/**
+	 * The number of payload bytes expected and received.
+	 */
+	private int length;
+	private int received;
+
+	/**
+	 * The checksum sent with the frame and the one calculated.
+	 */
+	private int sentChecksum;
+	private int checksum;
+
+	/**
+	 * What the decoder expects next.
+	 */
+	private int state = WAIT_START1;
+
+	/**
+	 * The fix decoded from the last Geodetic Navigation Data message.  It is
+	 * reused so parsing does not create garbage.
+	 */
+	private final GPSRecord record = new GPSRecord();
+
+	/**
+	 * Notified of each fix.  May be <code>null</code>.
+	 */
+	private GPSRecordListener listener;
+
+	/**
+	 * Statistics.
+	 */
+	private int frameCount;
+	private int errorCount;
+
+	/**
+	 * Constructs a parser.
+	 *
+	 * @param nmea gets the data between frames.  If <code>null</code> it is
+	 *  thrown away.
+	 */
+	public SiRFBinaryParser (NMEAParser nmea)
+	{
+		this.nmea = nmea;
+	}
+
+	/**
+	 * Sets the object notified of each fix.
+	 *
+	 * @param listener is called with <code>TYPE_GEODETIC</code> for every
+	 *  Geodetic Navigation Data message.  If <code>null</code> nothing is
+	 *  notified.
+	 */
+	public void setRecordListener (GPSRecordListener listener)
+	{
+		this.listener = listener;
+	}
+
+	/**
+	 * Forgets any partially received frame or sentence.
+	 */
+	public void flush ()
+	{
+		state = WAIT_START1;
+
+		if ( nmea != null )
+		{
+			nmea.flush();
+		}
+	}
+
+	/**
+	 * @return The number of frames received with a good checksum.
+	 */
+	public int getFrameCount ()
+	{
+		return frameCount;
+	}
+
+	/**
+	 * @return The number of frames thrown away because they were corrupt.
+	 */
+	public int getErrorCount ()
+	{
+		return errorCount;
+	}
+
+	/**
+	 * Parses data from the device.  It may start or stop anywhere within a
+	 * frame or sentence.
+	 *
+	 * @param data holds the data.
+	 * @param offset is the index of the first byte to parse.
+	 * @param size is the number of bytes to parse.
+	 * @return The <code>TYPE_</code> bits of the messages and sentences parsed.
+	 */
+	public int parse (byte[] data, int offset, int size)
+	{
+		int types = NMEAParser.TYPE_NONE;
+		int stop = offset + size;
+
+		// The start of the run of bytes between frames.
+		int text = -1;
+
+		for ( int i = offset; i < stop; i++ )
+		{
+			int b = data[i] & 0xFF;
+
+			switch ( state )
+			{
+			case WAIT_START1:
+				if ( b == START1 )
+				{
+					types |= forward( data, text, i );
+					text = -1;
+					state = WAIT_START2;
+				}
+				else if ( text < 0 )
+				{
+					text = i;
+				}
+				break;
+
+			case WAIT_START2:
+				if ( b == START2 )
+				{
+					state = WAIT_LENGTH_HIGH;
+				}
+				else if ( b != START1 )
+				{
+					// It was not a frame.
+					text = i;
+					state = WAIT_START1;
+				}
+				break;
+
+			case WAIT_LENGTH_HIGH:
+				length = (b & 0x7F) << 8;
+				state = WAIT_LENGTH_LOW;
+				break;
+
+			case WAIT_LENGTH_LOW:
+				length |= b;
+				received = 0;
+				checksum = 0;
+
+				if ( (length == 0) || (length > MAX_PAYLOAD) )
+				{
+					errorCount++;
+					state = WAIT_START1;
+				}
+				else
+				{
+					state = WAIT_PAYLOAD;
+				}
+				break;
+
+			case WAIT_PAYLOAD:
+				payload[received++] = (byte)b;
+				checksum += b;
+
+				if ( received == length )
+				{
+					state = WAIT_CHECKSUM_HIGH;
+				}
+				break;
+
+			case WAIT_CHECKSUM_HIGH:
+				sentChecksum = (b & 0x7F) << 8;
+				state = WAIT_CHECKSUM_LOW;
+				break;
+
+			case WAIT_CHECKSUM_LOW:
+				sentChecksum |= b;
+				state = WAIT_END1;
+				break;
+
+			case WAIT_END1:
+				state = (b == END1) ? WAIT_END2 : WAIT_START1;
+
+				if ( state == WAIT_START1 )
+				{
+					errorCount++;
+				}
+				break;
+
+			case WAIT_END2:
+				state = WAIT_START1;
+
+				if ( (b == END2) && (sentChecksum == (checksum & 0x7FFF)) )
+				{
+					frameCount++;
+					types |= processMessage();
+				}
+				else
+				{
+					errorCount++;
+				}
+				break;
+			}
+		}
+
+		types |= forward( data, text, stop );
+		return types;
+	}
+
+	/**
+	 * Passes the bytes between frames to the NMEA parser.
+	 *
+	 * @param data holds the bytes.
+	 * @param start is the index of the first byte or -1 if there are none.
+	 * @param stop is one past the last byte.
+	 * @return The types of the sentences parsed.
+	 */
+	private int forward (byte[] data, int start, int stop)
+	{
+		if ( (nmea == null) || (start < 0) || (start >= stop) )
+		{
+			return NMEAParser.TYPE_NONE;
+		}
+
+		return nmea.parse( data, start, stop - start );
+	}
+
+	/**
+	 * Decodes the message in <code>payload</code>.  Only Geodetic Navigation
+	 * Data messages are used.
+	 *
+	 * @return The type of the message or <code>TYPE_NONE</code> if it is not
+	 *  used.
+	 */
+	private int processMessage ()
+	{
+		int id = payload[0] & 0xFF;
+
+		if ( (id != MESSAGE_GEODETIC) || (length < GEODETIC_LENGTH) )
+		{
+			return NMEAParser.TYPE_NONE;
+		}
+
+		// A navigation valid field of 0 means the fix is good.  Bit 7 of
+		// the navigation type means differential corrections were used.
+		int navValid = u2( 1 );
+		int navType = u2( 3 );
+
+		if ( navValid != 0 )
+		{
+			record.quality = 0;
+		}
+		else
+		{
+			record.quality = ((navType & 0x80) != 0) ? 2 : 1;
+		}
+
+		// The UTC time.  Seconds are in milliseconds.
+		int year = u2( 11 );
+		int month = payload[13] & 0xFF;
+		int day = payload[14] & 0xFF;
+		int hour = payload[15] & 0xFF;
+		int minute = payload[16] & 0xFF;
+		int millis = u2( 17 );
+
+		if ( (month >= 1) && (month <= 12) && (day >= 1) && (day <= 31) )
+		{
+			record.millisSinceMidnight = (hour * 60 + minute) * 60000 + millis;
+			record.date = day * 10000 + month * 100 + year % 100;
+			record.timestamp = NMEAParser.toEpochDay( year, month, day ) * NMEAParser.MILLIS_PER_DAY +
+				record.millisSinceMidnight;
+		}
+		else
+		{
+			record.millisSinceMidnight = -1;
+			record.date = -1;
+			record.timestamp = -1;
+		}
+
+		// Degrees times 10^7.
+		record.lattitude = s4( 23 ) * 0.0000001;
+		record.longitude = s4( 27 ) * 0.0000001;
+		record.lattitudeDirection = (record.lattitude < 0) ? 'S' : 'N';
+		record.longitudeDirection = (record.longitude < 0) ? 'W' : 'E';
+
+		// Meters above mean sea level times 100.
+		record.altitude = s4( 35 ) * 0.01f;
+
+		// Meters per second and degrees times 100.  The record has knots
+		// like NMEA.
+		record.speed = u2( 40 ) * 0.01f / BluetoothGPS.MS_PER_KNOT;
+		record.course = u2( 42 ) * 0.01f;
+
+		// HDOP is times 5.  There is no VDOP but the estimated errors are in
+		// the same ratio as the DOPs.
+		record.satelliteCount = payload[88] & 0xFF;
+		record.hdop = (payload[89] & 0xFF) * 0.2f;
+
+		long horizontalError = u4( 50 );
+		long verticalError = u4( 54 );
+
+		if ( horizontalError > 0 )
+		{
+			record.vdop = record.hdop * verticalError / horizontalError;
+		}
+		else
+		{
+			record.vdop = record.hdop;
+		}
+
+		if ( listener != null )
+		{
+			listener.recordParsed( record, TYPE_GEODETIC );
+		}
+
+		return TYPE_GEODETIC;
+	}
+
+	/**
+	 * @param index is where the number starts in <code>payload</code>.
+	 * @return The unsigned 2 byte big-endian number.
+	 */
+	private int u2 (int index)
+	{
+		return ((payload[index] & 0xFF) << 8) | (payload[index + 1] & 0xFF);
+	}
+
+	/**
+	 * @param index is where the number starts in <code>payload</code>.
+	 * @return The signed 4 byte big-endian number.
+	 */
+	private int s4 (int index)
+	{
+		return ((payload[index] & 0xFF) << 24) | ((payload[index + 1] & 0xFF) << 16) |
+			((payload[index + 2] & 0xFF) << 8) | (payload[index + 3] & 0xFF);
+	}
+
+	/**
+	 * @param index is where the number starts in <code>payload</code>.
+	 * @return The unsigned 4 byte big-endian number.
+	 */
+	private long u4 (int index)
+	{
+		return s4( index ) & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Frames a message so it can be sent to the device.
+	 *
+	 * @param message is the payload.  The first byte is the message ID.
+	 * @return The frame.
+	 */
+	public static byte[] createFrame (byte[] message)
+	{
+		int sum = 0;
+
+		for ( int i = 0; i < message.length; i++ )
+		{
+			sum += message[i] & 0xFF;
+		}
+
+		sum &= 0x7FFF;
+
+		byte[] frame = new byte[message.length + 8];
+		frame[0] = (byte)START1;
+		frame[1] = (byte)START2;
+		frame[2] = (byte)(message.length >> 8);
+		frame[3] = (byte)message.length;
+		System.arraycopy( message, 0, frame, 4, message.length );
+		frame[message.length + 4] = (byte)(sum >> 8);
+		frame[message.length + 5] = (byte)sum;
+		frame[message.length + 6] = (byte)END1;
+		frame[message.length + 7] = (byte)END2;
+		return frame;
+	}
+
+	/**
+	 * Creates the NMEA sentence that switches a SiRF device to the binary
+	 * protocol.  It is "$PSRF100" with a protocol of 0.
+	 *
+	 * @return The sentence.
+	 */
+	public static byte[] createSwitchToBinary ()
+	{
+		return BluetoothGPS.createSentence( "PSRF100,0," + BAUD_RATE + ",8,1,0" );
+	}
+
+	/**
+	 * Creates the messages that make the device send only Geodetic Navigation
+	 * Data.  By default it also sends tracking and measurement messages we
+	 * do not use.
+	 *
+	 * @return The frames to send.
+	 */
+	public static byte[] createGeodeticOnly ()
+	{
+		// Set Message Rate:  mode 2 sets every message, mode 0 sets one.
+		byte[] none = createFrame( new byte[] { (byte)MESSAGE_SET_RATE, 2, 0, 0, 0, 0, 0, 0 } );
+		byte[] geodetic = createFrame( new byte[] { (byte)MESSAGE_SET_RATE, 0, MESSAGE_GEODETIC, 1, 0, 0, 0, 0 } );
+
+		byte[] frames = new byte[none.length + geodetic.length];
+		System.arraycopy( none, 0, frames, 0, none.length );
+		System.arraycopy( geodetic, 0, frames, none.length, geodetic.length );
+		return frames;
+	}
+
+	/**
+	 * Creates the message that switches the device back to NMEA.  It sends
+	 * GGA, GSA, and RMC once a second.
+	 *
+	 * @return The frame.
+	 */
+	public static byte[] createSwitchToNMEA ()
+	{
+		byte[] message = {
+				(byte)MESSAGE_SWITCH_TO_NMEA,
+				2,     // Do not change the debug messages
+				1, 1,  // GGA every second with a checksum
+				0, 1,  // GLL off
+				1, 1,  // GSA
+				0, 1,  // GSV off
+				1, 1,  // RMC
+				0, 1,  // VTG off
+				0, 1,  // MSS off
+				0, 0,  // Unused
+				0, 1,  // ZDA off
+				0, 0,  // Unused
+				(byte)(BAUD_RATE >> 8), (byte)BAUD_RATE,
+			};
+
+		return createFrame( message );
+	}
+}
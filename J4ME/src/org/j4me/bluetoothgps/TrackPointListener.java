@@ -0,0 +1,22 @@
+package org.j4me.bluetoothgps;
+
+/**
+ * Receives the points of a track one at a time.  <code>TrackSimplifier</code>
+ * sends the points it keeps to one and <code>TrackRecorder</code> is one, so
+ * a simplified track can be recorded or drawn as it is made.
+ *
+ * @see TrackSimplifier
+ */
+public interface TrackPointListener
+{
+	/**
+	 * Called with each point in order.
+	 *
+	 * @param latitude is the latitude in degrees.
+	 * @param longitude is the longitude in degrees.
+	 * @param timestamp is when the point was recorded.
+	 * @param accuracy is the horizontal accuracy in meters or <code>Float.NaN</code>
+	 *  if it is not known.
+	 */
+	public void pointKept (double latitude, double longitude, long timestamp, float accuracy);
+}
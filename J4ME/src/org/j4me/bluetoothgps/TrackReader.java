@@ -0,0 +1,252 @@
+package org.j4me.bluetoothgps;
+
+import java.io.*;
+
+/**
+ * Reads back a track written by <code>TrackRecorder</code>.  It reads one
+ * batch at a time so a track of any length can be replayed in a small,
+ * fixed amount of memory:
+ * <pre>
+ *  TrackReader reader = new TrackReader( RecordStoreTrackSink.openInputStream("trip") );
+ *  while ( reader.next() )
+ *  {
+ *     draw( reader.getLatitude(), reader.getLongitude() );
+ *  }
+ *  reader.close();
+ * </pre>
+ * <p>
+ * A track whose last batch was cut short, for example because the
+ * application was killed while writing it, ends at the last complete batch.
+ *
+ * @see TrackRecorder
+ */
+public class TrackReader
+{
+	/**
+	 * The track being read.
+	 */
+	private final DataInputStream in;
+
+	/**
+	 * The batch being read.
+	 */
+	private final byte[] batch = new byte[TrackRecorder.BATCH_SIZE];
+
+	/**
+	 * The number of bytes in <code>batch</code> after its length.
+	 */
+	private int length;
+
+	/**
+	 * The index of the next byte to read in <code>batch</code>.
+	 */
+	private int position;
+
+	/**
+	 * The current fix.
+	 */
+	private int latitude;
+	private int longitude;
+	private long timestamp;
+	private int accuracy;
+
+	/**
+	 * The number of fixes read.
+	 */
+	private int fixCount;
+
+	/**
+	 * Constructs a reader.
+	 *
+	 * @param in is the track.  It is closed by <code>close</code>.
+	 */
+	public TrackReader (InputStream in)
+	{
+		if ( in == null )
+		{
+			throw new IllegalArgumentException("in cannot be null");
+		}
+
+		this.in = new DataInputStream( in );
+	}
+
+	/**
+	 * Moves to the next fix.
+	 *
+	 * @return <code>true</code> if there is one; <code>false</code> at the
+	 *  end of the track.
+	 * @throws IOException if the track cannot be read or is not a track.
+	 */
+	public boolean next ()
+		throws IOException
+	{
+		if ( position < length )
+		{
+			latitude += (int)unzigzag( readVarint() );
+			longitude += (int)unzigzag( readVarint() );
+			timestamp += unzigzag( readVarint() );
+		}
+		else if ( readBatch() )
+		{
+			latitude = readInt();
+			longitude = readInt();
+			timestamp = ((long)readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+		}
+		else
+		{
+			return false;
+		}
+
+		accuracy = readByte();
+		fixCount++;
+		return true;
+	}
+
+	/**
+	 * @return The current fix's latitude in degrees.
+	 */
+	public double getLatitude ()
+	{
+		return latitude / TrackRecorder.SCALE;
+	}
+
+	/**
+	 * @return The current fix's longitude in degrees.
+	 */
+	public double getLongitude ()
+	{
+		return longitude / TrackRecorder.SCALE;
+	}
+
+	/**
+	 * @return When the current fix was taken.
+	 */
+	public long getTimestamp ()
+	{
+		return timestamp;
+	}
+
+	/**
+	 * @return The current fix's horizontal accuracy to the nearest meter or
+	 *  <code>Float.NaN</code> if it was not known.
+	 */
+	public float getAccuracy ()
+	{
+		return (accuracy == TrackRecorder.UNKNOWN_ACCURACY) ? Float.NaN : accuracy;
+	}
+
+	/**
+	 * @return The number of fixes read so far.
+	 */
+	public int getFixCount ()
+	{
+		return fixCount;
+	}
+
+	/**
+	 * Closes the track.
+	 *
+	 * @throws IOException if the stream cannot be closed.
+	 */
+	public void close ()
+		throws IOException
+	{
+		in.close();
+	}
+
+	/**
+	 * Reads the next batch into <code>batch</code>.
+	 *
+	 * @return <code>false</code> if there are no more complete batches.
+	 * @throws IOException if the track cannot be read or is not a track.
+	 */
+	private boolean readBatch ()
+		throws IOException
+	{
+		try
+		{
+			int size = in.readUnsignedShort();
+
+			if ( size > batch.length )
+			{
+				throw new IOException("Track batch too long:  " + size);
+			}
+
+			in.readFully( batch, 0, size );
+			length = size;
+			position = 0;
+		}
+		catch (EOFException e)
+		{
+			// The end of the track or a batch cut short.
+			length = 0;
+			position = 0;
+			return false;
+		}
+
+		if ( readByte() != TrackRecorder.FORMAT )
+		{
+			throw new IOException("Unknown track format");
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return The next byte of the batch as an unsigned value.
+	 * @throws IOException if the batch has no more bytes.
+	 */
+	private int readByte ()
+		throws IOException
+	{
+		if ( position >= length )
+		{
+			throw new IOException("Corrupt track");
+		}
+
+		return batch[position++] & 0xFF;
+	}
+
+	/**
+	 * @return The next 4 byte integer of the batch.
+	 * @throws IOException if the batch has no more bytes.
+	 */
+	private int readInt ()
+		throws IOException
+	{
+		return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+	}
+
+	/**
+	 * @return The next variable length integer of the batch.
+	 * @throws IOException if the batch ends part way through it.
+	 */
+	private long readVarint ()
+		throws IOException
+	{
+		long value = 0;
+		int shift = 0;
+		int b;
+
+		do
+		{
+			b = readByte();
+			value |= (long)(b & 0x7F) << shift;
+			shift += 7;
+		}
+		while ( (b & 0x80) != 0 );
+
+		return value;
+	}
+
+	/**
+	 * Undoes <code>TrackRecorder.zigzag</code>.
+	 *
+	 * @param value is the value read.
+	 * @return The signed integer.
+	 */
+	static long unzigzag (long value)
+	{
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
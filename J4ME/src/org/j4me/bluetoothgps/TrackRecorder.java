@@ -0,0 +1,532 @@
+package org.j4me.bluetoothgps;
+
+import java.io.*;
+import java.util.*;
+import org.j4me.logging.*;
+
+/**
+ * Records the locations from a <code>LocationProvider</code> to a
+ * <code>TrackSink</code> in a compact binary format.  Register it as a
+ * location listener for as long as the trip lasts and close it at the end:
+ * <pre>
+ *  TrackRecorder recorder = new TrackRecorder( new RecordStoreTrackSink("trip") );
+ *  provider.addLocationListener( recorder, 1, 0 );
+ *  ...
+ *  provider.removeLocationListener( recorder );
+ *  recorder.close();
+ * </pre>
+ * <p>
+ * Each fix is stored as the change from the one before:  latitude and
+ * longitude in millionths of a degree (about 10 cm) and the time in
+ * milliseconds, each as a variable length integer, plus the horizontal
+ * accuracy rounded to the meter.  A fix a second at walking or driving
+ * speeds takes 5 to 7 bytes.  Altitude, speed and course are not kept;
+ * speed and course can be worked out from the fixes either side.
+ * <p>
+ * Fixes are collected into batches of up to <code>BATCH_SIZE</code> bytes.
+ * Each batch starts with a complete fix so a batch lost or cut short does
+ * not spoil the rest of the track.  A batch is handed to the sink when it
+ * is full, when it has been open for the flush interval even if no more
+ * fixes arrive, or on <code>flush</code> and <code>close</code>.  The sink is written by the
+ * recorder's own thread so the location listener only ever spends the time
+ * it takes to encode a fix.
+ * <p>
+ * Read a track back with <code>TrackReader</code>.  To store fewer points
+ * send the locations through a <code>TrackSimplifier</code> first; the
+ * recorder is also a <code>TrackPointListener</code>.
+ *
+ * @see TrackReader
+ * @see TrackSimplifier
+ * @see TrackSink
+ */
+public class TrackRecorder
+	implements LocationListener, TrackPointListener
+{
+	/**
+	 * The most bytes in a batch.
+	 */
+	public static final int BATCH_SIZE = 512;
+
+	/**
+	 * The default milliseconds a batch is kept before it is written even
+	 * if it is not full.  It is the most of a track lost if the
+	 * application is killed.
+	 */
+	public static final long FLUSH_INTERVAL = 60 * 1000;
+
+	/**
+	 * The version of the format written at the start of each batch.
+	 */
+	static final int FORMAT = 1;
+
+	/**
+	 * Latitudes and longitudes are stored as degrees times this.
+	 */
+	static final double SCALE = 1000000.0;
+
+	/**
+	 * The accuracy stored when it is not known.
+	 */
+	static final int UNKNOWN_ACCURACY = 255;
+
+	/**
+	 * The bytes before the first fix in a batch:  its length and format.
+	 */
+	static final int BATCH_HEADER_SIZE = 3;
+
+	/**
+	 * The most bytes a fix can take after the first in a batch.  Each
+	 * coordinate can take 5 bytes, the time 10 and the accuracy 1.
+	 */
+	private static final int MAX_DELTA_SIZE = 5 + 5 + 10 + 1;
+
+	/**
+	 * Where the batches are written.
+	 */
+	private final TrackSink sink;
+
+	/**
+	 * The milliseconds a batch is kept before being written.
+	 */
+	private final long flushInterval;
+
+	/**
+	 * The batch being filled.  The first two bytes are its length and are
+	 * filled in when it is finished.
+	 */
+	private byte[] batch = new byte[BATCH_SIZE];
+
+	/**
+	 * The number of bytes used in <code>batch</code>.  It is 0 when the
+	 * next fix starts a new batch.
+	 */
+	private int length;
+
+	/**
+	 * When the current batch was started according to <code>System.currentTimeMillis</code>.
+	 */
+	private long batchStart;
+
+	/**
+	 * The last fix written.  The next is stored as the change from it.
+	 */
+	private int lastLatitude;
+	private int lastLongitude;
+	private long lastTimestamp;
+
+	/**
+	 * Finished batches waiting for the writer thread.
+	 */
+	private final Vector queue = new Vector();
+
+	/**
+	 * Written batches kept to be filled again.
+	 */
+	private final Vector spares = new Vector();
+
+	/**
+	 * The thread that writes to the sink.  It is <code>null</code> once it
+	 * has written the last batch after <code>close</code>.
+	 */
+	private Thread writer;
+
+	/**
+	 * Set by <code>close</code>.
+	 */
+	private boolean closed;
+
+	/**
+	 * The last error writing to the sink.
+	 */
+	private IOException error;
+
+	/**
+	 * Statistics.
+	 */
+	private int fixCount;
+	private long byteCount;
+
+	/**
+	 * Constructs a recorder that writes batches at least every
+	 * <code>FLUSH_INTERVAL</code>.
+	 *
+	 * @param sink is where the track is written.
+	 */
+	public TrackRecorder (TrackSink sink)
+	{
+		this( sink, FLUSH_INTERVAL );
+	}
+
+	/**
+	 * Constructs a recorder.
+	 *
+	 * @param sink is where the track is written.
+	 * @param flushInterval is the most milliseconds fixes are kept before
+	 *  they are written.
+	 */
+	public TrackRecorder (TrackSink sink, long flushInterval)
+	{
+		if ( sink == null )
+		{
+			throw new IllegalArgumentException("sink cannot be null");
+		}
+
+		this.sink = sink;
+		this.flushInterval = flushInterval;
+
+		writer = new Thread( new Writer() );
+		writer.start();
+	}
+
+	/**
+	 * Records a location.  Invalid locations are ignored.
+	 *
+	 * @see org.j4me.bluetoothgps.LocationListener#locationUpdated(org.j4me.bluetoothgps.LocationProvider, org.j4me.bluetoothgps.Location)
+	 */
+	public void locationUpdated (LocationProvider provider, Location location)
+	{
+		if ( (location == null) || (location.isValid() == false) )
+		{
+			return;
+		}
+
+		QualifiedCoordinates coordinates = location.getQualifiedCoordinates();
+
+		record(
+			coordinates.getLatitude(),
+			coordinates.getLongitude(),
+			location.getTimestamp(),
+			coordinates.getHorizontalAccuracy() );
+	}
+
+	/**
+	 * Does nothing.  A gap in the track shows where the provider was not
+	 * available.
+	 *
+	 * @see org.j4me.bluetoothgps.LocationListener#providerStateChanged(org.j4me.bluetoothgps.LocationProvider, int)
+	 */
+	public void providerStateChanged (LocationProvider provider, int newState)
+	{
+	}
+
+	/**
+	 * Records a point kept by a <code>TrackSimplifier</code>.
+	 *
+	 * @see org.j4me.bluetoothgps.TrackPointListener#pointKept(double, double, long, float)
+	 */
+	public void pointKept (double latitude, double longitude, long timestamp, float accuracy)
+	{
+		record( latitude, longitude, timestamp, accuracy );
+	}
+
+	/**
+	 * Records a fix.  It is ignored once the recorder is closed.
+	 *
+	 * @param latitude is the latitude in degrees.
+	 * @param longitude is the longitude in degrees.
+	 * @param timestamp is when the fix was taken.
+	 * @param accuracy is the horizontal accuracy in meters or <code>Float.NaN</code>
+	 *  if it is not known.
+	 */
+	public synchronized void record (double latitude, double longitude, long timestamp, float accuracy)
+	{
+		if ( closed )
+		{
+			return;
+		}
+
+		int lat = toFixed( latitude );
+		int lon = toFixed( longitude );
+		long now = System.currentTimeMillis();
+
+		// Finish the batch if this fix might not fit or it has waited long enough.
+		if ( (length > 0) &&
+			 ((length + MAX_DELTA_SIZE > BATCH_SIZE) || (now - batchStart >= flushInterval)) )
+		{
+			finishBatch();
+		}
+
+		if ( length == 0 )
+		{
+			// Start a new batch with the whole fix.
+			length = 2;  // Leave room for the length
+			batch[length++] = (byte)FORMAT;
+			writeInt( lat );
+			writeInt( lon );
+			writeInt( (int)(timestamp >> 32) );
+			writeInt( (int)timestamp );
+			batchStart = now;
+
+			// The writer finishes it after the flush interval.
+			notifyAll();
+		}
+		else
+		{
+			writeVarint( zigzag(lat - lastLatitude) );
+			writeVarint( zigzag(lon - lastLongitude) );
+			writeVarint( zigzag(timestamp - lastTimestamp) );
+		}
+
+		batch[length++] = (byte)quantizeAccuracy( accuracy );
+
+		lastLatitude = lat;
+		lastLongitude = lon;
+		lastTimestamp = timestamp;
+		fixCount++;
+	}
+
+	/**
+	 * Hands the fixes recorded so far to the writer thread.  It returns
+	 * without waiting for them to be written.
+	 */
+	public synchronized void flush ()
+	{
+		if ( length > 0 )
+		{
+			finishBatch();
+		}
+	}
+
+	/**
+	 * Writes the remaining fixes and closes the sink.  It waits for the
+	 * writer thread to finish.  Closing a closed recorder does nothing.
+	 *
+	 * @throws IOException if any batch could not be written or the sink
+	 *  could not be closed.
+	 */
+	public void close ()
+		throws IOException
+	{
+		synchronized ( this )
+		{
+			if ( closed )
+			{
+				return;
+			}
+
+			flush();
+			closed = true;
+			notifyAll();
+
+			try
+			{
+				while ( writer != null )
+				{
+					wait();
+				}
+			}
+			catch (InterruptedException e)
+			{
+				throw new InterruptedIOException("Interrupted closing the track");
+			}
+		}
+
+		sink.close();
+
+		if ( error != null )
+		{
+			throw error;
+		}
+	}
+
+	/**
+	 * @return The number of fixes recorded.
+	 */
+	public synchronized int getFixCount ()
+	{
+		return fixCount;
+	}
+
+	/**
+	 * @return The number of bytes in the batches finished so far.
+	 */
+	public synchronized long getByteCount ()
+	{
+		return byteCount;
+	}
+
+	/**
+	 * @return The number of batches waiting to be written.
+	 */
+	public synchronized int getPendingCount ()
+	{
+		return queue.size();
+	}
+
+	/**
+	 * Queues the current batch for the writer and starts another.
+	 */
+	private void finishBatch ()
+	{
+		int size = length - 2;
+		batch[0] = (byte)(size >> 8);
+		batch[1] = (byte)size;
+
+		queue.addElement( batch );
+		byteCount += length;
+		notifyAll();
+
+		if ( spares.isEmpty() )
+		{
+			batch = new byte[BATCH_SIZE];
+		}
+		else
+		{
+			batch = (byte[])spares.lastElement();
+			spares.removeElementAt( spares.size() - 1 );
+		}
+
+		length = 0;
+	}
+
+	/**
+	 * Adds a 4 byte integer, most significant byte first, to the batch.
+	 *
+	 * @param value is the integer to add.
+	 */
+	private void writeInt (int value)
+	{
+		batch[length++] = (byte)(value >> 24);
+		batch[length++] = (byte)(value >> 16);
+		batch[length++] = (byte)(value >> 8);
+		batch[length++] = (byte)value;
+	}
+
+	/**
+	 * Adds a variable length integer to the batch.  Each byte holds 7 bits,
+	 * least significant first, and has its high bit set if more follow.
+	 *
+	 * @param value is the integer to add.  It is treated as unsigned.
+	 */
+	private void writeVarint (long value)
+	{
+		while ( (value & ~0x7FL) != 0 )
+		{
+			batch[length++] = (byte)((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+
+		batch[length++] = (byte)value;
+	}
+
+	/**
+	 * Maps signed integers to unsigned ones so small changes either way
+	 * take few bytes:  0, -1, 1, -2, 2 become 0, 1, 2, 3, 4.
+	 *
+	 * @param value is the signed integer.
+	 * @return The value to write.
+	 */
+	static long zigzag (long value)
+	{
+		return (value << 1) ^ (value >> 63);
+	}
+
+	/**
+	 * @param degrees is a latitude or longitude.
+	 * @return It in millionths of a degree.
+	 */
+	static int toFixed (double degrees)
+	{
+		return (int)Math.floor( degrees * SCALE + 0.5 );
+	}
+
+	/**
+	 * @param accuracy is an accuracy in meters or <code>Float.NaN</code>.
+	 * @return It rounded to the meter and capped so it fits in a byte.
+	 */
+	static int quantizeAccuracy (float accuracy)
+	{
+		if ( Float.isNaN(accuracy) )
+		{
+			return UNKNOWN_ACCURACY;
+		}
+
+		int meters = (int)(accuracy + 0.5f);
+		return Math.max( 0, Math.min(meters, UNKNOWN_ACCURACY - 1) );
+	}
+
+	/**
+	 * Writes the queued batches to the sink.  It also finishes a batch
+	 * that has been open for the flush interval so fixes are written even
+	 * when no more arrive, for example when the provider loses its fix.
+	 */
+	private final class Writer
+		implements Runnable
+	{
+		public void run ()
+		{
+			while ( true )
+			{
+				byte[] data;
+
+				synchronized ( TrackRecorder.this )
+				{
+					try
+					{
+						while ( queue.isEmpty() && (closed == false) )
+						{
+							if ( length == 0 )
+							{
+								TrackRecorder.this.wait();
+								continue;
+							}
+
+							long remaining = batchStart + flushInterval - System.currentTimeMillis();
+
+							if ( remaining > 0 )
+							{
+								TrackRecorder.this.wait( remaining );
+							}
+							else
+							{
+								finishBatch();
+							}
+						}
+					}
+					catch (InterruptedException e)
+					{
+						// Write what is left and stop.
+						closed = true;
+					}
+
+					if ( queue.isEmpty() )
+					{
+						writer = null;
+						TrackRecorder.this.notifyAll();
+						return;
+					}
+
+					data = (byte[])queue.elementAt( 0 );
+					queue.removeElementAt( 0 );
+				}
+
+				// Write without holding the lock so fixes can be recorded
+				// while the sink is slow.
+				int size = ((data[0] & 0xFF) << 8) | (data[1] & 0xFF);
+
+				try
+				{
+					sink.write( data, 0, size + 2 );
+				}
+				catch (IOException e)
+				{
+					Log.warn("Could not write track", e);
+
+					synchronized ( TrackRecorder.this )
+					{
+						error = e;
+					}
+				}
+
+				synchronized ( TrackRecorder.this )
+				{
+					// One spare is enough unless the sink falls behind.
+					if ( spares.size() < 2 )
+					{
+						spares.addElement( data );
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,495 @@
+package org.j4me.bluetoothgps;
+
+/**
+ * Removes points from a track that do not change its shape.  A fix a
+ * second makes tens of thousands of points on a long trip.  Most lie on
+ * nearly straight lines and drawing or storing them is wasted effort.
+ * <p>
+ * Two methods are used, each with a tolerance in meters:
+ * <ul>
+ *  <li><i>Radial distance</i> - a point closer than the radial tolerance to
+ *      the last point kept is dropped.  It is cheap and removes the jitter
+ *      of a GPS that is standing still.
+ *  <li><i>Douglas-Peucker</i> - a point is dropped when it is within the
+ *      tolerance of the line between the points kept either side of it.
+ *      So, apart from the points the radial filter drops, the simplified
+ *      track is never further than the tolerance from the original.
+ * </ul>
+ * <p>
+ * Points are fed in as they arrive, by registering the simplifier as a
+ * <code>LocationListener</code> or calling <code>add</code>, and the points
+ * kept are passed on to a <code>TrackPointListener</code> such as a
+ * <code>TrackRecorder</code>.  Douglas-Peucker needs the points either side
+ * so incoming points are held in a window of fixed size.  When it fills the
+ * window is simplified and the points kept up to the last one before the
+ * end are passed on; the rest stay for the next window.  Call
+ * <code>flush</code> at the end of the track to pass on the rest.
+ * <p>
+ * Tracks that are already recorded can be simplified in one go with
+ * <code>simplify</code>.
+ *
+ * @see TrackPointListener
+ */
+public class TrackSimplifier
+	implements LocationListener
+{
+	/**
+	 * The default number of points held for Douglas-Peucker.
+	 */
+	public static final int WINDOW = 64;
+
+	/**
+	 * Where the points kept go.
+	 */
+	private final TrackPointListener listener;
+
+	/**
+	 * The most meters a point can be from the simplified track.
+	 */
+	private final float tolerance;
+
+	/**
+	 * Points closer than this to the last point are dropped.
+	 */
+	private final float radialTolerance;
+
+	/**
+	 * The points held.  The first is the last point passed on.
+	 */
+	private final double[] latitudes;
+	private final double[] longitudes;
+	private final long[] timestamps;
+	private final float[] accuracies;
+
+	/**
+	 * The number of points held.
+	 */
+	private int count;
+
+	/**
+	 * Which held points Douglas-Peucker keeps.
+	 */
+	private final boolean[] keep;
+
+	/**
+	 * Work space for Douglas-Peucker.
+	 */
+	private final int[] stack;
+
+	/**
+	 * The last point added if it was dropped by the radial filter.  It is
+	 * kept at the end of the track so the track ends where it should.
+	 */
+	private boolean dropped;
+	private double droppedLatitude;
+	private double droppedLongitude;
+	private long droppedTimestamp;
+	private float droppedAccuracy;
+
+	/**
+	 * Statistics.
+	 */
+	private int inputCount;
+	private int outputCount;
+
+	/**
+	 * Constructs a simplifier that uses the same tolerance for both
+	 * methods and the default window.
+	 *
+	 * @param listener gets the points kept.
+	 * @param tolerance is the most meters a point can be from the
+	 *  simplified track.
+	 */
+	public TrackSimplifier (TrackPointListener listener, float tolerance)
+	{
+		this( listener, tolerance, tolerance, WINDOW );
+	}
+
+	/**
+	 * Constructs a simplifier.
+	 *
+	 * @param listener gets the points kept.
+	 * @param tolerance is the most meters a point can be from the
+	 *  simplified track.
+	 * @param radialTolerance is the meters a point must be from the last to
+	 *  be considered.  0 turns the radial filter off.
+	 * @param window is the most points held.  Larger windows remove more
+	 *  points but delay them longer and use more memory.  It must be at
+	 *  least 3.
+	 */
+	public TrackSimplifier (TrackPointListener listener, float tolerance, float radialTolerance, int window)
+	{
+		if ( listener == null )
+		{
+			throw new IllegalArgumentException("listener cannot be null");
+		}
+
+		if ( window < 3 )
+		{
+			throw new IllegalArgumentException("window must be at least 3");
+		}
+
+		this.listener = listener;
+		this.tolerance = tolerance;
+		this.radialTolerance = radialTolerance;
+
+		latitudes = new double[window];
+		longitudes = new double[window];
+		timestamps = new long[window];
+		accuracies = new float[window];
+		keep = new boolean[window];
+		stack = new int[2 * window];
+	}
+
+	/**
+	 * Adds a location to the track.  Invalid locations are ignored.
+	 *
+	 * @see org.j4me.bluetoothgps.LocationListener#locationUpdated(org.j4me.bluetoothgps.LocationProvider, org.j4me.bluetoothgps.Location)
+	 */
+	public void locationUpdated (LocationProvider provider, Location location)
+	{
+		if ( (location == null) || (location.isValid() == false) )
+		{
+			return;
+		}
+
+		QualifiedCoordinates coordinates = location.getQualifiedCoordinates();
+
+		add(
+			coordinates.getLatitude(),
+			coordinates.getLongitude(),
+			location.getTimestamp(),
+			coordinates.getHorizontalAccuracy() );
+	}
+
+	/**
+	 * Does nothing.
+	 *
+	 * @see org.j4me.bluetoothgps.LocationListener#providerStateChanged(org.j4me.bluetoothgps.LocationProvider, int)
+	 */
+	public void providerStateChanged (LocationProvider provider, int newState)
+	{
+	}
+
+	/**
+	 * Adds the next point of the track.  The very first point is always
+	 * kept and passed on right away.
+	 *
+	 * @param latitude is the latitude in degrees.
+	 * @param longitude is the longitude in degrees.
+	 * @param timestamp is when the point was recorded.
+	 * @param accuracy is the horizontal accuracy in meters or <code>Float.NaN</code>.
+	 */
+	public synchronized void add (double latitude, double longitude, long timestamp, float accuracy)
+	{
+		inputCount++;
+
+		if ( (count > 0) && (radialTolerance > 0) &&
+			 (Coordinates.distance(latitudes[count - 1], longitudes[count - 1], latitude, longitude) < radialTolerance) )
+		{
+			dropped = true;
+			droppedLatitude = latitude;
+			droppedLongitude = longitude;
+			droppedTimestamp = timestamp;
+			droppedAccuracy = accuracy;
+			return;
+		}
+
+		dropped = false;
+		hold( latitude, longitude, timestamp, accuracy );
+	}
+
+	/**
+	 * Passes on every point held that is kept, including the last point
+	 * added.  Call it at the end of the track.  Points added afterwards
+	 * carry on from the last one.
+	 */
+	public synchronized void flush ()
+	{
+		if ( dropped )
+		{
+			dropped = false;
+			hold( droppedLatitude, droppedLongitude, droppedTimestamp, droppedAccuracy );
+		}
+
+		if ( count > 1 )
+		{
+			simplifyWindow( true );
+		}
+	}
+
+	/**
+	 * @return The number of points added.
+	 */
+	public synchronized int getInputCount ()
+	{
+		return inputCount;
+	}
+
+	/**
+	 * @return The number of points passed on.
+	 */
+	public synchronized int getOutputCount ()
+	{
+		return outputCount;
+	}
+
+	/**
+	 * Adds a point to the window.  It is simplified when it fills.
+	 */
+	private void hold (double latitude, double longitude, long timestamp, float accuracy)
+	{
+		latitudes[count] = latitude;
+		longitudes[count] = longitude;
+		timestamps[count] = timestamp;
+		accuracies[count] = accuracy;
+		count++;
+
+		if ( count == 1 )
+		{
+			// The start of the track.
+			pass( 0 );
+		}
+		else if ( count == latitudes.length )
+		{
+			simplifyWindow( false );
+		}
+	}
+
+	/**
+	 * Runs Douglas-Peucker on the window and passes on the points kept.
+	 * The first point was already passed on.
+	 *
+	 * @param end is <code>true</code> at the end of the track when every
+	 *  point kept is passed on.  Otherwise the last point kept before the
+	 *  end of the window starts the next window, along with the points after
+	 *  it, so window boundaries do not add points.
+	 */
+	private void simplifyWindow (boolean end)
+	{
+		int last = count - 1;
+		douglasPeucker( latitudes, longitudes, 0, last, tolerance, keep, stack );
+
+		int anchor = last;
+
+		if ( end == false )
+		{
+			// Find the last point kept before the end.
+			anchor = last - 1;
+
+			while ( (anchor > 0) && (keep[anchor] == false) )
+			{
+				anchor--;
+			}
+
+			if ( anchor == 0 )
+			{
+				// The whole window is close to one straight line.  End it at the
+				// last point; a longer line might leave the dropped points
+				// further than the tolerance away.
+				anchor = last;
+			}
+		}
+
+		for ( int i = 1; i <= anchor; i++ )
+		{
+			if ( keep[i] )
+			{
+				pass( i );
+			}
+		}
+
+		// Start the next window from the anchor.
+		count -= anchor;
+		System.arraycopy( latitudes, anchor, latitudes, 0, count );
+		System.arraycopy( longitudes, anchor, longitudes, 0, count );
+		System.arraycopy( timestamps, anchor, timestamps, 0, count );
+		System.arraycopy( accuracies, anchor, accuracies, 0, count );
+	}
+
+	/**
+	 * Passes a held point on to the listener.
+	 *
+	 * @param index is the point.
+	 */
+	private void pass (int index)
+	{
+		outputCount++;
+		listener.pointKept( latitudes[index], longitudes[index], timestamps[index], accuracies[index] );
+	}
+
+	/**
+	 * Simplifies a track that has already been recorded.  Points closer
+	 * than the tolerance to the last kept are dropped, then Douglas-Peucker
+	 * is run on what is left.  The first and last points are always kept.
+	 *
+	 * @param latitudes are the latitudes of the points in degrees.
+	 * @param longitudes are the longitudes of the points in degrees.
+	 * @param length is the number of points.
+	 * @param tolerance is the most meters a point can be from the
+	 *  simplified track.
+	 * @param keep is set to <code>true</code> for each point kept.  It must
+	 *  hold at least <code>length</code> values.
+	 * @return The number of points kept.
+	 */
+	public static int simplify (double[] latitudes, double[] longitudes, int length, float tolerance, boolean[] keep)
+	{
+		if ( length <= 2 )
+		{
+			for ( int i = 0; i < length; i++ )
+			{
+				keep[i] = true;
+			}
+
+			return length;
+		}
+
+		// Radial distance prefilter.  It only marks the candidates.
+		int[] candidates = new int[length];
+		int candidateCount = 1;
+		int previous = 0;
+
+		for ( int i = 1; i < length - 1; i++ )
+		{
+			if ( Coordinates.distance(latitudes[previous], longitudes[previous], latitudes[i], longitudes[i]) >= tolerance )
+			{
+				candidates[candidateCount++] = i;
+				previous = i;
+			}
+		}
+
+		candidates[candidateCount++] = length - 1;
+
+		// Douglas-Peucker on the candidates.
+		double[] lats = new double[candidateCount];
+		double[] lons = new double[candidateCount];
+
+		for ( int i = 0; i < candidateCount; i++ )
+		{
+			lats[i] = latitudes[candidates[i]];
+			lons[i] = longitudes[candidates[i]];
+		}
+
+		boolean[] kept = new boolean[candidateCount];
+		douglasPeucker( lats, lons, 0, candidateCount - 1, tolerance, kept, new int[2 * candidateCount] );
+
+		int keptCount = 0;
+
+		for ( int i = 0; i < length; i++ )
+		{
+			keep[i] = false;
+		}
+
+		for ( int i = 0; i < candidateCount; i++ )
+		{
+			if ( kept[i] )
+			{
+				keep[candidates[i]] = true;
+				keptCount++;
+			}
+		}
+
+		return keptCount;
+	}
+
+	/**
+	 * Marks the points Douglas-Peucker keeps.  It uses a stack instead of
+	 * recursion so a long track cannot overflow the phone's small call stack.
+	 *
+	 * @param lats are the latitudes in degrees.
+	 * @param lons are the longitudes in degrees.
+	 * @param first is the index of the first point.
+	 * @param last is the index of the last point.
+	 * @param tolerance is the most meters a point can be from the line.
+	 * @param keep is set for each point kept from <code>first</code> to <code>last</code>.
+	 * @param stack is work space of at least twice the number of points.
+	 */
+	static void douglasPeucker (double[] lats, double[] lons, int first, int last, float tolerance, boolean[] keep, int[] stack)
+	{
+		for ( int i = first; i <= last; i++ )
+		{
+			keep[i] = false;
+		}
+
+		keep[first] = true;
+		keep[last] = true;
+
+		int top = 0;
+		stack[top++] = first;
+		stack[top++] = last;
+
+		while ( top > 0 )
+		{
+			int end = stack[--top];
+			int start = stack[--top];
+
+			// Find the point furthest from the line.
+			double furthest = -1;
+			int index = -1;
+
+			for ( int i = start + 1; i < end; i++ )
+			{
+				double d = distanceToSegment( lats[start], lons[start], lats[end], lons[end], lats[i], lons[i] );
+
+				if ( d > furthest )
+				{
+					furthest = d;
+					index = i;
+				}
+			}
+
+			if ( furthest > tolerance )
+			{
+				keep[index] = true;
+				stack[top++] = start;
+				stack[top++] = index;
+				stack[top++] = index;
+				stack[top++] = end;
+			}
+		}
+	}
+
+	/**
+	 * Returns the distance from a point to the segment between two others.
+	 * The distance to the line is worked out from the distance and bearing
+	 * to the point from the start.  If the point is beyond either end the
+	 * distance to that end is used.
+	 *
+	 * @param startLatitude is the start of the segment.
+	 * @param startLongitude is the start of the segment.
+	 * @param endLatitude is the end of the segment.
+	 * @param endLongitude is the end of the segment.
+	 * @param latitude is the point.
+	 * @param longitude is the point.
+	 * @return The distance in meters.
+	 */
+	static double distanceToSegment (double startLatitude, double startLongitude,
+			double endLatitude, double endLongitude, double latitude, double longitude)
+	{
+		double toPoint = Coordinates.distance( startLatitude, startLongitude, latitude, longitude );
+		double length = Coordinates.distance( startLatitude, startLongitude, endLatitude, endLongitude );
+
+		if ( (toPoint == 0) || (length == 0) )
+		{
+			return toPoint;
+		}
+
+		double angle = Math.toRadians(
+			Coordinates.azimuth(startLatitude, startLongitude, latitude, longitude) -
+			Coordinates.azimuth(startLatitude, startLongitude, endLatitude, endLongitude) );
+		double along = toPoint * Math.cos( angle );
+
+		if ( along < 0 )
+		{
+			// Behind the start.
+			return toPoint;
+		}
+		else if ( along > length )
+		{
+			// Past the end.
+			return Coordinates.distance( endLatitude, endLongitude, latitude, longitude );
+		}
+
+		return Math.abs( toPoint * Math.sin(angle) );
+	}
+}
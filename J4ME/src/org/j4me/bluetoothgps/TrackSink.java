@@ -0,0 +1,40 @@
+package org.j4me.bluetoothgps;
+
+import java.io.*;
+
+/**
+ * Where a <code>TrackRecorder</code> writes a track.  The track is written
+ * in batches of up to <code>TrackRecorder.BATCH_SIZE</code> bytes and
+ * reading the batches back in order, one after the other, gives a stream
+ * <code>TrackReader</code> understands.
+ * <p>
+ * <code>OutputStreamTrackSink</code> writes to a stream, such as a file or
+ * an HTTP upload, and <code>RecordStoreTrackSink</code> keeps each batch as
+ * a record.  Applications can supply their own.
+ * <p>
+ * The methods are called on the recorder's writer thread, never the
+ * location listener's, so they can take as long as they need.
+ *
+ * @see TrackRecorder
+ */
+public interface TrackSink
+{
+	/**
+	 * Stores a batch.
+	 *
+	 * @param data holds the batch.
+	 * @param offset is the index of its first byte in <code>data</code>.
+	 * @param length is the number of bytes in the batch.
+	 * @throws IOException if the batch cannot be stored.
+	 */
+	public void write (byte[] data, int offset, int length)
+		throws IOException;
+
+	/**
+	 * Called after the last batch when the recorder is closed.
+	 *
+	 * @throws IOException if the track cannot be finished.
+	 */
+	public void close ()
+		throws IOException;
+}
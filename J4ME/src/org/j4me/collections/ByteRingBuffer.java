@@ -0,0 +1,240 @@
+package org.j4me.collections;
+
+import java.io.*;
+
+/**
+ * A fixed size first-in first-out (FIFO) queue of bytes.  The bytes are kept
+ * in a single array allocated once so using the buffer never creates garbage.
+ * <p>
+ * Data can be read straight from an <code>InputStream</code> into the buffer
+ * and consumed in place.  The array is exposed through <code>getArray</code>,
+ * <code>getReadIndex</code>, and <code>getContiguousSize</code> so callers
+ * can process bytes without copying them out.  Because the buffer wraps
+ * around, the queued bytes may be in two pieces.  For example:
+ * <pre>
+ *  while ( buffer.size() > 0 )
+ *  {
+ *     int length = buffer.getContiguousSize();
+ *     process( buffer.getArray(), buffer.getReadIndex(), length );
+ *     buffer.skip( length );
+ *  }
+ * </pre>
+ * <p>
+ * This class is not thread safe.
+ */
+public class ByteRingBuffer
+{
+	/**
+	 * The storage for the bytes.
+	 */
+	private final byte[] buffer;
+
+	/**
+	 * The index of the oldest byte in <code>buffer</code>.
+	 */
+	private int head;
+
+	/**
+	 * The number of bytes in <code>buffer</code>.
+	 */
+	private int count;
+
+	/**
+	 * Constructs the buffer.
+	 *
+	 * @param capacity is the most bytes the buffer can hold.
+	 */
+	public ByteRingBuffer (int capacity)
+	{
+		if ( capacity <= 0 )
+		{
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+
+		buffer = new byte[capacity];
+	}
+
+	/**
+	 * Returns the number of bytes in the buffer.
+	 *
+	 * @return The number of bytes waiting to be consumed.
+	 */
+	public int size ()
+	{
+		return count;
+	}
+
+	/**
+	 * Returns the most bytes the buffer can hold.
+	 *
+	 * @return The capacity given to the constructor.
+	 */
+	public int getCapacity ()
+	{
+		return buffer.length;
+	}
+
+	/**
+	 * Returns how many more bytes can be added to the buffer.
+	 *
+	 * @return The capacity less the size.
+	 */
+	public int getFreeSpace ()
+	{
+		return buffer.length - count;
+	}
+
+	/**
+	 * Empties the buffer.
+	 */
+	public void clear ()
+	{
+		head = 0;
+		count = 0;
+	}
+
+	/**
+	 * Returns the array that holds the bytes.  Use it with
+	 * <code>getReadIndex</code> and <code>getContiguousSize</code> to read
+	 * the bytes in place.  It must not be modified.
+	 *
+	 * @return The buffer's storage.
+	 */
+	public byte[] getArray ()
+	{
+		return buffer;
+	}
+
+	/**
+	 * Returns the index into <code>getArray</code> of the oldest byte.
+	 *
+	 * @return The index of the next byte to consume.
+	 */
+	public int getReadIndex ()
+	{
+		return head;
+	}
+
+	/**
+	 * Returns the number of bytes that can be consumed starting at
+	 * <code>getReadIndex</code> before the buffer wraps around to the start
+	 * of the array.
+	 *
+	 * @return The number of queued bytes in a row in the array.
+	 */
+	public int getContiguousSize ()
+	{
+		return Math.min( count, buffer.length - head );
+	}
+
+	/**
+	 * Removes bytes from the front of the buffer.  Call it after processing
+	 * them in place.
+	 *
+	 * @param length is the number of bytes to remove.
+	 * @throws IndexOutOfBoundsException if <code>length</code> is negative
+	 *  or more than <code>size</code>.
+	 */
+	public void skip (int length)
+	{
+		if ( (length < 0) || (length > count) )
+		{
+			throw new IndexOutOfBoundsException("skip " + length + " of " + count);
+		}
+
+		head = (head + length) % buffer.length;
+		count -= length;
+
+		if ( count == 0 )
+		{
+			// Start over at the beginning so the next read is not split.
+			head = 0;
+		}
+	}
+
+	/**
+	 * Adds bytes to the end of the buffer.
+	 *
+	 * @param data contains the bytes to add.
+	 * @param offset is the index of the first byte in <code>data</code>.
+	 * @param length is the number of bytes to add.
+	 * @return The number of bytes added.  It is less than <code>length</code>
+	 *  when the buffer is full.
+	 */
+	public int write (byte[] data, int offset, int length)
+	{
+		int written = 0;
+
+		while ( (written < length) && (count < buffer.length) )
+		{
+			int tail = (head + count) % buffer.length;
+			int space = Math.min( buffer.length - count, buffer.length - tail );
+			int chunk = Math.min( length - written, space );
+
+			System.arraycopy( data, offset + written, buffer, tail, chunk );
+			written += chunk;
+			count += chunk;
+		}
+
+		return written;
+	}
+
+	/**
+	 * Removes bytes from the front of the buffer and copies them into
+	 * <code>data</code>.
+	 *
+	 * @param data is where to copy the bytes to.
+	 * @param offset is the index in <code>data</code> of the first byte copied.
+	 * @param length is the most bytes to copy.
+	 * @return The number of bytes copied.  It is less than <code>length</code>
+	 *  when the buffer does not hold that many.
+	 */
+	public int read (byte[] data, int offset, int length)
+	{
+		int read = 0;
+
+		while ( (read < length) && (count > 0) )
+		{
+			int chunk = Math.min( length - read, getContiguousSize() );
+
+			System.arraycopy( buffer, head, data, offset + read, chunk );
+			read += chunk;
+			skip( chunk );
+		}
+
+		return read;
+	}
+
+	/**
+	 * Reads from an input stream straight into the free space at the end
+	 * of the buffer.  It makes a single call to <code>InputStream.read</code>
+	 * and so blocks the same way.
+	 *
+	 * @param in is the stream to read from.
+	 * @return The number of bytes read; 0 if the buffer is full; or -1 if
+	 *  the end of the stream was reached.
+	 * @throws IOException if <code>in</code> throws it.
+	 */
+	public int read (InputStream in)
+		throws IOException
+	{
+		if ( count == buffer.length )
+		{
+			return 0;
+		}
+
+		// Read into the free space up to the end of the array.  If it
+		// wraps around the rest will be filled by the next read.
+		int tail = (head + count) % buffer.length;
+		int space = Math.min( buffer.length - count, buffer.length - tail );
+
+		int read = in.read( buffer, tail, space );
+
+		if ( read > 0 )
+		{
+			count += read;
+		}
+
+		return read;
+	}
+}
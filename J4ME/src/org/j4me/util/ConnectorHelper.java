@@ -1,6 +1,7 @@
 package org.j4me.util;
 
 import java.io.*;
+import java.util.*;
 import javax.microedition.io.*;
 import org.j4me.logging.*;
 
@@ -9,193 +10,282 @@ import org.j4me.logging.*;
  * <p>
  * The <code>(StreamConnection) Connector.open(url, Connector.READ, true)</code> call
  * is not guaranteed to timeout.  On some phones this will cause indefinate
- * blocking and make the application unresponsive.  To get around this the
- * connection must be made on a secondary thread that is killed after some
- * timeout period has expired.
- * 
+ * blocking and make the application unresponsive.  Interrupting the thread
+ * does not help because CLDC does not unblock native I/O.  To get around
+ * this the connection is made on a connector thread while the caller waits
+ * for it, for no longer than the timeout.
+ * <p>
+ * Connector threads are reused so connecting again does not create a new
+ * one each time.  A thread is only created when every existing one is
+ * busy, for example when several devices are tried at once or an earlier
+ * attempt is still blocked.  Threads left idle for a while end.
+ *
  * @see javax.microedition.io.Connector#open(java.lang.String, int, boolean)
  */
-public class ConnectorHelper
-	extends Thread
+public final class ConnectorHelper
 {
 	/**
-	 * The URL to connect to.
-	 */
-	private final String url;
-
-	/**
-	 * The access mode.  It is either <code>Connector.READ</code>,
-	 * <code>Connector.WRITE</code>, or <code>Connector.READ_WRITE</code>.
+	 * How long, in milliseconds, an idle connector thread waits for another
+	 * attempt before it ends.
 	 */
-	private final int mode;
+	private static final int IDLE_TIMEOUT = 30000;
 
 	/**
-	 * The timeout, in milliseconds, for the connection.
+	 * The <code>Attempt</code> objects waiting for a connector thread.  It is
+	 * also the lock for <code>idleThreads</code>.
 	 */
-	private final int timeout;
+	private static final Vector queue = new Vector();
 
 	/**
-	 * The returned connection object. This is <code>null</code> until a
-	 * successful connection is established.
+	 * The number of connector threads waiting for an attempt.
 	 */
-	private StreamConnection connection;
+	private static int idleThreads;
 
 	/**
-	 * Any exception encountered during the connection process. This could mean
-	 * the device is turned off (<code>ConnectionNotFoundException</code>) or a
-	 * simple time out (<code>IOException</code>). It could also mean we were not
-	 * allowed access to the API (<code>SecurityException</code>).
+	 * No instances; use <code>open</code>.
 	 */
-	private Exception exception;
+	private ConnectorHelper ()
+	{
+	}
 
 	/**
-	 * Constructs a thread that tries to establish a connection to a
-	 * device.
-	 * 
-	 * @param url is the URL to try connecting to.
+	 * Create and open a <code>Connection</code>.
+	 *
+	 * @param url is the URL for the connection.
 	 * @param mode is the access mode.  It is either <code>Connector.READ</code>,
 	 *  <code>Connector.WRITE</code>, or <code>Connector.READ_WRITE</code>.
-	 * @param timeout is how long, in milliseconds, to try connecting before
-	 *  giving up. On Sun's emulator this is 10,000 milliseconds.
+	 * @param timeout is the the number of milliseconds before the open
+	 *  attempt times out.
+	 * @return A new <code>Connection</code> object.
+	 * @throws IllegalArgumentException if a parameter is invalid.
+	 * @throws ConnectionNotFoundException if the target of the name cannot be
+	 *  found, or if the requested protocol type is not supported.
+	 * @throws IOException if some other kind of I/O error occurs.
+	 * @throws SecurityException may be thrown if access to the protocol
+	 *  handler is prohibited.  Some platforms throw <code>IOException</code> instead
+	 *  to try to be MIDP 1.0 compatible.
+	 *
+	 * @see javax.microedition.io.Connector#open(java.lang.String, int, boolean)
 	 */
-	private ConnectorHelper (String url, int mode, int timeout)
+	public static Connection open (String url, int mode, int timeout)
+		throws IllegalArgumentException, ConnectionNotFoundException, IOException, SecurityException
 	{
-		super( "ConnectorHelper" );
-		
-		this.url = url;
-		this.mode = mode;
-		this.timeout = timeout;
-	}
+		Attempt attempt = new Attempt( url, mode );
 
-	/**
-	 * Executed by thread to establish the connection when the owner
-	 * calls <code>start</code>.
-	 */
-	public synchronized void run ()
-	{
-		// Try connecting to the URL.
-		//   This may not ever return depending on the JVM. It is
-		//   killed by the parent who will unblock after the timeout
-		//   interval and is responsible for calling the <code>interrupt</code>
-		//   method on this thread.
-		try
+		// Hand the attempt to an idle connector thread or start a new one.
+		synchronized ( queue )
+		{
+			queue.addElement( attempt );
+
+			if ( queue.size() > idleThreads )
+			{
+				new ConnectorThread().start();
+			}
+			else
+			{
+				queue.notify();
+			}
+		}
+
+		// Block for the timeout period or until the connection attempt returns.
+		synchronized ( attempt )
+		{
+			long end = System.currentTimeMillis() + timeout;
+			long remaining = timeout;
+
+			try
+			{
+				while ( (attempt.done == false) && (remaining > 0) )
+				{
+					attempt.wait( remaining );
+					remaining = end - System.currentTimeMillis();
+				}
+			}
+			catch (InterruptedException e)
+			{
+				// The program is exiting.
+			}
+
+			if ( attempt.done == false )
+			{
+				// The connector thread closes the connection if it ever opens.
+				attempt.abandoned = true;
+				throw new ConnectionNotFoundException("Connection attempt timed out to " + url);
+			}
+		}
+
+		// If an exception was encountered throw it back to the calling thread.
+		Throwable exception = attempt.exception;
+
+		if ( exception == null )
 		{
-			connection = (StreamConnection) Connector.open( url, mode, true );
+			return attempt.connection;
 		}
-		catch (IOException e)
+		else if ( exception instanceof IOException )
 		{
 			// IOException usually means it timed out.
 			//   Could be a ConnectionNotFoundException meaning the device is
 			//   turned off.  Sometimes the platform throws this instead of a
 			//   SecurityException.
-			Log.warn("Problem opening connection to " + url, e);
-			exception = e;
+			Log.warn("Problem opening connection to " + url, exception);
+			throw (IOException)exception;
+		}
+		else if ( exception instanceof SecurityException )
+		{
+			Log.error("Not allowed to open connection", exception);
+			throw (SecurityException)exception;
 		}
-		catch (SecurityException e)
+		else if ( exception instanceof RuntimeException )
 		{
-			Log.error("Not allowed to open connection", e);
-			exception = e;
+			throw (RuntimeException)exception;
 		}
-		catch (Exception e)
+		else
 		{
-			Log.error("Unknown connection exception", e);
-			exception = e;
+			throw (Error)exception;
 		}
-		
-		// Notify the owning thread we are done.
-		notifyAll();
 	}
 
 	/**
-	 * The owner should call this method to block until the connection is either
-	 * established, has timed out, or encountered some other connection
-	 * exception.
-	 * 
-	 * @return A connection to the device; <code>null</code> if it timed
-	 *  out and was unsuccessful.
-	 * @throws IOException - If some other kind of I/O error occurs.
-	 * @throws SecurityException - May be thrown if access to the protocol
-	 *  handler is prohibited.
+	 * One call to <code>Connector.open</code>.  The caller and the connector
+	 * thread synchronize on it.
 	 */
-	public synchronized StreamConnection blockUntilConnected ()
-		throws IOException, SecurityException
+	private static final class Attempt
 	{
-		// Block for the timeout period or until the connection attempt returns.
-		try
+		/**
+		 * The URL to connect to.
+		 */
+		final String url;
+
+		/**
+		 * The access mode.
+		 */
+		final int mode;
+
+		/**
+		 * The connection opened.  It is <code>null</code> until the attempt
+		 * succeeds.
+		 */
+		Connection connection;
+
+		/**
+		 * What <code>Connector.open</code> threw or <code>null</code> if it
+		 * did not.
+		 */
+		Throwable exception;
+
+		/**
+		 * Set when <code>Connector.open</code> has returned.
+		 */
+		boolean done;
+
+		/**
+		 * Set when the caller timed out and no longer wants the connection.
+		 */
+		boolean abandoned;
+
+		Attempt (String url, int mode)
 		{
-			wait( timeout );
+			this.url = url;
+			this.mode = mode;
 		}
-		catch (InterruptedException e)
+	}
+
+	/**
+	 * A thread that opens connections for <code>open</code>.  It ends after
+	 * being idle for <code>IDLE_TIMEOUT</code>.
+	 */
+	private static final class ConnectorThread
+		extends Thread
+	{
+		ConnectorThread ()
 		{
-			// The program is exiting.
+			super( "ConnectorHelper" );
 		}
-		
-		// If an exception was encountered throw it back to the main thread.
-		if ( exception != null )
+
+		/**
+		 * Opens connections until there are no more to open.
+		 */
+		public void run ()
 		{
-			if ( exception instanceof ConnectionNotFoundException )
-			{
-				throw (ConnectionNotFoundException) exception;
-			}
-			else if ( exception instanceof SecurityException )
-			{
-				throw (SecurityException) exception;
-			}
-			else if ( exception instanceof IOException )
-			{
-				throw (IOException) exception;
-			}
-			else if ( exception instanceof IllegalArgumentException )
-			{
-				throw (IllegalArgumentException) exception;
-			}
-			else
+			Attempt attempt;
+
+			while ( (attempt = next()) != null )
 			{
-				throw (RuntimeException) exception;
+				Connection connection = null;
+				Throwable exception = null;
+
+				// This may not ever return depending on the JVM.  If so the
+				// caller has stopped waiting and this thread is lost.
+				try
+				{
+					connection = Connector.open( attempt.url, attempt.mode, true );
+				}
+				catch (Throwable t)
+				{
+					exception = t;
+				}
+
+				synchronized ( attempt )
+				{
+					if ( attempt.abandoned && (connection != null) )
+					{
+						// Nobody will use it.
+						try
+						{
+							connection.close();
+						}
+						catch (IOException e)
+						{
+							// Ignore.
+						}
+					}
+					else
+					{
+						attempt.connection = connection;
+						attempt.exception = exception;
+					}
+
+					attempt.done = true;
+					attempt.notifyAll();
+				}
 			}
 		}
-		
-		// Return the connection object. This can be null if the
-		// connection timed out.
-		return connection;
-	}
-	
-	/**
-	 * Create and open a <code>Connection</code>.
-	 * 
-	 * @param url is the URL for the connection.
-	 * @param mode is the access mode.  It is either <code>Connector.READ</code>,
-	 *  <code>Connector.WRITE</code>, or <code>Connector.READ_WRITE</code>.
-	 * @param timeout is the the number of milliseconds before the open
-	 *  attempt times out.
-	 * @return A new <code>Connection</code> object.
-	 * @throws IllegalArgumentException if a parameter is invalid.
-	 * @throws ConnectionNotFoundException if the target of the name cannot be
-	 *  found, or if the requested protocol type is not supported.
-	 * @throws IOException if some other kind of I/O error occurs.
-	 * @throws SecurityException may be thrown if access to the protocol
-	 *  handler is prohibited.  Some platforms throw <code>IOException</code> instead
-	 *  to try to be MIDP 1.0 compatible.
-	 * 
-	 * @see javax.microedition.io.Connector#open(java.lang.String, int, boolean)
-	 */
-	public static Connection open (String url, int mode, int timeout)
-		throws IllegalArgumentException, ConnectionNotFoundException, IOException, SecurityException
-	{
-		// Create a worker thread that establishes the connection.
-		ConnectorHelper thread = new ConnectorHelper( url, mode, timeout );
-		thread.start();  
-
-		// Connect.  Exceptions will be thrown from here.
-		StreamConnection connection = thread.blockUntilConnected();
-		
-		if ( connection == null )
+
+		/**
+		 * Waits for the next attempt.
+		 *
+		 * @return The attempt to make or <code>null</code> if there has not
+		 *  been one for <code>IDLE_TIMEOUT</code> and this thread should end.
+		 */
+		private static Attempt next ()
 		{
-			// The connection thread timed out.
-			thread.interrupt();
-            throw new ConnectionNotFoundException("Connection attempt timed out to " + url);
+			synchronized ( queue )
+			{
+				idleThreads++;
+
+				try
+				{
+					if ( queue.isEmpty() )
+					{
+						queue.wait( IDLE_TIMEOUT );
+					}
+				}
+				catch (InterruptedException e)
+				{
+					// Take an attempt if there is one; otherwise end.
+				}
+
+				idleThreads--;
+
+				if ( queue.isEmpty() )
+				{
+					return null;
+				}
+
+				Attempt attempt = (Attempt)queue.elementAt( 0 );
+				queue.removeElementAt( 0 );
+				return attempt;
+			}
 		}
-		
-		return connection;
 	}
 }
@@ -0,0 +1,119 @@
+package org.j4me.util;
+
+/**
+ * A time limit on a blocking operation such as a read or a connect.  It is
+ * armed with <code>DeadlineScheduler.schedule</code> before the operation
+ * starts and cancelled with <code>DeadlineScheduler.cancel</code> once it
+ * returns.  If the operation takes too long the deadline fires on the
+ * scheduler's thread and interrupts the blocked thread or runs an action.
+ * <p>
+ * A deadline can be scheduled again and again.  Code that blocks in a loop,
+ * like the Bluetooth reader, keeps one and re-arms it for every read so
+ * nothing is created per operation.
+ *
+ * @see DeadlineScheduler
+ */
+public final class Deadline
+{
+	/**
+	 * The thread interrupted when the deadline fires.  It is <code>null</code>
+	 * if <code>action</code> is run instead.
+	 */
+	private final Thread thread;
+
+	/**
+	 * The code run when the deadline fires.  It is <code>null</code> if
+	 * <code>thread</code> is interrupted instead.
+	 */
+	private final Runnable action;
+
+	/**
+	 * When the deadline fires as returned by <code>System.currentTimeMillis</code>.
+	 * Only valid while it is scheduled.
+	 */
+	long when;
+
+	/**
+	 * The position of this deadline in the scheduler's queue or -1 if it
+	 * is not scheduled.
+	 */
+	int index = -1;
+
+	/**
+	 * Set when the deadline fired since it was last scheduled.
+	 */
+	volatile boolean fired;
+
+	/**
+	 * Constructs a deadline that interrupts a thread.  On most phones
+	 * interrupting a thread blocked on I/O makes the operation throw an
+	 * <code>InterruptedIOException</code>.
+	 *
+	 * @param thread is the thread doing the blocking operation.
+	 */
+	public Deadline (Thread thread)
+	{
+		if ( thread == null )
+		{
+			throw new IllegalArgumentException( "Deadline thread cannot be null" );
+		}
+
+		this.thread = thread;
+		this.action = null;
+	}
+
+	/**
+	 * Constructs a deadline that runs some code.  The code is run on the
+	 * scheduler's thread so it must return quickly; every other deadline
+	 * waits for it.
+	 *
+	 * @param action is the code to run when the deadline fires.
+	 */
+	public Deadline (Runnable action)
+	{
+		if ( action == null )
+		{
+			throw new IllegalArgumentException( "Deadline action cannot be null" );
+		}
+
+		this.thread = null;
+		this.action = action;
+	}
+
+	/**
+	 * Returns if the deadline is scheduled and has not fired yet.
+	 *
+	 * @return <code>true</code> if the deadline is waiting to fire.
+	 */
+	public boolean isActive ()
+	{
+		return (index >= 0);
+	}
+
+	/**
+	 * Returns if the deadline fired since it was last scheduled.  Code that
+	 * catches an <code>InterruptedIOException</code> uses this to tell a
+	 * timeout apart from other interruptions.
+	 *
+	 * @return <code>true</code> if the deadline fired.
+	 */
+	public boolean hasFired ()
+	{
+		return fired;
+	}
+
+	/**
+	 * Called by the scheduler's thread when the deadline has passed.
+	 */
+	void expire ()
+	{
+		if ( thread != null )
+		{
+			thread.interrupt();
+		}
+		else
+		{
+			action.run();
+		}
+	}
+}
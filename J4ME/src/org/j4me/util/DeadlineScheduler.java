@@ -0,0 +1,317 @@
+package org.j4me.util;
+
+import org.j4me.logging.*;
+
+/**
+ * Enforces time limits on blocking operations for the whole library with
+ * one thread.  Before this every provider had its own watchdog thread and
+ * every connection attempt started another.  Phones often allow only 10 to
+ * 20 threads so they add up quickly.
+ * <p>
+ * Operations register a <code>Deadline</code> before they block and cancel
+ * it when they return.  The deadlines are kept in a priority queue ordered
+ * by when they fire.  The scheduler's thread sleeps until the earliest one
+ * and only wakes early when a sooner deadline is scheduled.  Cancelling is
+ * cheap so it does not matter that nearly every deadline is cancelled
+ * before it fires.
+ * <p>
+ * The thread is started when the first deadline is scheduled and ends
+ * after it has had nothing to do for <code>IDLE_TIME</code>.
+ *
+ * @see Deadline
+ */
+public final class DeadlineScheduler
+	implements Runnable
+{
+	/**
+	 * How long, in milliseconds, the thread waits without any deadlines
+	 * before it ends.
+	 */
+	public static final int IDLE_TIME = 5000;
+
+	/**
+	 * The scheduler shared by the library.
+	 */
+	private static DeadlineScheduler instance;
+
+	/**
+	 * The scheduled deadlines as a binary heap.  The one that fires first
+	 * is at index 0.
+	 */
+	private Deadline[] queue = new Deadline[8];
+
+	/**
+	 * The number of deadlines in <code>queue</code>.
+	 */
+	private int size;
+
+	/**
+	 * The thread that fires deadlines.  It is <code>null</code> when there
+	 * have been no deadlines for a while.
+	 */
+	private Thread thread;
+
+	/**
+	 * The total number of deadlines that fired.
+	 */
+	private int firedCount;
+
+	/**
+	 * Returns the scheduler shared by the library.
+	 *
+	 * @return The library-wide scheduler.
+	 */
+	public static synchronized DeadlineScheduler getInstance ()
+	{
+		if ( instance == null )
+		{
+			instance = new DeadlineScheduler();
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Constructs a scheduler.  Use <code>getInstance</code> instead unless
+	 * the deadlines must be kept apart from the rest of the library.
+	 */
+	public DeadlineScheduler ()
+	{
+	}
+
+	/**
+	 * Arms a deadline.  If it is already scheduled it is moved to the new
+	 * time.
+	 *
+	 * @param deadline is the deadline to arm.
+	 * @param timeout is how many milliseconds from now it fires.
+	 */
+	public synchronized void schedule (Deadline deadline, long timeout)
+	{
+		deadline.when = System.currentTimeMillis() + timeout;
+		deadline.fired = false;
+
+		if ( deadline.index < 0 )
+		{
+			if ( size == queue.length )
+			{
+				Deadline[] bigger = new Deadline[size * 2];
+				System.arraycopy( queue, 0, bigger, 0, size );
+				queue = bigger;
+			}
+
+			deadline.index = size;
+			queue[size++] = deadline;
+		}
+
+		siftUp( deadline.index );
+		siftDown( deadline.index );
+
+		// Start the thread or wake it up if this is now the first deadline.
+		if ( thread == null )
+		{
+			thread = new Thread( this );
+			thread.start();
+		}
+		else if ( queue[0] == deadline )
+		{
+			notify();
+		}
+	}
+
+	/**
+	 * Disarms a deadline.  Call it as soon as the operation it limits has
+	 * returned.
+	 *
+	 * @param deadline is the deadline to disarm.
+	 * @return <code>true</code> if it was cancelled before it fired;
+	 *  <code>false</code> if it had already fired or was not scheduled.
+	 */
+	public synchronized boolean cancel (Deadline deadline)
+	{
+		int i = deadline.index;
+
+		if ( i < 0 )
+		{
+			return false;
+		}
+
+		remove( i );
+		return true;
+	}
+
+	/**
+	 * Returns the number of deadlines waiting to fire.
+	 *
+	 * @return The number of scheduled deadlines.
+	 */
+	public synchronized int getActiveCount ()
+	{
+		return size;
+	}
+
+	/**
+	 * Returns how many deadlines have fired.  Each one is an operation that
+	 * took too long.
+	 *
+	 * @return The number of deadlines that fired since the scheduler was
+	 *  created.
+	 */
+	public synchronized int getFiredCount ()
+	{
+		return firedCount;
+	}
+
+	/**
+	 * Fires deadlines as they pass.  The actions are run outside the lock
+	 * so they can schedule and cancel deadlines themselves.
+	 */
+	public void run ()
+	{
+		while ( true )
+		{
+			Deadline due;
+
+			synchronized ( this )
+			{
+				if ( size == 0 )
+				{
+					try
+					{
+						wait( IDLE_TIME );
+					}
+					catch (InterruptedException e)
+					{
+						// Check the queue again.
+					}
+
+					if ( size == 0 )
+					{
+						// Nothing to do.  The next deadline starts a new thread.
+						thread = null;
+						return;
+					}
+				}
+
+				due = queue[0];
+				long delay = due.when - System.currentTimeMillis();
+
+				if ( delay > 0 )
+				{
+					try
+					{
+						wait( delay );
+					}
+					catch (InterruptedException e)
+					{
+						// Check the queue again.
+					}
+
+					continue;
+				}
+
+				remove( 0 );
+				due.fired = true;
+				firedCount++;
+			}
+
+			try
+			{
+				due.expire();
+			}
+			catch (Throwable t)
+			{
+				Log.warn("Deadline action failed", t);
+			}
+		}
+	}
+
+	/**
+	 * Takes a deadline out of the queue.
+	 *
+	 * @param i is the deadline's index in <code>queue</code>.
+	 */
+	private void remove (int i)
+	{
+		Deadline removed = queue[i];
+		removed.index = -1;
+
+		size--;
+		Deadline last = queue[size];
+		queue[size] = null;
+
+		if ( i < size )
+		{
+			queue[i] = last;
+			last.index = i;
+			siftUp( i );
+			siftDown( last.index );
+		}
+	}
+
+	/**
+	 * Moves a deadline towards the front of the queue until its parent fires
+	 * before it.
+	 *
+	 * @param i is the deadline's index in <code>queue</code>.
+	 */
+	private void siftUp (int i)
+	{
+		Deadline d = queue[i];
+
+		while ( i > 0 )
+		{
+			int parent = (i - 1) / 2;
+
+			if ( queue[parent].when <= d.when )
+			{
+				break;
+			}
+
+			queue[i] = queue[parent];
+			queue[i].index = i;
+			i = parent;
+		}
+
+		queue[i] = d;
+		d.index = i;
+	}
+
+	/**
+	 * Moves a deadline towards the back of the queue until its children
+	 * fire after it.
+	 *
+	 * @param i is the deadline's index in <code>queue</code>.
+	 */
+	private void siftDown (int i)
+	{
+		Deadline d = queue[i];
+
+		while ( true )
+		{
+			int child = 2 * i + 1;
+
+			if ( child >= size )
+			{
+				break;
+			}
+
+			if ( (child + 1 < size) && (queue[child + 1].when < queue[child].when) )
+			{
+				child++;
+			}
+
+			if ( d.when <= queue[child].when )
+			{
+				break;
+			}
+
+			queue[i] = queue[child];
+			queue[i].index = i;
+			i = child;
+		}
+
+		queue[i] = d;
+		d.index = i;
+	}
+}
@@ -0,0 +1,189 @@
+package org.j4me.util;
+
+/**
+ * Counts how often values, such as durations in milliseconds, fall within
+ * ranges.  The ranges double in size: 0, 1, 2-3, 4-7, 8-15 and so on up to
+ * <code>BUCKETS</code>.  That keeps the histogram a fixed, small array that
+ * can be updated for every event without creating objects.
+ * <p>
+ * Percentiles are only as exact as the bucket they fall in.  That is
+ * plenty to tell a 50 ms delay from a 2 second one, which is what it is
+ * for.
+ */
+public final class Histogram
+{
+	/**
+	 * The number of buckets.  The last holds every value of 2^14 (16384)
+	 * and above.
+	 */
+	public static final int BUCKETS = 16;
+
+	/**
+	 * The number of values in each bucket.
+	 */
+	private final int[] counts = new int[BUCKETS];
+
+	/**
+	 * The number of values recorded.
+	 */
+	private int count;
+
+	/**
+	 * The sum of the values recorded.
+	 */
+	private long total;
+
+	/**
+	 * The largest value recorded.
+	 */
+	private long max;
+
+	/**
+	 * Adds a value.  Negative values are counted as 0.
+	 *
+	 * @param value is the value to add.
+	 */
+	public synchronized void record (long value)
+	{
+		if ( value < 0 )
+		{
+			value = 0;
+		}
+
+		counts[getBucket(value)]++;
+		count++;
+		total += value;
+
+		if ( value > max )
+		{
+			max = value;
+		}
+	}
+
+	/**
+	 * Returns the bucket a value goes in.
+	 *
+	 * @param value is a value that is not negative.
+	 * @return The bucket from 0 to <code>BUCKETS - 1</code>.
+	 */
+	static int getBucket (long value)
+	{
+		int bucket = 0;
+
+		while ( (value > 0) && (bucket < BUCKETS - 1) )
+		{
+			value >>= 1;
+			bucket++;
+		}
+
+		return bucket;
+	}
+
+	/**
+	 * Returns the smallest value that goes in a bucket.
+	 *
+	 * @param bucket is the bucket from 0 to <code>BUCKETS - 1</code>.
+	 * @return The bucket's lowest value.
+	 */
+	public static long getBucketStart (int bucket)
+	{
+		return (bucket == 0) ? 0 : (1L << (bucket - 1));
+	}
+
+	/**
+	 * @param bucket is the bucket from 0 to <code>BUCKETS - 1</code>.
+	 * @return The number of values in the bucket.
+	 */
+	public synchronized int getBucketCount (int bucket)
+	{
+		return counts[bucket];
+	}
+
+	/**
+	 * @return The number of values recorded.
+	 */
+	public synchronized int getCount ()
+	{
+		return count;
+	}
+
+	/**
+	 * @return The average value or 0 if none have been recorded.
+	 */
+	public synchronized long getMean ()
+	{
+		return (count == 0) ? 0 : total / count;
+	}
+
+	/**
+	 * @return The largest value recorded.
+	 */
+	public synchronized long getMax ()
+	{
+		return max;
+	}
+
+	/**
+	 * Returns the value below which a percentage of the recorded values
+	 * fall.  It is the top of the bucket the percentile is in, but never more
+	 * than the largest value recorded.
+	 *
+	 * @param percent is the percentile from 0 to 100.  For example 50 is
+	 *  the median and 95 leaves out the slowest one in twenty.
+	 * @return The percentile or 0 if no values have been recorded.
+	 */
+	public synchronized long getPercentile (int percent)
+	{
+		if ( count == 0 )
+		{
+			return 0;
+		}
+
+		// The number of values at or below the percentile, rounded up.
+		int wanted = (count * percent + 99) / 100;
+		int seen = 0;
+
+		for ( int i = 0; i < BUCKETS - 1; i++ )
+		{
+			seen += counts[i];
+
+			if ( (seen >= wanted) && (seen > 0) )
+			{
+				long top = getBucketStart( i + 1 ) - 1;
+				return (top < max) ? top : max;
+			}
+		}
+
+		return max;
+	}
+
+	/**
+	 * Forgets every value recorded.
+	 */
+	public synchronized void reset ()
+	{
+		for ( int i = 0; i < BUCKETS; i++ )
+		{
+			counts[i] = 0;
+		}
+
+		count = 0;
+		total = 0;
+		max = 0;
+	}
+
+	/**
+	 * Summarizes the histogram on one line for logs and diagnostics
+	 * screens.  For example "n=120 mean=35 p50=31 p95=63 max=210".
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	public synchronized String toString ()
+	{
+		return "n=" + count +
+			" mean=" + getMean() +
+			" p50=" + getPercentile( 50 ) +
+			" p95=" + getPercentile( 95 ) +
+			" max=" + max;
+	}
+}
@@ -20,11 +20,14 @@ public class J4METestSuite
 
 		// Add all the util tests.
 		suite.addTest(new MathFuncTest().suite());
+		suite.addTest(new DeadlineSchedulerTest().suite());
+		suite.addTest(new HistogramTest().suite());
 		
 		// Add all the collections tests.
 		suite.addTest(new CacheTest().suite());
 		suite.addTest(new TreeNodeTest().suite());
 		suite.addTest(new CubbyHoleTest().suite());
+		suite.addTest(new ByteRingBufferTest().suite());
 		
 		// Add all the logging tests.
 		suite.addTest(new LogTests().suite());
@@ -34,8 +37,24 @@ public class J4METestSuite
 		
 		suite.addTest(new LocationImplTest().suite());
 		suite.addTest(new NMEAParserTest().suite());
+		suite.addTest(new ReadSchedulerTest().suite());
+		suite.addTest(new LocationDispatcherTest().suite());
+		suite.addTest(new LocationListenerSetTest().suite());
+		suite.addTest(new LocationCacheTest().suite());
+		suite.addTest(new LocationHistoryTest().suite());
+		suite.addTest(new TrackRecorderTest().suite());
+		suite.addTest(new TrackSimplifierTest().suite());
+		suite.addTest(new KalmanFilterTest().suite());
+		suite.addTest(new CompositeLocationProviderTest().suite());
+		suite.addTest(new DeviceCacheTest().suite());
+		suite.addTest(new BluetoothDeviceDiscoveryTest().suite());
+		suite.addTest(new ConnectionRaceTest().suite());
+		suite.addTest(new ReceiverConfiguratorTest().suite());
+		suite.addTest(new SiRFBinaryParserTest().suite());
 		suite.addTest(new BluetoothGPSTest().suite());
 		suite.addTest(new BluetoothLocationProviderTest().suite());
+		suite.addTest(new NMEAReplayTest().suite());
+		suite.addTest(new ReplayLocationProviderTest().suite());
 		
 		// Add all the UI tests.
 		suite.addTest(new DialogTest().suite());
@@ -0,0 +1,477 @@
+package org.j4me.bluetoothgps;
+
+import java.io.*;
+import java.util.*;
+import javax.bluetooth.*;
+import j2meunit.framework.*;
+import org.j4me.*;
+
+/**
+ * Tests the <code>BluetoothDeviceDiscovery</code> class.  It streams the
+ * devices found to a <code>DeviceDiscoveryListener</code> and looks up
+ * their names and channels while the inquiry carries on.  The Bluetooth
+ * stack is faked so the tests run without a radio.
+ *
+ * @see org.j4me.bluetoothgps.BluetoothDeviceDiscovery
+ */
+public class BluetoothDeviceDiscoveryTest
+	extends J4METestCase
+{
+	public BluetoothDeviceDiscoveryTest ()
+	{
+		super();
+	}
+
+	public BluetoothDeviceDiscoveryTest (String name, TestMethod method)
+	{
+		super( name, method );
+	}
+
+	public Test suite ()
+	{
+		TestSuite suite = new TestSuite();
+
+		suite.addTest(new BluetoothDeviceDiscoveryTest("testStreamed", new TestMethod()
+				{ public void run(TestCase tc) {((BluetoothDeviceDiscoveryTest) tc).testStreamed(); } }));
+		suite.addTest(new BluetoothDeviceDiscoveryTest("testNameLookups", new TestMethod()
+				{ public void run(TestCase tc) {((BluetoothDeviceDiscoveryTest) tc).testNameLookups(); } }));
+		suite.addTest(new BluetoothDeviceDiscoveryTest("testSearchLimit", new TestMethod()
+				{ public void run(TestCase tc) {((BluetoothDeviceDiscoveryTest) tc).testSearchLimit(); } }));
+		suite.addTest(new BluetoothDeviceDiscoveryTest("testSynchronousCallbacks", new TestMethod()
+				{ public void run(TestCase tc) {((BluetoothDeviceDiscoveryTest) tc).testSynchronousCallbacks(); } }));
+
+		return suite;
+	}
+
+	/**
+	 * Tests devices and their names reach the listener while the inquiry
+	 * is still going.
+	 */
+	public void testStreamed ()
+	{
+		FakeDiscovery discovery = new FakeDiscovery();
+		Recorder recorder = new Recorder();
+
+		try
+		{
+			discovery.discover( recorder, false );
+		}
+		catch (BluetoothStateException e)
+		{
+			fail( e.toString() );
+		}
+
+		discovery.deviceDiscovered( new FakeDevice("000000000001", "GPS 1", null), null );
+		assertEquals("Reported as soon as found", 1, recorder.discovered.size());
+		assertEquals("Address", "000000000001", recorder.discovered.elementAt(0));
+
+		recorder.await( recorder.named, 1 );
+		assertEquals("Named during the inquiry", "GPS 1", recorder.named.elementAt(0));
+
+		discovery.deviceDiscovered( new FakeDevice("000000000002", "GPS 2", null), null );
+		recorder.await( recorder.named, 2 );
+		assertEquals("Second device named", "GPS 2", recorder.named.elementAt(1));
+		assertFalse("Not completed during the inquiry", recorder.completed);
+
+		discovery.inquiryCompleted( DiscoveryListener.INQUIRY_COMPLETED );
+		recorder.awaitCompleted();
+		assertTrue("Completed", recorder.completed);
+		assertTrue("Succeeded", recorder.success);
+		assertEquals("No channels looked for", 0, recorder.channels.size());
+	}
+
+	/**
+	 * Tests names are looked up on a couple of worker threads, not the
+	 * stack's, and no more than that run at once.
+	 */
+	public void testNameLookups ()
+	{
+		FakeDiscovery discovery = new FakeDiscovery();
+		Recorder recorder = new Recorder();
+		Gate gate = new Gate();
+
+		try
+		{
+			discovery.discover( recorder, false );
+		}
+		catch (BluetoothStateException e)
+		{
+			fail( e.toString() );
+		}
+
+		for ( int i = 0; i < 5; i++ )
+		{
+			discovery.deviceDiscovered( new FakeDevice("00000000000" + i, "GPS " + i, gate), null );
+		}
+
+		assertEquals("All reported while names are looked up", 5, recorder.discovered.size());
+
+		// Wait for the lookups to block on the gate.
+		gate.awaitWaiting( 2 );
+
+		try
+		{
+			Thread.sleep( 100 );
+		}
+		catch (InterruptedException e)
+		{
+			fail( e.toString() );
+		}
+
+		assertEquals("Two lookups at once", 2, gate.waiting);
+		assertEquals("None named yet", 0, recorder.named.size());
+
+		gate.open();
+		discovery.inquiryCompleted( DiscoveryListener.INQUIRY_COMPLETED );
+		recorder.awaitCompleted();
+
+		assertEquals("All named", 5, recorder.named.size());
+		assertEquals("Never more than two lookups", 2, gate.mostWaiting);
+		assertTrue("Completed", recorder.success);
+
+		for ( int i = 0; i < gate.threads.size(); i++ )
+		{
+			assertTrue("Looked up on a worker thread", gate.threads.elementAt(i) != Thread.currentThread());
+		}
+	}
+
+	/**
+	 * Tests no more service searches run at once than the stack's
+	 * <code>bluetooth.sd.trans.max</code> property allows and the rest
+	 * start as they finish.
+	 */
+	public void testSearchLimit ()
+	{
+		FakeDiscovery discovery = new FakeDiscovery();
+		discovery.maxSearches = "2";
+		Recorder recorder = new Recorder();
+
+		try
+		{
+			discovery.discover( recorder, true );
+		}
+		catch (BluetoothStateException e)
+		{
+			fail( e.toString() );
+		}
+
+		for ( int i = 0; i < 4; i++ )
+		{
+			discovery.deviceDiscovered( new FakeDevice("00000000000" + i, "GPS " + i, null), null );
+		}
+
+		assertEquals("Only two searches started", 2, discovery.started.size());
+
+		// Each search finishing starts the next.
+		for ( int i = 0; i < 4; i++ )
+		{
+			Integer id = (Integer)discovery.started.elementAt( i );
+			discovery.complete( id.intValue() );
+			assertEquals("Channel reported", i + 1, recorder.channels.size());
+		}
+
+		assertEquals("All searched", 4, discovery.started.size());
+		assertEquals("Never more than the limit", 2, discovery.mostRunning);
+
+		discovery.inquiryCompleted( DiscoveryListener.INQUIRY_COMPLETED );
+		recorder.awaitCompleted();
+		assertTrue("Completed", recorder.success);
+	}
+
+	/**
+	 * Tests a stack that reports a search's results from its own thread
+	 * before <code>searchServices</code> returns does not deadlock and
+	 * the results are not lost.
+	 */
+	public void testSynchronousCallbacks ()
+	{
+		FakeDiscovery discovery = new FakeDiscovery();
+		discovery.maxSearches = "1";
+		discovery.synchronous = true;
+		Recorder recorder = new Recorder();
+
+		try
+		{
+			discovery.discover( recorder, true );
+		}
+		catch (BluetoothStateException e)
+		{
+			fail( e.toString() );
+		}
+
+		discovery.deviceDiscovered( new FakeDevice("000000000001", "GPS 1", null), null );
+		discovery.deviceDiscovered( new FakeDevice("000000000002", "GPS 2", null), null );
+
+		assertFalse("Callbacks were not blocked", discovery.blocked);
+		assertEquals("Both searched", 2, discovery.started.size());
+		assertEquals("Both channels reported", 2, recorder.channels.size());
+
+		discovery.inquiryCompleted( DiscoveryListener.INQUIRY_COMPLETED );
+		recorder.awaitCompleted();
+		assertTrue("Completed", recorder.success);
+	}
+
+	/**
+	 * Stands in for the Bluetooth stack.  Inquiries are driven by the test
+	 * calling the <code>DiscoveryListener</code> methods.
+	 */
+	private static final class FakeDiscovery
+		extends BluetoothDeviceDiscovery
+	{
+		/**
+		 * The <code>bluetooth.sd.trans.max</code> property.
+		 */
+		String maxSearches;
+
+		/**
+		 * When set each search completes on another thread before
+		 * <code>searchServices</code> returns.
+		 */
+		boolean synchronous;
+
+		/**
+		 * Set if a search's callbacks could not finish while starting it.
+		 */
+		boolean blocked;
+
+		/**
+		 * The <code>Integer</code> IDs of the searches started.
+		 */
+		final Vector started = new Vector();
+
+		int running;
+		int mostRunning;
+
+		public void doDiscoverDevices ()
+		{
+			// The test calls deviceDiscovered() and inquiryCompleted().
+		}
+
+		void cancelInquiry ()
+		{
+		}
+
+		String getLocalProperty (String property)
+		{
+			return "bluetooth.sd.trans.max".equals( property ) ? maxSearches : null;
+		}
+
+		int searchServices (RemoteDevice device)
+		{
+			final int id;
+
+			synchronized ( started )
+			{
+				id = started.size() + 1;
+				started.addElement( new Integer(id) );
+				running++;
+				mostRunning = Math.max( mostRunning, running );
+			}
+
+			if ( synchronous )
+			{
+				Thread callback = new Thread()
+					{
+						public void run ()
+						{
+							complete( id );
+						}
+					};
+
+				callback.start();
+
+				try
+				{
+					callback.join( 2000 );
+				}
+				catch (InterruptedException e)
+				{
+				}
+
+				if ( callback.isAlive() )
+				{
+					blocked = true;
+				}
+			}
+
+			return id;
+		}
+
+		/**
+		 * Finishes a search without finding any records.
+		 *
+		 * @param id is the transaction ID of the search.
+		 */
+		void complete (int id)
+		{
+			synchronized ( started )
+			{
+				running--;
+			}
+
+			servicesDiscovered( id, new ServiceRecord[0] );
+			serviceSearchCompleted( id, DiscoveryListener.SERVICE_SEARCH_NO_RECORDS );
+		}
+	}
+
+	/**
+	 * A remote device whose name lookup can be held up by a <code>Gate</code>.
+	 */
+	private static final class FakeDevice
+		extends RemoteDevice
+	{
+		private final String name;
+		private final Gate gate;
+
+		FakeDevice (String address, String name, Gate gate)
+		{
+			super( address );
+			this.name = name;
+			this.gate = gate;
+		}
+
+		public String getFriendlyName (boolean alwaysAsk)
+			throws IOException
+		{
+			if ( gate != null )
+			{
+				gate.pass();
+			}
+
+			return name;
+		}
+	}
+
+	/**
+	 * Holds name lookups until it is opened and counts how many wait at once.
+	 */
+	private static final class Gate
+	{
+		final Vector threads = new Vector();
+		int waiting;
+		int mostWaiting;
+		private boolean open;
+
+		synchronized void pass ()
+		{
+			threads.addElement( Thread.currentThread() );
+			waiting++;
+			mostWaiting = Math.max( mostWaiting, waiting );
+			notifyAll();
+
+			try
+			{
+				while ( open == false )
+				{
+					wait();
+				}
+			}
+			catch (InterruptedException e)
+			{
+			}
+
+			waiting--;
+		}
+
+		synchronized void open ()
+		{
+			open = true;
+			notifyAll();
+		}
+
+		synchronized void awaitWaiting (int count)
+		{
+			long end = System.currentTimeMillis() + 2000;
+
+			try
+			{
+				while ( (waiting < count) && (System.currentTimeMillis() < end) )
+				{
+					wait( 100 );
+				}
+			}
+			catch (InterruptedException e)
+			{
+			}
+		}
+	}
+
+	/**
+	 * Records the events sent to it.
+	 */
+	private static final class Recorder
+		implements DeviceDiscoveryListener
+	{
+		final Vector discovered = new Vector();
+		final Vector named = new Vector();
+		final Vector channels = new Vector();
+		boolean completed;
+		boolean success;
+
+		public synchronized boolean deviceDiscovered (String address, int majorDeviceClass)
+		{
+			discovered.addElement( address );
+			notifyAll();
+			return false;
+		}
+
+		public synchronized boolean deviceNamed (String address, String name)
+		{
+			named.addElement( name );
+			notifyAll();
+			return false;
+		}
+
+		public synchronized void channelFound (String address, String channel)
+		{
+			channels.addElement( address );
+			notifyAll();
+		}
+
+		public synchronized void discoveryCompleted (boolean success)
+		{
+			this.completed = true;
+			this.success = success;
+			notifyAll();
+		}
+
+		/**
+		 * Waits up to two seconds for <code>events</code> to hold
+		 * <code>count</code> elements.
+		 */
+		synchronized void await (Vector events, int count)
+		{
+			long end = System.currentTimeMillis() + 2000;
+
+			try
+			{
+				while ( (events.size() < count) && (System.currentTimeMillis() < end) )
+				{
+					wait( 100 );
+				}
+			}
+			catch (InterruptedException e)
+			{
+			}
+		}
+
+		/**
+		 * Waits up to two seconds for <code>discoveryCompleted</code>.
+		 */
+		synchronized void awaitCompleted ()
+		{
+			long end = System.currentTimeMillis() + 2000;
+
+			try
+			{
+				while ( (completed == false) && (System.currentTimeMillis() < end) )
+				{
+					wait( 100 );
+				}
+			}
+			catch (InterruptedException e)
+			{
+			}
+		}
+	}
+}
@@ -29,6 +29,8 @@ public class BluetoothGPSTest
 		
 		suite.addTest(new BluetoothGPSTest("testCreateSentence", new TestMethod() 
 				{ public void run(TestCase tc) {((BluetoothGPSTest) tc).testCreateSentence(); } }));
+		suite.addTest(new BluetoothGPSTest("testConversions", new TestMethod() 
+				{ public void run(TestCase tc) {((BluetoothGPSTest) tc).testConversions(); } }));
 		
 		return suite;
 	}
@@ -50,4 +52,17 @@ public class BluetoothGPSTest
 		}
 		
 	}
+	
+	/**
+	 * Tests the <code>convertToDegress</code> and <code>convertUTCTime</code>
+	 * methods.
+	 */
+	public void testConversions ()
+	{
+		assertEquals("North", 37.76698, BluetoothGPS.convertToDegress("3746.0188", 'N'), 0.0000001);
+		assertEquals("West", -122.43546, BluetoothGPS.convertToDegress("12226.1276", 'W'), 0.0000001);
+		assertEquals("Invalid", 0, BluetoothGPS.convertToDegress("abc", 'N'), 0);
+		
+		assertEquals("UTC time", 1171434965000L, BluetoothGPS.convertUTCTime("140207", "063605.000"));
+	}
 }
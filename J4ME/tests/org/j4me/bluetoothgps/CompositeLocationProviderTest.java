@@ -0,0 +1,553 @@
+package org.j4me.bluetoothgps;
+
+import java.io.*;
+import java.util.*;
+import j2meunit.framework.*;
+import org.j4me.*;
+
+/**
+ * Tests the <code>CompositeLocationProvider</code> class.  It races several
+ * location providers and passes on the best location.  The sources are
+ * <code>MockLocationProvider</code>s with scripted latencies.
+ *
+ * @see org.j4me.bluetoothgps.CompositeLocationProvider
+ */
+public class CompositeLocationProviderTest
+	extends J4METestCase
+{
+	public CompositeLocationProviderTest ()
+	{
+		super();
+	}
+
+	public CompositeLocationProviderTest (String name, TestMethod method)
+	{
+		super( name, method );
+	}
+
+	public Test suite ()
+	{
+		TestSuite suite = new TestSuite();
+
+		suite.addTest(new CompositeLocationProviderTest("testFirstFixWins", new TestMethod()
+				{ public void run(TestCase tc) {((CompositeLocationProviderTest) tc).testFirstFixWins(); } }));
+		suite.addTest(new CompositeLocationProviderTest("testAccuracy", new TestMethod()
+				{ public void run(TestCase tc) {((CompositeLocationProviderTest) tc).testAccuracy(); } }));
+		suite.addTest(new CompositeLocationProviderTest("testDemotion", new TestMethod()
+				{ public void run(TestCase tc) {((CompositeLocationProviderTest) tc).testDemotion(); } }));
+		suite.addTest(new CompositeLocationProviderTest("testMixedUnits", new TestMethod()
+				{ public void run(TestCase tc) {((CompositeLocationProviderTest) tc).testMixedUnits(); } }));
+		suite.addTest(new CompositeLocationProviderTest("testState", new TestMethod()
+				{ public void run(TestCase tc) {((CompositeLocationProviderTest) tc).testState(); } }));
+		suite.addTest(new CompositeLocationProviderTest("testOneThread", new TestMethod()
+				{ public void run(TestCase tc) {((CompositeLocationProviderTest) tc).testOneThread(); } }));
+		suite.addTest(new CompositeLocationProviderTest("testTimeout", new TestMethod()
+				{ public void run(TestCase tc) {((CompositeLocationProviderTest) tc).testTimeout(); } }));
+		suite.addTest(new CompositeLocationProviderTest("testMaxAge", new TestMethod()
+				{ public void run(TestCase tc) {((CompositeLocationProviderTest) tc).testMaxAge(); } }));
+		suite.addTest(new CompositeLocationProviderTest("testDiscarded", new TestMethod()
+				{ public void run(TestCase tc) {((CompositeLocationProviderTest) tc).testDiscarded(); } }));
+
+		return suite;
+	}
+
+	/**
+	 * Tests the first fix comes from the quickest source without waiting
+	 * for the slower one.
+	 */
+	public void testFirstFixWins ()
+	{
+		try
+		{
+			MockLocationProvider slow = new MockLocationProvider();
+			MockLocationProvider quick = new MockLocationProvider();
+			CompositeLocationProvider composite = new CompositeLocationProvider(
+					new LocationProvider[] { slow, quick } );
+
+			long start = System.currentTimeMillis();
+			new Script( slow, 600, 5 ).start();
+			new Script( quick, 100, 50 ).start();
+
+			Location l = composite.getLocation( 5 );
+			long elapsed = System.currentTimeMillis() - start;
+
+			assertEquals("The quick source's fix", 50.0f, l.getQualifiedCoordinates().getHorizontalAccuracy(), 0.0f);
+			assertTrue("Did not wait for the slow source", elapsed < 500);
+
+			// Once the slow, more accurate source has a fix it is used.
+			l = composite.getLocation( 5, 0 );
+			assertEquals("The accurate source's fix", 5.0f, l.getQualifiedCoordinates().getHorizontalAccuracy(), 0.0f);
+
+			composite.close();
+		}
+		catch (Exception e)
+		{
+			fail( e.toString() );
+		}
+	}
+
+	/**
+	 * Tests a less accurate fix is skipped while a more accurate one is fresh.
+	 */
+	public void testAccuracy ()
+	{
+		MockLocationProvider accurate = new MockLocationProvider();
+		MockLocationProvider rough = new MockLocationProvider();
+		CompositeLocationProvider composite = new CompositeLocationProvider(
+				new LocationProvider[] { accurate, rough } );
+		Recorder listener = new Recorder();
+		composite.setLocationListener( listener, -1, -1, -1 );
+
+		accurate.setLocation( coordinates(5), 0 );
+		drain( composite );
+		rough.setLocation( coordinates(50), 0 );
+		rough.setLocation( coordinates(50), 0 );
+		accurate.setLocation( coordinates(5), 0 );
+		drain( composite );
+
+		assertEquals("Only the accurate fixes", 2, listener.accuracies.size());
+		assertEquals("Accurate", new Float(5), listener.accuracies.elementAt(0));
+		assertEquals("Accurate", new Float(5), listener.accuracies.elementAt(1));
+		assertEquals("Used", 2, composite.getUsedCount());
+		assertEquals("Skipped", 2, composite.getSkippedCount());
+
+		// A better fix from the other source is used.
+		rough.setLocation( coordinates(3), 0 );
+		drain( composite );
+		assertEquals("More accurate fix used", 3, listener.accuracies.size());
+
+		composite.close();
+	}
+
+	/**
+	 * Tests a source that becomes temporarily unavailable no longer keeps
+	 * the other source's fixes out.
+	 */
+	public void testDemotion ()
+	{
+		MockLocationProvider accurate = new MockLocationProvider();
+		MockLocationProvider rough = new MockLocationProvider();
+		CompositeLocationProvider composite = new CompositeLocationProvider(
+				new LocationProvider[] { accurate, rough } );
+		Recorder listener = new Recorder();
+		composite.setLocationListener( listener, -1, -1, -1 );
+
+		accurate.setLocation( coordinates(5), 0 );
+		drain( composite );
+		accurate.setState( LocationProvider.TEMPORARILY_UNAVAILABLE );
+		rough.setLocation( coordinates(50), 0 );
+		drain( composite );
+
+		assertEquals("Rough fix used once the accurate source is demoted", 2, listener.accuracies.size());
+		assertEquals("Still available", LocationProvider.AVAILABLE, composite.getState());
+
+		// The other source's fixes keep being used while it is demoted.
+		rough.setLocation( coordinates(50), 0 );
+		drain( composite );
+		assertEquals("Rough fix", 3, listener.accuracies.size());
+
+		// Becoming available promotes it again.
+		accurate.setLocation( coordinates(5), 0 );
+		drain( composite );
+		assertEquals("Accurate fix used again", 4, listener.accuracies.size());
+		rough.setLocation( coordinates(50), 0 );
+		drain( composite );
+		assertEquals("Rough fix skipped again", 4, listener.accuracies.size());
+
+		composite.close();
+	}
+
+	/**
+	 * Tests a Bluetooth GPS's accuracy, which is an HDOP, is turned into
+	 * meters before it is compared with another source's.  An HDOP of 2.1
+	 * is about 10 meters so it loses to a 5 meter fix.
+	 */
+	public void testMixedUnits ()
+	{
+		MockLocationProvider phone = new MockLocationProvider();
+		CompositeLocationProvider composite = new CompositeLocationProvider();
+		composite.addSource( phone );
+		phone.setLocation( coordinates(5), 0 );
+
+		// The replay's $GPGGA sentences have an HDOP of 2.1.
+		NMEAReplay replay = new NMEAReplay( NMEAReplayTest.createLog(5) );
+		replay.setSpeed( NMEAReplay.AS_FAST_AS_POSSIBLE );
+		replay.addStall( 0, 200 );  // Until it is a source
+		ReplayLocationProvider bluetooth = null;
+
+		try
+		{
+			bluetooth = new ReplayLocationProvider( replay, null );
+			composite.addSource( bluetooth );
+			assertTrue("Replay finished", replay.waitUntilFinished(5000));
+
+			long end = System.currentTimeMillis() + 2000;
+
+			while ( (composite.getSkippedCount() == 0) && (System.currentTimeMillis() < end) )
+			{
+				Thread.sleep( 10 );
+			}
+		}
+		catch (IOException e)
+		{
+			fail( e.toString() );
+		}
+		catch (InterruptedException e)
+		{
+			fail( e.toString() );
+		}
+
+		drain( composite );
+		composite.close();
+
+		assertTrue("Bluetooth fixes skipped", composite.getSkippedCount() > 0);
+		assertEquals("Only the phone's fix used", 1, composite.getUsedCount());
+	}
+
+	/**
+	 * Tests the composite state is the best of its sources' states.
+	 */
+	public void testState ()
+	{
+		MockLocationProvider a = new MockLocationProvider();
+		MockLocationProvider b = new MockLocationProvider();
+		CompositeLocationProvider composite = new CompositeLocationProvider(
+				new LocationProvider[] { a, b } );
+		Recorder listener = new Recorder();
+		composite.setLocationListener( listener, -1, -1, -1 );
+
+		assertEquals("Starts unavailable", LocationProvider.TEMPORARILY_UNAVAILABLE, composite.getState());
+
+		a.setState( LocationProvider.AVAILABLE );
+		assertEquals("Available with one source", LocationProvider.AVAILABLE, composite.getState());
+
+		a.setState( LocationProvider.OUT_OF_SERVICE );
+		assertEquals("Unavailable while one source is", LocationProvider.TEMPORARILY_UNAVAILABLE, composite.getState());
+
+		b.setState( LocationProvider.OUT_OF_SERVICE );
+		assertEquals("Out of service when all are", LocationProvider.OUT_OF_SERVICE, composite.getState());
+		drain( composite );
+		assertEquals("Listener told of each change", 3, listener.states.size());
+
+		try
+		{
+			composite.getLocation( 1 );
+			fail("Out of service");
+		}
+		catch (LocationException e)
+		{
+			// Expected.
+		}
+		catch (InterruptedException e)
+		{
+			fail( e.toString() );
+		}
+
+		assertTrue("Source removed", composite.removeSource(a));
+		assertFalse("Not a source", composite.removeSource(a));
+		assertEquals("One source left", 1, composite.getSources().length);
+
+		composite.close();
+	}
+
+	/**
+	 * Tests sources raising events on their own threads at the same time
+	 * only ever have the listener called by one thread, one call at a time.
+	 */
+	public void testOneThread ()
+	{
+		final MockLocationProvider a = new MockLocationProvider();
+		final MockLocationProvider b = new MockLocationProvider();
+		CompositeLocationProvider composite = new CompositeLocationProvider(
+				new LocationProvider[] { a, b } );
+		Recorder listener = new Recorder();
+		listener.delay = 5;
+		composite.setLocationListener( listener, -1, -1, -1 );
+
+		Thread[] threads = new Thread[2];
+		threads[0] = new Script( a, 0, 5, 20 );
+		threads[1] = new Script( b, 0, 5, 20 );
+
+		try
+		{
+			for ( int i = 0; i < threads.length; i++ )
+			{
+				threads[i].start();
+			}
+
+			for ( int i = 0; i < threads.length; i++ )
+			{
+				threads[i].join();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			fail( e.toString() );
+		}
+
+		drain( composite );
+		composite.close();
+
+		assertTrue("Locations delivered", listener.accuracies.size() > 0);
+		assertFalse("Listener never called by two threads at once", listener.overlapped);
+
+		for ( int i = 0; i < listener.threads.size(); i++ )
+		{
+			Object thread = listener.threads.elementAt( i );
+			assertTrue("Not called on a source's thread", (thread != threads[0]) && (thread != threads[1]));
+			assertSame("Always called on the same thread", listener.threads.elementAt(0), thread);
+		}
+	}
+
+	/**
+	 * Tests the listener is sent an invalid location when no source gets a
+	 * fix within the timeout.
+	 */
+	public void testTimeout ()
+	{
+		MockLocationProvider a = new MockLocationProvider();
+		CompositeLocationProvider composite = new CompositeLocationProvider(
+				new LocationProvider[] { a } );
+		Recorder listener = new Recorder();
+		composite.setLocationListener( listener, 1, 1, -1 );
+
+		try
+		{
+			Thread.sleep( 1500 );
+		}
+		catch (InterruptedException e)
+		{
+			fail( e.toString() );
+		}
+
+		drain( composite );
+		composite.close();
+
+		assertTrue("Timed out", listener.invalid > 0);
+		assertEquals("No fixes", 0, listener.accuracies.size());
+	}
+
+	/**
+	 * Tests the listener is sent the last location straight away when it is
+	 * no older than its maximum age.
+	 */
+	public void testMaxAge ()
+	{
+		MockLocationProvider a = new MockLocationProvider();
+		CompositeLocationProvider composite = new CompositeLocationProvider(
+				new LocationProvider[] { a } );
+
+		a.setLocation( coordinates(5), 0 );
+
+		Recorder listener = new Recorder();
+		composite.setLocationListener( listener, 10, -1, 5 );
+		drain( composite );
+		composite.close();
+
+		assertEquals("Cached location sent", 1, listener.accuracies.size());
+		assertEquals("Cached location", new Float(5), listener.accuracies.elementAt(0));
+	}
+
+	/**
+	 * Tests a composite that is given up on, as <code>LocationProvider.getInstance</code>
+	 * does when the Bluetooth GPS cannot be reached, ends its thread without
+	 * closing the source it was given.
+	 */
+	public void testDiscarded ()
+	{
+		MockLocationProvider local = new MockLocationProvider();
+		local.setState( LocationProvider.AVAILABLE );
+
+		CompositeLocationProvider composite = new CompositeLocationProvider();
+		composite.addSource( local );
+		assertTrue("Thread started", composite.getDispatcher().isRunning());
+
+		composite.removeSource( local );
+		composite.close();
+
+		long end = System.currentTimeMillis() + 2000;
+
+		while ( composite.getDispatcher().isRunning() && (System.currentTimeMillis() < end) )
+		{
+			try
+			{
+				Thread.sleep( 10 );
+			}
+			catch (InterruptedException e)
+			{
+				fail( e.toString() );
+			}
+		}
+
+		assertFalse("Thread ended", composite.getDispatcher().isRunning());
+		assertEquals("Source not closed", LocationProvider.AVAILABLE, local.getState());
+	}
+
+	/**
+	 * Waits until the composite's listener has been sent every event raised
+	 * so far.  Events are delivered in order so once a task posted now has
+	 * run, so have they.
+	 *
+	 * @param composite is the provider whose events to wait for.
+	 */
+	private void drain (CompositeLocationProvider composite)
+	{
+		final boolean[] ran = new boolean[1];
+
+		composite.getDispatcher().post( new Runnable()
+			{
+				public void run ()
+				{
+					synchronized ( ran )
+					{
+						ran[0] = true;
+						ran.notifyAll();
+					}
+				}
+			} );
+
+		synchronized ( ran )
+		{
+			long end = System.currentTimeMillis() + 2000;
+			long remaining = 2000;
+
+			try
+			{
+				while ( (ran[0] == false) && (remaining > 0) )
+				{
+					ran.wait( remaining );
+					remaining = end - System.currentTimeMillis();
+				}
+			}
+			catch (InterruptedException e)
+			{
+				fail( e.toString() );
+			}
+
+			assertTrue("Events delivered", ran[0]);
+		}
+	}
+
+	/**
+	 * @param accuracy is the horizontal accuracy.  It identifies the source.
+	 * @return Coordinates with the given accuracy.
+	 */
+	private static QualifiedCoordinates coordinates (float accuracy)
+	{
+		return new QualifiedCoordinates( 37.7, -122.4, 59.7f, accuracy, 10 );
+	}
+
+	/**
+	 * Sets a mock provider's location after a delay.  It acts like a
+	 * source that takes that long to get its first fix.
+	 */
+	private static final class Script
+		extends Thread
+	{
+		private final MockLocationProvider provider;
+		private final long latency;
+		private final float accuracy;
+		private final int count;
+
+		Script (MockLocationProvider provider, long latency, float accuracy)
+		{
+			this( provider, latency, accuracy, 1 );
+		}
+
+		Script (MockLocationProvider provider, long latency, float accuracy, int count)
+		{
+			this.provider = provider;
+			this.latency = latency;
+			this.accuracy = accuracy;
+			this.count = count;
+		}
+
+		public void run ()
+		{
+			try
+			{
+				Thread.sleep( latency );
+			}
+			catch (InterruptedException e)
+			{
+			}
+
+			for ( int i = 0; i < count; i++ )
+			{
+				provider.setLocation( coordinates(accuracy), 0 );
+			}
+		}
+	}
+
+	/**
+	 * Records the events sent to it.
+	 */
+	private static final class Recorder
+		implements LocationListener
+	{
+		final Vector accuracies = new Vector();
+		final Vector states = new Vector();
+		final Vector threads = new Vector();
+		int invalid;
+		boolean overlapped;
+		long delay;
+		private boolean busy;
+
+		public void locationUpdated (LocationProvider provider, Location location)
+		{
+			enter();
+
+			if ( location.isValid() )
+			{
+				accuracies.addElement( new Float(location.getQualifiedCoordinates().getHorizontalAccuracy()) );
+			}
+			else
+			{
+				invalid++;
+			}
+
+			leave();
+		}
+
+		public void providerStateChanged (LocationProvider provider, int newState)
+		{
+			enter();
+			states.addElement( new Integer(newState) );
+			leave();
+		}
+
+		/**
+		 * Notes the calling thread and whether another call is under way.
+		 */
+		private void enter ()
+		{
+			threads.addElement( Thread.currentThread() );
+
+			synchronized ( this )
+			{
+				if ( busy )
+				{
+					overlapped = true;
+				}
+
+				busy = true;
+			}
+
+			if ( delay > 0 )
+			{
+				try
+				{
+					Thread.sleep( delay );
+				}
+				catch (InterruptedException e)
+				{
+				}
+			}
+		}
+
+		private synchronized void leave ()
+		{
+			busy = false;
+		}
+	}
+}
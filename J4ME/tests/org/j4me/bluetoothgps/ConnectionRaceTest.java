@@ -0,0 +1,258 @@
+package org.j4me.bluetoothgps;
+
+import java.io.*;
+import java.util.*;
+import javax.microedition.io.*;
+import j2meunit.framework.*;
+import org.j4me.*;
+
+/**
+ * Tests the <code>ConnectionRace</code> class.  It connects to several GPS
+ * devices at once and keeps the first to send a valid NMEA sentence.  The
+ * devices are <code>NMEAReplay</code>s.
+ *
+ * @see org.j4me.bluetoothgps.ConnectionRace
+ */
+public class ConnectionRaceTest
+	extends J4METestCase
+{
+	public ConnectionRaceTest ()
+	{
+		super();
+	}
+
+	public ConnectionRaceTest (String name, TestMethod method)
+	{
+		super( name, method );
+	}
+
+	public Test suite ()
+	{
+		TestSuite suite = new TestSuite();
+
+		suite.addTest(new ConnectionRaceTest("testReadSentence", new TestMethod()
+				{ public void run(TestCase tc) {((ConnectionRaceTest) tc).testReadSentence(); } }));
+		suite.addTest(new ConnectionRaceTest("testFirstValidWins", new TestMethod()
+				{ public void run(TestCase tc) {((ConnectionRaceTest) tc).testFirstValidWins(); } }));
+		suite.addTest(new ConnectionRaceTest("testRanking", new TestMethod()
+				{ public void run(TestCase tc) {((ConnectionRaceTest) tc).testRanking(); } }));
+		suite.addTest(new ConnectionRaceTest("testAllFail", new TestMethod()
+				{ public void run(TestCase tc) {((ConnectionRaceTest) tc).testAllFail(); } }));
+		suite.addTest(new ConnectionRaceTest("testDenied", new TestMethod()
+				{ public void run(TestCase tc) {((ConnectionRaceTest) tc).testDenied(); } }));
+
+		return suite;
+	}
+
+	/**
+	 * Tests only a sentence or SiRF binary frame with a good checksum counts.
+	 */
+	public void testReadSentence ()
+	{
+		try
+		{
+			byte[] good = BluetoothGPS.createSentence( "GPGGA,063605.000,3746.0188,N,12226.1276,W,1,06,1.5,59.7,M,,,,0000" );
+			byte[] bad = "$GPGGA,063605.000,3746.0188,N*00\r\n".getBytes();
+
+			ByteArrayOutputStream data = new ByteArrayOutputStream();
+			data.write( "noise".getBytes() );
+			data.write( bad );
+			data.write( good );
+
+			assertTrue("Good sentence after noise", ConnectionRace.readSentence(new ByteArrayInputStream(data.toByteArray())));
+			assertFalse("Bad checksum", ConnectionRace.readSentence(new ByteArrayInputStream(bad)));
+			assertFalse("No sentence", ConnectionRace.readSentence(new ByteArrayInputStream("GPGGA*00\r\n".getBytes())));
+
+			// A device left in SiRF binary mode.
+			byte[] frame = SiRFBinaryParser.createSwitchToNMEA();
+			data.reset();
+			data.write( "noise".getBytes() );
+			data.write( frame );
+			assertTrue("SiRF frame after noise", ConnectionRace.readSentence(new ByteArrayInputStream(data.toByteArray())));
+
+			frame[frame.length - 3]++;  // Corrupt the checksum
+			assertFalse("SiRF frame with a bad checksum", ConnectionRace.readSentence(new ByteArrayInputStream(frame)));
+		}
+		catch (IOException e)
+		{
+			fail( e.toString() );
+		}
+	}
+
+	/**
+	 * Tests a working device wins over better ranked ones that are switched
+	 * off or not sending, and the losers are disconnected.
+	 */
+	public void testFirstValidWins ()
+	{
+		try
+		{
+			NMEAReplay quiet = replay();
+			quiet.addTruncation( 0, 10 );
+			quiet.addStall( 1, 5000 );
+			NMEAReplay gps = replay();
+
+			Hashtable devices = new Hashtable();
+			devices.put( "off", "switched off" );
+			devices.put( "quiet", quiet );
+			devices.put( "gps", gps );
+
+			ConnectionRace race = new TestRace( new String[] { "off", "quiet", "gps" }, 50, devices );
+
+			long start = System.currentTimeMillis();
+			StreamConnection connection = race.connect();
+			long elapsed = System.currentTimeMillis() - start;
+
+			assertEquals("Winner", "gps", race.getWinner());
+			assertEquals("Winner index", 2, race.getWinnerIndex());
+			assertTrue("Did not wait for the others to time out", elapsed < 1000);
+
+			// The winning stream carries on where the race left it.
+			assertTrue("More data", connection.openInputStream().read() >= 0);
+			connection.close();
+
+			// The quiet device was disconnected so it can be opened again.
+			quiet.openConnection().close();
+		}
+		catch (IOException e)
+		{
+			fail( e.toString() );
+		}
+	}
+
+	/**
+	 * Tests the best ranked device wins when all of them work.
+	 */
+	public void testRanking ()
+	{
+		try
+		{
+			Hashtable devices = new Hashtable();
+			devices.put( "first", replay() );
+			devices.put( "second", replay() );
+
+			ConnectionRace race = new TestRace( new String[] { "first", "second" }, 200, devices );
+			race.connect().close();
+
+			assertEquals("Head start wins", "first", race.getWinner());
+		}
+		catch (IOException e)
+		{
+			fail( e.toString() );
+		}
+	}
+
+	/**
+	 * Tests an exception is thrown when no device sends a valid sentence.
+	 */
+	public void testAllFail ()
+	{
+		NMEAReplay garbage = replay();
+
+		for ( int i = 0; i < garbage.getSentenceCount(); i++ )
+		{
+			garbage.addTruncation( i, 10 );
+		}
+
+		Hashtable devices = new Hashtable();
+		devices.put( "off", "switched off" );
+		devices.put( "garbage", garbage );
+
+		ConnectionRace race = new TestRace( new String[] { "off", "garbage" }, 0, devices );
+
+		try
+		{
+			race.connect();
+			fail("No device sent NMEA");
+		}
+		catch (IOException e)
+		{
+			// Expected.
+		}
+
+		assertNull("No winner", race.getWinner());
+	}
+
+	/**
+	 * Tests the user not allowing a connection is reported as such, not as
+	 * the device not being found.
+	 */
+	public void testDenied ()
+	{
+		Hashtable devices = new Hashtable();
+		devices.put( "denied", new SecurityException("Not allowed") );
+		devices.put( "off", "switched off" );
+
+		ConnectionRace race = new TestRace( new String[] { "denied", "off" }, 0, devices );
+
+		try
+		{
+			race.connect();
+			fail("Not allowed to connect");
+		}
+		catch (SecurityException e)
+		{
+			// Expected.
+		}
+		catch (IOException e)
+		{
+			fail( "Expected a SecurityException not " + e );
+		}
+
+		assertNull("No winner", race.getWinner());
+	}
+
+	/**
+	 * @return A short NMEA log that plays as fast as possible.
+	 */
+	private static NMEAReplay replay ()
+	{
+		NMEAReplay replay = new NMEAReplay( NMEAReplayTest.createLog(5) );
+		replay.setSpeed( NMEAReplay.AS_FAST_AS_POSSIBLE );
+		return replay;
+	}
+
+	/**
+	 * A race between replays instead of Bluetooth devices.  The devices map
+	 * URLs to replays.  A URL mapped to a <code>SecurityException</code> is
+	 * one the user is not allowed to connect to.  A URL mapped to anything
+	 * else is a device that is switched off.
+	 */
+	private static final class TestRace
+		extends ConnectionRace
+	{
+		private final Hashtable devices;
+
+		TestRace (String[] urls, int stagger, Hashtable devices)
+		{
+			super( urls, stagger );
+			this.devices = devices;
+		}
+
+		protected StreamConnection open (String url)
+			throws IOException
+		{
+			Object device = devices.get( url );
+
+			if ( device instanceof NMEAReplay )
+			{
+				return ((NMEAReplay)device).openConnection();
+			}
+			else if ( device instanceof SecurityException )
+			{
+				throw (SecurityException)device;
+			}
+
+			// A device that is switched off takes a while to fail.
+			try
+			{
+				Thread.sleep( 100 );
+			}
+			catch (InterruptedException e)
+			{
+			}
+
+			throw new ConnectionNotFoundException("Device is off");
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package org.j4me.bluetoothgps;
+
+import java.io.*;
+import j2meunit.framework.*;
+import org.j4me.*;
+
+/**
+ * Tests the <code>DeviceCache</code> class.  It remembers Bluetooth GPS
+ * devices between runs so they do not have to be discovered again.
+ *
+ * @see org.j4me.bluetoothgps.DeviceCache
+ */
+public class DeviceCacheTest
+	extends J4METestCase
+{
+	/**
+	 * A URL as built by <code>BluetoothLocationProvider</code>.
+	 */
+	private static final String URL = "btspp://00123456789A:2;master=false;encrypt=false;authenticate=false";
+
+	public DeviceCacheTest ()
+	{
+		super();
+	}
+
+	public DeviceCacheTest (String name, TestMethod method)
+	{
+		super( name, method );
+	}
+
+	public Test suite ()
+	{
+		TestSuite suite = new TestSuite();
+
+		suite.addTest(new DeviceCacheTest("testParseURL", new TestMethod()
+				{ public void run(TestCase tc) {((DeviceCacheTest) tc).testParseURL(); } }));
+		suite.addTest(new DeviceCacheTest("testPersistence", new TestMethod()
+				{ public void run(TestCase tc) {((DeviceCacheTest) tc).testPersistence(); } }));
+		suite.addTest(new DeviceCacheTest("testTimeToLive", new TestMethod()
+				{ public void run(TestCase tc) {((DeviceCacheTest) tc).testTimeToLive(); } }));
+		suite.addTest(new DeviceCacheTest("testFailure", new TestMethod()
+				{ public void run(TestCase tc) {((DeviceCacheTest) tc).testFailure(); } }));
+		suite.addTest(new DeviceCacheTest("testMetrics", new TestMethod()
+				{ public void run(TestCase tc) {((DeviceCacheTest) tc).testMetrics(); } }));
+
+		return suite;
+	}
+
+	/**
+	 * Tests the address and channel are read from Bluetooth URLs.
+	 */
+	public void testParseURL ()
+	{
+		assertEquals("Address from URL", "00123456789A", DeviceCache.getAddress(URL));
+		assertEquals("Address without protocol", "00123456789A", DeviceCache.getAddress("00123456789A:1"));
+		assertEquals("Plain address", "00123456789A", DeviceCache.getAddress("00123456789A"));
+
+		assertEquals("Channel from URL", "2", DeviceCache.getChannel(URL, null));
+		assertEquals("Channel without options", "1", DeviceCache.getChannel("btspp://00123456789A:1", null));
+		assertNull("No channel", DeviceCache.getChannel("00123456789A", null));
+		assertEquals("Default channel", "3", DeviceCache.getChannel("00123456789A", "3"));
+	}
+
+	/**
+	 * Tests what is remembered survives into a new cache.
+	 */
+	public void testPersistence ()
+	{
+		MemoryStore store = new MemoryStore();
+		DeviceCache cache = new DeviceCache( store );
+		assertNull("Nothing cached", cache.getLastURL());
+
+		cache.deviceFound( "Headset", "001122334455" );
+		cache.connected( URL, 15000, false );
+		assertEquals("Saved once", 1, store.saves);
+
+		DeviceCache restarted = new DeviceCache( store );
+		assertEquals("Last URL", URL, restarted.getLastURL());
+		assertEquals("Channel", "2", restarted.getChannel("00123456789A"));
+		assertNull("Never connected", restarted.getChannel("001122334455"));
+		assertTrue("Known GPS", restarted.isKnownGPS("00123456789a"));
+		assertFalse("Not a GPS", restarted.isKnownGPS("001122334455"));
+
+		String[][] known = restarted.getKnownDevices();
+		assertEquals("Known devices", 2, known.length);
+		assertEquals("Most recent first", "00123456789A", known[0][1]);
+		assertEquals("Name", "Headset", known[1][0]);
+
+		assertEquals("Metrics saved", 1, restarted.getDiscoveryCount());
+
+		// Corrupt data leaves the cache empty.
+		store.data = new byte[] { 1, 0 };
+		DeviceCache corrupt = new DeviceCache( store );
+		assertNull("Corrupt data ignored", corrupt.getLastURL());
+		assertEquals("No devices", 0, corrupt.getKnownDevices().length);
+	}
+
+	/**
+	 * Tests entries expire after the time to live.
+	 */
+	public void testTimeToLive ()
+	{
+		DeviceCache cache = new DeviceCache( new MemoryStore() );
+		cache.setTimeToLive( 50 );
+		cache.connected( URL, 500, false );
+		assertEquals("Fresh URL", URL, cache.getLastURL());
+
+		sleep( 100 );
+
+		assertNull("URL expired", cache.getLastURL());
+		assertNull("Channel expired", cache.getChannel("00123456789A"));
+		assertEquals("Device expired", 0, cache.getKnownDevices().length);
+	}
+
+	/**
+	 * Tests a failed connection forgets the URL but not the device.
+	 */
+	public void testFailure ()
+	{
+		MemoryStore store = new MemoryStore();
+		DeviceCache cache = new DeviceCache( store );
+		cache.connected( URL, 500, false );
+
+		cache.failed( "btspp://001122334455:1" );
+		assertEquals("Other URL failing changes nothing", URL, cache.getLastURL());
+		assertEquals("Not saved", 1, store.saves);
+
+		cache.failed( URL );
+		assertNull("URL forgotten", cache.getLastURL());
+		assertEquals("Channel kept", "2", cache.getChannel("00123456789A"));
+		assertEquals("Saved", 2, store.saves);
+	}
+
+	/**
+	 * Tests connection times are averaged by how the device was found.
+	 */
+	public void testMetrics ()
+	{
+		DeviceCache cache = new DeviceCache( new MemoryStore() );
+		assertEquals("No cached connections", -1, cache.getAverageCachedConnectTime());
+		assertEquals("No discoveries", -1, cache.getAverageDiscoveryConnectTime());
+		assertEquals("No connections", -1, cache.getLastConnectTime());
+
+		cache.connected( URL, 16000, false );
+		cache.connected( URL, 600, true );
+		cache.connected( URL, 400, true );
+
+		assertEquals("Cache hits", 2, cache.getCacheHitCount());
+		assertEquals("Discoveries", 1, cache.getDiscoveryCount());
+		assertEquals("Cached average", 500, cache.getAverageCachedConnectTime());
+		assertEquals("Discovery average", 16000, cache.getAverageDiscoveryConnectTime());
+		assertEquals("Last connection", 400, cache.getLastConnectTime());
+	}
+
+	/**
+	 * Sleeps the test thread.
+	 *
+	 * @param millis is how long to sleep.
+	 */
+	private void sleep (long millis)
+	{
+		try
+		{
+			Thread.sleep( millis );
+		}
+		catch (InterruptedException e)
+		{
+			fail( e.toString() );
+		}
+	}
+
+	/**
+	 * Keeps the cache in memory.
+	 */
+	private static final class MemoryStore
+		implements DeviceStore
+	{
+		byte[] data;
+		int saves;
+
+		public byte[] load ()
+			throws IOException
+		{
+			return data;
+		}
+
+		public void save (byte[] data)
+			throws IOException
+		{
+			this.data = data;
+			saves++;
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package org.j4me.bluetoothgps;
+
+import java.util.*;
+import j2meunit.framework.*;
+import org.j4me.*;
+
+/**
+ * Tests the <code>KalmanFilter</code> class.  It smooths the fixes from a
+ * GPS receiver and holds back ones that have not moved.
+ *
+ * @see org.j4me.bluetoothgps.KalmanFilter
+ */
+public class KalmanFilterTest
+	extends J4METestCase
+{
+	/**
+	 * Degrees of latitude in a meter.
+	 */
+	private static final double LATITUDE_PER_METER = 1.0 / 111195;
+
+	public KalmanFilterTest ()
+	{
+		super();
+	}
+
+	public KalmanFilterTest (String name, TestMethod method)
+	{
+		super( name, method );
+	}
+
+	public Test suite ()
+	{
+		TestSuite suite = new TestSuite();
+
+		suite.addTest(new KalmanFilterTest("testStandingStill", new TestMethod()
+				{ public void run(TestCase tc) {((KalmanFilterTest) tc).testStandingStill(); } }));
+		suite.addTest(new KalmanFilterTest("testMoving", new TestMethod()
+				{ public void run(TestCase tc) {((KalmanFilterTest) tc).testMoving(); } }));
+		suite.addTest(new KalmanFilterTest("testGap", new TestMethod()
+				{ public void run(TestCase tc) {((KalmanFilterTest) tc).testGap(); } }));
+		suite.addTest(new KalmanFilterTest("testCriteria", new TestMethod()
+				{ public void run(TestCase tc) {((KalmanFilterTest) tc).testCriteria(); } }));
+
+		return suite;
+	}
+
+	/**
+	 * Tests a receiver standing still wanders less once smoothed and is
+	 * only delivered once.
+	 */
+	public void testStandingStill ()
+	{
+		KalmanFilter filter = new KalmanFilter( 5 );
+		Random random = new Random( 3 );
+		double rawError = 0;
+		double smoothedError = 0;
+		int delivered = 0;
+
+		for ( int i = 0; i < 120; i++ )
+		{
+			// Jitter of several meters around a fixed point.
+			double north = random.nextDouble() * 10 - 5;
+			double lat = 37 + north * LATITUDE_PER_METER;
+
+			if ( filter.update(lat, -122, 1.2f, 0.3f, random.nextFloat() * 360, i * 1000L) )
+			{
+				delivered++;
+			}
+
+			if ( i >= 20 )
+			{
+				rawError += north * north;
+				double smoothed = (filter.getLatitude() - 37) / LATITUDE_PER_METER;
+				smoothedError += smoothed * smoothed;
+			}
+		}
+
+		assertTrue("Smoother " + smoothedError + " < " + rawError, smoothedError < rawError / 4);
+		assertEquals("Only the first delivered", 1, delivered);
+		assertTrue("Slow", filter.getSpeed() < 1);
+		assertTrue("No course", Float.isNaN(filter.getCourse()));
+	}
+
+	/**
+	 * Tests a receiver driving east is followed.
+	 */
+	public void testMoving ()
+	{
+		KalmanFilter filter = new KalmanFilter( 5 );
+		Random random = new Random( 5 );
+		double metersPerLongitude = 111195 * Math.cos( Math.toRadians(37) );
+		int delivered = 0;
+
+		for ( int i = 0; i < 60; i++ )
+		{
+			double east = i * 20 + random.nextDouble() * 10 - 5;
+			float speed = 20 + random.nextFloat() - 0.5f;
+
+			if ( filter.update(37, -122 + east / metersPerLongitude, 1.2f, speed, 90, i * 1000L) )
+			{
+				delivered++;
+			}
+		}
+
+		double east = (filter.getLongitude() + 122) * metersPerLongitude;
+		assertEquals("Position", 59 * 20, east, 5);
+		assertEquals("Latitude", 37, filter.getLatitude(), 2 * LATITUDE_PER_METER);
+		assertEquals("Speed", 20, filter.getSpeed(), 1);
+		assertEquals("Course", 90, filter.getCourse(), 3);
+		assertEquals("Every fix delivered", 60, delivered);
+		assertTrue("Error " + filter.getError(), filter.getError() < 1.2f * KalmanFilter.UERE);
+	}
+
+	/**
+	 * Tests the filter starts over after a long gap between fixes and
+	 * ignores a fix with the same time as the last.
+	 */
+	public void testGap ()
+	{
+		KalmanFilter filter = new KalmanFilter( 5 );
+
+		for ( int i = 0; i < 10; i++ )
+		{
+			filter.update( 37, -122, 1, 0, Float.NaN, i * 1000L );
+		}
+
+		// A new place after the receiver was off.
+		assertTrue("Delivered", filter.update(38, -121, 1, 0, Float.NaN, 9000 + KalmanFilter.MAX_GAP + 1));
+		assertEquals("Latitude", 38, filter.getLatitude(), 0);
+		assertEquals("Longitude", -121, filter.getLongitude(), 0);
+
+		// The same fix again is not used twice.
+		float error = filter.getError();
+		assertFalse("Repeat not delivered", filter.update(38.001, -121, 1, 0, Float.NaN, 9000 + KalmanFilter.MAX_GAP + 1));
+		assertEquals("Repeat ignored", 38, filter.getLatitude(), 0);
+		assertEquals("Error unchanged", error, filter.getError(), 0);
+
+		// Time going backwards also starts over.
+		filter.update( 39, -121, 1, 0, Float.NaN, 0 );
+		assertEquals("Backwards", 39, filter.getLatitude(), 0);
+
+		// Across the date line.
+		filter.reset();
+		filter.update( 0, 179.99999, 1, 0, Float.NaN, 0 );
+		filter.update( 0, -179.99999, 1, 0, Float.NaN, 1000 );
+		double longitude = filter.getLongitude();
+		assertTrue("Wrapped " + longitude, (longitude >= -180) && (longitude < 180) && (Math.abs(longitude) > 179.9999));
+	}
+
+	/**
+	 * Tests smoothing is set from the <code>Criteria</code>.
+	 */
+	public void testCriteria ()
+	{
+		Criteria criteria = new Criteria();
+		assertFalse("Off by default", criteria.isSmoothing());
+		assertEquals("Every location", Criteria.NO_REQUIREMENT, criteria.getMotionThreshold());
+
+		criteria.setSmoothing( true );
+		criteria.setMotionThreshold( 10 );
+		assertTrue("On", criteria.isSmoothing());
+		assertEquals("Threshold", 10, criteria.getMotionThreshold());
+
+		// Without a threshold every fix is delivered.
+		KalmanFilter filter = new KalmanFilter( Criteria.NO_REQUIREMENT );
+
+		for ( int i = 0; i < 10; i++ )
+		{
+			assertTrue("Fix " + i, filter.update(37, -122, 1, 0, Float.NaN, i * 1000L));
+		}
+	}
+}
@@ -0,0 +1,193 @@
+package org.j4me.bluetoothgps;
+
+import j2meunit.framework.*;
+import org.j4me.*;
+
+/**
+ * Tests the <code>LocationCache</code> class.  It holds a provider's latest
+ * location and wakes threads waiting for one as soon as it arrives.
+ *
+ * @see org.j4me.bluetoothgps.LocationCache
+ */
+public class LocationCacheTest
+	extends J4METestCase
+{
+	public LocationCacheTest ()
+	{
+		super();
+	}
+
+	public LocationCacheTest (String name, TestMethod method)
+	{
+		super( name, method );
+	}
+
+	public Test suite ()
+	{
+		TestSuite suite = new TestSuite();
+
+		suite.addTest(new LocationCacheTest("testMaxAge", new TestMethod()
+				{ public void run(TestCase tc) {((LocationCacheTest) tc).testMaxAge(); } }));
+		suite.addTest(new LocationCacheTest("testWakeUp", new TestMethod()
+				{ public void run(TestCase tc) {((LocationCacheTest) tc).testWakeUp(); } }));
+		suite.addTest(new LocationCacheTest("testTimeout", new TestMethod()
+				{ public void run(TestCase tc) {((LocationCacheTest) tc).testTimeout(); } }));
+		suite.addTest(new LocationCacheTest("testClose", new TestMethod()
+				{ public void run(TestCase tc) {((LocationCacheTest) tc).testClose(); } }));
+
+		return suite;
+	}
+
+	/**
+	 * Tests a cached location is returned at once when it is recent enough.
+	 */
+	public void testMaxAge ()
+	{
+		try
+		{
+			LocationCache cache = new LocationCache();
+			assertNull("There is no location yet.", cache.get());
+			assertNull("There is no location of any age.", cache.get(-1));
+
+			Location l = location();
+			cache.set( l );
+
+			assertSame("Any age returns the location.", l, cache.get(-1));
+			assertSame("A recent location is returned.", l, cache.get(1000));
+
+			long start = System.currentTimeMillis();
+			assertSame("A recent location does not wait.", l, cache.waitFor(1000, 5000));
+			assertTrue("It returned at once.", System.currentTimeMillis() - start < 100);
+
+			Thread.sleep( 50 );
+			assertNull("An old location is not returned.", cache.get(10));
+
+			cache.clear();
+			assertNull("The location was forgotten.", cache.get());
+		}
+		catch (InterruptedException e)
+		{
+			fail( e.toString() );
+		}
+	}
+
+	/**
+	 * Tests a waiting thread gets a new location the moment it is set.
+	 */
+	public void testWakeUp ()
+	{
+		try
+		{
+			final LocationCache cache = new LocationCache();
+			final Location l = location();
+			cache.set( location() );
+
+			Thread setter = new Thread()
+				{
+					public void run ()
+					{
+						try
+						{
+							Thread.sleep( 100 );
+						}
+						catch (InterruptedException e)
+						{
+						}
+
+						cache.set( l );
+					}
+				};
+
+			long start = System.currentTimeMillis();
+			setter.start();
+
+			// Max age 0 means the old location is not good enough.
+			Location got = cache.waitFor( 0, 5000 );
+			long elapsed = System.currentTimeMillis() - start;
+
+			assertSame("The new location was returned.", l, got);
+			assertTrue("It waited for the new location.", elapsed >= 90);
+			assertTrue("It woke as soon as the location was set.", elapsed < 300);
+		}
+		catch (InterruptedException e)
+		{
+			fail( e.toString() );
+		}
+	}
+
+	/**
+	 * Tests waiting ends at the timeout when there is no location.
+	 */
+	public void testTimeout ()
+	{
+		try
+		{
+			LocationCache cache = new LocationCache();
+
+			long start = System.currentTimeMillis();
+			Location got = cache.waitFor( -1, 200 );
+			long elapsed = System.currentTimeMillis() - start;
+
+			assertNull("No location arrived.", got);
+			assertTrue("It waited the whole timeout.", elapsed >= 190);
+			assertTrue("It did not wait longer than the timeout.", elapsed < 400);
+		}
+		catch (InterruptedException e)
+		{
+			fail( e.toString() );
+		}
+	}
+
+	/**
+	 * Tests closing wakes waiting threads without a location.
+	 */
+	public void testClose ()
+	{
+		try
+		{
+			final LocationCache cache = new LocationCache();
+
+			Thread closer = new Thread()
+				{
+					public void run ()
+					{
+						try
+						{
+							Thread.sleep( 100 );
+						}
+						catch (InterruptedException e)
+						{
+						}
+
+						cache.close();
+					}
+				};
+
+			long start = System.currentTimeMillis();
+			closer.start();
+
+			Location got = cache.waitFor( -1, 5000 );
+			long elapsed = System.currentTimeMillis() - start;
+
+			assertNull("Closing returns no location.", got);
+			assertTrue("It woke when closed.", elapsed < 1000);
+			assertNull("Waiting while closed returns at once.", cache.waitFor(-1, 5000));
+
+			cache.open();
+			assertNull("Once opened again it waits.", cache.waitFor(-1, 10));
+		}
+		catch (InterruptedException e)
+		{
+			fail( e.toString() );
+		}
+	}
+
+	/**
+	 * @return A valid location.
+	 */
+	private static Location location ()
+	{
+		QualifiedCoordinates c = new QualifiedCoordinates( 45, -93, 250, 3, 5 );
+		return new LocationImpl( c, 1, 90, System.currentTimeMillis() );
+	}
+}
@@ -0,0 +1,204 @@
+package org.j4me.bluetoothgps;
+
+import java.util.*;
+import j2meunit.framework.*;
+import org.j4me.*;
+
+/**
+ * Tests the <code>LocationDispatcher</code> class.  It calls location
+ * listeners on their own thread so they cannot hold up the GPS reader.
+ *
+ * @see org.j4me.bluetoothgps.LocationDispatcher
+ */
+public class LocationDispatcherTest
+	extends J4METestCase
+{
+	public LocationDispatcherTest ()
+	{
+		super();
+	}
+
+	public LocationDispatcherTest (String name, TestMethod method)
+	{
+		super( name, method );
+	}
+
+	public Test suite ()
+	{
+		TestSuite suite = new TestSuite();
+
+		suite.addTest(new LocationDispatcherTest("testCoalesceInOrder", new TestMethod()
+				{ public void run(TestCase tc) {((LocationDispatcherTest) tc).testCoalesceInOrder(); } }));
+		suite.addTest(new LocationDispatcherTest("testSlowListener", new TestMethod()
+				{ public void run(TestCase tc) {((LocationDispatcherTest) tc).testSlowListener(); } }));
+
+		return suite;
+	}
+
+	/**
+	 * Tests locations that pile up behind a busy listener are replaced by
+	 * the latest one and state changes keep their place.
+	 */
+	public void testCoalesceInOrder ()
+	{
+		final Vector events = new Vector();
+		final Object gate = new Object();
+		final boolean[] open = new boolean[1];
+
+		LocationDispatcher dispatcher = new LocationDispatcher( null );
+		dispatcher.setListener( new LocationListener()
+			{
+				public void locationUpdated (LocationProvider provider, Location location)
+				{
+					events.addElement( new Long(location.getTimestamp()) );
+				}
+
+				public void providerStateChanged (LocationProvider provider, int newState)
+				{
+					events.addElement( new Integer(newState) );
+
+					// Block on the first event until the test has queued the rest.
+					synchronized ( gate )
+					{
+						gate.notifyAll();
+
+						while ( open[0] == false )
+						{
+							try
+							{
+								gate.wait();
+							}
+							catch (InterruptedException e)
+							{
+								return;
+							}
+						}
+					}
+				}
+			});
+
+		try
+		{
+			synchronized ( gate )
+			{
+				dispatcher.start();
+				dispatcher.providerStateChanged( LocationProvider.AVAILABLE );
+				gate.wait( 2000 );  // Until the listener is busy with the first event
+			}
+
+			dispatcher.locationUpdated( location(1) );
+			dispatcher.locationUpdated( location(2) );
+			dispatcher.providerStateChanged( LocationProvider.TEMPORARILY_UNAVAILABLE );
+			dispatcher.locationUpdated( location(3) );
+			dispatcher.locationUpdated( location(4) );
+			assertEquals("Waiting", 3, dispatcher.getPendingCount());
+
+			synchronized ( gate )
+			{
+				open[0] = true;
+				gate.notifyAll();
+			}
+
+			waitForDelivery( dispatcher, 4 );
+			dispatcher.stop();
+		}
+		catch (InterruptedException e)
+		{
+			fail( e.toString() );
+		}
+
+		assertEquals("Events", 4, events.size());
+		assertEquals("Available", new Integer(LocationProvider.AVAILABLE), events.elementAt(0));
+		assertEquals("Latest before state change", new Long(2), events.elementAt(1));
+		assertEquals("Unavailable", new Integer(LocationProvider.TEMPORARILY_UNAVAILABLE), events.elementAt(2));
+		assertEquals("Latest", new Long(4), events.elementAt(3));
+		assertEquals("Coalesced", 2, dispatcher.getCoalescedCount());
+	}
+
+	/**
+	 * Tests queueing events returns right away even when the listener is slow.
+	 */
+	public void testSlowListener ()
+	{
+		final int[] delivered = new int[1];
+
+		LocationDispatcher dispatcher = new LocationDispatcher( null );
+		dispatcher.setListener( new LocationListener()
+			{
+				public void locationUpdated (LocationProvider provider, Location location)
+				{
+					delivered[0]++;
+
+					try
+					{
+						Thread.sleep( 100 );  // A slow repaint
+					}
+					catch (InterruptedException e)
+					{
+					}
+				}
+
+				public void providerStateChanged (LocationProvider provider, int newState)
+				{
+				}
+			});
+		dispatcher.start();
+
+		long start = System.currentTimeMillis();
+
+		for ( int i = 0; i < 50; i++ )
+		{
+			dispatcher.locationUpdated( location(i) );
+		}
+
+		long elapsed = System.currentTimeMillis() - start;
+		assertTrue("Queueing did not wait " + elapsed, elapsed < 100);
+
+		try
+		{
+			Thread.sleep( 150 );
+		}
+		catch (InterruptedException e)
+		{
+			fail( e.toString() );
+		}
+
+		dispatcher.setListener( null );
+		dispatcher.stop();
+
+		assertTrue("Most coalesced", dispatcher.getCoalescedCount() >= 45);
+		assertEquals("Every location accounted for", 50,
+				dispatcher.getDeliveredCount() + dispatcher.getCoalescedCount() + dispatcher.getDroppedCount());
+	}
+
+	/**
+	 * @param timestamp identifies the location.
+	 * @return A location with the timestamp.
+	 */
+	private static Location location (long timestamp)
+	{
+		QualifiedCoordinates coordinates = new QualifiedCoordinates( 37.7, -122.4, 59.7f, 5, 10 );
+		return new LocationImpl( coordinates, 0, 0, timestamp );
+	}
+
+	/**
+	 * Waits for the dispatcher to deliver events.
+	 *
+	 * @param dispatcher is the dispatcher.
+	 * @param count is the number of events to wait for.
+	 * @throws InterruptedException if the thread is interrupted.
+	 */
+	private static void waitForDelivery (LocationDispatcher dispatcher, int count)
+		throws InterruptedException
+	{
+		long end = System.currentTimeMillis() + 2000;
+
+		while ( (dispatcher.getDeliveredCount() < count) && (System.currentTimeMillis() < end) )
+		{
+			Thread.sleep( 10 );
+		}
+
+		// Let the last listener call finish.
+		Thread.sleep( 20 );
+	}
+}
@@ -0,0 +1,151 @@
+package org.j4me.bluetoothgps;
+
+import j2meunit.framework.*;
+import org.j4me.*;
+
+/**
+ * Tests the <code>LocationHistory</code> class.  It keeps a provider's
+ * recent fixes in a ring of primitive arrays.
+ *
+ * @see org.j4me.bluetoothgps.LocationHistory
+ */
+public class LocationHistoryTest
+	extends J4METestCase
+{
+	/**
+	 * Degrees of latitude in 100 meters.
+	 */
+	private static final double LATITUDE_PER_100M = 100.0 / 111195;
+
+	public LocationHistoryTest ()
+	{
+		super();
+	}
+
+	public LocationHistoryTest (String name, TestMethod method)
+	{
+		super( name, method );
+	}
+
+	public Test suite ()
+	{
+		TestSuite suite = new TestSuite();
+
+		suite.addTest(new LocationHistoryTest("testRing", new TestMethod()
+				{ public void run(TestCase tc) {((LocationHistoryTest) tc).testRing(); } }));
+		suite.addTest(new LocationHistoryTest("testCopyLast", new TestMethod()
+				{ public void run(TestCase tc) {((LocationHistoryTest) tc).testCopyLast(); } }));
+		suite.addTest(new LocationHistoryTest("testWindow", new TestMethod()
+				{ public void run(TestCase tc) {((LocationHistoryTest) tc).testWindow(); } }));
+		suite.addTest(new LocationHistoryTest("testMockProvider", new TestMethod()
+				{ public void run(TestCase tc) {((LocationHistoryTest) tc).testMockProvider(); } }));
+
+		return suite;
+	}
+
+	/**
+	 * Tests the newest fix is index 0 and the oldest are overwritten once
+	 * the history is full.
+	 */
+	public void testRing ()
+	{
+		LocationHistory history = new LocationHistory( 3 );
+		assertEquals("Empty", 0, history.size());
+
+		for ( int i = 1; i <= 5; i++ )
+		{
+			history.add( i, -i, i * 1000, 5, i, Float.NaN );
+		}
+
+		assertEquals("Full", 3, history.size());
+		assertEquals("Capacity", 3, history.getCapacity());
+		assertEquals("Newest", 5.0, history.getLatitude(0), 0.0);
+		assertEquals("Newest longitude", -5.0, history.getLongitude(0), 0.0);
+		assertEquals("Oldest kept", 3000, history.getTimestamp(2));
+		assertEquals("Speed", 4.0f, history.getSpeed(1), 0.0f);
+		assertEquals("Accuracy", 5.0f, history.getAccuracy(1), 0.0f);
+		assertTrue("Course", Float.isNaN(history.getCourse(0)));
+
+		try
+		{
+			history.getLatitude( 3 );
+			fail("Only three fixes are kept");
+		}
+		catch (ArrayIndexOutOfBoundsException e)
+		{
+			// Expected.
+		}
+
+		history.clear();
+		assertEquals("Cleared", 0, history.size());
+	}
+
+	/**
+	 * Tests the newest fixes are copied oldest first.
+	 */
+	public void testCopyLast ()
+	{
+		LocationHistory history = new LocationHistory( 4 );
+
+		for ( int i = 1; i <= 6; i++ )
+		{
+			history.add( i, 0, i, Float.NaN, Float.NaN, Float.NaN );
+		}
+
+		double[] lats = new double[10];
+		long[] times = new long[10];
+
+		assertEquals("Copied", 2, history.copyLast(2, lats, null, times));
+		assertEquals("Oldest first", 5.0, lats[0], 0.0);
+		assertEquals("Then newest", 6.0, lats[1], 0.0);
+		assertEquals("Times", 6, times[1]);
+
+		assertEquals("No more than stored", 4, history.copyLast(10, lats, null, null));
+		assertEquals("Oldest stored", 3.0, lats[0], 0.0);
+
+		assertEquals("No more than fit", 1, history.copyLast(10, new double[1], null, null));
+	}
+
+	/**
+	 * Tests the distance and average speed over a window.
+	 */
+	public void testWindow ()
+	{
+		LocationHistory history = new LocationHistory( 10 );
+		assertEquals("No distance", 0.0f, history.getDistance(0), 0.0f);
+		assertTrue("No speed", Float.isNaN(history.getAverageSpeed(0)));
+
+		// North 100 meters every 10 seconds.
+		for ( int i = 0; i < 6; i++ )
+		{
+			history.add( i * LATITUDE_PER_100M, 0, i * 10000, 5, 10, 0 );
+		}
+
+		assertEquals("All", 6, history.countSince(0));
+		assertEquals("Last 20 seconds", 3, history.countSince(30000));
+		assertEquals("Future", 0, history.countSince(60000));
+
+		assertEquals("Total distance", 500, history.getDistance(0), 1);
+		assertEquals("Window distance", 200, history.getDistance(30000), 1);
+		assertEquals("Average speed", 10, history.getAverageSpeed(30000), 0.1);
+		assertTrue("One fix", Float.isNaN(history.getAverageSpeed(50000)));
+	}
+
+	/**
+	 * Tests a provider adds its locations to its history.
+	 */
+	public void testMockProvider ()
+	{
+		MockLocationProvider provider = new MockLocationProvider();
+		LocationHistory history = provider.getHistory();
+		assertNotNull("History", history);
+
+		provider.setLocation( new QualifiedCoordinates(10, 20, 0, 5, 5), 3 );
+		provider.setLocation( new QualifiedCoordinates(11, 21, 0, 5, 5), 4 );
+
+		assertEquals("Fixes", 2, history.size());
+		assertEquals("Latest", 11.0, history.getLatitude(0), 0.0);
+		assertEquals("Speed", 4.0f, history.getSpeed(0), 0.0f);
+		assertEquals("Accuracy", 5.0f, history.getAccuracy(0), 0.0f);
+	}
+}
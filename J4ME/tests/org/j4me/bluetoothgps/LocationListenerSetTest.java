@@ -0,0 +1,325 @@
+package org.j4me.bluetoothgps;
+
+import java.util.*;
+import j2meunit.framework.*;
+import org.j4me.*;
+
+/**
+ * Tests the <code>LocationListenerSet</code> class.  It sends locations to
+ * several listeners, each with its own interval and distance filters.
+ *
+ * @see org.j4me.bluetoothgps.LocationListenerSet
+ */
+public class LocationListenerSetTest
+	extends J4METestCase
+{
+	/**
+	 * About how many degrees of latitude are one meter.
+	 */
+	private static final double DEGREES_PER_METER = 1.0 / 111195.0;
+
+	public LocationListenerSetTest ()
+	{
+		super();
+	}
+
+	public LocationListenerSetTest (String name, TestMethod method)
+	{
+		super( name, method );
+	}
+
+	public Test suite ()
+	{
+		TestSuite suite = new TestSuite();
+
+		suite.addTest(new LocationListenerSetTest("testInterval", new TestMethod()
+				{ public void run(TestCase tc) {((LocationListenerSetTest) tc).testInterval(); } }));
+		suite.addTest(new LocationListenerSetTest("testMinDistance", new TestMethod()
+				{ public void run(TestCase tc) {((LocationListenerSetTest) tc).testMinDistance(); } }));
+		suite.addTest(new LocationListenerSetTest("testSetLocationListener", new TestMethod()
+				{ public void run(TestCase tc) {((LocationListenerSetTest) tc).testSetLocationListener(); } }));
+		suite.addTest(new LocationListenerSetTest("testRemove", new TestMethod()
+				{ public void run(TestCase tc) {((LocationListenerSetTest) tc).testRemove(); } }));
+		suite.addTest(new LocationListenerSetTest("testMaxAge", new TestMethod()
+				{ public void run(TestCase tc) {((LocationListenerSetTest) tc).testMaxAge(); } }));
+		suite.addTest(new LocationListenerSetTest("testTimeout", new TestMethod()
+				{ public void run(TestCase tc) {((LocationListenerSetTest) tc).testTimeout(); } }));
+		suite.addTest(new LocationListenerSetTest("testProviderDefaults", new TestMethod()
+				{ public void run(TestCase tc) {((LocationListenerSetTest) tc).testProviderDefaults(); } }));
+
+		return suite;
+	}
+
+	/**
+	 * Tests each listener gets locations no more often than its interval.
+	 */
+	public void testInterval ()
+	{
+		LocationListenerSet set = new LocationListenerSet( 1000 );
+		Recorder every = new Recorder();
+		Recorder slow = new Recorder();
+		set.add( every, 0, 0 );
+		set.add( slow, 3000, 0 );
+
+		for ( int second = 0; second < 10; second++ )
+		{
+			set.locationUpdated( null, location(0, second), second * 1000L );
+		}
+
+		assertEquals("Every location", 10, every.locations.size());
+		assertEquals("Every third second", 4, slow.locations.size());
+		assertEquals("First", new Long(0), slow.locations.elementAt(0));
+		assertEquals("Second", new Long(3), slow.locations.elementAt(1));
+		assertEquals("Last", new Long(9), slow.locations.elementAt(3));
+	}
+
+	/**
+	 * Tests a listener only gets a location after moving far enough along
+	 * the track.
+	 */
+	public void testMinDistance ()
+	{
+		LocationListenerSet set = new LocationListenerSet( 1000 );
+		Recorder still = new Recorder();
+		Recorder moving = new Recorder();
+		set.add( still, 0, 0 );
+		set.add( moving, 0, 25 );
+
+		// Move 10 meters a second.
+		for ( int second = 0; second < 10; second++ )
+		{
+			set.locationUpdated( null, location(second * 10, second), second * 1000L );
+		}
+
+		assertEquals("Every location", 10, still.locations.size());
+		assertEquals("Every 30 meters", 4, moving.locations.size());
+		assertEquals("After 30 meters", new Long(3), moving.locations.elementAt(1));
+
+		// Standing still sends nothing more.
+		set.locationUpdated( null, location(90, 10), 10000 );
+		set.locationUpdated( null, location(90, 11), 11000 );
+		assertEquals("Standing still", 4, moving.locations.size());
+		assertEquals("Still gets them", 12, still.locations.size());
+	}
+
+	/**
+	 * Tests the listener set like <code>LocationProvider.setLocationListener</code>
+	 * and that an interval of 0 only sends state changes.
+	 */
+	public void testSetLocationListener ()
+	{
+		LocationListenerSet set = new LocationListenerSet( 1000 );
+		Recorder primary = new Recorder();
+		set.setLocationListener( primary, -1 );
+
+		set.locationUpdated( null, location(0, 0), 0 );
+		set.locationUpdated( null, location(0, 1), 500 );
+		set.locationUpdated( null, location(0, 2), 1000 );
+		assertEquals("Default interval", 2, primary.locations.size());
+
+		Recorder statusOnly = new Recorder();
+		set.setLocationListener( statusOnly, 0 );
+		assertEquals("Replaced", 1, set.size());
+
+		set.locationUpdated( null, location(0, 3), 2000 );
+		set.providerStateChanged( null, LocationProvider.TEMPORARILY_UNAVAILABLE );
+		assertEquals("No locations", 0, statusOnly.locations.size());
+		assertEquals("State changes", 1, statusOnly.states.size());
+		assertEquals("Old listener removed", 0, primary.states.size());
+
+		set.setLocationListener( null, -1 );
+		assertTrue("Empty", set.isEmpty());
+	}
+
+	/**
+	 * Tests removing a listener does not affect the others.
+	 */
+	public void testRemove ()
+	{
+		LocationListenerSet set = new LocationListenerSet( 1000 );
+		Recorder primary = new Recorder();
+		Recorder added = new Recorder();
+		set.setLocationListener( primary, 1 );
+		set.add( added, 0, 0 );
+
+		assertFalse("Not registered", set.remove(new Recorder()));
+		set.setLocationListener( null, -1 );
+		assertEquals("Added listener kept", 1, set.size());
+
+		set.locationUpdated( null, location(0, 0), 0 );
+		assertEquals("Primary removed", 0, primary.locations.size());
+		assertEquals("Added", 1, added.locations.size());
+
+		assertTrue("Registered", set.remove(added));
+		set.locationUpdated( null, location(0, 1), 1000 );
+		assertEquals("Removed", 1, added.locations.size());
+		assertTrue("Empty", set.isEmpty());
+
+		try
+		{
+			set.add( added, -1, 0 );
+			fail("Negative interval");
+		}
+		catch (IllegalArgumentException e)
+		{
+			// Expected.
+		}
+	}
+
+	/**
+	 * Tests a listener with a maximum age is sent a recent cached location
+	 * as soon as it is due instead of waiting for a new one.
+	 */
+	public void testMaxAge ()
+	{
+		LocationCache cache = new LocationCache();
+		LocationListenerSet set = new LocationListenerSet( 1000, cache );
+		Recorder primary = new Recorder();
+		long now = System.currentTimeMillis();
+
+		// Nothing is cached so it waits for a new location.
+		set.setLocationListener( primary, 5, -1, 2 );
+		long next = set.expire( null, now );
+		assertEquals("Nothing to send", 0, primary.locations.size());
+		assertEquals("Checks again after an interval", now + 5000, next);
+
+		Location fresh = location( 0, 1 );
+		cache.set( fresh );
+		set.locationUpdated( null, fresh, now );
+		assertEquals("New location", 1, primary.locations.size());
+		assertEquals("Counted as new", 1, set.getFreshCount());
+
+		// Due again and the cached location is recent enough.
+		Location cached = location( 0, 2 );
+		cache.set( cached );
+		next = set.expire( null, now + 4000 );
+		assertEquals("Not due yet", 1, primary.locations.size());
+		assertEquals("Checks when due", now + 5000, next);
+
+		next = set.expire( null, now + 5000 );
+		assertEquals("Cached location sent when due", 2, primary.locations.size());
+		assertEquals("It was the cached one", new Long(2), primary.locations.elementAt(1));
+		assertEquals("Counted as cached", 1, set.getCachedCount());
+		assertEquals("Next due an interval later", now + 10000, next);
+
+		// A cached location that is too old is not sent.
+		cache.set( location(0, 3) );
+		LocationListenerSet strict = new LocationListenerSet( 1000, cache );
+		Recorder other = new Recorder();
+		strict.setLocationListener( other, 5, -1, -1 );
+		strict.expire( null, now );
+		assertEquals("No maximum age so nothing cached is sent", 0, other.locations.size());
+	}
+
+	/**
+	 * Tests a listener is sent an invalid location when none comes in time.
+	 */
+	public void testTimeout ()
+	{
+		LocationListenerSet set = new LocationListenerSet( 1000, new LocationCache() );
+		Recorder primary = new Recorder();
+		Recorder added = new Recorder();
+		set.setLocationListener( primary, 10, 3, -1 );
+		set.add( added, 0, 0 );
+
+		long next = set.expire( null, 0 );
+		assertEquals("Timeout starts when registered", 3000, next);
+
+		next = set.expire( null, 3000 );
+		assertEquals("Timed out", 1, primary.locations.size());
+		assertEquals("Invalid location", 1, primary.invalid);
+		assertEquals("Counted as a timeout", 1, set.getTimeoutCount());
+		assertEquals("Other listeners are not sent it", 0, added.locations.size());
+		assertEquals("Next timeout an interval plus the timeout later", 16000, next);
+
+		set.locationUpdated( null, location(0, 1), 13000 );
+		assertEquals("New location", 2, primary.locations.size());
+		next = set.expire( null, 16000 );
+		assertEquals("Not timed out after a new location", 1, set.getTimeoutCount());
+		assertEquals("Timeout moved", 26000, next);
+
+		set.setLocationListener( null, -1 );
+		assertEquals("Nothing to check", Long.MAX_VALUE, set.expire(null, 30000));
+	}
+
+	/**
+	 * @param meters is how far north of the starting point the location is.
+	 * @param timestamp identifies the location.
+	 * @return A location.
+	 */
+	private static Location location (double meters, long timestamp)
+	{
+		QualifiedCoordinates coordinates = new QualifiedCoordinates( 37.7 + meters * DEGREES_PER_METER, -122.4, 59.7f, 5, 10 );
+		return new LocationImpl( coordinates, 0, 0, timestamp );
+	}
+
+	/**
+	 * Records the events sent to it.
+	 */
+	/**
+	 * Tests a provider written before <code>addLocationListener</code> existed
+	 * gets the added listener through <code>setLocationListener</code>.
+	 */
+	public void testProviderDefaults ()
+	{
+		final Object[] set = new Object[2];
+		LocationProvider provider = new LocationProvider()
+			{
+				public int getState () { return AVAILABLE; }
+				public Location getLocation (int timeout) { return null; }
+				public void close () { }
+				public void reset () { }
+				protected Location getLastKnownLocationToProvider () { return null; }
+
+				public void setLocationListener (LocationListener listener, int interval, int timeout, int maxAge)
+				{
+					set[0] = listener;
+					set[1] = new Integer( interval );
+				}
+			};
+
+		Recorder recorder = new Recorder();
+		provider.addLocationListener( recorder, 1500, 10 );
+		assertSame("Set", recorder, set[0]);
+		assertEquals("Seconds rounded up", new Integer(2), set[1]);
+
+		provider.addLocationListener( recorder, 0, 0 );
+		assertEquals("Default interval", new Integer(-1), set[1]);
+
+		try
+		{
+			provider.addLocationListener( null, 0, 0 );
+			fail("null listener");
+		}
+		catch (IllegalArgumentException e)
+		{
+			// Expected.
+		}
+
+		provider.removeLocationListener( recorder );
+		assertNull("Removed", set[0]);
+	}
+
+	private static final class Recorder
+		implements LocationListener
+	{
+		final Vector locations = new Vector();
+		final Vector states = new Vector();
+		int invalid;
+
+		public void locationUpdated (LocationProvider provider, Location location)
+		{
+			locations.addElement( new Long(location.getTimestamp()) );
+
+			if ( location.isValid() == false )
+			{
+				invalid++;
+			}
+		}
+
+		public void providerStateChanged (LocationProvider provider, int newState)
+		{
+			states.addElement( new Integer(newState) );
+		}
+	}
+}
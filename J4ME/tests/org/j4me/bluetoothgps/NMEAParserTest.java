@@ -41,14 +41,33 @@ public class NMEAParserTest
 				{ public void run(TestCase tc) {((NMEAParserTest) tc).testGPGSA(); } }));
 		suite.addTest(new NMEAParserTest("testBatchData", new TestMethod() 
 				{ public void run(TestCase tc) {((NMEAParserTest) tc).testBatchData(); } }));
+		suite.addTest(new NMEAParserTest("testGPGSV", new TestMethod() 
+				{ public void run(TestCase tc) {((NMEAParserTest) tc).testGPGSV(); } }));
+		suite.addTest(new NMEAParserTest("testGPVTG", new TestMethod() 
+				{ public void run(TestCase tc) {((NMEAParserTest) tc).testGPVTG(); } }));
+		suite.addTest(new NMEAParserTest("testGPGLL", new TestMethod() 
+				{ public void run(TestCase tc) {((NMEAParserTest) tc).testGPGLL(); } }));
+		suite.addTest(new NMEAParserTest("testTalkers", new TestMethod() 
+				{ public void run(TestCase tc) {((NMEAParserTest) tc).testTalkers(); } }));
+		suite.addTest(new NMEAParserTest("testSentenceOrder", new TestMethod() 
+				{ public void run(TestCase tc) {((NMEAParserTest) tc).testSentenceOrder(); } }));
+		suite.addTest(new NMEAParserTest("testResynchronize", new TestMethod() 
+				{ public void run(TestCase tc) {((NMEAParserTest) tc).testResynchronize(); } }));
+		suite.addTest(new NMEAParserTest("testParseNumbers", new TestMethod() 
+				{ public void run(TestCase tc) {((NMEAParserTest) tc).testParseNumbers(); } }));
+		suite.addTest(new NMEAParserTest("testParseDegrees", new TestMethod() 
+				{ public void run(TestCase tc) {((NMEAParserTest) tc).testParseDegrees(); } }));
+		suite.addTest(new NMEAParserTest("testTimestamps", new TestMethod() 
+				{ public void run(TestCase tc) {((NMEAParserTest) tc).testTimestamps(); } }));
+		suite.addTest(new NMEAParserTest("testSteadyStateAllocation", new TestMethod() 
+				{ public void run(TestCase tc) {((NMEAParserTest) tc).testSteadyStateAllocation(); } }));
 		
 		return suite;
 	}
 	
 	/**
-	 * Tests the <code>indexOf</code> and <code>lastIndexOf</code> methods.  They
-	 * scan a byte array similarly to <code>String.indexOf</code> and
-	 * <code>String.lastIndexOf</code>.
+	 * Tests the <code>indexOf</code> method.  It scans a byte array similarly
+	 * to <code>String.indexOf</code>.
 	 */
 	public void testByteArrayFinds ()
 	{
@@ -61,13 +80,6 @@ public class NMEAParserTest
 		
 		index = NMEAParser.indexOf( array, match, 0, array.length - 1 );
 		assertEquals("indexOf() should stop before z", -1, index);
-		
-		// lastIndexOf().
-		index = NMEAParser.lastIndexOf( array, match, array.length - 1 );
-		assertEquals("lastIndexOf() should find z when starting at the end", array.length - 1, index);
-		
-		index = NMEAParser.lastIndexOf( array, match, array.length - 2 );
-		assertEquals("lastIndexOf() should not find z when starting before it", -1, index);
 	}
 	
 	/**
@@ -111,6 +123,20 @@ public class NMEAParserTest
 		parser = new NMEAParser();
 		parsedSentences = parser.parse( input, input.length );
 		assertEquals("Merged sentences should have been discarded", NMEAParser.TYPE_NONE, parsedSentences);
+
+		
+		// Corrupt sentences are counted.
+		sentence = "$GPRMC,190350.000,A,3746.0164,N,12226.1176,W,0.45,210.68,031006,,*15\r\n" +
+			"$GPRMC,190350.000,A,3746.0164,N,12226.1176,W,0.45,210.68,031006,,*16\r\n" +
+			"$GPGGA,190353.000,3746.0164,N*Z\r\n";
+		input = sentence.getBytes();
+		
+		GPSStatistics statistics = new GPSStatistics();
+		parser = new NMEAParser();
+		parser.setStatistics( statistics );
+		parser.parse( input, input.length );
+		assertEquals("Sentences received", 3, statistics.getSentenceCount());
+		assertEquals("Checksum failures", 2, statistics.getChecksumFailureCount());
 	}
 
 	/**
@@ -120,7 +146,7 @@ public class NMEAParserTest
 	public void testThrowAwaySentence ()
 	{
 		// A legitimate NMEA sentence we don't care about.
-		String sentence = "$GPGSV,3,2,09,19,32,069,27,10,25,288,25,03,14,043,30,23,12,143,16*70\r\n";
+		String sentence = "$GPZDA,201530.00,04,07,2002,00,00*60\r\n";
 		byte[] input = sentence.getBytes();
 
 		NMEAParser parser = new NMEAParser();
@@ -153,12 +179,15 @@ public class NMEAParserTest
 		assertEquals("GPRMC sentence should have been parsed", NMEAParser.TYPE_GPRMC, parsedSentences);
 
 		GPSRecord record = parser.getRecordBuffer();
-		assertEquals("GPRMC latitude", "3746.0188", record.lattitude);
+		assertEquals("GPRMC latitude", 37.76698, record.lattitude, 0.0000001);
 		assertEquals("GPRMC latitude direction", 'N', record.lattitudeDirection);
-		assertEquals("GPRMC longitude", "12226.1276", record.longitude);
+		assertEquals("GPRMC longitude", -122.43546, record.longitude, 0.0000001);
 		assertEquals("GPRMC longitude direction", 'W', record.longitudeDirection);
-		assertEquals("GPRMC speed", "0.40", record.speed);
-		assertEquals("GPRMC course", "130.67", record.course);
+		assertEquals("GPRMC speed", 0.40, record.speed, 0.0001);
+		assertEquals("GPRMC course", 130.67, record.course, 0.0001);
+		assertEquals("GPRMC date", 140207, record.date);
+		assertEquals("GPRMC time", ((6 * 60 + 36) * 60 + 5) * 1000, record.millisSinceMidnight);
+		assertEquals("GPRMC timestamp", 1171434965000L, record.timestamp);
 	}
 	
 	/**
@@ -175,7 +204,9 @@ public class NMEAParserTest
 		assertEquals("GPGGA sentence should have been parsed", NMEAParser.TYPE_GPGGA, parsedSentences);
 
 		GPSRecord record = parser.getRecordBuffer();
-		assertEquals("GPGGA altitude", "55.1", record.altitude);
+		assertEquals("GPGGA altitude", 55.1, record.altitude, 0.0001);
+		assertEquals("GPGGA quality", 1, record.quality);
+		assertEquals("GPGGA satellites", 5, record.satelliteCount);
 	}
 	
 	/**
@@ -192,10 +223,130 @@ public class NMEAParserTest
 		assertEquals("GPGSA sentence should have been parsed", NMEAParser.TYPE_GPGSA, parsedSentences);
 
 		GPSRecord record = parser.getRecordBuffer();
-		assertEquals("GPGSA horizontal accuracy", "2.1", record.hdop);
-		assertEquals("GPGSA vertical accuracy", "3.6", record.vdop);
+		assertEquals("GPGSA horizontal accuracy", 2.1, record.hdop, 0.0001);
+		assertEquals("GPGSA vertical accuracy", 3.6, record.vdop, 0.0001);
 	}
 
+	/**
+	 * Tests $GPGSV sentences are collected into the satellites in view.
+	 * Each satellite system sends its own group and the groups add up.
+	 */
+	public void testGPGSV ()
+	{
+		String sentences =
+			"$GPGSV,3,1,11,23,67,353,35,20,58,177,26,16,44,074,34,13,41,308,29*76\r\n" +
+			"$GPGSV,3,2,11,25,36,049,,27,25,246,32,04,16,292,,01,14,093,*70\r\n";
+		byte[] input = sentences.getBytes();
+
+		NMEAParser parser = new NMEAParser();
+		int parsedSentences = parser.parse( input, input.length );
+		assertEquals("GPGSV sentences should have been parsed", NMEAParser.TYPE_GPGSV, parsedSentences);
+
+		GPSRecord record = parser.getRecordBuffer();
+		assertEquals("Incomplete group is not applied", 0, record.satellitesInView);
+
+		input = "$GPGSV,3,3,11,31,05,054,,03,02,128,,08,00,236,*4A\r\n".getBytes();
+		parser.parse( input, input.length );
+		record = parser.getRecordBuffer();
+		assertEquals("GPGSV satellites in view", 11, record.satellitesInView);
+		assertEquals("First PRN", 23, record.satellitePrn[0]);
+		assertEquals("First elevation", 67, record.satelliteElevation[0]);
+		assertEquals("First azimuth", 353, record.satelliteAzimuth[0]);
+		assertEquals("First SNR", 35, record.satelliteSnr[0]);
+		assertEquals("Untracked SNR", -1, record.satelliteSnr[4]);
+		assertEquals("Last PRN", 8, record.satellitePrn[10]);
+
+		// GLONASS satellites are added to the GPS ones.
+		input = "$GLGSV,1,1,02,65,40,120,30,66,12,300,*60\r\n".getBytes();
+		parser.parse( input, input.length );
+		record = parser.getRecordBuffer();
+		assertEquals("GPS and GLONASS satellites in view", 13, record.satellitesInView);
+		assertEquals("GLONASS PRN", 65, record.satellitePrn[11]);
+		byte[] gl = "GL".getBytes();
+		assertEquals("GLONASS system", NMEAParser.pack(gl, 0, 2), record.satelliteSystem[11]);
+
+		// A group missing a sentence is not applied.
+		sentences =
+			"$GPGSV,3,1,11,23,67,353,35,20,58,177,26,16,44,074,34,13,41,308,29*76\r\n" +
+			"$GPGSV,3,3,11,31,05,054,,03,02,128,,08,00,236,*4A\r\n";
+		input = sentences.getBytes();
+		parser.parse( input, input.length );
+		record = parser.getRecordBuffer();
+		assertEquals("Broken group ignored", 13, record.satellitesInView);
+	}
+	
+	/**
+	 * Tests a valid $GPVTG sentence is properly parsed.  This sentence
+	 * provides course and speed.
+	 */
+	public void testGPVTG ()
+	{
+		String sentence = "$GPVTG,054.7,T,034.4,M,005.5,N,010.2,K,A*25\r\n";
+		byte[] input = sentence.getBytes();
+
+		NMEAParser parser = new NMEAParser();
+		int parsedSentences = parser.parse( input, input.length );
+		assertEquals("GPVTG sentence should have been parsed", NMEAParser.TYPE_GPVTG, parsedSentences);
+
+		GPSRecord record = parser.getRecordBuffer();
+		assertEquals("GPVTG course", 54.7, record.course, 0.0001);
+		assertEquals("GPVTG speed", 5.5, record.speed, 0.0001);
+	}
+	
+	/**
+	 * Tests a valid $GPGLL sentence is properly parsed.  This sentence
+	 * provides latitude and longitude.  It is ignored when marked invalid.
+	 */
+	public void testGPGLL ()
+	{
+		String sentence = "$GPGLL,4916.45,N,12311.12,W,225444,V,N*44\r\n";
+		byte[] input = sentence.getBytes();
+
+		NMEAParser parser = new NMEAParser();
+		int parsedSentences = parser.parse( input, input.length );
+		assertEquals("GPGLL sentence should have been parsed", NMEAParser.TYPE_GPGLL, parsedSentences);
+		assertTrue("Invalid GPGLL not applied", Double.isNaN(parser.getRecordBuffer().lattitude));
+
+		sentence = "$GNGLL,4916.45,N,12311.12,W,225444,A,A*42\r\n";
+		input = sentence.getBytes();
+		parsedSentences = parser.parse( input, input.length );
+		assertEquals("GNGLL sentence should have been parsed", NMEAParser.TYPE_GPGLL, parsedSentences);
+
+		GPSRecord record = parser.getRecordBuffer();
+		assertEquals("GPGLL latitude", 49.2741666667, record.lattitude, 0.0000001);
+		assertEquals("GPGLL latitude direction", 'N', record.lattitudeDirection);
+		assertEquals("GPGLL longitude", -123.1853333333, record.longitude, 0.0000001);
+		assertEquals("GPGLL longitude direction", 'W', record.longitudeDirection);
+		assertEquals("GPGLL time", ((22 * 60 + 54) * 60 + 44) * 1000, record.millisSinceMidnight);
+	}
+	
+	/**
+	 * Tests sentences from multi-constellation receivers are recognized
+	 * the same as GPS ones.
+	 */
+	public void testTalkers ()
+	{
+		String sentences =
+			"$GNRMC,063605.000,A,3746.0188,N,12226.1276,W,0.40,130.67,140207,,,A*63\r\n" +
+			"$GNGGA,063606.000,3746.0183,N,12226.1274,W,1,12,0.9,55.1,M,-25.3,M,,*4E\r\n";
+		byte[] input = sentences.getBytes();
+
+		NMEAParser parser = new NMEAParser();
+		int parsedSentences = parser.parse( input, input.length );
+		assertEquals("GNRMC and GNGGA should have been parsed", NMEAParser.TYPE_GPRMC | NMEAParser.TYPE_GPGGA, parsedSentences);
+
+		GPSRecord record = parser.getRecordBuffer();
+		assertEquals("GNRMC latitude", 37.76698, record.lattitude, 0.0000001);
+		assertEquals("GNGGA satellites", 12, record.satelliteCount);
+		
+		// Packed addresses.
+		byte[] address = "GNRMC".getBytes();
+		assertTrue("Packed address", NMEAParser.pack(address, 0, address.length) > 0);
+		assertEquals("Talkers differ", false, NMEAParser.pack(address, 0, 2) == NMEAParser.pack("GP".getBytes(), 0, 2));
+		assertEquals("Lower case is not an address", -1, NMEAParser.pack("gprmc".getBytes(), 0, 5));
+		assertEquals("Too long", -1, NMEAParser.pack("PSRFTXT".getBytes(), 0, 7));
+	}
+	
 	/**
 	 * Tests a mix of incoming sentences to make sure the outcome is
 	 * correct.  The sentences contain all of the above tests and tie
@@ -203,7 +354,7 @@ public class NMEAParserTest
 	 */
 	public void testBatchData ()
 	{
-		// GPGSV and PSRFTXT sentences should be discarded.
+		// PSRFTXT sentences should be discarded.
 		// First GPRMC should be ovewritten.
 		// Last GPRMC has checksum error (should not be "EE") so should be discarded.
 		String sentences =
@@ -247,18 +398,274 @@ public class NMEAParserTest
 			parsedSentences |= parser.parse( chunk, size );
 		}
 
-		assertEquals("All sentences should have been parsed", NMEAParser.ALL_TYPES_MASK, parsedSentences);
+		assertEquals("All sentences should have been parsed", NMEAParser.ALL_TYPES_MASK | NMEAParser.TYPE_GPGSV, parsedSentences);
 
 		// Verify the contents are correct.
 		GPSRecord record = parser.getRecordBuffer();
-		assertEquals("GPRMC latitude", "3746.0171", record.lattitude);
+		assertEquals("GPRMC latitude", 37.7669516667, record.lattitude, 0.0000001);
 		assertEquals("GPRMC latitude direction", 'N', record.lattitudeDirection);
-		assertEquals("GPRMC longitude", "12226.1278", record.longitude);
+		assertEquals("GPRMC longitude", -122.4354633333, record.longitude, 0.0000001);
 		assertEquals("GPRMC longitude direction", 'W', record.longitudeDirection);
-		assertEquals("GPRMC speed", "0.47", record.speed);
-		assertEquals("GPRMC course", "305.20", record.course);
-		assertEquals("GPGGA altitude", "59.7", record.altitude);
-		assertEquals("GPGSA horizontal accuracy", "2.8", record.hdop);
-		assertEquals("GPGSA vertical accuracy", "5.3", record.vdop);
+		assertEquals("GPRMC speed", 0.47, record.speed, 0.0001);
+		assertEquals("GPRMC course", 305.20, record.course, 0.0001);
+		assertEquals("GPGGA altitude", 59.7, record.altitude, 0.0001);
+		assertEquals("GPGSA horizontal accuracy", 2.8, record.hdop, 0.0001);
+		assertEquals("GPGSA vertical accuracy", 5.3, record.vdop, 0.0001);
+		assertEquals("GPGSV satellites in view", 11, record.satellitesInView);
+	}
+
+	/**
+	 * Tests that every sentence is decoded in the order it arrives, even
+	 * when several of the same type come in a single chunk, and that it
+	 * does not matter where the chunks are split.
+	 */
+	public void testSentenceOrder ()
+	{
+		byte[] input = (
+			"$GPRMC,063559.998,A,3746.0171,N,12226.1277,W,0.50,149.79,140207,,*15\r\n" +
+			"$GPGGA,063601.002,3746.0171,N,12226.1278,W,1,05,2.1,59.7,M,-25.3,M,,0000*52\r\n" +
+			"$GPGSA,A,3,23,16,13,27,,,,,,,,,6.0,2.8,5.3*39\r\n" +
+			"$GPRMC,063601.002,A,3746.0171,N,12226.1278,W,0.47,305.20,140207,,*1E\r\n" ).getBytes();
+		
+		// Feed the same data all at once, in odd sized chunks, and a byte at a time.
+		int[] chunkSizes = { input.length, 35, 1 };
+		
+		for ( int c = 0; c < chunkSizes.length; c++ )
+		{
+			int chunk = chunkSizes[c];
+			RecordCollector collector = new RecordCollector();
+			NMEAParser parser = new NMEAParser();
+			parser.setRecordListener( collector );
+			int parsedSentences = NMEAParser.TYPE_NONE;
+			
+			for ( int i = 0; i < input.length; i += chunk )
+			{
+				parsedSentences |= parser.parse( input, i, Math.min(chunk, input.length - i) );
+			}
+			
+			assertEquals("All sentences should have been parsed", NMEAParser.ALL_TYPES_MASK, parsedSentences);
+			assertEquals("Every sentence should be reported", 4, collector.count);
+			assertEquals("First sentence", NMEAParser.TYPE_GPRMC, collector.types[0]);
+			assertEquals("Second sentence", NMEAParser.TYPE_GPGGA, collector.types[1]);
+			assertEquals("Third sentence", NMEAParser.TYPE_GPGSA, collector.types[2]);
+			assertEquals("Fourth sentence", NMEAParser.TYPE_GPRMC, collector.types[3]);
+			assertEquals("First GPRMC course", 149.79, collector.courses[0], 0.0001);
+			assertEquals("Second GPRMC course", 305.20, collector.courses[3], 0.0001);
+		}
+	}
+	
+	/**
+	 * Tests the parser recovers from corrupt data on the next '$' and
+	 * only loses the broken sentence.
+	 */
+	public void testResynchronize ()
+	{
+		String good = "$GPGSA,A,3,23,16,13,27,25,,,,,,,,4.1,2.1,3.6*37\r\n";
+		byte[] input = (
+			"$GPRMC,063601.002,A,3745.1313,N,12226.6666,W,0.47,305.20,140207,,*EE\r\n" +  // Bad checksum
+			good +
+			"$GPGGA,063606.000,3746.0183,N,122" +  // Truncated
+			good +
+			"$GPGGA,063606.000,3746.0183,N,12226.1274,W,1,05,2.1,55.1,M,-25.3,M,,0000,0000,0000,0000,0000,0000,0000,0000,0000,0000*5C" +  // Too long
+			good ).getBytes();
+		
+		RecordCollector collector = new RecordCollector();
+		NMEAParser parser = new NMEAParser();
+		parser.setRecordListener( collector );
+		int parsedSentences = parser.parse( input, input.length );
+		
+		assertEquals("Only the good sentences should be parsed", NMEAParser.TYPE_GPGSA, parsedSentences);
+		assertEquals("Each good sentence should be reported", 3, collector.count);
+		
+		// A partial sentence is kept between calls and then finished.
+		byte[] start = "$GPGGA,063606.000,3746.0183,N,12226.1274,W,1,05,".getBytes();
+		byte[] end = "2.1,55.1,M,-25.3,M,,0000*5C\r\n".getBytes();
+		assertEquals("Partial sentence", NMEAParser.TYPE_NONE, parser.parse( start, start.length ));
+		assertEquals("Finished sentence", NMEAParser.TYPE_GPGGA, parser.parse( end, end.length ));
+		assertEquals("GPGGA altitude", 55.1, parser.getRecordBuffer().altitude, 0.0001);
+	}
+	
+	/**
+	 * Records the sentences reported by a <code>NMEAParser</code>.
+	 */
+	private static final class RecordCollector implements GPSRecordListener
+	{
+		public int count;
+		public int[] types = new int[8];
+		public double[] courses = new double[8];
+		
+		public void recordParsed (GPSRecord record, int type)
+		{
+			types[count] = type;
+			courses[count] = record.course;
+			count++;
+		}
+	}
+	
+	/**
+	 * Tests the number decoders that read values straight out of the
+	 * sentence bytes.  Empty and malformed fields must come back as
+	 * "unknown" rather than throwing exceptions.
+	 */
+	public void testParseNumbers ()
+	{
+		byte[] field = "x-25.30y".getBytes();
+		assertEquals("Negative decimal", -25.3, NMEAParser.parseDecimal(field, 1, 6), 0.00001);
+		assertEquals("Decimal without fraction", 25, NMEAParser.parseDecimal(field, 2, 2), 0.00001);
+		assertTrue("Empty decimal", Double.isNaN(NMEAParser.parseDecimal(field, 1, 0)));
+		assertTrue("Malformed decimal", Double.isNaN(NMEAParser.parseDecimal(field, 0, 4)));
+		
+		field = "140207".getBytes();
+		assertEquals("Integer", 140207, NMEAParser.parseInteger(field, 0, field.length));
+		assertEquals("Empty integer", -1, NMEAParser.parseInteger(field, 0, 0));
+		
+		field = "235947.5".getBytes();
+		assertEquals("Time", ((23 * 60 + 59) * 60 + 47) * 1000 + 500, NMEAParser.parseTime(field, 0, field.length));
+		assertEquals("Time without milliseconds", ((23 * 60 + 59) * 60 + 47) * 1000, NMEAParser.parseTime(field, 0, 6));
+		assertEquals("Short time", -1, NMEAParser.parseTime(field, 0, 4));
+	}
+	
+	/**
+	 * Tests NMEA <i>ddmm.mmmm</i> coordinates are converted to degrees
+	 * without losing precision.
+	 */
+	public void testParseDegrees ()
+	{
+		byte[] value = "3746.0188".getBytes();
+		assertEquals("Latitude", 37.76698, NMEAParser.parseDegrees(value, 0, value.length), 0.000000001);
+		
+		value = "12226.12765432".getBytes();
+		assertEquals("Longitude with extra precision", 122 + 26.12765432 / 60, NMEAParser.parseDegrees(value, 0, value.length), 0.000000001);
+		
+		value = "0000.0001".getBytes();
+		assertEquals("Tiny", 0.0001 / 60, NMEAParser.parseDegrees(value, 0, value.length), 0.000000001);
+		
+		value = "4916".getBytes();
+		assertEquals("No fraction", 49 + 16.0 / 60, NMEAParser.parseDegrees(value, 0, value.length), 0.000000001);
+		
+		value = "3760.0000".getBytes();
+		assertTrue("Minutes out of range", Double.isNaN(NMEAParser.parseDegrees(value, 0, value.length)));
+		
+		value = "46.01".getBytes();
+		assertTrue("No degrees", Double.isNaN(NMEAParser.parseDegrees(value, 0, value.length)));
+		
+		value = "37a6.01".getBytes();
+		assertTrue("Not a number", Double.isNaN(NMEAParser.parseDegrees(value, 0, value.length)));
+		
+		assertTrue("Empty", Double.isNaN(NMEAParser.parseDegrees(value, 0, 0)));
+	}
+	
+	/**
+	 * Tests NMEA dates and times are converted to Java's time including
+	 * leap years and dates after 2099.
+	 */
+	public void testTimestamps ()
+	{
+		assertEquals("Epoch", 0, NMEAParser.toEpochDay(1970, 1, 1));
+		assertEquals("Y2K", 10957, NMEAParser.toEpochDay(2000, 1, 1));
+		assertEquals("Before the epoch", -1, NMEAParser.toEpochDay(1969, 12, 31));
+		
+		final int time = ((6 * 60 + 36) * 60 + 5) * 1000;
+		assertEquals("14 February 2007", 1171434965000L, NMEAParser.toEpochMillis(140207, time, 2008));
+		assertEquals("Leap day 2000", 951825600000L, NMEAParser.toEpochMillis(290200, 12 * 3600 * 1000, 2008));
+		assertEquals("2100 is not a leap year", 4107542400500L, NMEAParser.toEpochMillis(10300, 500, 2090));
+		assertEquals("Bad month", -1, NMEAParser.toEpochMillis(141307, time, 2008));
+		
+		assertEquals("This century", 2007, NMEAParser.expandYear(7, 2008));
+		assertEquals("Last century", 1999, NMEAParser.expandYear(99, 2008));
+		assertEquals("Next century", 2105, NMEAParser.expandYear(5, 2098));
+		assertEquals("Late this century", 2095, NMEAParser.expandYear(95, 2102));
+		
+		// The parser caches the day until the date changes.
+		NMEAParser parser = new NMEAParser();
+		assertEquals("Unknown date", -1, parser.toTimestamp(-1, time));
+		long first = parser.toTimestamp(140207, time);
+		assertEquals("Same day", first + 1000, parser.toTimestamp(140207, time + 1000));
+		assertEquals("Next day", first + 86400000L, parser.toTimestamp(150207, time));
+	}
+	
+	/**
+	 * Tests that once the parser has warmed up it does not create new
+	 * objects for each sentence.  A Bluetooth GPS sends several sentences
+	 * a second for hours so any garbage per sentence adds up to a lot of
+	 * collections on a phone.
+	 * <p>
+	 * CLDC has no allocation counters so this measures the heap used
+	 * before and after parsing the same stream many times.  Some VMs count
+	 * a whole thread-local allocation block as used as soon as anything,
+	 * even another thread, starts one, which adds a fixed amount to any
+	 * measurement.  So the growth over ten times as many passes is compared
+	 * with the growth over one lot:  garbage made per sentence grows with the
+	 * passes and the fixed amount does not.  The garbage collector might run
+	 * in the middle, but it can only make the difference smaller, never
+	 * larger.  Other threads can still add noise so it is measured a few
+	 * times and the smallest difference is used.
+	 */
+	public void testSteadyStateAllocation ()
+	{
+		byte[] input = (
+			"$GPGSV,3,1,11,23,67,353,35,20,58,177,26,16,44,074,34,13,41,308,29*76\r\n" +
+			"$GPGGA,063601.002,3746.0171,N,12226.1278,W,1,05,2.1,59.7,M,-25.3,M,,0000*52\r\n" +
+			"$GPGSA,A,3,23,16,13,27,,,,,,,,,6.0,2.8,5.3*39\r\n" +
+			"$GPRMC,063601.002,A,3746.0171,N,12226.1278,W,0.47,305.20,140207,,*1E\r\n" +
+			"$PSRFTXT,WAAS Enable\r\n" ).getBytes();
+		final int chunk = 35;
+		final int passes = 1000;
+
+		NMEAParser parser = new NMEAParser();
+		
+		// Warm up so any lazy initialization, by us or the VM, is done.
+		for ( int pass = 0; pass < passes; pass++ )
+		{
+			for ( int i = 0; i < input.length; i += chunk )
+			{
+				parser.parse( input, i, Math.min(chunk, input.length - i) );
+			}
+		}
+		
+		GPSRecord record = parser.getRecordBuffer();
+		assertNotNull("Record should be available after warm up", record);
+		
+		long used = Long.MAX_VALUE;
+		
+		for ( int attempt = 0; (attempt < 3) && (used >= 16 * 1024); attempt++ )
+		{
+			long once = heapGrowth( parser, input, chunk, passes );
+			long tenTimes = heapGrowth( parser, input, chunk, 10 * passes );
+			used = Math.min( used, tenTimes - once );
+		}
+		
+		assertSame("Record buffer should be reused", record, parser.getRecordBuffer());
+		assertEquals("GPRMC latitude", 37.7669516667, record.lattitude, 0.0000001);
+		
+		// Allow a little slack for the VM's own bookkeeping.  Creating a
+		// single String per sentence would use megabytes here.
+		assertTrue("Steady state parsing allocated " + used + " bytes", used < 16 * 1024);
+	}
+	
+	/**
+	 * Measures how much the heap grows while parsing.
+	 * 
+	 * @param parser is the parser to use.
+	 * @param input is the data parsed each pass.
+	 * @param chunk is the most bytes parsed at once.
+	 * @param passes is how many times to parse <code>input</code>.
+	 * @return The bytes used after parsing less those used before.
+	 */
+	private static long heapGrowth (NMEAParser parser, byte[] input, int chunk, int passes)
+	{
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		long before = runtime.totalMemory() - runtime.freeMemory();
+		
+		for ( int pass = 0; pass < passes; pass++ )
+		{
+			for ( int i = 0; i < input.length; i += chunk )
+			{
+				parser.parse( input, i, Math.min(chunk, input.length - i) );
+			}
+		}
+		
+		return (runtime.totalMemory() - runtime.freeMemory()) - before;
 	}
 }
@@ -0,0 +1,286 @@
+package org.j4me.bluetoothgps;
+
+import java.io.*;
+import javax.microedition.io.*;
+import j2meunit.framework.*;
+import org.j4me.*;
+
+/**
+ * Tests the <code>NMEAReplay</code> class.  It plays back a recorded NMEA
+ * log as if it came from a GPS device.
+ *
+ * @see org.j4me.bluetoothgps.NMEAReplay
+ */
+public class NMEAReplayTest
+	extends J4METestCase
+{
+	/**
+	 * The number of sentences in each fix of <code>createLog</code>.
+	 */
+	static final int SENTENCES_PER_FIX = 3;
+
+	public NMEAReplayTest ()
+	{
+		super();
+	}
+
+	public NMEAReplayTest (String name, TestMethod method)
+	{
+		super( name, method );
+	}
+
+	public Test suite ()
+	{
+		TestSuite suite = new TestSuite();
+
+		suite.addTest(new NMEAReplayTest("testRecordedTime", new TestMethod()
+				{ public void run(TestCase tc) {((NMEAReplayTest) tc).testRecordedTime(); } }));
+		suite.addTest(new NMEAReplayTest("testAsFastAsPossible", new TestMethod()
+				{ public void run(TestCase tc) {((NMEAReplayTest) tc).testAsFastAsPossible(); } }));
+		suite.addTest(new NMEAReplayTest("testSpeed", new TestMethod()
+				{ public void run(TestCase tc) {((NMEAReplayTest) tc).testSpeed(); } }));
+		suite.addTest(new NMEAReplayTest("testBurst", new TestMethod()
+				{ public void run(TestCase tc) {((NMEAReplayTest) tc).testBurst(); } }));
+		suite.addTest(new NMEAReplayTest("testDisconnectAndTruncation", new TestMethod()
+				{ public void run(TestCase tc) {((NMEAReplayTest) tc).testDisconnectAndTruncation(); } }));
+
+		return suite;
+	}
+
+	/**
+	 * Creates an NMEA log with one fix a second.  Each fix is a GPGGA, GPGSA,
+	 * and GPRMC sentence.  The position moves north a little each fix.
+	 *
+	 * @param fixes is the number of fixes in the log.
+	 * @return The NMEA data.
+	 */
+	static byte[] createLog (int fixes)
+	{
+		StringBuffer log = new StringBuffer();
+
+		for ( int i = 0; i < fixes; i++ )
+		{
+			int seconds = 86390 + i;  // Starts at 23:59:50 to cross midnight
+			String time = twoDigits( (seconds / 3600) % 24 ) + twoDigits( (seconds / 60) % 60 ) + twoDigits( seconds % 60 ) + ".000";
+			String latitude = "3746." + (1000 + i);
+
+			log.append( sentence("GPGGA," + time + "," + latitude + ",N,12226.1278,W,1,05,2.1,59.7,M,-25.3,M,,0000") );
+			log.append( sentence("GPGSA,A,3,23,16,13,27,,,,,,,,,6.0,2.8,5.3") );
+			log.append( sentence("GPRMC," + time + ",A," + latitude + ",N,12226.1278,W,0.47,305.20,140207,,") );
+		}
+
+		return log.toString().getBytes();
+	}
+
+	/**
+	 * @param value is a number from 0 to 99.
+	 * @return <code>value</code> with a leading zero if necessary.
+	 */
+	private static String twoDigits (int value)
+	{
+		return (value < 10) ? "0" + value : Integer.toString( value );
+	}
+
+	/**
+	 * @param body is a sentence without the leading '$' or checksum.
+	 * @return The complete sentence.
+	 */
+	static String sentence (String body)
+	{
+		int checksum = 0;
+
+		for ( int i = 0; i < body.length(); i++ )
+		{
+			checksum ^= body.charAt( i );
+		}
+
+		String hex = Integer.toHexString( checksum ).toUpperCase();
+		return "$" + body + "*" + ((hex.length() < 2) ? "0" : "") + hex + "\r\n";
+	}
+
+	/**
+	 * Reads everything from a replay connection.
+	 *
+	 * @param connection is the connection to read.
+	 * @return The number of bytes read before the end of the stream.
+	 * @throws IOException if the stream throws it.
+	 */
+	private static int readAll (StreamConnection connection)
+		throws IOException
+	{
+		InputStream in = connection.openInputStream();
+		byte[] buffer = new byte[NMEAParser.OUTPUT_BUFFER_MAX_SIZE];
+		int total = 0;
+		int read;
+
+		while ( (read = in.read(buffer, 0, buffer.length)) >= 0 )
+		{
+			total += read;
+		}
+
+		return total;
+	}
+
+	/**
+	 * Tests the sentences are found and timed from their UTC fields, even
+	 * across midnight.
+	 */
+	public void testRecordedTime ()
+	{
+		try
+		{
+			byte[] log = createLog( 15 );
+			NMEAReplay replay = NMEAReplay.load( new ByteArrayInputStream(log) );
+
+			assertEquals("Sentences", 15 * SENTENCES_PER_FIX, replay.getSentenceCount());
+			assertEquals("Duration", 14000, (int)replay.getRecordedDuration());
+		}
+		catch (IOException e)
+		{
+			fail( e.toString() );
+		}
+	}
+
+	/**
+	 * Tests the whole log is available at once with no pacing.
+	 */
+	public void testAsFastAsPossible ()
+	{
+		try
+		{
+			byte[] log = createLog( 5 );
+			NMEAReplay replay = new NMEAReplay( log );
+			replay.setSpeed( NMEAReplay.AS_FAST_AS_POSSIBLE );
+
+			StreamConnection connection = replay.openConnection();
+			assertEquals("Everything available", log.length, connection.openInputStream().available());
+			assertEquals("Everything read", log.length, readAll(connection));
+			assertTrue("Finished", replay.isFinished());
+			assertEquals("Sentences sent", replay.getSentenceCount(), replay.getSentencesSent());
+
+			connection.close();
+
+			try
+			{
+				replay.openConnection();
+				fail("Cannot open a finished replay");
+			}
+			catch (IOException e)
+			{
+				// Expected.
+			}
+		}
+		catch (IOException e)
+		{
+			fail( e.toString() );
+		}
+	}
+
+	/**
+	 * Tests the replay speed scales the recorded time.
+	 */
+	public void testSpeed ()
+	{
+		try
+		{
+			NMEAReplay replay = new NMEAReplay( createLog(5) );  // 4 seconds
+			replay.setSpeed( 10 );
+
+			long start = System.currentTimeMillis();
+			readAll( replay.openConnection() );
+			long elapsed = System.currentTimeMillis() - start;
+
+			assertTrue("Not too fast " + elapsed, elapsed >= 380);
+			assertTrue("Not too slow " + elapsed, elapsed < 1000);
+		}
+		catch (IOException e)
+		{
+			fail( e.toString() );
+		}
+	}
+
+	/**
+	 * Tests sentences in a burst are held back and then sent together.
+	 */
+	public void testBurst ()
+	{
+		try
+		{
+			byte[] log = createLog( 4 );
+			NMEAReplay replay = new NMEAReplay( log );
+			replay.setSpeed( 5 );
+			replay.addBurst( 0, 2 * SENTENCES_PER_FIX );  // First two fixes
+
+			InputStream in = replay.openConnection().openInputStream();
+			assertEquals("Held back", 0, in.available());
+
+			Thread.sleep( 300 );  // Second fix is due at 200 ms; third at 400 ms
+			assertEquals("Sent together", log.length / 2, in.available());
+		}
+		catch (IOException e)
+		{
+			fail( e.toString() );
+		}
+		catch (InterruptedException e)
+		{
+			fail( e.toString() );
+		}
+	}
+
+	/**
+	 * Tests a dropped connection resumes where it left off and a truncated
+	 * sentence loses only its end.
+	 */
+	public void testDisconnectAndTruncation ()
+	{
+		try
+		{
+			byte[] log = createLog( 4 );
+			NMEAReplay replay = new NMEAReplay( log );
+			replay.setSpeed( NMEAReplay.AS_FAST_AS_POSSIBLE );
+			replay.addTruncation( 2, 10 );
+			replay.addDisconnect( 6 );
+
+			String text = new String( log );
+			int start = text.indexOf( "$GPRMC" );
+			int lost = text.indexOf( '\n', start ) + 1 - start - 10;
+			int fixLength = log.length / 4;
+
+			StreamConnection connection = replay.openConnection();
+
+			try
+			{
+				readAll( connection );
+				fail("Connection should drop");
+			}
+			catch (IOException e)
+			{
+				// Expected.
+			}
+
+			InputStream in = connection.openInputStream();
+			assertEquals("Sent before the drop", 6, replay.getSentencesSent());
+			int total = (int)replay.getBytesSent();
+			assertEquals("Truncated bytes", 2 * fixLength - lost, total);
+
+			try
+			{
+				in.read();
+				fail("Closed stream");
+			}
+			catch (IOException e)
+			{
+				// Expected.
+			}
+
+			// Reconnect.
+			total += readAll( replay.openConnection() );
+			assertEquals("Connections", 2, replay.getConnectCount());
+			assertEquals("Everything else sent", log.length - lost, total);
+		}
+		catch (IOException e)
+		{
+			fail( e.toString() );
+		}
+	}
+}
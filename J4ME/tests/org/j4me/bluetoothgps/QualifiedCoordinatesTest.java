@@ -1,5 +1,6 @@
 package org.j4me.bluetoothgps;
 
+import java.util.*;
 import org.j4me.*;
 import j2meunit.framework.*;
 
@@ -34,6 +35,10 @@ public class QualifiedCoordinatesTest
 				{ public void run(TestCase tc) {((QualifiedCoordinatesTest) tc).testDistance(); } }));
 		suite.addTest(new QualifiedCoordinatesTest("testAzimuthTo", new TestMethod() 
 				{ public void run(TestCase tc) {((QualifiedCoordinatesTest) tc).testAzimuthTo(); } }));
+		suite.addTest(new QualifiedCoordinatesTest("testShortDistance", new TestMethod() 
+				{ public void run(TestCase tc) {((QualifiedCoordinatesTest) tc).testShortDistance(); } }));
+		suite.addTest(new QualifiedCoordinatesTest("testDistances", new TestMethod() 
+				{ public void run(TestCase tc) {((QualifiedCoordinatesTest) tc).testDistances(); } }));
 		
 		return suite;
 	}
@@ -166,4 +171,68 @@ public class QualifiedCoordinatesTest
 		double course = lax.azimuthTo( jfk );
 		assertEquals("Initial azimuth out of LAX to JFK", expected, course, 0.5);  // nearest degree
 	}
+	
+	/**
+	 * Tests nearby points, which treat the earth as flat, measure the same
+	 * as the haversine formula.
+	 */
+	public void testShortDistance ()
+	{
+		Random random = new Random( 11 );
+		
+		for ( int i = 0; i < 1000; i++ )
+		{
+			double lat = random.nextDouble() * 160 - 80;
+			double lon = random.nextDouble() * 359 - 179.5;
+			double lat2 = lat + (random.nextDouble() - 0.5) * 0.1;
+			double lon2 = lon + (random.nextDouble() - 0.5) * 0.1;
+			
+			double haversine = Coordinates.haversine( lat, lon, lat2, lon2 );
+			double distance = Coordinates.distance( lat, lon, lat2, lon2 );
+			assertEquals("Distance " + i, haversine, distance, haversine * 0.00001 + 0.001);
+		}
+		
+		// Either side of the 180th meridian on the equator.
+		Coordinates west = new Coordinates( 0, 179.99, Float.NaN );
+		Coordinates east = new Coordinates( 0, -179.99, Float.NaN );
+		assertEquals("Across the date line", 2224, west.distance(east), 1);
+		assertEquals("Heading east", 90, west.azimuthTo(east), 0.01);
+		assertEquals("Heading west", 270, east.azimuthTo(west), 0.01);
+		
+		// One kilometer north east near the arctic circle.
+		Coordinates start = new Coordinates( 66, 25, Float.NaN );
+		Coordinates end = new Coordinates( 66 + 707.1 / 111195, 25 + 707.1 / 111195 / Math.cos(Math.toRadians(66)), Float.NaN );
+		assertEquals("North east", 1000, start.distance(end), 1);
+		assertEquals("Bearing", 45, start.azimuthTo(end), 0.1);
+		
+		// Changing the coordinates changes what they measure from.
+		start.setLatitude( end.getLatitude() );
+		start.setLongitude( end.getLongitude() );
+		assertEquals("Same place", 0, start.distance(end), 0.001);
+	}
+	
+	/**
+	 * Tests the distances to many points are the same as measuring each
+	 * on its own.
+	 */
+	public void testDistances ()
+	{
+		Coordinates origin = new Coordinates( 37.7, -122.4, Float.NaN );
+		double[] lats = { 37.7, 37.71, 37.6, 40.64, -33.9 };
+		double[] lons = { -122.4, -122.41, -122.3, -73.78, 151.2 };
+		float[] distances = new float[lats.length];
+		
+		origin.distances( lats.length, lats, lons, distances );
+		
+		for ( int i = 0; i < lats.length; i++ )
+		{
+			Coordinates to = new Coordinates( lats[i], lons[i], Float.NaN );
+			assertEquals("Point " + i, origin.distance(to), distances[i], 0.0);
+		}
+		
+		// Only as many as asked for.
+		distances[1] = -1;
+		origin.distances( 1, lats, lons, distances );
+		assertEquals("Count", -1.0f, distances[1], 0.0f);
+	}
 }
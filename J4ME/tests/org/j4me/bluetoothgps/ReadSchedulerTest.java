@@ -0,0 +1,177 @@
+package org.j4me.bluetoothgps;
+
+import java.io.*;
+import j2meunit.framework.*;
+import org.j4me.*;
+
+/**
+ * Tests the <code>ReadScheduler</code> class.  It decides when to read from
+ * the GPS device so fixes are delivered soon after they arrive.
+ *
+ * @see org.j4me.bluetoothgps.ReadScheduler
+ */
+public class ReadSchedulerTest
+	extends J4METestCase
+{
+	/**
+	 * One second of NMEA data with a single fix.
+	 */
+	private static final String BURST =
+		"$GPGGA,063601.002,3746.0171,N,12226.1278,W,1,05,2.1,59.7,M,-25.3,M,,0000*52\r\n" +
+		"$GPGSA,A,3,23,16,13,27,,,,,,,,,6.0,2.8,5.3*39\r\n" +
+		"$GPRMC,063601.002,A,3746.0171,N,12226.1278,W,0.47,305.20,140207,,*1E\r\n";
+
+	public ReadSchedulerTest ()
+	{
+		super();
+	}
+
+	public ReadSchedulerTest (String name, TestMethod method)
+	{
+		super( name, method );
+	}
+
+	public Test suite ()
+	{
+		TestSuite suite = new TestSuite();
+
+		suite.addTest(new ReadSchedulerTest("testPollInterval", new TestMethod()
+				{ public void run(TestCase tc) {((ReadSchedulerTest) tc).testPollInterval(); } }));
+		suite.addTest(new ReadSchedulerTest("testFixLatency", new TestMethod()
+				{ public void run(TestCase tc) {((ReadSchedulerTest) tc).testFixLatency(); } }));
+		suite.addTest(new ReadSchedulerTest("testLowPower", new TestMethod()
+				{ public void run(TestCase tc) {((ReadSchedulerTest) tc).testLowPower(); } }));
+
+		return suite;
+	}
+
+	/**
+	 * Tests the polling interval follows the <code>Criteria</code>.
+	 */
+	public void testPollInterval ()
+	{
+		ReadScheduler scheduler = new ReadScheduler( null );
+		assertEquals("No criteria", ReadScheduler.DEFAULT_POLL_INTERVAL, scheduler.getPollInterval());
+		assertEquals("Unknown cadence polls", ReadScheduler.DEFAULT_POLL_INTERVAL, scheduler.getDelay(System.currentTimeMillis()));
+
+		Criteria criteria = new Criteria();
+		scheduler = new ReadScheduler( criteria );
+		assertEquals("No requirements", ReadScheduler.DEFAULT_POLL_INTERVAL, scheduler.getPollInterval());
+
+		criteria.setPreferredResponseTime( 300 );
+		scheduler = new ReadScheduler( criteria );
+		assertEquals("Fast response time", 30, scheduler.getPollInterval());
+
+		criteria.setPreferredResponseTime( 20 );
+		scheduler = new ReadScheduler( criteria );
+		assertEquals("Fastest response time", ReadScheduler.MIN_POLL_INTERVAL, scheduler.getPollInterval());
+
+		criteria.setPreferredResponseTime( 60000 );
+		scheduler = new ReadScheduler( criteria );
+		assertEquals("Slow response time", ReadScheduler.LOW_POWER_POLL_INTERVAL, scheduler.getPollInterval());
+
+		criteria.setPreferredResponseTime( 300 );
+		criteria.setPreferredPowerConsumption( Criteria.POWER_USAGE_LOW );
+		scheduler = new ReadScheduler( criteria );
+		assertEquals("Low power", ReadScheduler.LOW_POWER_POLL_INTERVAL, scheduler.getPollInterval());
+	}
+
+	/**
+	 * Tests fixes from a device sending 5 times a second are delivered
+	 * well under the old 600 ms floor and the cadence is learned.
+	 */
+	public void testFixLatency ()
+	{
+		final int period = 200;
+		Criteria criteria = new Criteria();
+		criteria.setPreferredResponseTime( 200 );
+
+		long[] latencies = readFixes( criteria, period, 10 );
+
+		long total = 0;
+		for ( int i = 0; i < latencies.length; i++ )
+		{
+			total += latencies[i];
+		}
+		long average = total / latencies.length;
+
+		assertTrue("Average latency " + average + " ms", average < 100);
+	}
+
+	/**
+	 * Tests low power usage still delivers every fix, just not as quickly.
+	 */
+	public void testLowPower ()
+	{
+		final int period = 300;
+		Criteria criteria = new Criteria();
+		criteria.setPreferredPowerConsumption( Criteria.POWER_USAGE_LOW );
+
+		long[] latencies = readFixes( criteria, period, 5 );
+
+		for ( int i = 0; i < latencies.length; i++ )
+		{
+			assertTrue("Fix " + i + " latency " + latencies[i] + " ms", latencies[i] < period);
+		}
+	}
+
+	/**
+	 * Runs a read loop like <code>BluetoothGPS.run</code> against a simulated
+	 * GPS device.
+	 *
+	 * @param criteria are the application's requirements.
+	 * @param period is the milliseconds between fixes.
+	 * @param fixes is the number of fixes to read.
+	 * @return The actual latency of each fix from when it was sent until it
+	 *  was delivered.
+	 */
+	private long[] readFixes (Criteria criteria, int period, int fixes)
+	{
+		final SimulatedNMEAInputStream in = new SimulatedNMEAInputStream( BURST, period, fixes );
+		final ReadScheduler scheduler = new ReadScheduler( criteria );
+		final long[] latencies = new long[fixes];
+		final int[] count = new int[1];
+
+		NMEAParser parser = new NMEAParser();
+		parser.setRecordListener( new GPSRecordListener()
+			{
+				public void recordParsed (GPSRecord record, int type)
+				{
+					if ( type == NMEAParser.TYPE_GPRMC )
+					{
+						long now = System.currentTimeMillis();
+						scheduler.fixDelivered( now );
+						latencies[count[0]] = now - in.getEmitTime( count[0] );
+						count[0]++;
+					}
+				}
+			});
+
+		byte[] buffer = new byte[NMEAParser.OUTPUT_BUFFER_MAX_SIZE];
+
+		try
+		{
+			while ( count[0] < fixes )
+			{
+				scheduler.waitForData( in );
+				int read = in.read( buffer, 0, buffer.length );
+				scheduler.readCompleted( System.currentTimeMillis() );
+				parser.parse( buffer, 0, read );
+			}
+		}
+		catch (IOException e)
+		{
+			fail( e.toString() );
+		}
+		catch (InterruptedException e)
+		{
+			fail( e.toString() );
+		}
+
+		assertEquals("Every fix delivered", fixes, scheduler.getFixCount());
+		assertEquals("Learned fix interval", period, scheduler.getFixInterval(), period / 4);
+		assertTrue("Reported latency", scheduler.getMaxLatency() <= period);
+
+		return latencies;
+	}
+}
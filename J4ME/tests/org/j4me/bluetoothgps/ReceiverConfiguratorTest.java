@@ -0,0 +1,345 @@
+package org.j4me.bluetoothgps;
+
+import java.io.*;
+import j2meunit.framework.*;
+import org.j4me.*;
+
+/**
+ * Tests the <code>ReceiverConfigurator</code> class.  It recognizes the GPS
+ * chipset, configures its sentences and fix rate, and confirms the device
+ * is sending them.
+ *
+ * @see org.j4me.bluetoothgps.ReceiverConfigurator
+ */
+public class ReceiverConfiguratorTest
+	extends J4METestCase
+{
+	public ReceiverConfiguratorTest ()
+	{
+		super();
+	}
+
+	public ReceiverConfiguratorTest (String name, TestMethod method)
+	{
+		super( name, method );
+	}
+
+	public Test suite ()
+	{
+		TestSuite suite = new TestSuite();
+
+		suite.addTest(new ReceiverConfiguratorTest("testRequestedRate", new TestMethod()
+				{ public void run(TestCase tc) {((ReceiverConfiguratorTest) tc).testRequestedRate(); } }));
+		suite.addTest(new ReceiverConfiguratorTest("testConfirm", new TestMethod()
+				{ public void run(TestCase tc) {((ReceiverConfiguratorTest) tc).testConfirm(); } }));
+		suite.addTest(new ReceiverConfiguratorTest("testSlowDown", new TestMethod()
+				{ public void run(TestCase tc) {((ReceiverConfiguratorTest) tc).testSlowDown(); } }));
+		suite.addTest(new ReceiverConfiguratorTest("testRejected", new TestMethod()
+				{ public void run(TestCase tc) {((ReceiverConfiguratorTest) tc).testRejected(); } }));
+		suite.addTest(new ReceiverConfiguratorTest("testUnknown", new TestMethod()
+				{ public void run(TestCase tc) {((ReceiverConfiguratorTest) tc).testUnknown(); } }));
+		suite.addTest(new ReceiverConfiguratorTest("testSwitchToBinary", new TestMethod()
+				{ public void run(TestCase tc) {((ReceiverConfiguratorTest) tc).testSwitchToBinary(); } }));
+		suite.addTest(new ReceiverConfiguratorTest("testBinaryIgnored", new TestMethod()
+				{ public void run(TestCase tc) {((ReceiverConfiguratorTest) tc).testBinaryIgnored(); } }));
+		suite.addTest(new ReceiverConfiguratorTest("testBinaryCriteria", new TestMethod()
+				{ public void run(TestCase tc) {((ReceiverConfiguratorTest) tc).testBinaryCriteria(); } }));
+		suite.addTest(new ReceiverConfiguratorTest("testConfiguredAfterConnect", new TestMethod()
+				{ public void run(TestCase tc) {((ReceiverConfiguratorTest) tc).testConfiguredAfterConnect(); } }));
+
+		return suite;
+	}
+
+	/**
+	 * Tests the fix rate asked for by the <code>Criteria</code> and the rates
+	 * each chipset can do.
+	 */
+	public void testRequestedRate ()
+	{
+		assertEquals("No criteria", 1, ReceiverProfile.getRequestedRate(null));
+		assertEquals("No requirement", 1, ReceiverProfile.getRequestedRate(new Criteria()));
+		assertEquals("100 ms", 10, ReceiverProfile.getRequestedRate(criteria(100)));
+		assertEquals("250 ms", 4, ReceiverProfile.getRequestedRate(criteria(250)));
+
+		Criteria lowPower = criteria( 100 );
+		lowPower.setPreferredPowerConsumption( Criteria.POWER_USAGE_LOW );
+		assertEquals("Low power", 1, ReceiverProfile.getRequestedRate(lowPower));
+
+		assertEquals("MTK 4 Hz", 5, ReceiverProfile.MTK.getSupportedRate(4));
+		assertEquals("SiRF 10 Hz", 5, ReceiverProfile.SIRF.getSupportedRate(10));
+		assertEquals("Garmin 5 Hz", 1, ReceiverProfile.GARMIN.getSupportedRate(5));
+		assertEquals("MTK below 5 Hz", 2, ReceiverProfile.MTK.getLowerRate(5));
+		assertEquals("Nothing below 1 Hz", 0, ReceiverProfile.MTK.getLowerRate(1));
+	}
+
+	/**
+	 * Tests a MTK chipset is recognized, configured for 10 Hz, and confirmed.
+	 */
+	public void testConfirm ()
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ReceiverConfigurator configurator = new ReceiverConfigurator( criteria(100) );
+
+		configurator.connected( out );
+		assertTrue("Probe sent", out.toString().indexOf("$PMTK605*") >= 0);
+		assertEquals("Detecting", ReceiverConfigurator.DETECTING, configurator.getState());
+
+		proprietary( configurator, "PMTK705,AXN_1.30,0000,20090609,,,,,,," );
+		assertEquals("MTK", ReceiverProfile.MTK, configurator.getProfile());
+		assertEquals("Configuring", ReceiverConfigurator.CONFIGURING, configurator.getState());
+		assertTrue("Fix interval sent", out.toString().indexOf("$PMTK220,100*") >= 0);
+		assertTrue("Sentences sent", out.toString().indexOf("$PMTK314,0,1,0,1,10,") >= 0);
+
+		// Old sentences are still arriving while the device switches over.
+		GPSRecord record = new GPSRecord();
+		fixes( configurator, record, 0, 1000, 1, true );
+		fixes( configurator, record, 500, 100, 20, false );
+
+		assertEquals("Confirmed", ReceiverConfigurator.CONFIRMED, configurator.getState());
+		assertEquals("Rate", 10, configurator.getRate());
+		assertEquals("Observed", 100, configurator.getObservedInterval());
+	}
+
+	/**
+	 * Tests a device that cannot keep up is tried at a slower rate.
+	 */
+	public void testSlowDown ()
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ReceiverConfigurator configurator = new ReceiverConfigurator( criteria(100) );
+		configurator.connected( out );
+		proprietary( configurator, "PMTK011,MTKGPS" );
+
+		// Only 5 fixes a second get through.
+		GPSRecord record = new GPSRecord();
+		fixes( configurator, record, 0, 200, 100, false );
+
+		assertEquals("Confirmed", ReceiverConfigurator.CONFIRMED, configurator.getState());
+		assertEquals("Rate", 5, configurator.getRate());
+		assertTrue("Slower interval sent", out.toString().indexOf("$PMTK220,200*") >= 0);
+	}
+
+	/**
+	 * Tests a rejected fix rate is replaced by a slower one right away.
+	 */
+	public void testRejected ()
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ReceiverConfigurator configurator = new ReceiverConfigurator( criteria(100) );
+		configurator.connected( out );
+		proprietary( configurator, "PMTK011,MTKGPS" );
+
+		proprietary( configurator, "PMTK001,314,3" );
+		assertEquals("Other commands ignored", 10, configurator.getRate());
+
+		proprietary( configurator, "PMTK001,220,2" );
+		assertEquals("Rejected", 5, configurator.getRate());
+		assertEquals("Configuring", ReceiverConfigurator.CONFIGURING, configurator.getState());
+	}
+
+	/**
+	 * Tests a device that does not identify itself gets the commands other
+	 * chipsets ignore and is left alone if it ignores them too.
+	 */
+	public void testUnknown ()
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ReceiverConfigurator configurator = new ReceiverConfigurator( criteria(100) );
+		configurator.connected( out );
+
+		GPSRecord record = new GPSRecord();
+		fixes( configurator, record, 0, 1000, ReceiverConfigurator.DETECT_FIXES, true );
+
+		assertEquals("Unknown", ReceiverProfile.UNKNOWN, configurator.getProfile());
+		assertEquals("1 Hz", 1, configurator.getRate());
+		assertTrue("SiRF mask", out.toString().indexOf("$PSRF103,03,00,00,01*") >= 0);
+		assertTrue("Garmin mask", out.toString().indexOf("$PGRMO,,2*") >= 0);
+
+		// It keeps sending GSV sentences.
+		fixes( configurator, record, 3000, 1000, 30, true );
+		assertEquals("Failed", ReceiverConfigurator.FAILED, configurator.getState());
+
+		// A SiRF banner arriving late is still recognized.
+		proprietary( configurator, "PSRFTXT,Version GSW3.2.4" );
+		assertEquals("SiRF", ReceiverProfile.SIRF, configurator.getProfile());
+		assertTrue("5 Hz mode", out.toString().indexOf("$PSRF103,00,6,00,0*") >= 0);
+	}
+
+	/**
+	 * Tests a confirmed SiRF device is switched to binary when allowed and
+	 * then only sends Geodetic Navigation Data.
+	 */
+	public void testSwitchToBinary ()
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ReceiverConfigurator configurator = new ReceiverConfigurator( null );
+		configurator.setBinaryAllowed( true );
+		configurator.connected( out );
+		proprietary( configurator, "PSRFTXT,Version GSW3.2.4" );
+
+		GPSRecord record = new GPSRecord();
+		fixes( configurator, record, 0, 1000, 7, false );
+		assertEquals("Switching", ReceiverConfigurator.SWITCHING, configurator.getState());
+		assertTrue("$PSRF100 sent", out.toString().indexOf("$PSRF100,0,38400,8,1,0*") >= 0);
+
+		out.reset();
+		configurator.sentenceParsed( record, SiRFBinaryParser.TYPE_GEODETIC );
+		assertEquals("Binary", ReceiverConfigurator.BINARY, configurator.getState());
+
+		byte[] sent = out.toByteArray();
+		assertEquals("Message rates sent", SiRFBinaryParser.createGeodeticOnly().length, sent.length);
+		assertEquals("Set Message Rate", (byte)SiRFBinaryParser.MESSAGE_SET_RATE, sent[4]);
+
+		// Closing switches it back to NMEA.
+		out.reset();
+		configurator.closing();
+		assertEquals("Back to NMEA", (byte)SiRFBinaryParser.MESSAGE_SWITCH_TO_NMEA, out.toByteArray()[4]);
+	}
+
+	/**
+	 * Tests a device that keeps sending NMEA after being told to switch to
+	 * binary is not asked again.
+	 */
+	public void testBinaryIgnored ()
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ReceiverConfigurator configurator = new ReceiverConfigurator( null );
+		configurator.connected( out );
+		proprietary( configurator, "PSRFTXT,Version GSW3.2.4" );
+
+		GPSRecord record = new GPSRecord();
+		fixes( configurator, record, 0, 1000, 10, false );
+		assertEquals("Confirmed", ReceiverConfigurator.CONFIRMED, configurator.getState());
+		assertTrue("Not switched until allowed", out.toString().indexOf("$PSRF100") < 0);
+
+		configurator.setBinaryAllowed( true );
+		assertEquals("Switching", ReceiverConfigurator.SWITCHING, configurator.getState());
+
+		fixes( configurator, record, 10000, 1000, ReceiverConfigurator.DETECT_FIXES, false );
+		assertEquals("Still NMEA", ReceiverConfigurator.CONFIRMED, configurator.getState());
+
+		out.reset();
+		configurator.setBinaryAllowed( true );
+		assertEquals("Not tried again", 0, out.size());
+	}
+
+	/**
+	 * Tests an application turns on SiRF binary through its
+	 * <code>Criteria</code>.
+	 */
+	public void testBinaryCriteria ()
+	{
+		Criteria criteria = new Criteria();
+		assertFalse("Off by default", criteria.isSiRFBinaryAllowed());
+		assertFalse("Off without criteria",
+				new BluetoothGPS(null, "btspp://000000000001:1", null).getConfigurator().isBinaryAllowed());
+		assertFalse("Off with default criteria",
+				new BluetoothGPS(null, "btspp://000000000001:1", criteria).getConfigurator().isBinaryAllowed());
+
+		criteria.setSiRFBinaryAllowed( true );
+		assertTrue("On", criteria.isSiRFBinaryAllowed());
+
+		ReceiverConfigurator configurator = new BluetoothGPS( null, "btspp://000000000001:1", criteria ).getConfigurator();
+		assertTrue("Allowed", configurator.isBinaryAllowed());
+
+		// A confirmed SiRF device is switched.
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		configurator.connected( out );
+		proprietary( configurator, "PSRFTXT,Version GSW3.2.4" );
+		fixes( configurator, new GPSRecord(), 0, 1000, 7, false );
+		assertEquals("Switching", ReceiverConfigurator.SWITCHING, configurator.getState());
+	}
+
+	/**
+	 * Tests <code>BluetoothGPS</code> configures the device once it can
+	 * write to it.  It used to try before the output stream was opened so
+	 * nothing was sent.
+	 */
+	public void testConfiguredAfterConnect ()
+	{
+		byte[] fixes = NMEAReplayTest.createLog( 5 );
+		byte[] banner = NMEAReplayTest.sentence( "PSRFTXT,Version GSW3.2.4" ).getBytes();
+		byte[] log = new byte[banner.length + fixes.length];
+		System.arraycopy( banner, 0, log, 0, banner.length );
+		System.arraycopy( fixes, 0, log, banner.length, fixes.length );
+
+		NMEAReplay replay = new NMEAReplay( log );
+		replay.setSpeed( NMEAReplay.AS_FAST_AS_POSSIBLE );
+		ReplayLocationProvider provider = null;
+
+		try
+		{
+			provider = new ReplayLocationProvider( replay, criteria(200) );
+			assertTrue("Replay finished", replay.waitUntilFinished(10000));
+
+			// Let the reader thread parse the last sentences.
+			Thread.sleep( 100 );
+		}
+		catch (Exception e)
+		{
+			fail( e.toString() );
+		}
+		finally
+		{
+			if ( provider != null )
+			{
+				provider.close();
+			}
+		}
+
+		String commands = new String( replay.getCommands() );
+		assertTrue("Probe sent", commands.indexOf("$PMTK605*") >= 0);
+		assertTrue("5 Hz mode", commands.indexOf("$PSRF103,00,6,00,0*") >= 0);
+		assertTrue("Sentence mask", commands.indexOf("$PSRF103,04,00,01,01*") >= 0);
+	}
+
+	/**
+	 * @param responseTime is the preferred response time in milliseconds.
+	 * @return Criteria with <code>responseTime</code>.
+	 */
+	private static Criteria criteria (int responseTime)
+	{
+		Criteria criteria = new Criteria();
+		criteria.setPreferredResponseTime( responseTime );
+		return criteria;
+	}
+
+	/**
+	 * Passes a proprietary sentence to the configurator.
+	 *
+	 * @param configurator is the object being tested.
+	 * @param sentence is the sentence without the '$' or checksum.
+	 */
+	private static void proprietary (ReceiverConfigurator configurator, String sentence)
+	{
+		byte[] data = sentence.getBytes();
+		configurator.proprietarySentence( data, 0, data.length );
+	}
+
+	/**
+	 * Passes fixes to the configurator.
+	 *
+	 * @param configurator is the object being tested.
+	 * @param record is the record reused for every fix.
+	 * @param start is the time of the first fix in milliseconds since midnight.
+	 * @param interval is the milliseconds between fixes.
+	 * @param count is the number of fixes.
+	 * @param satellites is <code>true</code> to send a GSV sentence with each fix.
+	 */
+	private static void fixes (ReceiverConfigurator configurator, GPSRecord record,
+			int start, int interval, int count, boolean satellites)
+	{
+		for ( int i = 0; i < count; i++ )
+		{
+			record.millisSinceMidnight = start + i * interval;
+			configurator.sentenceParsed( record, NMEAParser.TYPE_GPGGA );
+
+			if ( satellites )
+			{
+				configurator.sentenceParsed( record, NMEAParser.TYPE_GPGSV );
+			}
+
+			configurator.sentenceParsed( record, NMEAParser.TYPE_GPRMC );
+		}
+	}
+}
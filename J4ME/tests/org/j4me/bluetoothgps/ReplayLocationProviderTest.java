@@ -0,0 +1,227 @@
+package org.j4me.bluetoothgps;
+
+import java.io.*;
+import java.util.*;
+import j2meunit.framework.*;
+import org.j4me.*;
+
+/**
+ * Tests the <code>ReplayLocationProvider</code> class.  It sends a recorded
+ * NMEA log through the Bluetooth GPS code to location listeners.
+ *
+ * @see org.j4me.bluetoothgps.ReplayLocationProvider
+ */
+public class ReplayLocationProviderTest
+	extends J4METestCase
+{
+	public ReplayLocationProviderTest ()
+	{
+		super();
+	}
+
+	public ReplayLocationProviderTest (String name, TestMethod method)
+	{
+		super( name, method );
+	}
+
+	public Test suite ()
+	{
+		TestSuite suite = new TestSuite();
+
+		suite.addTest(new ReplayLocationProviderTest("testReplay", new TestMethod()
+				{ public void run(TestCase tc) {((ReplayLocationProviderTest) tc).testReplay(); } }));
+		suite.addTest(new ReplayLocationProviderTest("testDisconnect", new TestMethod()
+				{ public void run(TestCase tc) {((ReplayLocationProviderTest) tc).testDisconnect(); } }));
+		suite.addTest(new ReplayLocationProviderTest("testStatistics", new TestMethod()
+				{ public void run(TestCase tc) {((ReplayLocationProviderTest) tc).testStatistics(); } }));
+		suite.addTest(new ReplayLocationProviderTest("testRMCAndGLL", new TestMethod()
+				{ public void run(TestCase tc) {((ReplayLocationProviderTest) tc).testRMCAndGLL(); } }));
+
+		return suite;
+	}
+
+	/**
+	 * Tests every fix in a log is turned into a location.
+	 */
+	public void testReplay ()
+	{
+		NMEAReplay replay = new NMEAReplay( NMEAReplayTest.createLog(20) );
+		replay.setSpeed( NMEAReplay.AS_FAST_AS_POSSIBLE );
+
+		Vector events = new Vector();
+		ReplayLocationProvider provider = play( replay, events, 20 );
+
+		assertEquals("Every fix", 20, provider.getFixCount());
+		assertEquals("One connection", 1, replay.getConnectCount());
+
+		Location location = provider.getLastKnownLocationToProvider();
+		assertNotNull("Last location", location);
+		assertEquals("Last latitude", 37.0 + 46.1019 / 60, location.getQualifiedCoordinates().getLatitude(), 0.000001);
+
+		assertTrue("Listener called", events.size() >= 2);
+		assertEquals("Available first", "state " + LocationProvider.AVAILABLE, events.elementAt(0));
+		assertEquals("Then a location", "location", events.elementAt(1));
+	}
+
+	/**
+	 * Tests the provider reconnects when the replay drops the connection and
+	 * only the truncated fix is lost.
+	 */
+	public void testDisconnect ()
+	{
+		NMEAReplay replay = new NMEAReplay( NMEAReplayTest.createLog(10) );
+		replay.setSpeed( NMEAReplay.AS_FAST_AS_POSSIBLE );
+		replay.addTruncation( 2, 20 );  // The first GPRMC
+		replay.addDisconnect( 4 * NMEAReplayTest.SENTENCES_PER_FIX );
+
+		Vector events = new Vector();
+		ReplayLocationProvider provider = play( replay, events, 9 );
+
+		assertEquals("Fixes", 9, provider.getFixCount());
+		assertEquals("Reconnected", 2, replay.getConnectCount());
+		assertTrue("Unavailable while disconnected",
+				events.contains("state " + LocationProvider.TEMPORARILY_UNAVAILABLE));
+	}
+
+	/**
+	 * Tests the statistics count the data read, the sentences parsed, the
+	 * reconnect and the time each location took to reach the listener.
+	 */
+	public void testStatistics ()
+	{
+		NMEAReplay replay = new NMEAReplay( NMEAReplayTest.createLog(10) );
+		replay.setSpeed( NMEAReplay.AS_FAST_AS_POSSIBLE );
+		replay.addDisconnect( 4 * NMEAReplayTest.SENTENCES_PER_FIX );
+
+		Vector events = new Vector();
+		LocationProvider provider = play( replay, events, 10 );
+		GPSStatistics statistics = provider.getStatistics();
+
+		assertNotNull("Statistics", statistics);
+		assertEquals("Bytes read", replay.getBytesSent(), statistics.getBytesRead());
+		assertTrue("Reads", statistics.getReadCount() > 0);
+		assertEquals("Sentences", replay.getSentencesSent(), statistics.getSentenceCount());
+		assertEquals("No checksum failures", 0, statistics.getChecksumFailureCount());
+		assertEquals("GPRMC parsed", 10, statistics.getParsedCount(GPSStatistics.TYPE_GPRMC));
+		// The end of the log also looks like the device dropping the connection.
+		assertTrue("Reconnected", statistics.getReconnectCount(GPSStatistics.REASON_DROPPED) >= 1);
+		assertEquals("Only dropped", statistics.getReconnectCount(), statistics.getReconnectCount(GPSStatistics.REASON_DROPPED));
+		assertTrue("Time to first fix", statistics.getTimeToFirstFix() >= 0);
+		assertTrue("Latency timed", statistics.getLatency().getCount() > 0);
+		assertEquals("Listener timed", statistics.getLatency().getCount(), statistics.getListenerTime().getCount());
+
+		// A composite passes on its Bluetooth source's statistics.
+		CompositeLocationProvider composite = new CompositeLocationProvider();
+		assertNull("No sources", composite.getStatistics());
+		composite.addSource( provider );
+		assertSame("From the source", statistics, composite.getStatistics());
+		composite.removeSource( provider );
+		composite.close();
+	}
+
+	/**
+	 * Tests a device that sends both $GPRMC and $GPGLL for each fix only
+	 * has each fix recorded once.
+	 */
+	public void testRMCAndGLL ()
+	{
+		StringBuffer log = new StringBuffer();
+
+		for ( int i = 0; i < 10; i++ )
+		{
+			String time = "0636" + (10 + i) + ".000";
+			String latitude = "3746." + (1000 + i);
+
+			log.append( NMEAReplayTest.sentence("GPGGA," + time + "," + latitude + ",N,12226.1278,W,1,05,2.1,59.7,M,-25.3,M,,0000") );
+			log.append( NMEAReplayTest.sentence("GPGSA,A,3,23,16,13,27,,,,,,,,,6.0,2.8,5.3") );
+
+			// The first fix has the GLL first.  The rest have it after the RMC.
+			if ( i == 0 )
+			{
+				log.append( NMEAReplayTest.sentence("GPGLL," + latitude + ",N,12226.1278,W," + time + ",A") );
+			}
+
+			log.append( NMEAReplayTest.sentence("GPRMC," + time + ",A," + latitude + ",N,12226.1278,W,0.47,305.20,140207,,") );
+
+			if ( i > 0 )
+			{
+				log.append( NMEAReplayTest.sentence("GPGLL," + latitude + ",N,12226.1278,W," + time + ",A") );
+			}
+		}
+
+		NMEAReplay replay = new NMEAReplay( log.toString().getBytes() );
+		replay.setSpeed( NMEAReplay.AS_FAST_AS_POSSIBLE );
+
+		Vector events = new Vector();
+		ReplayLocationProvider provider = play( replay, events, 11 );
+
+		assertEquals("Each fix once", 10, provider.getFixCount());
+		assertEquals("GLL parsed", 10, provider.getStatistics().getParsedCount(GPSStatistics.TYPE_GPGLL));
+
+		LocationHistory history = provider.getHistory();
+		assertEquals("Each location once", 10, history.size());
+
+		for ( int i = 1; i < history.size(); i++ )
+		{
+			assertTrue("No repeated time", history.getTimestamp(i) != history.getTimestamp(i - 1));
+		}
+	}
+
+	/**
+	 * Plays a replay through a <code>ReplayLocationProvider</code>.
+	 *
+	 * @param replay is the data to play.
+	 * @param events collects the listener calls.
+	 * @param fixes is the number of fixes expected.
+	 * @return The provider after it has delivered <code>fixes</code>.  It is
+	 *  closed.
+	 */
+	private ReplayLocationProvider play (NMEAReplay replay, final Vector events, int fixes)
+	{
+		ReplayLocationProvider provider = null;
+
+		try
+		{
+			provider = new ReplayLocationProvider( replay, null );
+			provider.setLocationListener( new LocationListener()
+				{
+					public void locationUpdated (LocationProvider p, Location location)
+					{
+						events.addElement( "location" );
+					}
+
+					public void providerStateChanged (LocationProvider p, int newState)
+					{
+						events.addElement( "state " + newState );
+					}
+				}, -1, -1, -1 );
+
+			assertTrue("Replay finished", replay.waitUntilFinished(10000));
+
+			// The last sentences may still be being parsed.
+			long end = System.currentTimeMillis() + 2000;
+
+			while ( (provider.getFixCount() < fixes) && (System.currentTimeMillis() < end) )
+			{
+				Thread.sleep( 10 );
+			}
+		}
+		catch (IOException e)
+		{
+			fail( e.toString() );
+		}
+		catch (InterruptedException e)
+		{
+			fail( e.toString() );
+		}
+		finally
+		{
+			if ( provider != null )
+			{
+				provider.close();
+			}
+		}
+
+		return provider;
+	}
+}
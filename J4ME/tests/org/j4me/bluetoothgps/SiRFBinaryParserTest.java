@@ -0,0 +1,335 @@
+package org.j4me.bluetoothgps;
+
+import java.util.*;
+import j2meunit.framework.*;
+import org.j4me.*;
+import org.j4me.util.*;
+
+/**
+ * Tests the <code>SiRFBinaryParser</code> class.  It decodes the SiRF binary
+ * protocol and passes any NMEA between the binary frames to a <code>NMEAParser</code>.
+ *
+ * @see org.j4me.bluetoothgps.SiRFBinaryParser
+ */
+public class SiRFBinaryParserTest
+	extends J4METestCase
+{
+	public SiRFBinaryParserTest ()
+	{
+		super();
+	}
+
+	public SiRFBinaryParserTest (String name, TestMethod method)
+	{
+		super( name, method );
+	}
+
+	public Test suite ()
+	{
+		TestSuite suite = new TestSuite();
+
+		suite.addTest(new SiRFBinaryParserTest("testGeodetic", new TestMethod()
+				{ public void run(TestCase tc) {((SiRFBinaryParserTest) tc).testGeodetic(); } }));
+		suite.addTest(new SiRFBinaryParserTest("testNoFix", new TestMethod()
+				{ public void run(TestCase tc) {((SiRFBinaryParserTest) tc).testNoFix(); } }));
+		suite.addTest(new SiRFBinaryParserTest("testMixedWithNMEA", new TestMethod()
+				{ public void run(TestCase tc) {((SiRFBinaryParserTest) tc).testMixedWithNMEA(); } }));
+		suite.addTest(new SiRFBinaryParserTest("testCorruptFrame", new TestMethod()
+				{ public void run(TestCase tc) {((SiRFBinaryParserTest) tc).testCorruptFrame(); } }));
+		suite.addTest(new SiRFBinaryParserTest("testCommands", new TestMethod()
+				{ public void run(TestCase tc) {((SiRFBinaryParserTest) tc).testCommands(); } }));
+		suite.addTest(new SiRFBinaryParserTest("testReplay", new TestMethod()
+				{ public void run(TestCase tc) {((SiRFBinaryParserTest) tc).testReplay(); } }));
+
+		return suite;
+	}
+
+	/**
+	 * Tests a Geodetic Navigation Data message is decoded into the record.
+	 */
+	public void testGeodetic ()
+	{
+		final GPSRecord[] decoded = new GPSRecord[1];
+
+		SiRFBinaryParser parser = new SiRFBinaryParser( null );
+		parser.setRecordListener( new GPSRecordListener()
+			{
+				public void recordParsed (GPSRecord record, int type)
+				{
+					assertEquals("Type", SiRFBinaryParser.TYPE_GEODETIC, type);
+					decoded[0] = new GPSRecord( record );
+				}
+			});
+
+		byte[] frame = geodetic( 0, 0x80, 6, 16, 0, 37.7669, -122.4356, 59.7, 1.5, 305.2, 1.2, 400, 800 );
+		int types = parser.parse( frame, 0, frame.length );
+
+		assertEquals("Parsed", SiRFBinaryParser.TYPE_GEODETIC, types);
+		assertEquals("Frames", 1, parser.getFrameCount());
+
+		GPSRecord record = decoded[0];
+		assertNotNull("Decoded", record);
+		assertEquals("DGPS fix", 2, record.quality);
+		assertEquals("Latitude", 37.7669, record.lattitude, 0.0000001);
+		assertEquals("Longitude", -122.4356, record.longitude, 0.0000001);
+		assertEquals("West", 'W', record.longitudeDirection);
+		assertEquals("Altitude", 59.7f, record.altitude, 0.01f);
+		assertEquals("Speed in knots", 1.5f / BluetoothGPS.MS_PER_KNOT, record.speed, 0.01f);
+		assertEquals("Course", 305.2f, record.course, 0.01f);
+		assertEquals("HDOP", 1.2f, record.hdop, 0.001f);
+		assertEquals("VDOP", 2.4f, record.vdop, 0.001f);
+		assertEquals("Satellites", 8, record.satelliteCount);
+		assertEquals("Date", 140207, record.date);
+		assertEquals("Time", (6 * 3600 + 16 * 60) * 1000, record.millisSinceMidnight);
+		assertEquals("Timestamp", 1171433760000L, record.timestamp);
+	}
+
+	/**
+	 * Tests a message without a valid fix has a quality of 0.
+	 */
+	public void testNoFix ()
+	{
+		final int[] quality = { -1 };
+
+		SiRFBinaryParser parser = new SiRFBinaryParser( null );
+		parser.setRecordListener( new GPSRecordListener()
+			{
+				public void recordParsed (GPSRecord record, int type)
+				{
+					quality[0] = record.quality;
+				}
+			});
+
+		byte[] frame = geodetic( 0x0100, 0, 6, 16, 0, 0, 0, 0, 0, 0, 50, 0, 0 );
+		parser.parse( frame, 0, frame.length );
+
+		assertEquals("No fix", 0, quality[0]);
+	}
+
+	/**
+	 * Tests NMEA sentences before, between, and after binary frames are all
+	 * parsed in order, no matter how the data is split up.
+	 */
+	public void testMixedWithNMEA ()
+	{
+		byte[] nmea = NMEAReplayTest.createLog( 2 );
+		byte[] binary1 = geodetic( 0, 0, 6, 16, 0, 37.7, -122.4, 10, 0, 0, 1, 100, 100 );
+		byte[] binary2 = geodetic( 0, 0, 6, 16, 1000, 37.8, -122.4, 10, 0, 0, 1, 100, 100 );
+		byte[] data = concatenate( new byte[][] { nmea, binary1, binary2, nmea } );
+
+		for ( int chunk = 1; chunk <= 16; chunk *= 2 )
+		{
+			final Vector types = new Vector();
+
+			NMEAParser nmeaParser = new NMEAParser();
+			SiRFBinaryParser parser = new SiRFBinaryParser( nmeaParser );
+			GPSRecordListener listener = new GPSRecordListener()
+				{
+					public void recordParsed (GPSRecord record, int type)
+					{
+						if ( (type == NMEAParser.TYPE_GPRMC) || (type == SiRFBinaryParser.TYPE_GEODETIC) )
+						{
+							types.addElement( new Integer(type) );
+						}
+					}
+				};
+			nmeaParser.setRecordListener( listener );
+			parser.setRecordListener( listener );
+
+			for ( int offset = 0; offset < data.length; offset += chunk )
+			{
+				parser.parse( data, offset, Math.min(chunk, data.length - offset) );
+			}
+
+			assertEquals("Fixes in " + chunk + " byte pieces", 6, types.size());
+			assertEquals("NMEA first", new Integer(NMEAParser.TYPE_GPRMC), types.elementAt(1));
+			assertEquals("Binary in the middle", new Integer(SiRFBinaryParser.TYPE_GEODETIC), types.elementAt(2));
+			assertEquals("Binary in the middle", new Integer(SiRFBinaryParser.TYPE_GEODETIC), types.elementAt(3));
+			assertEquals("NMEA last", new Integer(NMEAParser.TYPE_GPRMC), types.elementAt(4));
+			assertEquals("No errors", 0, parser.getErrorCount());
+		}
+	}
+
+	/**
+	 * Tests a frame with a bad checksum is dropped and the next one is found.
+	 */
+	public void testCorruptFrame ()
+	{
+		byte[] good = geodetic( 0, 0, 6, 16, 0, 37.7, -122.4, 10, 0, 0, 1, 100, 100 );
+		byte[] bad = geodetic( 0, 0, 6, 16, 0, 37.7, -122.4, 10, 0, 0, 1, 100, 100 );
+		bad[30] ^= 0x10;  // Flip a bit in the latitude
+
+		byte[] truncated = new byte[40];
+		System.arraycopy( good, 0, truncated, 0, truncated.length );
+
+		byte[] data = concatenate( new byte[][] { bad, good, truncated } );
+		SiRFBinaryParser parser = new SiRFBinaryParser( null );
+		parser.parse( data, 0, data.length );
+
+		// The truncated frame is still waiting for the rest of its payload.
+		assertEquals("Good frame", 1, parser.getFrameCount());
+		assertEquals("Bad frame", 1, parser.getErrorCount());
+
+		parser.flush();
+		parser.parse( good, 0, good.length );
+		assertEquals("Found after flush", 2, parser.getFrameCount());
+	}
+
+	/**
+	 * Tests the commands sent to switch protocols.
+	 */
+	public void testCommands ()
+	{
+		String toBinary = new String( SiRFBinaryParser.createSwitchToBinary() );
+		assertTrue("$PSRF100", toBinary.startsWith("$PSRF100,0,38400,8,1,0*"));
+
+		byte[] toNMEA = SiRFBinaryParser.createSwitchToNMEA();
+		assertEquals("Length", 24 + 8, toNMEA.length);
+		assertEquals("Start", (byte)0xA0, toNMEA[0]);
+		assertEquals("Message ID", (byte)129, toNMEA[4]);
+		assertEquals("End", (byte)0xB3, toNMEA[toNMEA.length - 1]);
+
+		// Our own parser accepts the frames.
+		byte[] rates = SiRFBinaryParser.createGeodeticOnly();
+		SiRFBinaryParser parser = new SiRFBinaryParser( null );
+		parser.parse( toNMEA, 0, toNMEA.length );
+		parser.parse( rates, 0, rates.length );
+		assertEquals("Checksums", 3, parser.getFrameCount());
+	}
+
+	/**
+	 * Tests a captured binary stream replayed through a
+	 * <code>ReplayLocationProvider</code> becomes locations.
+	 */
+	public void testReplay ()
+	{
+		byte[][] frames = new byte[10][];
+
+		for ( int i = 0; i < frames.length; i++ )
+		{
+			frames[i] = geodetic( 0, 0, 6, 16, i * 1000, 37.7 + i * 0.0001, -122.4, 10, 1, 0, 1, 100, 100 );
+		}
+
+		NMEAReplay replay = new NMEAReplay( concatenate(frames) );
+		replay.setSpeed( NMEAReplay.AS_FAST_AS_POSSIBLE );
+		ReplayLocationProvider provider = null;
+
+		try
+		{
+			provider = new ReplayLocationProvider( replay, null );
+			assertTrue("Replay finished", replay.waitUntilFinished(10000));
+
+			long end = System.currentTimeMillis() + 2000;
+
+			while ( (provider.getFixCount() < frames.length) && (System.currentTimeMillis() < end) )
+			{
+				Thread.sleep( 10 );
+			}
+
+			assertEquals("Every fix", frames.length, provider.getFixCount());
+
+			Location location = provider.getLastKnownLocationToProvider();
+			assertEquals("Last latitude", 37.7009, location.getQualifiedCoordinates().getLatitude(), 0.0000001);
+			assertEquals("Available", LocationProvider.AVAILABLE, provider.getState());
+		}
+		catch (Exception e)
+		{
+			fail( e.toString() );
+		}
+		finally
+		{
+			if ( provider != null )
+			{
+				provider.close();
+			}
+		}
+	}
+
+	/**
+	 * Creates a Geodetic Navigation Data frame on 14 February 2007.
+	 *
+	 * @param navValid is 0 for a valid fix.
+	 * @param navType has bit 7 set for a DGPS fix.
+	 * @param hour is the UTC hour.
+	 * @param minute is the UTC minute.
+	 * @param millis is the milliseconds into the minute.
+	 * @param latitude is in degrees.
+	 * @param longitude is in degrees.
+	 * @param altitude is meters above sea level.
+	 * @param speed is in meters per second.
+	 * @param course is in degrees.
+	 * @param hdop is the horizontal dilution of precision.
+	 * @param horizontalError is the estimated horizontal error in centimeters.
+	 * @param verticalError is the estimated vertical error in centimeters.
+	 * @return The frame.
+	 */
+	static byte[] geodetic (int navValid, int navType, int hour, int minute, int millis,
+			double latitude, double longitude, double altitude, double speed, double course,
+			double hdop, int horizontalError, int verticalError)
+	{
+		byte[] message = new byte[SiRFBinaryParser.GEODETIC_LENGTH];
+		message[0] = (byte)SiRFBinaryParser.MESSAGE_GEODETIC;
+		put( message, 1, 2, navValid );
+		put( message, 3, 2, navType );
+		put( message, 11, 2, 2007 );
+		message[13] = 2;
+		message[14] = 14;
+		message[15] = (byte)hour;
+		message[16] = (byte)minute;
+		put( message, 17, 2, millis );
+		put( message, 23, 4, MathFunc.round(latitude * 10000000) );
+		put( message, 27, 4, MathFunc.round(longitude * 10000000) );
+		put( message, 31, 4, MathFunc.round(altitude * 100) - 2530 );  // Ellipsoid
+		put( message, 35, 4, MathFunc.round(altitude * 100) );
+		put( message, 40, 2, MathFunc.round(speed * 100) );
+		put( message, 42, 2, MathFunc.round(course * 100) );
+		put( message, 50, 4, horizontalError );
+		put( message, 54, 4, verticalError );
+		message[88] = 8;
+		message[89] = (byte)MathFunc.round( hdop * 5 );
+
+		return SiRFBinaryParser.createFrame( message );
+	}
+
+	/**
+	 * Writes a big-endian number.
+	 *
+	 * @param data is where to write it.
+	 * @param index is where the number starts.
+	 * @param length is the number of bytes.
+	 * @param value is the number.
+	 */
+	private static void put (byte[] data, int index, int length, long value)
+	{
+		for ( int i = length - 1; i >= 0; i-- )
+		{
+			data[index + i] = (byte)value;
+			value >>= 8;
+		}
+	}
+
+	/**
+	 * @param arrays are the arrays to join.
+	 * @return One array with all of them in order.
+	 */
+	private static byte[] concatenate (byte[][] arrays)
+	{
+		int length = 0;
+
+		for ( int i = 0; i < arrays.length; i++ )
+		{
+			length += arrays[i].length;
+		}
+
+		byte[] all = new byte[length];
+		int offset = 0;
+
+		for ( int i = 0; i < arrays.length; i++ )
+		{
+			System.arraycopy( arrays[i], 0, all, offset, arrays[i].length );
+			offset += arrays[i].length;
+		}
+
+		return all;
+	}
+}
@@ -0,0 +1,138 @@
+package org.j4me.bluetoothgps;
+
+import java.io.*;
+
+/**
+ * Stands in for a Bluetooth GPS device's input stream.  It emits the same
+ * burst of NMEA sentences at a fixed rate measured from when it was created.
+ * <p>
+ * Like a real device <code>read</code> blocks until the next burst is
+ * sent and <code>available</code> only counts bytes that have been sent.
+ */
+public class SimulatedNMEAInputStream
+	extends InputStream
+{
+	/**
+	 * The sentences sent for each fix.
+	 */
+	private final byte[] burst;
+
+	/**
+	 * Milliseconds between bursts.
+	 */
+	private final int period;
+
+	/**
+	 * The number of bursts to send before acting like the end of the stream.
+	 */
+	private final int bursts;
+
+	/**
+	 * When the first burst is sent.
+	 */
+	private final long start;
+
+	/**
+	 * The total number of bytes read.
+	 */
+	private long position;
+
+	/**
+	 * Constructs the stream.  The first burst is sent one period after
+	 * construction.
+	 *
+	 * @param burst is the NMEA data sent at each interval.
+	 * @param period is the milliseconds between bursts.
+	 * @param bursts is how many bursts to send before the stream ends.
+	 */
+	public SimulatedNMEAInputStream (String burst, int period, int bursts)
+	{
+		this.burst = burst.getBytes();
+		this.period = period;
+		this.bursts = bursts;
+		this.start = System.currentTimeMillis() + period;
+	}
+
+	/**
+	 * Returns the time a burst was sent.
+	 *
+	 * @param index is the burst number starting from 0.
+	 * @return The system time when burst <code>index</code> was sent.
+	 */
+	public long getEmitTime (int index)
+	{
+		return start + (long)index * period;
+	}
+
+	/**
+	 * @return The number of bytes sent so far.
+	 */
+	private long sent ()
+	{
+		long elapsed = System.currentTimeMillis() - start;
+
+		if ( elapsed < 0 )
+		{
+			return 0;
+		}
+
+		long count = Math.min( elapsed / period + 1, bursts );
+		return count * burst.length;
+	}
+
+	/**
+	 * @see java.io.InputStream#available()
+	 */
+	public int available ()
+	{
+		return (int)(sent() - position);
+	}
+
+	/**
+	 * @see java.io.InputStream#read()
+	 */
+	public int read ()
+		throws IOException
+	{
+		byte[] b = new byte[1];
+		int count = read( b, 0, 1 );
+		return (count < 0) ? -1 : (b[0] & 0xFF);
+	}
+
+	/**
+	 * Reads the data sent so far.  If nothing has been sent, blocks until
+	 * the next burst.
+	 *
+	 * @see java.io.InputStream#read(byte[], int, int)
+	 */
+	public int read (byte[] b, int off, int len)
+		throws IOException
+	{
+		if ( position >= (long)bursts * burst.length )
+		{
+			return -1;
+		}
+
+		while ( available() == 0 )
+		{
+			try
+			{
+				Thread.sleep( 1 );
+			}
+			catch (InterruptedException e)
+			{
+				throw new InterruptedIOException();
+			}
+		}
+
+		int count = Math.min( available(), len );
+
+		for ( int i = 0; i < count; i++ )
+		{
+			b[off + i] = burst[(int)(position % burst.length)];
+			position++;
+		}
+
+		return count;
+	}
+}
@@ -0,0 +1,307 @@
+package org.j4me.bluetoothgps;
+
+import java.io.*;
+import j2meunit.framework.*;
+import org.j4me.*;
+
+/**
+ * Tests the <code>TrackRecorder</code> and <code>TrackReader</code> classes.
+ * They write a track of locations in a compact binary format and read it
+ * back.
+ *
+ * @see org.j4me.bluetoothgps.TrackRecorder
+ * @see org.j4me.bluetoothgps.TrackReader
+ */
+public class TrackRecorderTest
+	extends J4METestCase
+{
+	public TrackRecorderTest ()
+	{
+		super();
+	}
+
+	public TrackRecorderTest (String name, TestMethod method)
+	{
+		super( name, method );
+	}
+
+	public Test suite ()
+	{
+		TestSuite suite = new TestSuite();
+
+		suite.addTest(new TrackRecorderTest("testZigzag", new TestMethod()
+				{ public void run(TestCase tc) {((TrackRecorderTest) tc).testZigzag(); } }));
+		suite.addTest(new TrackRecorderTest("testRoundTrip", new TestMethod()
+				{ public void run(TestCase tc) {((TrackRecorderTest) tc).testRoundTrip(); } }));
+		suite.addTest(new TrackRecorderTest("testSize", new TestMethod()
+				{ public void run(TestCase tc) {((TrackRecorderTest) tc).testSize(); } }));
+		suite.addTest(new TrackRecorderTest("testTruncated", new TestMethod()
+				{ public void run(TestCase tc) {((TrackRecorderTest) tc).testTruncated(); } }));
+		suite.addTest(new TrackRecorderTest("testListener", new TestMethod()
+				{ public void run(TestCase tc) {((TrackRecorderTest) tc).testListener(); } }));
+		suite.addTest(new TrackRecorderTest("testFlushInterval", new TestMethod()
+				{ public void run(TestCase tc) {((TrackRecorderTest) tc).testFlushInterval(); } }));
+
+		return suite;
+	}
+
+	/**
+	 * Tests signed values survive being mapped to unsigned ones.
+	 */
+	public void testZigzag ()
+	{
+		long[] values = { 0, -1, 1, -2, 2, 1000, -1000, Integer.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE };
+
+		for ( int i = 0; i < values.length; i++ )
+		{
+			assertEquals("Value " + values[i], values[i], TrackReader.unzigzag(TrackRecorder.zigzag(values[i])));
+		}
+
+		assertEquals("Small stays small", 3, TrackRecorder.zigzag(-2));
+	}
+
+	/**
+	 * Tests a track of several batches reads back as it was recorded.
+	 */
+	public void testRoundTrip ()
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TrackRecorder recorder = new TrackRecorder( new OutputStreamTrackSink(out) );
+		int fixes = 500;
+
+		for ( int i = 0; i < fixes; i++ )
+		{
+			recorder.record( latitude(i), longitude(i), 1000L * i + 1200000000000L, accuracy(i) );
+		}
+
+		close( recorder );
+		assertEquals("Recorded", fixes, recorder.getFixCount());
+		assertEquals("Every byte written", out.size(), recorder.getByteCount());
+		assertTrue("Several batches", out.size() > 2 * TrackRecorder.BATCH_SIZE);
+
+		TrackReader reader = new TrackReader( new ByteArrayInputStream(out.toByteArray()) );
+
+		try
+		{
+			for ( int i = 0; i < fixes; i++ )
+			{
+				assertTrue("Fix " + i, reader.next());
+				assertEquals("Latitude " + i, latitude(i), reader.getLatitude(), 0.0000005);
+				assertEquals("Longitude " + i, longitude(i), reader.getLongitude(), 0.0000005);
+				assertEquals("Timestamp " + i, 1000L * i + 1200000000000L, reader.getTimestamp());
+
+				if ( Float.isNaN(accuracy(i)) )
+				{
+					assertTrue("Unknown accuracy " + i, Float.isNaN(reader.getAccuracy()));
+				}
+				else
+				{
+					assertEquals("Accuracy " + i, Math.min(254, (int)(accuracy(i) + 0.5f)), (int)reader.getAccuracy());
+				}
+			}
+
+			assertFalse("End", reader.next());
+			assertEquals("Read", fixes, reader.getFixCount());
+		}
+		catch (IOException e)
+		{
+			fail( e.toString() );
+		}
+	}
+
+	/**
+	 * Tests a fix a second while driving takes less than 8 bytes.
+	 */
+	public void testSize ()
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TrackRecorder recorder = new TrackRecorder( new OutputStreamTrackSink(out) );
+		int fixes = 3600;
+
+		for ( int i = 0; i < fixes; i++ )
+		{
+			// About 30 meters a second to the north east.
+			recorder.record( 37.0 + i * 0.0002, -122.0 + i * 0.0002, 1000L * i, 6.5f );
+		}
+
+		close( recorder );
+
+		double perFix = (double)out.size() / fixes;
+		assertTrue("Bytes per fix " + perFix, perFix < 8);
+	}
+
+	/**
+	 * Tests a track cut short ends at the last complete batch.
+	 */
+	public void testTruncated ()
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TrackRecorder recorder = new TrackRecorder( new OutputStreamTrackSink(out) );
+
+		for ( int i = 0; i < 200; i++ )
+		{
+			recorder.record( latitude(i), longitude(i), 1000L * i, 5 );
+		}
+
+		close( recorder );
+
+		byte[] data = out.toByteArray();
+		byte[] cut = new byte[data.length - 3];
+		System.arraycopy( data, 0, cut, 0, cut.length );
+
+		TrackReader reader = new TrackReader( new ByteArrayInputStream(cut) );
+
+		try
+		{
+			while ( reader.next() )
+			{
+			}
+
+			int count = reader.getFixCount();
+			assertTrue("Complete batches " + count, (count > 0) && (count < 200));
+			assertEquals("Last fix", (count - 1) * 1000, reader.getTimestamp());
+		}
+		catch (IOException e)
+		{
+			fail( e.toString() );
+		}
+
+		try
+		{
+			new TrackReader( new ByteArrayInputStream(new byte[] { 0, 1, 99 }) ).next();
+			fail("Not a track");
+		}
+		catch (IOException e)
+		{
+			// Expected.
+		}
+	}
+
+	/**
+	 * Tests locations from a provider are recorded.
+	 */
+	public void testListener ()
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TrackRecorder recorder = new TrackRecorder( new OutputStreamTrackSink(out) );
+
+		MockLocationProvider provider = new MockLocationProvider();
+		provider.setLocationListener( recorder, -1, -1, -1 );
+		provider.setLocation( new QualifiedCoordinates(37.5, -122.25, 0, 3, 5), 0 );
+		recorder.locationUpdated( provider, new LocationImpl() );
+		provider.setLocation( new QualifiedCoordinates(37.5001, -122.25, 0, 4, 5), 0 );
+		provider.setLocationListener( null, -1, -1, -1 );
+
+		close( recorder );
+		assertEquals("Invalid location skipped", 2, recorder.getFixCount());
+
+		// Nothing is recorded after closing.
+		recorder.record( 0, 0, 0, 0 );
+		assertEquals("Closed", 2, recorder.getFixCount());
+
+		TrackReader reader = new TrackReader( new ByteArrayInputStream(out.toByteArray()) );
+
+		try
+		{
+			assertTrue("First", reader.next());
+			assertEquals("Latitude", 37.5, reader.getLatitude(), 0.0000005);
+			assertEquals("Accuracy", 3.0f, reader.getAccuracy(), 0.0f);
+			assertTrue("Second", reader.next());
+			assertEquals("Latitude", 37.5001, reader.getLatitude(), 0.0000005);
+			assertFalse("End", reader.next());
+		}
+		catch (IOException e)
+		{
+			fail( e.toString() );
+		}
+	}
+
+	/**
+	 * Tests a partly filled batch is written once the flush interval has
+	 * passed even when no more fixes are recorded.
+	 */
+	public void testFlushInterval ()
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TrackRecorder recorder = new TrackRecorder( new OutputStreamTrackSink(out), 200 );
+
+		for ( int i = 0; i < 3; i++ )
+		{
+			recorder.record( latitude(i), longitude(i), 1000L * i, accuracy(i) );
+		}
+
+		assertEquals("Not written straight away", 0, out.size());
+
+		// The fixes stop.  The batch is written anyway.
+		long end = System.currentTimeMillis() + 2000;
+
+		while ( (out.size() == 0) && (System.currentTimeMillis() < end) )
+		{
+			try
+			{
+				Thread.sleep( 20 );
+			}
+			catch (InterruptedException e)
+			{
+				fail( e.toString() );
+			}
+		}
+
+		assertEquals("Batch written", recorder.getByteCount(), out.size());
+		assertEquals("Nothing waiting", 0, recorder.getPendingCount());
+
+		TrackReader reader = new TrackReader( new ByteArrayInputStream(out.toByteArray()) );
+
+		try
+		{
+			for ( int i = 0; i < 3; i++ )
+			{
+				assertTrue("Fix " + i, reader.next());
+				assertEquals("Latitude", latitude(i), reader.getLatitude(), 0.0000005);
+			}
+
+			assertFalse("End", reader.next());
+		}
+		catch (IOException e)
+		{
+			fail( e.toString() );
+		}
+
+		close( recorder );
+	}
+
+	/**
+	 * Closes a recorder, failing the test if it cannot.
+	 *
+	 * @param recorder is the recorder to close.
+	 */
+	private void close (TrackRecorder recorder)
+	{
+		try
+		{
+			recorder.close();
+		}
+		catch (IOException e)
+		{
+			fail( e.toString() );
+		}
+	}
+
+	/**
+	 * The track used by the tests wanders in all directions.
+	 */
+	private static double latitude (int i)
+	{
+		return 37.7 + Math.sin( i / 20.0 ) * 0.01;
+	}
+
+	private static double longitude (int i)
+	{
+		return -122.4 + Math.cos( i / 30.0 ) * 0.01 + i * 0.00001;
+	}
+
+	private static float accuracy (int i)
+	{
+		return (i % 7 == 0) ? Float.NaN : i * 0.75f;
+	}
+}
@@ -0,0 +1,205 @@
+package org.j4me.bluetoothgps;
+
+import java.util.*;
+import j2meunit.framework.*;
+import org.j4me.*;
+
+/**
+ * Tests the <code>TrackSimplifier</code> class.  It removes points from a
+ * track that do not change its shape.
+ *
+ * @see org.j4me.bluetoothgps.TrackSimplifier
+ */
+public class TrackSimplifierTest
+	extends J4METestCase
+{
+	/**
+	 * Degrees of latitude in a meter.
+	 */
+	private static final double LATITUDE_PER_METER = 1.0 / 111195;
+
+	public TrackSimplifierTest ()
+	{
+		super();
+	}
+
+	public TrackSimplifierTest (String name, TestMethod method)
+	{
+		super( name, method );
+	}
+
+	public Test suite ()
+	{
+		TestSuite suite = new TestSuite();
+
+		suite.addTest(new TrackSimplifierTest("testDistanceToSegment", new TestMethod()
+				{ public void run(TestCase tc) {((TrackSimplifierTest) tc).testDistanceToSegment(); } }));
+		suite.addTest(new TrackSimplifierTest("testBatch", new TestMethod()
+				{ public void run(TestCase tc) {((TrackSimplifierTest) tc).testBatch(); } }));
+		suite.addTest(new TrackSimplifierTest("testStraightStream", new TestMethod()
+				{ public void run(TestCase tc) {((TrackSimplifierTest) tc).testStraightStream(); } }));
+		suite.addTest(new TrackSimplifierTest("testRadial", new TestMethod()
+				{ public void run(TestCase tc) {((TrackSimplifierTest) tc).testRadial(); } }));
+		suite.addTest(new TrackSimplifierTest("testStreamTolerance", new TestMethod()
+				{ public void run(TestCase tc) {((TrackSimplifierTest) tc).testStreamTolerance(); } }));
+
+		return suite;
+	}
+
+	/**
+	 * Tests the distance from a point to a segment.
+	 */
+	public void testDistanceToSegment ()
+	{
+		// A segment 100 meters north.
+		double end = 100 * LATITUDE_PER_METER;
+		double east = 10 * LATITUDE_PER_METER;  // On the equator
+
+		assertEquals("Beside", 10, TrackSimplifier.distanceToSegment(0, 0, end, 0, end / 2, east), 0.1);
+		assertEquals("On", 0, TrackSimplifier.distanceToSegment(0, 0, end, 0, end / 2, 0), 0.1);
+		assertEquals("Behind the start", 20, TrackSimplifier.distanceToSegment(0, 0, end, 0, -20 * LATITUDE_PER_METER, 0), 0.1);
+		assertEquals("Past the end", 30, TrackSimplifier.distanceToSegment(0, 0, end, 0, end + 30 * LATITUDE_PER_METER, 0), 0.1);
+		assertEquals("No segment", 10, TrackSimplifier.distanceToSegment(0, 0, 0, 0, 0, east), 0.1);
+	}
+
+	/**
+	 * Tests a recorded track is simplified in one go.
+	 */
+	public void testBatch ()
+	{
+		// North 100 meters, a point off to the side, then east 100 meters.
+		int length = 21;
+		double[] lats = new double[length];
+		double[] lons = new double[length];
+
+		for ( int i = 0; i <= 10; i++ )
+		{
+			lats[i] = i * 10 * LATITUDE_PER_METER;
+		}
+
+		for ( int i = 11; i < length; i++ )
+		{
+			lats[i] = lats[10];
+			lons[i] = (i - 10) * 10 * LATITUDE_PER_METER;
+		}
+
+		lons[5] = 8 * LATITUDE_PER_METER;
+
+		boolean[] keep = new boolean[length];
+
+		assertEquals("Corner only", 3, TrackSimplifier.simplify(lats, lons, length, 10, keep));
+		assertTrue("Start", keep[0]);
+		assertTrue("Corner", keep[10]);
+		assertTrue("End", keep[length - 1]);
+
+		// The points next to the side one are 6 meters from the lines to it.
+		assertEquals("Side point too", 6, TrackSimplifier.simplify(lats, lons, length, 5, keep));
+		assertTrue("Side", keep[5]);
+		assertTrue("Before side", keep[4]);
+
+		assertEquals("Two points", 2, TrackSimplifier.simplify(lats, lons, 2, 5, keep));
+	}
+
+	/**
+	 * Tests a straight track streams through as one point a window.
+	 */
+	public void testStraightStream ()
+	{
+		Vector points = new Vector();
+		TrackSimplifier simplifier = new TrackSimplifier( collector(points), 5, 0, 10 );
+
+		for ( int i = 0; i < 100; i++ )
+		{
+			simplifier.add( i * 10 * LATITUDE_PER_METER, 0, i, 5 );
+		}
+
+		simplifier.flush();
+
+		assertEquals("Input", 100, simplifier.getInputCount());
+		assertEquals("Output", points.size(), simplifier.getOutputCount());
+		assertEquals("First", new Long(0), points.elementAt(0));
+		assertEquals("Last", new Long(99), points.lastElement());
+		assertTrue("Few points " + points.size(), points.size() <= 100 / 9 + 2);
+	}
+
+	/**
+	 * Tests a GPS standing still only sends its first and last points.
+	 */
+	public void testRadial ()
+	{
+		Vector points = new Vector();
+		TrackSimplifier simplifier = new TrackSimplifier( collector(points), 10 );
+		Random random = new Random( 7 );
+
+		for ( int i = 0; i < 60; i++ )
+		{
+			double jitter = (random.nextDouble() - 0.5) * 6 * LATITUDE_PER_METER;
+			simplifier.add( 37 + jitter, -122 + jitter, i, 5 );
+		}
+
+		simplifier.flush();
+
+		assertEquals("First and last", 2, points.size());
+		assertEquals("Last", new Long(59), points.lastElement());
+	}
+
+	/**
+	 * Tests every point of a winding track is within the tolerance of the
+	 * streamed simplification.
+	 */
+	public void testStreamTolerance ()
+	{
+		final int length = 1000;
+		final float tolerance = 8;
+		double[] lats = new double[length];
+		double[] lons = new double[length];
+
+		for ( int i = 0; i < length; i++ )
+		{
+			// A road that winds with a 200 meter period.
+			lats[i] = 37 + i * 5 * LATITUDE_PER_METER;
+			lons[i] = -122 + Math.sin( i / 40.0 ) * 50 * LATITUDE_PER_METER;
+		}
+
+		Vector points = new Vector();
+		TrackSimplifier simplifier = new TrackSimplifier( collector(points), tolerance, 0, 16 );
+
+		for ( int i = 0; i < length; i++ )
+		{
+			simplifier.add( lats[i], lons[i], i, Float.NaN );
+		}
+
+		simplifier.flush();
+
+		assertTrue("Reduced " + points.size(), points.size() < length / 4);
+		assertEquals("Last", new Long(length - 1), points.lastElement());
+
+		for ( int k = 1; k < points.size(); k++ )
+		{
+			int from = (int)((Long)points.elementAt(k - 1)).longValue();
+			int to = (int)((Long)points.elementAt(k)).longValue();
+			assertTrue("In order", from < to);
+
+			for ( int i = from + 1; i < to; i++ )
+			{
+				double d = TrackSimplifier.distanceToSegment( lats[from], lons[from], lats[to], lons[to], lats[i], lons[i] );
+				assertTrue("Point " + i + " is " + d + " m away", d <= tolerance);
+			}
+		}
+	}
+
+	/**
+	 * @param points collects the timestamps of the points kept.
+	 * @return A listener that collects the points kept.
+	 */
+	private static TrackPointListener collector (final Vector points)
+	{
+		return new TrackPointListener()
+			{
+				public void pointKept (double latitude, double longitude, long timestamp, float accuracy)
+				{
+					points.addElement( new Long(timestamp) );
+				}
+			};
+	}
+}
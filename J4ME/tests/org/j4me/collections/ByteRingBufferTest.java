@@ -0,0 +1,143 @@
+package org.j4me.collections;
+
+import java.io.*;
+import org.j4me.*;
+import j2meunit.framework.*;
+
+/**
+ * Tests the <code>ByteRingBuffer</code> class.  It is a fixed size queue of
+ * bytes that can be filled from a stream and consumed in place.
+ *
+ * @see org.j4me.collections.ByteRingBuffer
+ */
+public class ByteRingBufferTest
+	extends J4METestCase
+{
+	public ByteRingBufferTest ()
+	{
+		super();
+	}
+
+	public ByteRingBufferTest (String name, TestMethod method)
+	{
+		super( name, method );
+	}
+
+	public Test suite ()
+	{
+		TestSuite suite = new TestSuite();
+
+		suite.addTest(new ByteRingBufferTest("testWriteAndRead", new TestMethod()
+				{ public void run(TestCase tc) {((ByteRingBufferTest) tc).testWriteAndRead(); } }));
+		suite.addTest(new ByteRingBufferTest("testWrapAround", new TestMethod()
+				{ public void run(TestCase tc) {((ByteRingBufferTest) tc).testWrapAround(); } }));
+		suite.addTest(new ByteRingBufferTest("testReadFromStream", new TestMethod()
+				{ public void run(TestCase tc) {((ByteRingBufferTest) tc).testReadFromStream(); } }));
+
+		return suite;
+	}
+
+	/**
+	 * Tests bytes come out in the same order they went in and the buffer
+	 * stops accepting bytes once it is full.
+	 */
+	public void testWriteAndRead ()
+	{
+		ByteRingBuffer buffer = new ByteRingBuffer( 8 );
+		assertEquals("Empty to start", 0, buffer.size());
+		assertEquals("Capacity", 8, buffer.getCapacity());
+
+		byte[] data = "abcdefghij".getBytes();
+		int written = buffer.write( data, 0, data.length );
+		assertEquals("Only the capacity is written", 8, written);
+		assertEquals("Full", 0, buffer.getFreeSpace());
+
+		byte[] out = new byte[10];
+		int read = buffer.read( out, 0, 3 );
+		assertEquals("Read part", 3, read);
+		assertEquals("First bytes", "abc", new String(out, 0, 3));
+
+		read = buffer.read( out, 0, out.length );
+		assertEquals("Read the rest", 5, read);
+		assertEquals("Last bytes", "defgh", new String(out, 0, 5));
+		assertEquals("Empty again", 0, buffer.size());
+
+		try
+		{
+			buffer.skip( 1 );
+			fail("Cannot skip more than the size");
+		}
+		catch (IndexOutOfBoundsException e)
+		{
+			// Expected.
+		}
+	}
+
+	/**
+	 * Tests data that wraps around the end of the array is consumed in
+	 * two contiguous pieces.
+	 */
+	public void testWrapAround ()
+	{
+		ByteRingBuffer buffer = new ByteRingBuffer( 8 );
+		byte[] data = "abcdefgh".getBytes();
+
+		buffer.write( data, 0, 6 );
+		buffer.skip( 5 );
+		buffer.write( data, 0, 7 );  // "f" then "abcdefg" wrapping around
+		assertEquals("Size", 8, buffer.size());
+
+		assertEquals("Read index", 5, buffer.getReadIndex());
+		assertEquals("First piece", 3, buffer.getContiguousSize());
+		assertEquals("First piece contents", "fab", new String(buffer.getArray(), buffer.getReadIndex(), 3));
+		buffer.skip( 3 );
+
+		assertEquals("Second piece starts at the beginning", 0, buffer.getReadIndex());
+		assertEquals("Second piece", 5, buffer.getContiguousSize());
+		assertEquals("Second piece contents", "cdefg", new String(buffer.getArray(), 0, 5));
+		buffer.skip( 5 );
+
+		assertEquals("Empty", 0, buffer.size());
+	}
+
+	/**
+	 * Tests reading from a stream places bytes directly into the buffer
+	 * and fills the free space at the end before wrapping.
+	 */
+	public void testReadFromStream ()
+	{
+		try
+		{
+			ByteArrayInputStream in = new ByteArrayInputStream( "0123456789".getBytes() );
+			ByteRingBuffer buffer = new ByteRingBuffer( 8 );
+
+			buffer.write( "xyz".getBytes(), 0, 3 );
+			buffer.skip( 2 );
+
+			int read = buffer.read( in );
+			assertEquals("Fills to the end of the array", 5, read);
+			assertEquals("Size", 6, buffer.size());
+
+			read = buffer.read( in );
+			assertEquals("Wraps to fill the rest", 2, read);
+
+			read = buffer.read( in );
+			assertEquals("Full", 0, read);
+
+			byte[] out = new byte[8];
+			buffer.read( out, 0, out.length );
+			assertEquals("Contents", "z0123456", new String(out));
+
+			read = buffer.read( in );
+			assertEquals("Empty buffer reads from the start", 3, read);
+			assertEquals("Read index", 0, buffer.getReadIndex());
+
+			read = buffer.read( in );
+			assertEquals("End of stream", -1, read);
+		}
+		catch (IOException e)
+		{
+			fail( e.toString() );
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package org.j4me.util;
+
+import java.util.*;
+import org.j4me.*;
+import j2meunit.framework.*;
+
+/**
+ * Tests the <code>DeadlineScheduler</code> class.  It fires time limits on
+ * blocking operations for the whole library from a single thread.
+ *
+ * @see org.j4me.util.DeadlineScheduler
+ */
+public class DeadlineSchedulerTest
+	extends J4METestCase
+{
+	public DeadlineSchedulerTest ()
+	{
+		super();
+	}
+
+	public DeadlineSchedulerTest (String name, TestMethod method)
+	{
+		super( name, method );
+	}
+
+	public Test suite ()
+	{
+		TestSuite suite = new TestSuite();
+
+		suite.addTest(new DeadlineSchedulerTest("testOrder", new TestMethod()
+				{ public void run(TestCase tc) {((DeadlineSchedulerTest) tc).testOrder(); } }));
+		suite.addTest(new DeadlineSchedulerTest("testCancel", new TestMethod()
+				{ public void run(TestCase tc) {((DeadlineSchedulerTest) tc).testCancel(); } }));
+		suite.addTest(new DeadlineSchedulerTest("testReschedule", new TestMethod()
+				{ public void run(TestCase tc) {((DeadlineSchedulerTest) tc).testReschedule(); } }));
+		suite.addTest(new DeadlineSchedulerTest("testInterrupt", new TestMethod()
+				{ public void run(TestCase tc) {((DeadlineSchedulerTest) tc).testInterrupt(); } }));
+
+		return suite;
+	}
+
+	/**
+	 * Tests deadlines fire in the order they are due no matter the order
+	 * they were scheduled in.
+	 */
+	public void testOrder ()
+	{
+		DeadlineScheduler scheduler = new DeadlineScheduler();
+		Vector fired = new Vector();
+
+		scheduler.schedule( new Deadline(new Recorder(fired, "c")), 150 );
+		scheduler.schedule( new Deadline(new Recorder(fired, "a")), 50 );
+		scheduler.schedule( new Deadline(new Recorder(fired, "d")), 200 );
+		scheduler.schedule( new Deadline(new Recorder(fired, "b")), 100 );
+		assertEquals("Four deadlines are waiting.", 4, scheduler.getActiveCount());
+
+		sleep( 400 );
+
+		assertEquals("Every deadline fired.", 4, fired.size());
+		assertEquals("The first one due fired first.", "a", fired.elementAt(0));
+		assertEquals("The second one due fired second.", "b", fired.elementAt(1));
+		assertEquals("The third one due fired third.", "c", fired.elementAt(2));
+		assertEquals("The last one due fired last.", "d", fired.elementAt(3));
+		assertEquals("None are waiting.", 0, scheduler.getActiveCount());
+		assertEquals("The fired count is kept.", 4, scheduler.getFiredCount());
+	}
+
+	/**
+	 * Tests cancelled deadlines never fire, including ones in the middle of
+	 * the queue.
+	 */
+	public void testCancel ()
+	{
+		DeadlineScheduler scheduler = new DeadlineScheduler();
+		Vector fired = new Vector();
+
+		Deadline a = new Deadline( new Recorder(fired, "a") );
+		Deadline b = new Deadline( new Recorder(fired, "b") );
+		Deadline c = new Deadline( new Recorder(fired, "c") );
+		scheduler.schedule( a, 50 );
+		scheduler.schedule( b, 100 );
+		scheduler.schedule( c, 150 );
+
+		assertTrue("Cancelling a waiting deadline succeeds.", scheduler.cancel(b));
+		assertFalse("The cancelled deadline is no longer active.", b.isActive());
+		assertFalse("Cancelling twice does nothing.", scheduler.cancel(b));
+		assertEquals("Two deadlines are waiting.", 2, scheduler.getActiveCount());
+
+		sleep( 300 );
+
+		assertEquals("Only the others fired.", 2, fired.size());
+		assertEquals("The first fired.", "a", fired.elementAt(0));
+		assertEquals("The last fired.", "c", fired.elementAt(1));
+		assertTrue("The deadline knows it fired.", a.hasFired());
+		assertFalse("The cancelled deadline did not fire.", b.hasFired());
+		assertFalse("A deadline that fired cannot be cancelled.", scheduler.cancel(a));
+		assertEquals("The fired count is kept.", 2, scheduler.getFiredCount());
+	}
+
+	/**
+	 * Tests re-arming a deadline moves it instead of adding it again.  This
+	 * is how the Bluetooth reader uses one deadline for every read.
+	 */
+	public void testReschedule ()
+	{
+		DeadlineScheduler scheduler = new DeadlineScheduler();
+		Vector fired = new Vector();
+		Deadline d = new Deadline( new Recorder(fired, "d") );
+
+		for ( int i = 0; i < 5; i++ )
+		{
+			scheduler.schedule( d, 100 );
+			assertEquals("The deadline is only queued once.", 1, scheduler.getActiveCount());
+			sleep( 40 );
+		}
+
+		assertEquals("Pushing the deadline back kept it from firing.", 0, fired.size());
+
+		scheduler.schedule( d, 10 );
+		sleep( 150 );
+
+		assertEquals("Moving it sooner makes it fire sooner.", 1, fired.size());
+		assertTrue("It fired.", d.hasFired());
+
+		scheduler.schedule( d, 1000 );
+		assertFalse("Scheduling it again clears the fired flag.", d.hasFired());
+		scheduler.cancel( d );
+	}
+
+	/**
+	 * Tests a deadline interrupts a thread blocked for too long.
+	 */
+	public void testInterrupt ()
+	{
+		DeadlineScheduler scheduler = new DeadlineScheduler();
+		Deadline d = new Deadline( Thread.currentThread() );
+
+		long start = System.currentTimeMillis();
+		scheduler.schedule( d, 50 );
+
+		try
+		{
+			Thread.sleep( 5000 );
+			fail("The sleep should have been interrupted.");
+		}
+		catch (InterruptedException e)
+		{
+			// Expected.
+		}
+
+		long elapsed = System.currentTimeMillis() - start;
+		assertTrue("The thread was interrupted at the deadline.", elapsed < 1000);
+		assertTrue("The deadline knows it fired.", d.hasFired());
+		assertEquals("The fired count is kept.", 1, scheduler.getFiredCount());
+	}
+
+	/**
+	 * Sleeps the test thread.
+	 *
+	 * @param millis is how long to sleep.
+	 */
+	private void sleep (long millis)
+	{
+		try
+		{
+			Thread.sleep( millis );
+		}
+		catch (InterruptedException e)
+		{
+			fail( e.toString() );
+		}
+	}
+
+	/**
+	 * Records the name of each deadline as it fires.
+	 */
+	private static final class Recorder
+		implements Runnable
+	{
+		private final Vector fired;
+		private final String name;
+
+		public Recorder (Vector fired, String name)
+		{
+			this.fired = fired;
+			this.name = name;
+		}
+
+		public void run ()
+		{
+			fired.addElement( name );
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package org.j4me.util;
+
+import j2meunit.framework.*;
+import org.j4me.*;
+
+/**
+ * Tests the <code>Histogram</code> class.  It counts values in buckets that
+ * double in size.
+ *
+ * @see org.j4me.util.Histogram
+ */
+public class HistogramTest
+	extends J4METestCase
+{
+	public HistogramTest ()
+	{
+		super();
+	}
+
+	public HistogramTest (String name, TestMethod method)
+	{
+		super( name, method );
+	}
+
+	public Test suite ()
+	{
+		TestSuite suite = new TestSuite();
+
+		suite.addTest(new HistogramTest("testBuckets", new TestMethod()
+				{ public void run(TestCase tc) {((HistogramTest) tc).testBuckets(); } }));
+		suite.addTest(new HistogramTest("testPercentile", new TestMethod()
+				{ public void run(TestCase tc) {((HistogramTest) tc).testPercentile(); } }));
+		suite.addTest(new HistogramTest("testReset", new TestMethod()
+				{ public void run(TestCase tc) {((HistogramTest) tc).testReset(); } }));
+
+		return suite;
+	}
+
+	/**
+	 * Tests values go in the right bucket.
+	 */
+	public void testBuckets ()
+	{
+		assertEquals("0", 0, Histogram.getBucket(0));
+		assertEquals("1", 1, Histogram.getBucket(1));
+		assertEquals("2", 2, Histogram.getBucket(2));
+		assertEquals("3", 2, Histogram.getBucket(3));
+		assertEquals("4", 3, Histogram.getBucket(4));
+		assertEquals("1000", 10, Histogram.getBucket(1000));
+		assertEquals("Huge", Histogram.BUCKETS - 1, Histogram.getBucket(Long.MAX_VALUE));
+
+		assertEquals("Start of 0", 0, Histogram.getBucketStart(0));
+		assertEquals("Start of 1", 1, Histogram.getBucketStart(1));
+		assertEquals("Start of 10", 512, Histogram.getBucketStart(10));
+
+		Histogram h = new Histogram();
+		h.record( -5 );
+		h.record( 3 );
+		h.record( 2 );
+
+		assertEquals("Negative is 0", 1, h.getBucketCount(0));
+		assertEquals("2 and 3", 2, h.getBucketCount(2));
+	}
+
+	/**
+	 * Tests the percentiles, mean and maximum.
+	 */
+	public void testPercentile ()
+	{
+		Histogram h = new Histogram();
+		assertEquals("Empty", 0, h.getPercentile(50));
+		assertEquals("Empty mean", 0, h.getMean());
+
+		// 90 fast values and 10 slow ones.
+		for ( int i = 0; i < 90; i++ )
+		{
+			h.record( 20 );
+		}
+
+		for ( int i = 0; i < 10; i++ )
+		{
+			h.record( 1000 );
+		}
+
+		assertEquals("Count", 100, h.getCount());
+		assertEquals("Mean", 118, h.getMean());
+		assertEquals("Max", 1000, h.getMax());
+		assertEquals("Median is top of 16-31", 31, h.getPercentile(50));
+		assertEquals("90th", 31, h.getPercentile(90));
+		assertEquals("95th is capped at the max", 1000, h.getPercentile(95));
+		assertEquals("100th", 1000, h.getPercentile(100));
+	}
+
+	/**
+	 * Tests reset forgets every value.
+	 */
+	public void testReset ()
+	{
+		Histogram h = new Histogram();
+		h.record( 100 );
+		h.reset();
+
+		assertEquals("Count", 0, h.getCount());
+		assertEquals("Max", 0, h.getMax());
+		assertEquals("Bucket", 0, h.getBucketCount(Histogram.getBucket(100)));
+		assertEquals("Summary", "n=0 mean=0 p50=0 p95=0 max=0", h.toString());
+	}
+}